@@ -0,0 +1,27 @@
+#!/usr/bin/env bash
+# Measure the total training time with validation every 1, 2 and 5 epochs, with blocking and with asynchronous
+# validation (--async-validation). usage: benchmark-validation.sh train-genotype.sh 10g [training arguments]
+if [ "$#" -lt 2 ]; then
+   echo "Argument missing. usage: benchmark-validation.sh train-genotype.sh 10g -t train.sbi -v validation.sbi --max-epochs 10"
+   exit 1;
+fi
+TRAIN_SCRIPT=`dirname "${BASH_SOURCE[0]}"`/$1
+shift
+MEMORY=$1
+shift
+
+printf "validate-every\tvalidation\tseconds\n"
+for VALIDATE_EVERY in 1 2 5; do
+    for MODE in blocking async; do
+        if [ "${MODE}" == "async" ]; then
+            ASYNC_OPTION="--async-validation"
+        else
+            ASYNC_OPTION=""
+        fi
+        START=`date +%s`
+        ${TRAIN_SCRIPT} ${MEMORY} "$@" --validate-every ${VALIDATE_EVERY} ${ASYNC_OPTION} \
+            >benchmark-validation-${VALIDATE_EVERY}-${MODE}.log 2>&1
+        END=`date +%s`
+        printf "%d\t%s\t%d\n" ${VALIDATE_EVERY} ${MODE} $((END - START))
+    done
+done
@@ -0,0 +1,42 @@
+#!/usr/bin/env bash
+# Check that training interrupted mid-epoch and resumed with --resume ends with the same parameters as training that
+# was not interrupted. Training runs once to completion, then again until it is killed after KILL_AFTER seconds, and
+# is resumed from its last checkpoint. The coefficients of the latest models of both runs are compared.
+# usage: test-resume.sh train-genotype.sh 10g KILL_AFTER -t train.sbi -v validation.sbi --max-epochs 2
+if [ "$#" -lt 3 ]; then
+   echo "Argument missing. usage: test-resume.sh train-genotype.sh 10g 120 -t train.sbi -v validation.sbi --max-epochs 2"
+   exit 1;
+fi
+TRAIN_SCRIPT=`dirname "${BASH_SOURCE[0]}"`/$1
+shift
+MEMORY=$1
+shift
+KILL_AFTER=$1
+shift
+OPTIONS="--random-seed 1234 --checkpoint-every 10"
+
+model_directory() {
+    grep "model directory:" $1 | head -1 | awk '{print $3}'
+}
+
+${TRAIN_SCRIPT} ${MEMORY} "$@" ${OPTIONS} >test-resume-uninterrupted.log 2>&1
+UNINTERRUPTED=`model_directory test-resume-uninterrupted.log`
+
+timeout -s KILL ${KILL_AFTER} ${TRAIN_SCRIPT} ${MEMORY} "$@" ${OPTIONS} >test-resume-interrupted.log 2>&1
+INTERRUPTED=`model_directory test-resume-interrupted.log`
+if [ ! -e "${INTERRUPTED}/checkpoint-ComputationGraph.bin" ]; then
+   echo "No checkpoint was written in ${INTERRUPTED} before training was killed. Increase KILL_AFTER."
+   exit 1;
+fi
+${TRAIN_SCRIPT} ${MEMORY} "$@" ${OPTIONS} --resume ${INTERRUPTED} >test-resume-resumed.log 2>&1
+
+rm -rf test-resume-models
+mkdir -p test-resume-models/uninterrupted test-resume-models/resumed
+unzip -q -o ${UNINTERRUPTED}/latest-ComputationGraph.bin coefficients.bin -d test-resume-models/uninterrupted
+unzip -q -o ${INTERRUPTED}/latest-ComputationGraph.bin coefficients.bin -d test-resume-models/resumed
+if cmp -s test-resume-models/uninterrupted/coefficients.bin test-resume-models/resumed/coefficients.bin; then
+    echo "PASS: resumed training ended with the parameters of uninterrupted training."
+else
+    echo "FAIL: parameters differ between ${UNINTERRUPTED} and ${INTERRUPTED}."
+    exit 1;
+fi
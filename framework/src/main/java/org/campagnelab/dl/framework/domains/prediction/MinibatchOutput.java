@@ -0,0 +1,137 @@
+package org.campagnelab.dl.framework.domains.prediction;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * The values of one model output (or of the true labels of this output) for a whole minibatch, copied once from the
+ * INDArray to a primitive array. The index and value of the maximum of each example (or of each time step of each
+ * example, for outputs with three dimensions) are computed for the whole minibatch when the output is loaded, so that
+ * interpreters do not call into the INDArray once per class and per example. Instances are meant to be reused across
+ * minibatches: arrays are only re-allocated when a larger minibatch is loaded.
+ *
+ * @author Fabien Campagne
+ */
+public class MinibatchOutput {
+    private INDArray output;
+    private float[] values = new float[0];
+    private int numExamples;
+    private int numColumns;
+    private int numSteps;
+    private int[] argMax = new int[0];
+    private float[] max = new float[0];
+
+    /**
+     * Load the output of a model for a minibatch. The output must have two dimensions (examples, columns) or three
+     * dimensions (examples, columns, time steps).
+     *
+     * @param output model output, or true labels.
+     * @return this instance.
+     */
+    public MinibatchOutput load(INDArray output) {
+        this.output = output;
+        final int[] shape = output.shape();
+        if (shape.length != 2 && shape.length != 3) {
+            throw new IllegalArgumentException("Only outputs with two or three dimensions are supported, found " +
+                    shape.length);
+        }
+        numExamples = shape[0];
+        numColumns = shape[1];
+        numSteps = shape.length == 3 ? shape[2] : 1;
+        INDArray contiguous = output.ordering() == 'c' && !output.isView() && output.data().length() == output.length() ?
+                output : output.dup('c');
+        final int length = numExamples * numColumns * numSteps;
+        if (values.length < length) {
+            values = new float[length];
+        }
+        final DataBuffer data = contiguous.data();
+        final int offset = (int) contiguous.offset();
+        for (int i = 0; i < length; i++) {
+            values[i] = data.getFloat(offset + i);
+        }
+        final int numMaxima = numExamples * numSteps;
+        if (argMax.length < numMaxima) {
+            argMax = new int[numMaxima];
+            max = new float[numMaxima];
+        }
+        for (int example = 0; example < numExamples; example++) {
+            for (int step = 0; step < numSteps; step++) {
+                int maxIndex = 0;
+                float maxValue = get(example, 0, step);
+                for (int column = 1; column < numColumns; column++) {
+                    final float value = get(example, column, step);
+                    if (value > maxValue) {
+                        maxIndex = column;
+                        maxValue = value;
+                    }
+                }
+                argMax[example * numSteps + step] = maxIndex;
+                max[example * numSteps + step] = maxValue;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Return the INDArray last loaded, for interpreters that need it.
+     */
+    public INDArray getOutput() {
+        return output;
+    }
+
+    public int numExamples() {
+        return numExamples;
+    }
+
+    public int numColumns() {
+        return numColumns;
+    }
+
+    public int numSteps() {
+        return numSteps;
+    }
+
+    public float get(int example, int column) {
+        return values[example * numColumns * numSteps + column * numSteps];
+    }
+
+    public float get(int example, int column, int step) {
+        return values[(example * numColumns + column) * numSteps + step];
+    }
+
+    /**
+     * Return the index of the column with the largest value for the example. Ties are resolved to the first column.
+     */
+    public int argMax(int example) {
+        return argMax[example * numSteps];
+    }
+
+    public float max(int example) {
+        return max[example * numSteps];
+    }
+
+    public int argMax(int example, int step) {
+        return argMax[example * numSteps + step];
+    }
+
+    public float max(int example, int step) {
+        return max[example * numSteps + step];
+    }
+
+    /**
+     * Return the index of the largest value among the first numColumns columns of the example. Equivalent to
+     * argMax(example) when numColumns is the number of columns of the output.
+     */
+    public int argMaxOfFirst(int example, int numColumns) {
+        if (numColumns == this.numColumns) {
+            return argMax(example);
+        }
+        int maxIndex = 0;
+        for (int column = 1; column < numColumns; column++) {
+            if (get(example, column) > get(example, maxIndex)) {
+                maxIndex = column;
+            }
+        }
+        return maxIndex;
+    }
+}
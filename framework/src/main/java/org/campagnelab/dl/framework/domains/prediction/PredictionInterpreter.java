@@ -25,4 +25,30 @@ public interface PredictionInterpreter<RecordType, PredictionType extends Predic
      * @return Interpreted prediction.
      */
     PredictionType interpret(RecordType record, INDArray output);
+
+    /**
+     * Interpret the prediction for one example of a minibatch given true labels for the whole minibatch.
+     * Implementations should override this method to read the values of the minibatch output, rather than the
+     * INDArray. The default implementation delegates to interpret(INDArray, INDArray, int).
+     * @param trueLabels True labels for the model output to be interpreted, for the whole minibatch.
+     * @param output   Model output to be interpreted, for the whole minibatch.
+     * @param predictionIndex Index of the example being predicted, in the mini-batch.
+     * @return Interpreted prediction.
+     */
+    default PredictionType interpret(MinibatchOutput trueLabels, MinibatchOutput output, int predictionIndex) {
+        return interpret(trueLabels.getOutput(), output.getOutput(), predictionIndex);
+    }
+
+    /**
+     * Interpret the prediction for one example of a minibatch given its record. Implementations should override this
+     * method to read the values of the minibatch output, rather than the INDArray. The default implementation
+     * delegates to interpret(RecordType, INDArray) with the slice of the output for the example.
+     * @param record The record, which can be mapped to true labels with a labelMapper.
+     * @param output Model output for the whole minibatch.
+     * @param exampleIndex Index of the record in the mini-batch.
+     * @return Interpreted prediction.
+     */
+    default PredictionType interpret(RecordType record, MinibatchOutput output, int exampleIndex) {
+        return interpret(record, output.getOutput().slice(exampleIndex));
+    }
 }
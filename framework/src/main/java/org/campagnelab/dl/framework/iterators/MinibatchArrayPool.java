@@ -0,0 +1,167 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Preallocated minibatch arrays, reused across minibatches instead of allocating new off-heap buffers for each one.
+ * Arrays are kept per shape, in 'f' order. An array obtained from the pool belongs to the caller until it is released
+ * with release, for instance after the minibatch has been used to fit or to predict. Arrays that are never released
+ * are simply not reused. Releasing an array that was not obtained from the pool, or that was already released, has no
+ * effect.
+ * <p>
+ * The all-ones masks returned by ones are shared by all minibatches of the same shape and must not be modified.
+ * <p>
+ * The pool is thread-safe: minibatches can be mapped on one thread and released on another.
+ *
+ * @author Fabien Campagne
+ */
+public class MinibatchArrayPool {
+    private final int capacityPerShape;
+    private final Map<IntArrayList, ArrayDeque<INDArray>> free = new HashMap<>();
+    private final Set<INDArray> borrowed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<IntArrayList, INDArray> ones = new HashMap<>();
+    private long numAllocated;
+    private long numReused;
+    private long bytesAllocated;
+
+    /**
+     * @param capacityPerShape maximum number of released arrays kept for each shape. Use at least the number of
+     *                         minibatches in flight (e.g., the prefetch queue size plus one). Zero disables reuse.
+     */
+    public MinibatchArrayPool(int capacityPerShape) {
+        this.capacityPerShape = capacityPerShape;
+    }
+
+    /**
+     * Return an array of the given shape, where all values are zero.
+     */
+    public INDArray zeros(int[] shape) {
+        INDArray array = take(shape);
+        if (array == null) {
+            return allocate(shape);
+        }
+        array.assign(0);
+        return array;
+    }
+
+    /**
+     * Return an array of the given shape, with the values of an 'f' order buffer.
+     *
+     * @param values values of the array, in 'f' order.
+     * @param shape  shape of the array.
+     */
+    public INDArray create(float[] values, int[] shape) {
+        INDArray array = take(shape);
+        if (array == null) {
+            array = Nd4j.create(values, shape, 'f');
+            register(array);
+            return array;
+        }
+        array.data().setData(values);
+        return array;
+    }
+
+    /**
+     * Return a constant array of ones of the given shape. The array is shared and must not be modified. It is never
+     * released.
+     */
+    public synchronized INDArray ones(int... shape) {
+        return ones.computeIfAbsent(IntArrayList.wrap(shape.clone()), key -> Nd4j.ones(key.toIntArray()));
+    }
+
+    /**
+     * Return an array to the pool. The array must no longer be used by the caller.
+     */
+    public synchronized void release(INDArray array) {
+        if (array == null || !borrowed.remove(array)) {
+            return;
+        }
+        ArrayDeque<INDArray> arrays = free.computeIfAbsent(IntArrayList.wrap(array.shape().clone()),
+                key -> new ArrayDeque<>());
+        if (arrays.size() < capacityPerShape) {
+            arrays.add(array);
+        }
+    }
+
+    /**
+     * Return the features, labels and masks of a minibatch to the pool.
+     */
+    public void release(MultiDataSet minibatch) {
+        release(minibatch.getFeatures());
+        release(minibatch.getLabels());
+        release(minibatch.getFeaturesMaskArrays());
+        release(minibatch.getLabelsMaskArrays());
+    }
+
+    /**
+     * Return the features, labels and masks of a minibatch to the pool.
+     */
+    public void release(DataSet minibatch) {
+        release(minibatch.getFeatures());
+        release(minibatch.getLabels());
+        release(minibatch.getFeaturesMaskArray());
+        release(minibatch.getLabelsMaskArray());
+    }
+
+    public void release(INDArray[] arrays) {
+        if (arrays != null) {
+            for (INDArray array : arrays) {
+                release(array);
+            }
+        }
+    }
+
+    /**
+     * Return the number of arrays allocated by the pool.
+     */
+    public synchronized long getNumAllocated() {
+        return numAllocated;
+    }
+
+    /**
+     * Return the number of times a released array was reused.
+     */
+    public synchronized long getNumReused() {
+        return numReused;
+    }
+
+    /**
+     * Return the number of bytes of the arrays allocated by the pool.
+     */
+    public synchronized long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    private synchronized INDArray take(int[] shape) {
+        ArrayDeque<INDArray> arrays = free.get(IntArrayList.wrap(shape));
+        INDArray array = arrays == null ? null : arrays.poll();
+        if (array != null) {
+            borrowed.add(array);
+            numReused++;
+        }
+        return array;
+    }
+
+    private INDArray allocate(int[] shape) {
+        INDArray array = Nd4j.create(shape, 'f');
+        register(array);
+        return array;
+    }
+
+    private synchronized void register(INDArray array) {
+        borrowed.add(array);
+        numAllocated++;
+        bytesAllocated += array.length() * (long) Float.BYTES;
+    }
+}
@@ -4,7 +4,11 @@ import org.campagnelab.dl.framework.mappers.LabelMapper;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.CompiledFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.SequenceFeatureMapper;
+import org.campagnelab.dl.framework.mappers.SequenceLabelMapper;
+import org.campagnelab.dl.framework.mappers.SparseFeatureMapper;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
@@ -12,8 +16,17 @@ import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Make a multi dataset iterator from an iterable over records.
@@ -25,6 +38,13 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
     private Iterator<RecordType> recordIterator;
     private boolean isPretrained;
     private Integer eosIndex;
+    private final Map<String, FeatureMapper> featureMapperOverrides = new HashMap<>();
+    private ExecutorService mappingExecutor;
+    private ThreadLocal<WorkerMappers> workerMappers;
+    private int numMappingThreads = 1;
+    private boolean compileMappers;
+    private final Map<FeatureMapper, FeatureMapper> compiledMappers = new IdentityHashMap<>();
+    private MinibatchArrayPool arrayPool;
 
     protected long totalExamples;
 
@@ -49,12 +69,65 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
 
     abstract public String getBasename();
 
+    /**
+     * Map an input with the specified mapper rather than with the feature mapper of the domain descriptor. The
+     * mapper must produce features of the same dimensions.
+     *
+     * @param inputName     name of a graph input.
+     * @param featureMapper mapper to use for this input.
+     */
+    public void setFeatureMapper(String inputName, FeatureMapper featureMapper) {
+        featureMapperOverrides.put(inputName, featureMapper);
+    }
+
+    /**
+     * Map features with compiled plans of the feature mappers (see CompiledFeatureMapper), rather than with the mapper
+     * trees. Features are identical.
+     *
+     * @param compileMappers true to compile the feature mappers.
+     */
+    public void setCompileMappers(boolean compileMappers) {
+        this.compileMappers = compileMappers;
+    }
+
+    public boolean isCompileMappers() {
+        return compileMappers;
+    }
+
+    /**
+     * Create the arrays of minibatches with a pool, rather than allocating new arrays for each minibatch. Missing
+     * masks are then shared all-ones arrays. Minibatches should be released to the pool once they have been used
+     * (e.g., after fit or output), and must not be kept after they are released.
+     *
+     * @param arrayPool pool to obtain arrays from, or null to allocate new arrays.
+     */
+    public void setArrayPool(MinibatchArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
+    public MinibatchArrayPool getArrayPool() {
+        return arrayPool;
+    }
+
     public MultiDataSet next(int batchSize) {
         ObjectList<RecordType> buffer = new ObjectArrayList<RecordType>();
         // allocate a new dataset with batchSize records and fill it with features and labels.
         while (recordIterator.hasNext() && buffer.size() < this.batchSize) {
             buffer.add(recordIterator.next());
         }
+        final MultiDataSet result = mapRecords(buffer);
+        if (preProcessor != null) preProcessor.preProcess(result);
+        return result;
+    }
+
+    /**
+     * Map a list of records to a multi dataset, using the feature and label mappers of this adapter's domain
+     * descriptor. The pre-processor is not applied.
+     *
+     * @param buffer records to map, one per example of the multi dataset.
+     * @return multi dataset with buffer.size() examples.
+     */
+    public MultiDataSet mapRecords(List<RecordType> buffer) {
         int size = buffer.size();
 
         // allocate features and labels for the entire dataset:
@@ -66,11 +139,9 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
         final int numLabels = domainDescriptor.getComputationalGraph().getOutputNames().length;
         int numOutputs = numLabels;
 
-        INDArray inputs[] = new INDArray[numInputs];
-        INDArray inputMasks[] = new INDArray[numInputs];
-        INDArray labels[] = new INDArray[numLabels];
-        INDArray labelMasks[] = new INDArray[numLabels];
+        Minibatch minibatch = new Minibatch(numInputs, numLabels);
         FeatureMapper[] featureMappers = new FeatureMapper[numInputs];
+        FeatureMapper[] overrides = new FeatureMapper[numInputs];
         LabelMapper[] labelMappers = new LabelMapper[numOutputs];
         int index = 0;
         boolean hasFeatureMask = false;
@@ -84,41 +155,95 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                 }
                 inputShape[1]++;
             }
-            inputs[index] = Nd4j.create(inputShape,'f');
-            featureMappers[index] = domainDescriptor.getFeatureMapper(input);
+            featureMappers[index] = featureMapperOverrides.containsKey(input) ? featureMapperOverrides.get(input) :
+                    domainDescriptor.getFeatureMapper(input);
+            if (compileMappers) {
+                featureMappers[index] = compiledMappers.computeIfAbsent(featureMappers[index], CompiledFeatureMapper::compile);
+            }
+            if (featureMapperOverrides.containsKey(input)) {
+                overrides[index] = featureMappers[index];
+            }
+            minibatch.inputShapes[index] = inputShape;
+            if (inputShape.length == 2 && featureMappers[index].dimensions().numDimensions() == 1) {
+                minibatch.numFeatures[index] = inputShape[1];
+                minibatch.rows[index] = new float[size * minibatch.numFeatures[index]];
+                minibatch.columns[index] = featureMappers[index] instanceof SparseFeatureMapper;
+            } else if (inputShape.length == 3 && !padEos && featureMappers[index] instanceof SequenceFeatureMapper) {
+                minibatch.sequences[index] = new float[size * inputShape[1] * inputShape[2]];
+            } else {
+                minibatch.inputs[index] = zeros(inputShape);
+            }
             boolean needMask = featureMappers[index].hasMask();
-            inputMasks[index] = needMask ? Nd4j.create(domainDescriptor.getInputMaskShape(size, input),'f') : null;
+            if (needMask) {
+                int[] maskShape = domainDescriptor.getInputMaskShape(size, input);
+                if (minibatch.sequences[index] != null && maskShape.length == 2) {
+                    minibatch.inputMaskShapes[index] = maskShape;
+                    minibatch.sequenceMasks[index] = new float[maskShape[0] * maskShape[1]];
+                } else {
+                    minibatch.inputMasks[index] = zeros(maskShape);
+                }
+            }
             index += 1;
             hasFeatureMask |= needMask;
         }
         index = 0;
         for (String label : domainDescriptor.getComputationalGraph().getOutputNames()) {
-            labels[index] = Nd4j.create(domainDescriptor.getLabelShape(size, label),'f');
+            int[] labelShape = domainDescriptor.getLabelShape(size, label);
             labelMappers[index] = domainDescriptor.getLabelMapper(label);
+            minibatch.labelShapes[index] = labelShape;
+            if (labelShape.length == 2 && labelMappers[index].dimensions().numDimensions() == 1) {
+                minibatch.numLabelColumns[index] = labelShape[1];
+                minibatch.labelRows[index] = new float[size * minibatch.numLabelColumns[index]];
+            } else if (labelShape.length == 3 && labelMappers[index] instanceof SequenceLabelMapper) {
+                minibatch.labelSequences[index] = new float[size * labelShape[1] * labelShape[2]];
+            } else {
+                minibatch.labels[index] = zeros(labelShape);
+            }
             boolean needMask = labelMappers[index].hasMask();
-            labelMasks[index] = needMask ? Nd4j.create(domainDescriptor.getLabelMaskShape(size, label),'f') : null;
+            if (needMask) {
+                int[] maskShape = domainDescriptor.getLabelMaskShape(size, label);
+                if (minibatch.labelSequences[index] != null && maskShape.length == 2) {
+                    minibatch.labelMaskShapes[index] = maskShape;
+                    minibatch.labelSequenceMasks[index] = new float[maskShape[0] * maskShape[1]];
+                } else {
+                    minibatch.labelMasks[index] = zeros(maskShape);
+                }
+            }
             index++;
             hasLabelMask |= needMask;
         }
-        int recordIndexInBatch = 0;
-        for (RecordType record : buffer) {
-
-            for (int j = 0; j < numInputs; j++) {
-                featureMappers[j].prepareToNormalize(record, recordIndexInBatch);
-                featureMappers[j].mapFeatures(record, inputs[j], recordIndexInBatch);
-                if (featureMappers[j].hasMask()) {
-                    featureMappers[j].maskFeatures(record, inputMasks[j], recordIndexInBatch);
-                }
+        if (mappingExecutor != null && size > 1) {
+            mapInParallel(buffer, overrides, minibatch);
+        } else {
+            mapRange(buffer, 0, size, featureMappers, labelMappers, minibatch);
+        }
+        INDArray inputs[] = minibatch.inputs;
+        INDArray inputMasks[] = minibatch.inputMasks;
+        INDArray labels[] = minibatch.labels;
+        INDArray labelMasks[] = minibatch.labelMasks;
+        for (int j = 0; j < numInputs; j++) {
+            if (minibatch.columns[j]) {
+                inputs[j] = create(minibatch.rows[j], new int[]{size, minibatch.numFeatures[j]});
+            } else if (minibatch.rows[j] != null) {
+                inputs[j] = create(toColumns(minibatch.rows[j], size, minibatch.numFeatures[j]),
+                        new int[]{size, minibatch.numFeatures[j]});
+            } else if (minibatch.sequences[j] != null) {
+                inputs[j] = create(minibatch.sequences[j], minibatch.inputShapes[j]);
             }
-            for (int j = 0; j < numOutputs; j++) {
-                labelMappers[j].prepareToNormalize(record, recordIndexInBatch);
-                labelMappers[j].mapLabels(record, labels[j], recordIndexInBatch);
-                if (labelMappers[j].hasMask()) {
-                    labelMappers[j].maskLabels(record, labelMasks[j], recordIndexInBatch);
-                }
+            if (minibatch.sequenceMasks[j] != null) {
+                inputMasks[j] = create(minibatch.sequenceMasks[j], minibatch.inputMaskShapes[j]);
+            }
+        }
+        for (int j = 0; j < numLabels; j++) {
+            if (minibatch.labelRows[j] != null) {
+                labels[j] = create(toColumns(minibatch.labelRows[j], size, minibatch.numLabelColumns[j]),
+                        new int[]{size, minibatch.numLabelColumns[j]});
+            } else if (minibatch.labelSequences[j] != null) {
+                labels[j] = create(minibatch.labelSequences[j], minibatch.labelShapes[j]);
+            }
+            if (minibatch.labelSequenceMasks[j] != null) {
+                labelMasks[j] = create(minibatch.labelSequenceMasks[j], minibatch.labelMaskShapes[j]);
             }
-            recordIndexInBatch += 1;
-
         }
         // Necessary for mixed datasets (i.e., where some mappers have masks and others don't) - will raise NPE otherwise
         if (hasFeatureMask) {
@@ -128,9 +253,9 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                     if (inputShape.length == 3) {
                         throw new RuntimeException("3D features should have masks");
                     } else if (inputShape.length == 2 || inputShape.length == 1) {
-                        inputMasks[i] = Nd4j.ones(inputShape[0], 1);
+                        inputMasks[i] = ones(inputShape[0], 1);
                     } else {
-                        inputMasks[i] = Nd4j.ones(inputShape.clone());
+                        inputMasks[i] = ones(inputShape.clone());
                     }
                 }
             }
@@ -142,18 +267,268 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                     if (labelShape.length == 3) {
                         throw new RuntimeException("3D labels should have masks");
                     } else if (labelShape.length == 2 || labelShape.length == 1) {
-                        labelMasks[i] = Nd4j.ones(labelShape[0], 1);
+                        labelMasks[i] = ones(labelShape[0], 1);
                     } else {
-                        labelMasks[i] = Nd4j.ones(labelShape.clone());
+                        labelMasks[i] = ones(labelShape.clone());
                     }
                 }
             }
         }
-        final MultiDataSet result = new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
+        return new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
                 hasFeatureMask ? inputMasks : null,
                 hasLabelMask ? labelMasks : null);
-        if (preProcessor != null) preProcessor.preProcess(result);
-        return result;
+    }
+
+    private INDArray zeros(int[] shape) {
+        return arrayPool != null ? arrayPool.zeros(shape) : Nd4j.create(shape, 'f');
+    }
+
+    private INDArray create(float[] values, int[] shape) {
+        return arrayPool != null ? arrayPool.create(values, shape) : Nd4j.create(values, shape, 'f');
+    }
+
+    private INDArray ones(int... shape) {
+        return arrayPool != null ? arrayPool.ones(shape) : Nd4j.ones(shape);
+    }
+
+    /**
+     * Map the records of buffer with indices from (inclusive) to to (exclusive) to the corresponding rows of the
+     * arrays of the minibatch. Inputs with a null feature mapper are skipped.
+     */
+    private void mapRange(List<RecordType> buffer, int from, int to, FeatureMapper[] featureMappers,
+                          LabelMapper[] labelMappers, Minibatch minibatch) {
+        final int size = buffer.size();
+        for (int recordIndexInBatch = from; recordIndexInBatch < to; recordIndexInBatch++) {
+            final RecordType record = buffer.get(recordIndexInBatch);
+            for (int j = 0; j < featureMappers.length; j++) {
+                if (featureMappers[j] == null) {
+                    continue;
+                }
+                featureMappers[j].prepareToNormalize(record, recordIndexInBatch);
+                if (minibatch.columns[j]) {
+                    ((SparseFeatureMapper) featureMappers[j]).mapActiveFeatures(record, minibatch.rows[j],
+                            recordIndexInBatch, size);
+                } else if (minibatch.rows[j] != null) {
+                    featureMappers[j].mapFeatures(record, minibatch.rows[j],
+                            recordIndexInBatch * minibatch.numFeatures[j], recordIndexInBatch);
+                } else if (minibatch.sequences[j] != null) {
+                    ((SequenceFeatureMapper) featureMappers[j]).mapSequenceFeatures(record, minibatch.sequences[j],
+                            recordIndexInBatch, size);
+                } else {
+                    featureMappers[j].mapFeatures(record, minibatch.inputs[j], recordIndexInBatch);
+                }
+                if (minibatch.sequenceMasks[j] != null) {
+                    ((SequenceFeatureMapper) featureMappers[j]).maskSequenceFeatures(record,
+                            minibatch.sequenceMasks[j], recordIndexInBatch, size);
+                } else if (featureMappers[j].hasMask()) {
+                    featureMappers[j].maskFeatures(record, minibatch.inputMasks[j], recordIndexInBatch);
+                }
+            }
+            for (int j = 0; j < labelMappers.length; j++) {
+                labelMappers[j].prepareToNormalize(record, recordIndexInBatch);
+                if (minibatch.labelRows[j] != null) {
+                    labelMappers[j].mapLabels(record, minibatch.labelRows[j],
+                            recordIndexInBatch * minibatch.numLabelColumns[j], recordIndexInBatch);
+                } else if (minibatch.labelSequences[j] != null) {
+                    ((SequenceLabelMapper) labelMappers[j]).mapSequenceLabels(record, minibatch.labelSequences[j],
+                            recordIndexInBatch, size);
+                } else {
+                    labelMappers[j].mapLabels(record, minibatch.labels[j], recordIndexInBatch);
+                }
+                if (minibatch.labelSequenceMasks[j] != null) {
+                    ((SequenceLabelMapper) labelMappers[j]).maskSequenceLabels(record,
+                            minibatch.labelSequenceMasks[j], recordIndexInBatch, size);
+                } else if (labelMappers[j].hasMask()) {
+                    labelMappers[j].maskLabels(record, minibatch.labelMasks[j], recordIndexInBatch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Split the records of the minibatch in consecutive ranges, one per mapping thread. Each thread maps its range with
+     * its own mappers, and writes to rows of the arrays that no other thread writes to. Inputs with an override (set
+     * with setFeatureMapper) are mapped by the calling thread for all records, while the mapping threads map the
+     * other inputs and the labels.
+     *
+     * @param overrides the mapper of each input that has an override, null for the other inputs.
+     */
+    private void mapInParallel(List<RecordType> buffer, FeatureMapper[] overrides, Minibatch minibatch) {
+        final int size = buffer.size();
+        final int numRanges = Math.min(numMappingThreads, size);
+        List<Future<?>> ranges = new ObjectArrayList<>(numRanges);
+        for (int range = 0; range < numRanges; range++) {
+            final int from = (int) ((long) size * range / numRanges);
+            final int to = (int) ((long) size * (range + 1) / numRanges);
+            ranges.add(mappingExecutor.submit(() -> {
+                WorkerMappers mappers = workerMappers.get();
+                FeatureMapper[] featureMappers = mappers.featureMappers.clone();
+                for (int j = 0; j < overrides.length; j++) {
+                    if (overrides[j] != null) {
+                        featureMappers[j] = null;
+                    }
+                }
+                mapRange(buffer, from, to, featureMappers, mappers.labelMappers, minibatch);
+            }));
+        }
+        // overridden inputs are written to arrays that the mapping threads do not write to:
+        mapRange(buffer, 0, size, overrides, new LabelMapper[0], minibatch);
+        for (Future<?> range : ranges) {
+            try {
+                range.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Unable to map minibatch", e);
+            }
+        }
+    }
+
+    /**
+     * The arrays a minibatch is mapped to, one per input or output of the graph. An input is mapped to exactly one of:
+     * rows (one-dimensional features, record after record, or columns in 'f' order for sparse mappers), sequences
+     * (features of sequence mappers, written at their offset in the 'f' order buffer of the 3D array, see
+     * SequenceFeatureMapper) or inputs (other mappers). Labels likewise.
+     */
+    private static class Minibatch {
+        final INDArray[] inputs;
+        final INDArray[] inputMasks;
+        final INDArray[] labels;
+        final INDArray[] labelMasks;
+        final int[][] inputShapes;
+        final int[][] inputMaskShapes;
+        final int[][] labelShapes;
+        final int[][] labelMaskShapes;
+        final float[][] rows;
+        final int[] numFeatures;
+        final boolean[] columns;
+        final float[][] sequences;
+        final float[][] sequenceMasks;
+        final float[][] labelRows;
+        final int[] numLabelColumns;
+        final float[][] labelSequences;
+        final float[][] labelSequenceMasks;
+
+        Minibatch(int numInputs, int numLabels) {
+            inputs = new INDArray[numInputs];
+            inputMasks = new INDArray[numInputs];
+            labels = new INDArray[numLabels];
+            labelMasks = new INDArray[numLabels];
+            inputShapes = new int[numInputs][];
+            inputMaskShapes = new int[numInputs][];
+            labelShapes = new int[numLabels][];
+            labelMaskShapes = new int[numLabels][];
+            rows = new float[numInputs][];
+            numFeatures = new int[numInputs];
+            columns = new boolean[numInputs];
+            sequences = new float[numInputs][];
+            sequenceMasks = new float[numInputs][];
+            labelRows = new float[numLabels][];
+            numLabelColumns = new int[numLabels];
+            labelSequences = new float[numLabels][];
+            labelSequenceMasks = new float[numLabels][];
+        }
+    }
+
+    /**
+     * Map the records of each minibatch with several threads. Each thread maps a range of the records of the minibatch
+     * with mappers obtained from its own domain descriptor, since mappers keep per-record state and cannot be shared
+     * across threads. Minibatches are identical to those mapped with one thread. Inputs mapped with a mapper set with
+     * setFeatureMapper are mapped by the calling thread, while the mapping threads map the other inputs.
+     *
+     * @param numThreads              number of mapping threads. Use 1 to map records on the calling thread.
+     * @param workerDomainDescriptors creates a new domain descriptor instance each time it is called. Must be
+     *                                configured as this adapter's domain descriptor.
+     */
+    public void setMappingThreads(int numThreads, Supplier<DomainDescriptor<RecordType>> workerDomainDescriptors) {
+        shutdownMappingThreads();
+        if (numThreads <= 1) {
+            return;
+        }
+        numMappingThreads = numThreads;
+        workerMappers = ThreadLocal.withInitial(() -> new WorkerMappers(workerDomainDescriptors.get(), compileMappers));
+        mappingExecutor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "minibatch-mapping");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop the mapping threads, if any. Records are then mapped on the calling thread.
+     */
+    public void shutdownMappingThreads() {
+        if (mappingExecutor != null) {
+            mappingExecutor.shutdownNow();
+            mappingExecutor = null;
+            workerMappers = null;
+            numMappingThreads = 1;
+        }
+    }
+
+    /**
+     * The feature and label mappers of a mapping thread.
+     */
+    private static class WorkerMappers {
+        final FeatureMapper[] featureMappers;
+        final LabelMapper[] labelMappers;
+
+        WorkerMappers(DomainDescriptor domainDescriptor, boolean compileMappers) {
+            String[] inputNames = domainDescriptor.getComputationalGraph().getInputNames();
+            String[] outputNames = domainDescriptor.getComputationalGraph().getOutputNames();
+            featureMappers = new FeatureMapper[inputNames.length];
+            labelMappers = new LabelMapper[outputNames.length];
+            for (int i = 0; i < inputNames.length; i++) {
+                featureMappers[i] = domainDescriptor.getFeatureMapper(inputNames[i]);
+                if (compileMappers) {
+                    featureMappers[i] = CompiledFeatureMapper.compile(featureMappers[i]);
+                }
+            }
+            for (int i = 0; i < outputNames.length; i++) {
+                labelMappers[i] = domainDescriptor.getLabelMapper(outputNames[i]);
+            }
+        }
+    }
+
+    /**
+     * Create a features matrix (one row per record, in 'f' order) from features stored record after record.
+     *
+     * @param rows        numRows * numFeatures values, the features of the first record first.
+     * @param numRows     number of records.
+     * @param numFeatures number of features per record.
+     * @return numRows x numFeatures matrix.
+     */
+    public static INDArray fromRows(float[] rows, int numRows, int numFeatures) {
+        return Nd4j.create(toColumns(rows, numRows, numFeatures), new int[]{numRows, numFeatures}, 'f');
+    }
+
+    /**
+     * Return the values of features stored record after record, in 'f' order (the first feature of all records
+     * first).
+     */
+    static float[] toColumns(float[] rows, int numRows, int numFeatures) {
+        float[] columns = new float[rows.length];
+        int index = 0;
+        for (int row = 0; row < numRows; row++) {
+            for (int column = 0; column < numFeatures; column++) {
+                columns[column * numRows + row] = rows[index++];
+            }
+        }
+        return columns;
+    }
+
+    public Iterable<RecordType> getIterable() {
+        return iterable;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isPretrained() {
+        return isPretrained;
+    }
+
+    public Integer getEosIndex() {
+        return eosIndex;
     }
 
     @Override
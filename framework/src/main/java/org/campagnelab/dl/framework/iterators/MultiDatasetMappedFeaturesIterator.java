@@ -2,6 +2,9 @@ package org.campagnelab.dl.framework.iterators;
 
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
+import org.campagnelab.dl.framework.iterators.cache.MultiDataSetRawFormat;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
@@ -14,6 +17,7 @@ import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 
@@ -30,6 +34,10 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
     private final int miniBatchSize;
     private final FastBufferedInputStream inputStream;
     private final int cacheN;
+    /**
+     * Codec of the entries, or null when entries were serialized with MultiDataSet.save.
+     */
+    private final CacheCodec codec;
     private int index;
     private MultiDataSetPreProcessor preProcessor;
 
@@ -45,6 +53,7 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
 
             miniBatchSize = Integer.parseInt(cfProperties.getProperty("miniBatchSize", "0"));
             numExamples = Integer.parseInt(cfProperties.getProperty("numRecords", "0"));
+            codec = MultiDataSetRawFormat.isRaw(cfProperties) ? CacheCodecs.fromProperties(cfProperties) : null;
             inputStream = new FastBufferedInputStream(new FileInputStream(basename + ".cf"));
             this.cacheN = cacheN;
         } catch (Exception e) {
@@ -115,16 +124,20 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
         content.size(l);
         final byte[] elements = content.elements();
         try {
-            inputStream.read(elements);
+            inputStream.read(elements, 0, l);
         } catch (IOException e) {
             LOG.error("Unable to read content from stream at index " + index, e);
         }
-        MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet();
-
-        try (ByteArrayInputStream from = new ByteArrayInputStream(elements)) {
-            ds.load(from);
-        } catch (IOException e) {
-            LOG.error("Unable to load dataset at index " + index, e);
+        MultiDataSet ds;
+        if (codec != null) {
+            ds = codec.decode(ByteBuffer.wrap(elements, 0, l));
+        } else {
+            ds = new org.nd4j.linalg.dataset.MultiDataSet();
+            try (ByteArrayInputStream from = new ByteArrayInputStream(elements, 0, l)) {
+                ds.load(from);
+            } catch (IOException e) {
+                LOG.error("Unable to load dataset at index " + index, e);
+            }
         }
         if (preProcessor != null) {
             preProcessor.preProcess(ds);
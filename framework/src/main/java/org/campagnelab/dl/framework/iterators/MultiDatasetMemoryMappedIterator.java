@@ -0,0 +1,280 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.ByteBufferInputStream;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.iterators.cache.MultiDataSetRawFormat;
+import org.campagnelab.dl.framework.iterators.cache.OffHeapEntryCache;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+/**
+ * An iterator over mapped features (.cf/.cfp files) that memory-maps the cache and uses its offset index (.cfi file)
+ * to locate minibatches. The cache is mapped in segments of at most SEGMENT_SIZE bytes, whose boundaries fall on
+ * minibatch entries. Caches written with the raw layout and no codec are decoded to INDArrays created directly over
+ * the mapped segments. Entries written with other codecs are decoded by their codec. Caches serialized with MultiDataSet.save are loaded from the mapped segments without intermediate copies.
+ * The iterator supports seeking to any minibatch in constant time.
+ * <p>
+ * Segments are mapped privately (copy-on-write), so that in-place modifications of the arrays returned by the
+ * iterator (e.g., by a pre-processor) never reach the cache file. A private mapping requires a channel opened for
+ * writing, although nothing is written to the file. When the cache file is read-only, segments are mapped read-only
+ * instead and entries are copied as they are decoded. Segments stay mapped for the lifetime of the iterator.
+ *
+ * @author Fabien Campagne
+ */
+public class MultiDatasetMemoryMappedIterator implements SeekableIterator {
+    static private Logger LOG = LoggerFactory.getLogger(MultiDatasetMemoryMappedIterator.class);
+    /**
+     * Maximum size of a mapped segment.
+     */
+    public static final long SEGMENT_SIZE = 1L << 30;
+
+    private final int numExamples;
+    private final int miniBatchSize;
+    private final int cacheN;
+    /**
+     * Codec of the entries, or null when entries were serialized with MultiDataSet.save.
+     */
+    private final CacheCodec codec;
+    private final CacheIndex index;
+    private final MappedByteBuffer[] segments;
+    private final long[] segmentStart;
+    private final int[] entrySegment;
+    private int entryIndex;
+    private int pass;
+    private long examplesRead;
+    private MultiDataSetPreProcessor preProcessor;
+    private OffHeapEntryCache memoryTier;
+
+    public MultiDatasetMemoryMappedIterator(String basename) {
+        this(basename, Integer.MAX_VALUE);
+    }
+
+    public MultiDatasetMemoryMappedIterator(String basename, int cacheN) {
+        try {
+            Properties cfProperties = new Properties();
+            cfProperties.load(new FileReader(basename + ".cfp"));
+
+            miniBatchSize = Integer.parseInt(cfProperties.getProperty("miniBatchSize", "0"));
+            numExamples = Integer.parseInt(cfProperties.getProperty("numRecords", "0"));
+            codec = MultiDataSetRawFormat.isRaw(cfProperties) ? CacheCodecs.fromProperties(cfProperties) : null;
+            index = CacheIndex.load(basename);
+            this.cacheN = cacheN;
+            entrySegment = new int[index.numEntries()];
+            final File cacheFile = new File(basename + ".cf");
+            final boolean writable = cacheFile.canWrite();
+            final FileChannel.MapMode mode = writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+            try (RandomAccessFile file = new RandomAccessFile(cacheFile, writable ? "rw" : "r");
+                 FileChannel channel = file.getChannel()) {
+                final long fileLength = channel.size();
+                ObjectArrayList<MappedByteBuffer> mapped = new ObjectArrayList<>();
+                ObjectArrayList<Long> starts = new ObjectArrayList<>();
+                long start = 0;
+                for (int i = 0; i < index.numEntries(); i++) {
+                    long end = i + 1 < index.numEntries() ? index.offset(i + 1) : fileLength;
+                    if (end - start > SEGMENT_SIZE && index.offset(i) > start) {
+                        mapped.add(channel.map(mode, start, index.offset(i) - start));
+                        starts.add(start);
+                        start = index.offset(i);
+                    }
+                    if (end - start > Integer.MAX_VALUE) {
+                        throw new IOException("Cache entry is too large to be memory mapped: " + i);
+                    }
+                    entrySegment[i] = mapped.size();
+                }
+                if (fileLength > start) {
+                    mapped.add(channel.map(mode, start, fileLength - start));
+                    starts.add(start);
+                }
+                segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+                segmentStart = new long[starts.size()];
+                for (int s = 0; s < segmentStart.length; s++) {
+                    segmentStart[s] = starts.get(s);
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create MultiDatasetMemoryMappedIterator ", e);
+        }
+    }
+
+    @Override
+    public MultiDataSet next(int miniBatchSize) {
+        if (miniBatchSize != this.miniBatchSize) {
+            throw new IllegalArgumentException("numExamples must match the cached minibatchSize: " + miniBatchSize);
+        }
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        pass++;
+        seek(0);
+    }
+
+    /**
+     * Position the iterator so that the next call to next() returns the minibatch at entryIndex.
+     *
+     * @param entryIndex index of a minibatch in the cache.
+     */
+    public void seek(int entryIndex) {
+        if (entryIndex < 0 || entryIndex > index.numEntries()) {
+            throw new IndexOutOfBoundsException("Minibatch index out of range: " + entryIndex);
+        }
+        this.entryIndex = entryIndex;
+        this.examplesRead = entryIndex < index.numEntries() ? index.firstExample(entryIndex) : index.totalExamples();
+    }
+
+    /**
+     * Index of the minibatch that the next call to next() will return.
+     */
+    @Override
+    public int position() {
+        return entryIndex;
+    }
+
+    /**
+     * Number of times the iterator was reset. Minibatches are returned in the order of the cache in every pass.
+     */
+    @Override
+    public int pass() {
+        return pass;
+    }
+
+    @Override
+    public void seek(int pass, int position) {
+        this.pass = pass;
+        seek(position);
+    }
+
+    /**
+     * Minibatches are in the order of the cache in every pass, so the number of examples is read from the index.
+     */
+    @Override
+    public int numExamples(int pass, int position) {
+        return isIterated(position) ? index.numExamples(position) : 0;
+    }
+
+    /**
+     * Number of minibatches in the cache.
+     */
+    public int numMinibatches() {
+        return index.numEntries();
+    }
+
+    /**
+     * Size of the cache file, in bytes.
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (MappedByteBuffer segment : segments) {
+            size += segment.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Keep entries in a memory tier, in addition to the memory-mapped file. Entries that are not in the memory tier
+     * are read from the file.
+     *
+     * @param memoryTier memory tier sized for the entries of this cache, or null to read all entries from the file.
+     */
+    public void setMemoryTier(OffHeapEntryCache memoryTier) {
+        this.memoryTier = memoryTier;
+    }
+
+    public OffHeapEntryCache getMemoryTier() {
+        return memoryTier;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return entryIndex < index.numEntries() && examplesRead < Math.min(numExamples, cacheN);
+    }
+
+    /**
+     * Determine if the iterator returns the minibatch at entryIndex in a pass over the cache, i.e., if the minibatch
+     * exists and starts before the first cacheN examples have been read.
+     *
+     * @param entryIndex index of a minibatch in the cache.
+     * @return True when the minibatch is part of the iteration.
+     */
+    public boolean isIterated(int entryIndex) {
+        return entryIndex >= 0 && entryIndex < index.numEntries() && index.firstExample(entryIndex) < Math.min(numExamples, cacheN);
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MultiDataSet ds = get(entryIndex);
+        entryIndex += 1;
+        examplesRead += ds.getFeatures(0).size(0);
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        return ds;
+    }
+
+    /**
+     * Decode the minibatch at entryIndex, without changing the position of the iterator. The pre-processor is
+     * not applied. This method can be called concurrently from several threads.
+     *
+     * @param entryIndex index of a minibatch in the cache.
+     * @return the minibatch.
+     */
+    public MultiDataSet get(int entryIndex) {
+        ByteBuffer entry = memoryTier != null ? memoryTier.get(entryIndex, this::entryBuffer) : entryBuffer(entryIndex);
+        if (codec != null) {
+            return codec.decode(entry);
+        }
+        MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet();
+        try (ByteBufferInputStream from = new ByteBufferInputStream(entry)) {
+            ds.load(from);
+        } catch (IOException e) {
+            LOG.error("Unable to load dataset at index " + entryIndex, e);
+        }
+        return ds;
+    }
+
+    private ByteBuffer entryBuffer(int entryIndex) {
+        final int segment = entrySegment[entryIndex];
+        ByteBuffer buffer = segments[segment].duplicate();
+        final int position = (int) (index.offset(entryIndex) - segmentStart[segment]);
+        // the length of the entry is written most significant bytes first:
+        final int length = buffer.order(ByteOrder.BIG_ENDIAN).getInt(position);
+        buffer.limit(position + 4 + length);
+        buffer.position(position + 4);
+        return buffer.slice();
+    }
+}
@@ -0,0 +1,149 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * A multi dataset iterator that maps records to features with several worker threads. Records are read sequentially
+ * and split into consecutive, disjoint, minibatch-sized groups. Each group is mapped by a worker, and minibatches are
+ * returned in the order of the records, so that the iterator produces exactly the minibatches that the sequential
+ * MultiDataSetIteratorAdapter would produce.
+ * <p>
+ * Feature and label mappers keep per-record state and cannot be shared across threads. Each worker therefore maps
+ * with mappers obtained from its own domain descriptor, created with the supplier given to the constructor.
+ *
+ * @author Fabien Campagne
+ */
+public class ParallelMappingIterator<RecordType> implements MultiDataSetIterator {
+
+    private final Iterable<RecordType> iterable;
+    private final int batchSize;
+    private final int maxMinibatchesInFlight;
+    private final ExecutorService executor;
+    private final ThreadLocal<MultiDataSetIteratorAdapter<RecordType>> workerAdapters;
+    private final ArrayDeque<Future<MultiDataSet>> pending = new ArrayDeque<>();
+    private Iterator<RecordType> recordIterator;
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * Create a parallel iterator with the records and mapping parameters of an adapter.
+     *
+     * @param adapter                 provides the records, minibatch size and pre-training options.
+     * @param numWorkers              number of mapping threads.
+     * @param workerDomainDescriptors creates a new domain descriptor instance each time it is called. Must be
+     *                                configured as the adapter's domain descriptor.
+     */
+    public ParallelMappingIterator(MultiDataSetIteratorAdapter<RecordType> adapter, int numWorkers,
+                                   Supplier<DomainDescriptor<RecordType>> workerDomainDescriptors) {
+        this.iterable = adapter.getIterable();
+        this.batchSize = adapter.getBatchSize();
+        this.maxMinibatchesInFlight = 2 * numWorkers;
+        this.executor = Executors.newFixedThreadPool(numWorkers, runnable -> {
+            Thread thread = new Thread(runnable, "mapping-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workerAdapters = ThreadLocal.withInitial(() -> {
+            try {
+                MultiDataSetIteratorAdapter<RecordType> workerAdapter = new MultiDataSetIteratorAdapter<RecordType>(
+                        Collections.emptyList(), batchSize, workerDomainDescriptors.get(), adapter.isPretrained(),
+                        adapter.getEosIndex()) {
+                    @Override
+                    public String getBasename() {
+                        return adapter.getBasename();
+                    }
+                };
+                workerAdapter.setCompileMappers(adapter.isCompileMappers());
+                return workerAdapter;
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to create mapping worker", e);
+            }
+        });
+        this.recordIterator = iterable.iterator();
+    }
+
+    /**
+     * Read records and submit minibatches to the workers, until enough minibatches are being mapped.
+     */
+    private void fill() {
+        while (pending.size() < maxMinibatchesInFlight && recordIterator.hasNext()) {
+            ObjectArrayList<RecordType> records = new ObjectArrayList<>(batchSize);
+            while (recordIterator.hasNext() && records.size() < batchSize) {
+                records.add(recordIterator.next());
+            }
+            pending.add(executor.submit(() -> workerAdapters.get().mapRecords(records)));
+        }
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    public boolean asyncSupported() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        for (Future<MultiDataSet> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        recordIterator = iterable.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MultiDataSet result;
+        try {
+            result = pending.poll().get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Unable to map minibatch", e);
+        }
+        // keep the workers busy while the caller consumes the minibatch:
+        fill();
+        if (preProcessor != null) {
+            preProcessor.preProcess(result);
+        }
+        return result;
+    }
+
+    /**
+     * Stop the worker threads. The iterator cannot be used after this method is called.
+     */
+    public void shutdown() {
+        reset();
+        executor.shutdownNow();
+    }
+}
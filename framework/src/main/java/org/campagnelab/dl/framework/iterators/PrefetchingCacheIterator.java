@@ -0,0 +1,204 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes the minibatches of a memory-mapped cache ahead of the consumer, with several decoding threads. This moves
+ * the cost of decompressing or converting cache entries off the training thread. Each pass over the cache returns
+ * minibatches in the order given by passOrder, which is the order of the cache unless a sub-class overrides it.
+ * When the iterator is created with zero decoding threads, minibatches are decoded by the thread that calls next().
+ *
+ * @author Fabien Campagne
+ */
+public class PrefetchingCacheIterator implements SeekableIterator {
+
+    protected final MultiDatasetMemoryMappedIterator cache;
+    private final int prefetchSize;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<MultiDataSet>> pending = new ArrayDeque<>();
+    private IntArrayList order;
+    private int pass = -1;
+    private int position;
+    private int nextToDecode;
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * @param cache        the cache to read.
+     * @param numThreads   number of decoding threads, or zero to decode on the calling thread.
+     * @param prefetchSize maximum number of minibatches decoded ahead of the consumer.
+     */
+    public PrefetchingCacheIterator(MultiDatasetMemoryMappedIterator cache, int numThreads, int prefetchSize) {
+        this.cache = cache;
+        this.prefetchSize = Math.max(1, prefetchSize);
+        this.executor = numThreads == 0 ? null : Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "cache-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return the indices of the cache entries to return in a pass over the cache, in order. The default
+     * implementation returns the entries in the order of the cache.
+     *
+     * @param pass index of the pass, zero for the first pass. Increases by one each time the iterator is reset.
+     * @return the indices of the minibatches in the cache.
+     */
+    protected IntArrayList passOrder(int pass) {
+        IntArrayList entries = new IntArrayList();
+        for (int entryIndex = 0; cache.isIterated(entryIndex); entryIndex++) {
+            entries.add(entryIndex);
+        }
+        return entries;
+    }
+
+    private void fill() {
+        if (order == null) {
+            startPass(pass + 1);
+        }
+        while (pending.size() < prefetchSize && nextToDecode < order.size()) {
+            final int entryIndex = order.getInt(nextToDecode++);
+            pending.add(executor == null ? CompletableFuture.completedFuture(cache.get(entryIndex)) :
+                    executor.submit(() -> cache.get(entryIndex)));
+        }
+    }
+
+    private void startPass(int pass) {
+        this.pass = pass;
+        order = passOrder(pass);
+        seek(0);
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    public boolean asyncSupported() {
+        return false;
+    }
+
+    /**
+     * Start a new pass over the cache.
+     */
+    @Override
+    public void reset() {
+        startPass(pass + 1);
+    }
+
+    /**
+     * Position the iterator within the current pass, so that the next call to next() returns the minibatch at this
+     * position of the pass.
+     *
+     * @param position number of minibatches of the pass to skip.
+     */
+    public void seek(int position) {
+        for (Future<MultiDataSet> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (order == null) {
+            this.pass += 1;
+            order = passOrder(pass);
+        }
+        this.position = position;
+        this.nextToDecode = position;
+    }
+
+    /**
+     * Position the iterator at a minibatch of a pass, in the order passOrder returns for that pass.
+     */
+    @Override
+    public void seek(int pass, int position) {
+        this.pass = pass;
+        order = passOrder(pass);
+        seek(position);
+    }
+
+    /**
+     * Number of minibatches returned since the start of the current pass.
+     */
+    @Override
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Index of the current pass.
+     */
+    @Override
+    public int pass() {
+        return pass;
+    }
+
+    @Override
+    public int numExamples(int pass, int position) {
+        final IntArrayList entries = pass == this.pass && order != null ? order : passOrder(pass);
+        return position < entries.size() ? cache.numExamples(0, entries.getInt(position)) : 0;
+    }
+
+    /**
+     * The memory-mapped cache read by this iterator.
+     */
+    public MultiDatasetMemoryMappedIterator getCache() {
+        return cache;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MultiDataSet result;
+        try {
+            result = pending.poll().get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Unable to decode minibatch", e);
+        }
+        position++;
+        fill();
+        if (preProcessor != null) {
+            preProcessor.preProcess(result);
+        }
+        return result;
+    }
+
+    /**
+     * Stop the decoding threads. The iterator cannot be used after this method is called.
+     */
+    public void shutdown() {
+        for (Future<MultiDataSet> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
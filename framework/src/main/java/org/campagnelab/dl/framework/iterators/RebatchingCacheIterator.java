@@ -0,0 +1,290 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Assembles minibatches of any size from the blocks of records stored in a cache. Records are returned in the order
+ * of the blocks, and each minibatch holds miniBatchSize consecutive records (the last minibatch may be smaller).
+ * Minibatches are assembled with one bulk copy per array for each block that contributes records, rather than with
+ * per-record copies. Blocks that exactly form a minibatch are returned without copies.
+ * <p>
+ * The iterator can be positioned at any minibatch of a pass. When the blocks come from a seekable iterator (e.g., a
+ * cache with an offset index, shuffled or not), the block holding the first record of the minibatch is found by binary
+ * search in the number of records before each block (computed once per pass), and the blocks before it are not read. Otherwise, blocks are returned in the same
+ * order in every pass, and the blocks before the minibatch are read and skipped.
+ *
+ * @author Fabien Campagne
+ */
+public class RebatchingCacheIterator implements SeekableIterator {
+
+    private final MultiDataSetIterator blocks;
+    private final int miniBatchSize;
+    private MultiDataSet block;
+    private int rowInBlock;
+    private int pass;
+    private int position;
+    private MultiDataSetPreProcessor preProcessor;
+    /**
+     * Number of records before each block of the pass prefixSumsPass, and in total (last element).
+     */
+    private long[] prefixSums;
+    private int prefixSumsPass = -1;
+
+    /**
+     * @param blocks        iterator over the blocks of a cache.
+     * @param miniBatchSize number of records in the minibatches returned by this iterator.
+     */
+    public RebatchingCacheIterator(MultiDataSetIterator blocks, int miniBatchSize) {
+        this.blocks = blocks;
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * The iterator over the blocks of the cache.
+     */
+    public MultiDataSetIterator getSource() {
+        return blocks;
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return blocks.resetSupported();
+    }
+
+    public boolean asyncSupported() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        blocks.reset();
+        block = null;
+        rowInBlock = 0;
+        pass++;
+        position = 0;
+    }
+
+    /**
+     * Index of the current pass. The pass of the blocks when they come from a seekable iterator.
+     */
+    @Override
+    public int pass() {
+        return blocks instanceof SeekableIterator ? ((SeekableIterator) blocks).pass() : pass;
+    }
+
+    /**
+     * Number of minibatches returned since the start of the current pass.
+     */
+    @Override
+    public int position() {
+        return position;
+    }
+
+    @Override
+    public void seek(int pass, int position) {
+        long toSkip = (long) position * miniBatchSize;
+        block = null;
+        rowInBlock = 0;
+        this.pass = pass;
+        this.position = position;
+        if (blocks instanceof SeekableIterator) {
+            SeekableIterator source = (SeekableIterator) blocks;
+            // start the pass first, so that the source determines the order of its blocks once:
+            source.seek(pass, 0);
+            final long[] prefixSums = prefixSums(pass);
+            // the last block that starts at or before the record to skip to:
+            int low = 0;
+            int high = prefixSums.length - 1;
+            while (low < high) {
+                final int middle = (low + high + 1) >>> 1;
+                if (prefixSums[middle] <= toSkip) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            toSkip -= prefixSums[low];
+            source.seek(pass, low);
+        } else {
+            // blocks are returned in the same order in every pass:
+            blocks.reset();
+            while (blocks.hasNext() && toSkip > 0) {
+                MultiDataSet skipped = blocks.next();
+                if (toSkip < numRows(skipped)) {
+                    block = skipped;
+                    rowInBlock = (int) toSkip;
+                    return;
+                }
+                toSkip -= numRows(skipped);
+            }
+        }
+        if (toSkip > 0 && blocks.hasNext()) {
+            block = blocks.next();
+            rowInBlock = (int) toSkip;
+        }
+    }
+
+    /**
+     * Return the number of examples in a minibatch of a pass. Only supported when the blocks come from a seekable
+     * iterator.
+     */
+    @Override
+    public int numExamples(int pass, int position) {
+        if (!(blocks instanceof SeekableIterator)) {
+            throw new UnsupportedOperationException("The blocks of this iterator cannot be sized without reading them.");
+        }
+        final long[] prefixSums = prefixSums(pass);
+        final long numRecords = prefixSums[prefixSums.length - 1];
+        return (int) Math.max(0, Math.min(miniBatchSize, numRecords - (long) position * miniBatchSize));
+    }
+
+    /**
+     * Return the number of records before each block of a pass, followed by the number of records of the pass. The
+     * sums are computed once per pass, from the number of examples of the blocks of the seekable source.
+     */
+    private long[] prefixSums(int pass) {
+        if (prefixSums == null || prefixSumsPass != pass) {
+            SeekableIterator source = (SeekableIterator) blocks;
+            LongArrayList sums = new LongArrayList();
+            long numRecords = 0;
+            sums.add(numRecords);
+            for (int blockPosition = 0, n; (n = source.numExamples(pass, blockPosition)) > 0; blockPosition++) {
+                numRecords += n;
+                sums.add(numRecords);
+            }
+            prefixSums = sums.toLongArray();
+            prefixSumsPass = pass;
+        }
+        return prefixSums;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return (block != null && rowInBlock < numRows(block)) || blocks.hasNext();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        // collect the ranges of rows that form the minibatch:
+        ObjectArrayList<MultiDataSet> pieces = new ObjectArrayList<>();
+        IntArrayList starts = new IntArrayList();
+        IntArrayList lengths = new IntArrayList();
+        int size = 0;
+        while (size < miniBatchSize) {
+            if (block == null || rowInBlock == numRows(block)) {
+                if (!blocks.hasNext()) {
+                    break;
+                }
+                block = blocks.next();
+                rowInBlock = 0;
+                continue;
+            }
+            final int length = Math.min(miniBatchSize - size, numRows(block) - rowInBlock);
+            pieces.add(block);
+            starts.add(rowInBlock);
+            lengths.add(length);
+            rowInBlock += length;
+            size += length;
+        }
+        MultiDataSet result;
+        if (pieces.size() == 1 && starts.getInt(0) == 0 && lengths.getInt(0) == numRows(pieces.get(0))) {
+            result = pieces.get(0);
+        } else {
+            result = new org.nd4j.linalg.dataset.MultiDataSet(
+                    assemble(pieces, starts, lengths, size, 0),
+                    assemble(pieces, starts, lengths, size, 1),
+                    assemble(pieces, starts, lengths, size, 2),
+                    assemble(pieces, starts, lengths, size, 3));
+        }
+        position++;
+        if (preProcessor != null) {
+            preProcessor.preProcess(result);
+        }
+        return result;
+    }
+
+    /**
+     * Copy the rows of the pieces to new arrays, for one group of arrays (0: features, 1: labels, 2: feature masks,
+     * 3: label masks).
+     */
+    private static INDArray[] assemble(ObjectArrayList<MultiDataSet> pieces, IntArrayList starts, IntArrayList lengths,
+                                       int size, int group) {
+        INDArray[] first = arrays(pieces.get(0), group);
+        if (first == null) {
+            return null;
+        }
+        INDArray[] result = new INDArray[first.length];
+        for (int a = 0; a < first.length; a++) {
+            if (first[a] == null) {
+                continue;
+            }
+            int[] shape = first[a].shape().clone();
+            shape[0] = size;
+            INDArray target = Nd4j.create(shape, 'f');
+            int destination = 0;
+            for (int p = 0; p < pieces.size(); p++) {
+                final int start = starts.getInt(p);
+                final int length = lengths.getInt(p);
+                INDArray source = arrays(pieces.get(p), group)[a];
+                target.get(rows(shape.length, destination, length)).assign(source.get(rows(shape.length, start, length)));
+                destination += length;
+            }
+            result[a] = target;
+        }
+        return result;
+    }
+
+    private static INDArrayIndex[] rows(int rank, int start, int length) {
+        INDArrayIndex[] indices = new INDArrayIndex[rank];
+        indices[0] = NDArrayIndex.interval(start, start + length);
+        for (int d = 1; d < rank; d++) {
+            indices[d] = NDArrayIndex.all();
+        }
+        return indices;
+    }
+
+    private static INDArray[] arrays(MultiDataSet ds, int group) {
+        switch (group) {
+            case 0:
+                return ds.getFeatures();
+            case 1:
+                return ds.getLabels();
+            case 2:
+                return ds.getFeaturesMaskArrays();
+            default:
+                return ds.getLabelsMaskArrays();
+        }
+    }
+
+    private static int numRows(MultiDataSet ds) {
+        return ds.getFeatures(0).size(0);
+    }
+}
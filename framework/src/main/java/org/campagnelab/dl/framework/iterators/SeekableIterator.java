@@ -0,0 +1,39 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+/**
+ * An iterator that can be positioned at any minibatch of any pass without reading the minibatches before it, for
+ * instance with the offset index of a cache. Used to resume training from the minibatch where a checkpoint was taken.
+ *
+ * @author Fabien Campagne
+ */
+public interface SeekableIterator extends MultiDataSetIterator {
+    /**
+     * Index of the current pass: zero for the first pass, increased by one each time the iterator is reset.
+     */
+    int pass();
+
+    /**
+     * Number of minibatches returned since the start of the current pass.
+     */
+    int position();
+
+    /**
+     * Position the iterator so that the next call to next() returns the minibatch at this position of the pass, in
+     * the order of that pass.
+     *
+     * @param pass     index of the pass.
+     * @param position number of minibatches of the pass to skip.
+     */
+    void seek(int pass, int position);
+
+    /**
+     * Return the number of examples in the minibatch at a position of a pass, without reading the minibatch.
+     *
+     * @param pass     index of the pass.
+     * @param position position of the minibatch in the pass.
+     * @return the number of examples, or zero when the pass has no minibatch at this position.
+     */
+    int numExamples(int pass, int position);
+}
@@ -0,0 +1,225 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.util.XorShift1024StarRandom;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Returns the minibatches of a memory-mapped cache in a different order for each pass over the cache, without
+ * rewriting the cache. The cache is divided in windows of consecutive minibatches. Each pass visits the windows in a
+ * random order, and the minibatches of a window in a random order, so that reads remain mostly sequential when
+ * windows are large. The order is determined by the seed and the index of the pass, so that training runs with the
+ * same seed see the same sequence of minibatches.
+ * <p>
+ * Records can also be exchanged between minibatches: when recordGroupSize is larger than one, the records of
+ * recordGroupSize consecutive minibatches of the pass are shuffled and redistributed among these minibatches.
+ *
+ * @author Fabien Campagne
+ */
+public class ShuffledCacheIterator extends PrefetchingCacheIterator {
+
+    private final long seed;
+    private final int windowSize;
+    private final int recordGroupSize;
+    private final ArrayDeque<MultiDataSet> mixed = new ArrayDeque<>();
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * @param cache           the cache to read.
+     * @param numThreads      number of decoding threads, or zero to decode on the calling thread.
+     * @param prefetchSize    maximum number of minibatches decoded ahead of the consumer.
+     * @param seed            seed of the random permutations.
+     * @param windowSize      number of consecutive minibatches in a window.
+     * @param recordGroupSize number of consecutive minibatches whose records are shuffled together. Use 1 to keep
+     *                        the records of each minibatch together.
+     */
+    public ShuffledCacheIterator(MultiDatasetMemoryMappedIterator cache, int numThreads, int prefetchSize,
+                                 long seed, int windowSize, int recordGroupSize) {
+        super(cache, numThreads, prefetchSize);
+        this.seed = seed;
+        this.windowSize = Math.max(1, windowSize);
+        this.recordGroupSize = Math.max(1, recordGroupSize);
+    }
+
+    @Override
+    protected IntArrayList passOrder(int pass) {
+        IntArrayList entries = super.passOrder(pass);
+        Random random = new XorShift1024StarRandom(seed ^ (pass + 1) * 0x9E3779B97F4A7C15L);
+        final int numWindows = (entries.size() + windowSize - 1) / windowSize;
+        int[] windows = IntArrays.shuffle(identity(numWindows), random);
+        IntArrayList order = new IntArrayList(entries.size());
+        for (int window : windows) {
+            final int start = window * windowSize;
+            final int end = Math.min(entries.size(), start + windowSize);
+            int[] withinWindow = IntArrays.shuffle(entries.subList(start, end).toIntArray(), random);
+            order.addElements(order.size(), withinWindow);
+        }
+        return order;
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        if (recordGroupSize == 1) {
+            super.setPreProcessor(preProcessor);
+        } else {
+            // apply the pre-processor to the minibatches obtained after exchanging records:
+            this.preProcessor = preProcessor;
+        }
+    }
+
+    @Override
+    public void reset() {
+        mixed.clear();
+        super.reset();
+    }
+
+    @Override
+    public void seek(int position) {
+        mixed.clear();
+        if (recordGroupSize == 1) {
+            super.seek(position);
+            return;
+        }
+        // records are exchanged within groups, restart at the beginning of the group:
+        final int groupStart = position - position % recordGroupSize;
+        super.seek(groupStart);
+        if (position > groupStart && super.hasNext()) {
+            // the records of the skipped minibatches are redistributed to the next ones, so the group is read, but
+            // the skipped minibatches are neither assembled nor pre-processed:
+            mixGroup(position - groupStart);
+        }
+    }
+
+    @Override
+    public int position() {
+        return super.position() - mixed.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !mixed.isEmpty() || super.hasNext();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (recordGroupSize == 1) {
+            return super.next();
+        }
+        if (mixed.isEmpty()) {
+            if (!super.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mixGroup(0);
+        }
+        MultiDataSet result = mixed.poll();
+        if (preProcessor != null) {
+            preProcessor.preProcess(result);
+        }
+        return result;
+    }
+
+    /**
+     * Read the next group of minibatches of the pass, and add the minibatches obtained by exchanging their records to
+     * mixed, except the first skip ones.
+     */
+    private void mixGroup(int skip) {
+        final int groupStart = super.position();
+        ObjectArrayList<MultiDataSet> group = new ObjectArrayList<>(recordGroupSize);
+        while (group.size() < recordGroupSize && super.hasNext()) {
+            group.add(super.next());
+        }
+        Random random = new XorShift1024StarRandom(seed ^ (pass() + 1) * 0x9E3779B97F4A7C15L
+                ^ (groupStart + 1) * 0xC2B2AE3D27D4EB4FL);
+        mixRecords(group, random, skip);
+    }
+
+    /**
+     * Shuffle the records of the minibatches of a group and distribute them to minibatches of the same sizes. The
+     * first skip minibatches are not assembled.
+     */
+    private void mixRecords(ObjectArrayList<MultiDataSet> group, Random random, int skip) {
+        final int numMinibatches = group.size();
+        int totalRecords = 0;
+        for (MultiDataSet ds : group) {
+            totalRecords += ds.getFeatures(0).size(0);
+        }
+        int[] sourceMinibatch = new int[totalRecords];
+        int[] sourceRow = new int[totalRecords];
+        int record = 0;
+        for (int m = 0; m < numMinibatches; m++) {
+            final int size = group.get(m).getFeatures(0).size(0);
+            for (int row = 0; row < size; row++) {
+                sourceMinibatch[record] = m;
+                sourceRow[record] = row;
+                record++;
+            }
+        }
+        int[] permutation = IntArrays.shuffle(identity(totalRecords), random);
+        int offset = 0;
+        for (int t = 0; t < numMinibatches; t++) {
+            final int size = group.get(t).getFeatures(0).size(0);
+            if (t < skip) {
+                offset += size;
+                continue;
+            }
+            INDArray[][] sources = new INDArray[numMinibatches][];
+            for (int m = 0; m < numMinibatches; m++) {
+                sources[m] = group.get(m).getFeatures();
+            }
+            INDArray[] features = gather(sources, sourceMinibatch, sourceRow, permutation, offset, size);
+            for (int m = 0; m < numMinibatches; m++) {
+                sources[m] = group.get(m).getLabels();
+            }
+            INDArray[] labels = gather(sources, sourceMinibatch, sourceRow, permutation, offset, size);
+            for (int m = 0; m < numMinibatches; m++) {
+                sources[m] = group.get(m).getFeaturesMaskArrays();
+            }
+            INDArray[] featureMasks = gather(sources, sourceMinibatch, sourceRow, permutation, offset, size);
+            for (int m = 0; m < numMinibatches; m++) {
+                sources[m] = group.get(m).getLabelsMaskArrays();
+            }
+            INDArray[] labelMasks = gather(sources, sourceMinibatch, sourceRow, permutation, offset, size);
+            mixed.add(new org.nd4j.linalg.dataset.MultiDataSet(features, labels, featureMasks, labelMasks));
+            offset += size;
+        }
+    }
+
+    private static INDArray[] gather(INDArray[][] sources, int[] sourceMinibatch, int[] sourceRow, int[] permutation,
+                                     int offset, int size) {
+        if (sources[0] == null) {
+            return null;
+        }
+        INDArray[] result = new INDArray[sources[0].length];
+        for (int a = 0; a < result.length; a++) {
+            if (sources[0][a] == null) {
+                continue;
+            }
+            int[] shape = sources[0][a].shape().clone();
+            shape[0] = size;
+            INDArray target = Nd4j.create(shape, 'f');
+            for (int i = 0; i < size; i++) {
+                final int record = permutation[offset + i];
+                target.slice(i, 0).assign(sources[sourceMinibatch[record]][a].slice(sourceRow[record], 0));
+            }
+            result[a] = target;
+        }
+        return result;
+    }
+
+    private static int[] identity(int n) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+}
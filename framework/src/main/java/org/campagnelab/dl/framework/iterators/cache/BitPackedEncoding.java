@@ -0,0 +1,118 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores binary columns with one bit per value. In 'f' order, the values of an array form consecutive columns of
+ * shape[0] values (one value per example of the minibatch, for a given feature and time step). Columns whose values
+ * are all exactly 0 or 1 (e.g., one-hot encoded features and masks) are stored with one bit per value, other columns
+ * are stored as 4-byte floats. The encoding is lossless.
+ * <p>
+ * Layout: a bitmap with one bit per column (set when the column is binary), followed by each column in order.
+ *
+ * @author Fabien Campagne
+ */
+public class BitPackedEncoding implements MultiDataSetRawFormat.ValueEncoding {
+
+    @Override
+    public int encodedSize(int[] shape, float[] values) {
+        final int columnLength = columnLength(shape, values);
+        final int numColumns = numColumns(columnLength, values);
+        int size = bytesForBits(numColumns);
+        for (int column = 0; column < numColumns; column++) {
+            size += isBinary(values, column * columnLength, columnLength) ? bytesForBits(columnLength) : 4 * columnLength;
+        }
+        return size;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, int[] shape, float[] values) {
+        final int columnLength = columnLength(shape, values);
+        final int numColumns = numColumns(columnLength, values);
+        final int bitmapPosition = buffer.position();
+        final byte[] binaryColumns = new byte[bytesForBits(numColumns)];
+        buffer.position(bitmapPosition + binaryColumns.length);
+        for (int column = 0; column < numColumns; column++) {
+            final int start = column * columnLength;
+            if (isBinary(values, start, columnLength)) {
+                binaryColumns[column >>> 3] |= 1 << (column & 7);
+                writeBits(buffer, values, start, columnLength);
+            } else {
+                for (int i = start; i < start + columnLength; i++) {
+                    buffer.putFloat(values[i]);
+                }
+            }
+        }
+        final int end = buffer.position();
+        buffer.position(bitmapPosition);
+        buffer.put(binaryColumns);
+        buffer.position(end);
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int[] shape, float[] values) {
+        final int columnLength = columnLength(shape, values);
+        final int numColumns = numColumns(columnLength, values);
+        final byte[] binaryColumns = new byte[bytesForBits(numColumns)];
+        buffer.get(binaryColumns);
+        for (int column = 0; column < numColumns; column++) {
+            final int start = column * columnLength;
+            if ((binaryColumns[column >>> 3] & (1 << (column & 7))) != 0) {
+                readBits(buffer, values, start, columnLength);
+            } else {
+                for (int i = start; i < start + columnLength; i++) {
+                    values[i] = buffer.getFloat();
+                }
+            }
+        }
+    }
+
+    private static int columnLength(int[] shape, float[] values) {
+        return shape.length > 0 && shape[0] > 0 ? shape[0] : Math.max(1, values.length);
+    }
+
+    private static int numColumns(int columnLength, float[] values) {
+        return values.length / columnLength;
+    }
+
+    private static int bytesForBits(int numBits) {
+        return (numBits + 7) >>> 3;
+    }
+
+    private static boolean isBinary(float[] values, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            // compare bits so that -0.0 is stored as a float and decoded exactly:
+            final int bits = Float.floatToRawIntBits(values[i]);
+            if (bits != 0 && values[i] != 1f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeBits(ByteBuffer buffer, float[] values, int start, int length) {
+        int current = 0;
+        for (int i = 0; i < length; i++) {
+            if (values[start + i] == 1f) {
+                current |= 1 << (i & 7);
+            }
+            if ((i & 7) == 7) {
+                buffer.put((byte) current);
+                current = 0;
+            }
+        }
+        if ((length & 7) != 0) {
+            buffer.put((byte) current);
+        }
+    }
+
+    private static void readBits(ByteBuffer buffer, float[] values, int start, int length) {
+        int current = 0;
+        for (int i = 0; i < length; i++) {
+            if ((i & 7) == 0) {
+                current = buffer.get();
+            }
+            values[start + i] = (current & (1 << (i & 7))) != 0 ? 1f : 0f;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the minibatches of a .cf cache to the bytes of cache entries, and decodes them back. Implementations must
+ * be thread-safe, since entries are decoded concurrently by prefetching readers. Use CacheCodecs to obtain codecs
+ * by name.
+ *
+ * @author Fabien Campagne
+ */
+public interface CacheCodec {
+    /**
+     * The name of the codec, as recorded in the .cfp file of caches written with this codec.
+     */
+    String name();
+
+    /**
+     * Encode a minibatch.
+     *
+     * @param mds minibatch to encode.
+     * @return bytes of the cache entry.
+     */
+    byte[] encode(MultiDataSet mds);
+
+    /**
+     * Decode a cache entry.
+     *
+     * @param entry buffer that holds exactly the bytes of the entry, starting at its position.
+     * @return decoded minibatch.
+     */
+    MultiDataSet decode(ByteBuffer entry);
+}
@@ -0,0 +1,173 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs for the entries of raw-layout caches. A codec is named after the encoding of array values, optionally
+ * followed by "+deflate" to compress entries as blocks:
+ * <ul>
+ * <li>none: values stored as 4-byte floats. Entries can be decoded without copies from memory-mapped caches.</li>
+ * <li>float16: values stored as 2-byte half floats (lossy, see Float16Encoding).</li>
+ * <li>bitpacked: binary columns stored with one bit per value (lossless, see BitPackedEncoding).</li>
+ * <li>sparse: indices of non-zero values, for one-hot features and labels (lossless, see SparseEncoding).</li>
+ * <li>deflate: block compression of entries with values stored as 4-byte floats.</li>
+ * </ul>
+ * For instance, bitpacked+deflate bit-packs binary columns and then compresses each entry.
+ *
+ * @author Fabien Campagne
+ */
+public class CacheCodecs {
+    /**
+     * Name of the .cfp property that records the codec of cache entries.
+     */
+    public static final String CODEC_PROPERTY = "cacheCodec";
+    public static final String NONE = "none";
+    public static final String FLOAT16 = "float16";
+    public static final String BITPACKED = "bitpacked";
+    public static final String SPARSE = "sparse";
+    public static final String DEFLATE = "deflate";
+    private static final String DEFLATE_SUFFIX = "+" + DEFLATE;
+
+    /**
+     * Names of the codecs that forName accepts.
+     */
+    public static final String[] NAMES = {NONE, FLOAT16, BITPACKED, SPARSE, DEFLATE,
+            FLOAT16 + DEFLATE_SUFFIX, BITPACKED + DEFLATE_SUFFIX, SPARSE + DEFLATE_SUFFIX};
+
+    /**
+     * Return the codec with this name.
+     *
+     * @param name name of the codec, e.g., bitpacked+deflate.
+     * @return codec.
+     * @throws IllegalArgumentException when the name does not designate a codec.
+     */
+    public static CacheCodec forName(String name) {
+        if (DEFLATE.equals(name)) {
+            return new DeflateCodec(forName(NONE));
+        }
+        if (name.endsWith(DEFLATE_SUFFIX)) {
+            return new DeflateCodec(forName(name.substring(0, name.length() - DEFLATE_SUFFIX.length())));
+        }
+        switch (name) {
+            case NONE:
+                return new ValueCodec(NONE, MultiDataSetRawFormat.FLOAT32);
+            case FLOAT16:
+                return new ValueCodec(FLOAT16, new Float16Encoding());
+            case BITPACKED:
+                return new ValueCodec(BITPACKED, new BitPackedEncoding());
+            case SPARSE:
+                return new ValueCodec(SPARSE, new SparseEncoding());
+            default:
+                throw new IllegalArgumentException("Unknown cache codec: " + name);
+        }
+    }
+
+    /**
+     * Return the codec of a raw-layout cache. Caches written before codecs were introduced use codec none.
+     *
+     * @param cfProperties properties of the cache (.cfp file).
+     * @return codec.
+     */
+    public static CacheCodec fromProperties(Properties cfProperties) {
+        return forName(cfProperties.getProperty(CODEC_PROPERTY, NONE));
+    }
+
+    /**
+     * Stores entries in the raw layout, with a value encoding.
+     */
+    private static class ValueCodec implements CacheCodec {
+        private final String name;
+        private final MultiDataSetRawFormat.ValueEncoding encoding;
+
+        ValueCodec(String name, MultiDataSetRawFormat.ValueEncoding encoding) {
+            this.name = name;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public byte[] encode(MultiDataSet mds) {
+            return MultiDataSetRawFormat.encode(mds, encoding);
+        }
+
+        @Override
+        public MultiDataSet decode(ByteBuffer entry) {
+            return MultiDataSetRawFormat.decode(entry, encoding);
+        }
+    }
+
+    /**
+     * Compresses the entries of another codec with deflate, at the fastest compression level. Entries start with
+     * the 4-byte length of the uncompressed entry, followed by the compressed bytes.
+     */
+    private static class DeflateCodec implements CacheCodec {
+        private final CacheCodec delegate;
+
+        DeflateCodec(CacheCodec delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String name() {
+            return NONE.equals(delegate.name()) ? DEFLATE : delegate.name() + DEFLATE_SUFFIX;
+        }
+
+        @Override
+        public byte[] encode(MultiDataSet mds) {
+            byte[] uncompressed = delegate.encode(mds);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(uncompressed);
+                deflater.finish();
+                ByteArrayOutputStream output = new ByteArrayOutputStream(uncompressed.length / 4 + 64);
+                ByteBuffer length = ByteBuffer.allocate(4).order(MultiDataSetRawFormat.BYTE_ORDER);
+                length.putInt(uncompressed.length);
+                output.write(length.array(), 0, 4);
+                byte[] block = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(block);
+                    output.write(block, 0, n);
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public MultiDataSet decode(ByteBuffer entry) {
+            entry.order(MultiDataSetRawFormat.BYTE_ORDER);
+            byte[] uncompressed = new byte[entry.getInt()];
+            byte[] compressed = new byte[entry.remaining()];
+            entry.get(compressed);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int offset = 0;
+                while (offset < uncompressed.length) {
+                    int n = inflater.inflate(uncompressed, offset, uncompressed.length - offset);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new DataFormatException("Truncated cache entry.");
+                    }
+                    offset += n;
+                }
+            } catch (DataFormatException e) {
+                throw new RuntimeException("Unable to decompress cache entry", e);
+            } finally {
+                inflater.end();
+            }
+            return delegate.decode(ByteBuffer.wrap(uncompressed));
+        }
+    }
+}
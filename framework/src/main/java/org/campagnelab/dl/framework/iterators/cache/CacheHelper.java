@@ -1,26 +1,86 @@
 package org.campagnelab.dl.framework.iterators.cache;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.bytedeco.javacpp.Pointer;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
 import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.PrefetchingCacheIterator;
+import org.campagnelab.dl.framework.iterators.RebatchingCacheIterator;
+import org.campagnelab.dl.framework.iterators.ShuffledCacheIterator;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeatures;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeaturesArguments;
 import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * A concat iterator that transparently creates a disk cache of the content of the input iterables.
  */
 public class CacheHelper<RecordType> {
+    static private Logger LOG = LoggerFactory.getLogger(CacheHelper.class);
+    /**
+     * Objects that serialize the threads of this JVM that build the same cache, keyed by absolute cache basename.
+     */
+    private static final ConcurrentHashMap<String, Object> BUILD_LOCKS = new ConcurrentHashMap<>();
+    private static final String MAX_DIRECT_MEMORY_OPTION = "-XX:MaxDirectMemorySize=";
 
+    private String cacheCodec = CacheCodecs.NONE;
+    private int decodeThreads = 0;
+    private int blockSize = 0;
+    private boolean columnStore;
+
+    /**
+     * Set the codec used to encode the entries of caches built by this helper. Existing caches are read with the
+     * codec they were written with.
+     *
+     * @param cacheCodec name of a codec, see CacheCodecs.
+     */
+    public void setCacheCodec(String cacheCodec) {
+        this.cacheCodec = cacheCodec;
+    }
+
+    /**
+     * Store caches in blocks of this number of records, independently of the minibatch size used to read them.
+     * Minibatches of the requested size are then assembled from the blocks when the cache is read (see
+     * RebatchingCacheIterator), so that the same cache serves any minibatch size. When zero, caches are stored
+     * with one entry per minibatch, and a cache is built for each minibatch size.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * When true, caches are built from a column store (see ColumnStore) located next to the cache
+     * (cacheName-columns), which keeps the features of each leaf feature mapper. Caches built for new feature mappers
+     * then only map the features of the leaf mappers that are not in the store.
+     */
+    public void setColumnStore(boolean columnStore) {
+        this.columnStore = columnStore;
+    }
 
+    /**
+     * Set the number of threads that decode the entries of memory-mapped caches ahead of the consumer. When zero,
+     * entries are decoded by the thread that calls next().
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
 
     /**
      * Return a cached version of the iterator. Either returns a pre-cached iterator, or chaches the iterator
@@ -34,10 +94,31 @@ public class CacheHelper<RecordType> {
      */
     public MultiDataSetIterator cache(final DomainDescriptor domainDescriptor,
                                       MultiDataSetIteratorAdapter adapter, String cacheName, int cacheN, int minibatchSize) {
-//TODO use a file lock to prevent two processes from trying to create a cache at the same time.
+        return cache(domainDescriptor, adapter, cacheName, cacheN, minibatchSize, null, 1);
+    }
+
+    /**
+     * Return a cached version of the iterator. Either returns a pre-cached iterator, or chaches the iterator
+     * and returns the cached version. When the cache needs to be built, records are mapped by numWorkers threads.
+     *
+     * @param domainDescriptor
+     * @param adapter
+     * @param cacheName
+     * @param cacheN
+     * @param workerDomainDescriptors creates a new, identically configured, domain descriptor each time it is called.
+     *                                When null, the cache is built with one thread.
+     * @param numWorkers              number of threads that map records when building the cache.
+     * @return A cached iterator.
+     */
+    public MultiDataSetIterator cache(final DomainDescriptor domainDescriptor,
+                                      MultiDataSetIteratorAdapter adapter, String cacheName, int cacheN, int minibatchSize,
+                                      Supplier<DomainDescriptor<RecordType>> workerDomainDescriptors, int numWorkers) {
         // determine if cache exists. If it does, use it.
-        cacheName = decorateCacheName(domainDescriptor, cacheName, minibatchSize);
-        if (!cacheExists(cacheName, cacheN, true)) {
+        final int entrySize = blockSize > 0 ? blockSize : minibatchSize;
+        final String columnStoreName = FilenameUtils.removeExtension(cacheName) + "-columns";
+        cacheName = decorateCacheName(domainDescriptor, cacheName, entrySize);
+        final String finalCacheName = cacheName;
+        buildOnce(cacheName, cacheN, () -> {
             // Cache does not exist, we first build it:
             MapMultiDatasetFeatures tool = new MapMultiDatasetFeatures() {
                 @Override
@@ -47,17 +128,241 @@ public class CacheHelper<RecordType> {
             };
             MapMultiDatasetFeaturesArguments arguments = new MapMultiDatasetFeaturesArguments<>();
 
-            arguments.adapter = adapter;
-            arguments.outputBasename = cacheName;
+            arguments.adapter = entrySize == adapter.getBatchSize() ? adapter : withBatchSize(adapter, domainDescriptor, entrySize);
+            arguments.outputBasename = finalCacheName;
             arguments.cacheN = cacheN;
             arguments.domainDescriptor = domainDescriptor;
-            arguments.miniBatchSize = minibatchSize;
+            arguments.miniBatchSize = entrySize;
+            arguments.cacheCodec = cacheCodec;
+            if (columnStore) {
+                arguments.columnStore = columnStoreName;
+            }
+            if (workerDomainDescriptors != null) {
+                arguments.workerDomainDescriptors = workerDomainDescriptors;
+                arguments.numWorkers = numWorkers;
+            }
             tool.setArguments(arguments);
             tool.execute();
-        }
+        });
         assert cacheExists(cacheName, cacheN, true) : "A cache must exist at this point.";
         System.out.println("Using cache: "+cacheName);
-        return new MultiDatasetMappedFeaturesIterator(cacheName, cacheN);
+        MultiDataSetIterator iterator;
+        if (CacheIndex.exists(cacheName)) {
+            // caches written with an offset index can be memory mapped:
+            MultiDatasetMemoryMappedIterator mapped = new MultiDatasetMemoryMappedIterator(cacheName, cacheN);
+            iterator = decodeThreads > 0 ? new PrefetchingCacheIterator(mapped, decodeThreads, 4 * decodeThreads) : mapped;
+        } else {
+            iterator = new MultiDatasetMappedFeaturesIterator(cacheName, cacheN);
+        }
+        return entrySize == minibatchSize ? iterator : new RebatchingCacheIterator(iterator, minibatchSize);
+    }
+
+    private static MultiDataSetIteratorAdapter withBatchSize(MultiDataSetIteratorAdapter adapter,
+                                                             DomainDescriptor domainDescriptor, int batchSize) {
+        try {
+            MultiDataSetIteratorAdapter resized = new MultiDataSetIteratorAdapter(adapter.getIterable(), batchSize,
+                    domainDescriptor, adapter.isPretrained(), adapter.getEosIndex()) {
+                @Override
+                public String getBasename() {
+                    return adapter.getBasename();
+                }
+            };
+            resized.setCompileMappers(adapter.isCompileMappers());
+            return resized;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create adapter", e);
+        }
+    }
+
+    /**
+     * Return an iterator that visits the minibatches of a cache in a different order in each pass (see
+     * ShuffledCacheIterator). Only caches with an offset index can be shuffled; other iterators are returned unchanged.
+     *
+     * @param cached          iterator returned by the cache method.
+     * @param seed            seed of the random permutations.
+     * @param windowSize      number of consecutive minibatches shuffled together.
+     * @param recordGroupSize number of consecutive minibatches whose records are exchanged, or 1 to keep minibatches intact.
+     * @return A shuffling iterator over the cache.
+     */
+    public MultiDataSetIterator shuffle(MultiDataSetIterator cached, long seed, int windowSize, int recordGroupSize) {
+        if (cached instanceof RebatchingCacheIterator) {
+            // shuffle the blocks, then assemble minibatches from the shuffled blocks:
+            RebatchingCacheIterator rebatching = (RebatchingCacheIterator) cached;
+            return new RebatchingCacheIterator(shuffle(rebatching.getSource(), seed, windowSize, recordGroupSize),
+                    rebatching.getMiniBatchSize());
+        }
+        MultiDatasetMemoryMappedIterator cache = memoryMapped(cached);
+        if (cache == null) {
+            LOG.warn("The cache has no offset index (.cfi file), minibatches will not be shuffled. Rebuild the cache to shuffle.");
+            return cached;
+        }
+        if (cached instanceof PrefetchingCacheIterator) {
+            ((PrefetchingCacheIterator) cached).shutdown();
+        }
+        return new ShuffledCacheIterator(cache, decodeThreads, Math.max(4 * decodeThreads, 2 * recordGroupSize),
+                seed, windowSize, recordGroupSize);
+    }
+
+    /**
+     * Keep the minibatches of a cache in memory. The whole cache is loaded in memory (see FullyInMemoryCache) when
+     * its decoded minibatches are estimated to fit in the budget. Otherwise, a memory tier keeps as many encoded
+     * minibatches as the budget allows off-heap, and the others are read from disk (see OffHeapEntryCache). Caches
+     * without an offset index are always fully loaded in memory.
+     *
+     * @param cached iterator returned by the cache method.
+     * @param budget number of bytes available to keep the cache in memory, or zero for the default budget (see
+     *               defaultBudget).
+     * @return An iterator over the cache, that keeps as much of the cache as possible in memory.
+     */
+    public MultiDataSetIterator inMemory(MultiDataSetIterator cached, long budget) {
+        if (cached instanceof RebatchingCacheIterator) {
+            RebatchingCacheIterator rebatching = (RebatchingCacheIterator) cached;
+            MultiDataSetIterator blocks = inMemory(rebatching.getSource(), budget);
+            if (blocks instanceof FullyInMemoryCache) {
+                // keep the assembled minibatches rather than the blocks:
+                return new FullyInMemoryCache(new RebatchingCacheIterator(blocks, rebatching.getMiniBatchSize()));
+            }
+            return new RebatchingCacheIterator(blocks, rebatching.getMiniBatchSize());
+        }
+        MultiDatasetMemoryMappedIterator cache = memoryMapped(cached);
+        if (cache == null) {
+            return new FullyInMemoryCache(cached);
+        }
+        if (budget <= 0) {
+            budget = defaultBudget();
+        }
+        final long estimatedSize = estimateDecodedSize(cache);
+        if (estimatedSize <= budget) {
+            LOG.info(String.format("Cache fits in memory (about %d MB), loading it fully.", estimatedSize >> 20));
+            return new FullyInMemoryCache(cached);
+        }
+        LOG.info(String.format("Cache is too large to fit in memory (about %d MB decoded, %d MB encoded), keeping at " +
+                "most %d MB of encoded minibatches off-heap.", estimatedSize >> 20, cache.sizeInBytes() >> 20, budget >> 20));
+        cache.setMemoryTier(new OffHeapEntryCache(cache.numMinibatches(), budget));
+        return cached;
+    }
+
+    /**
+     * The default budget of inMemory. Both kinds of memory that inMemory fills live outside the Java heap: the arrays of
+     * a fully loaded cache are allocated by ND4J, within the JavaCPP limit (org.bytedeco.javacpp.maxbytes), and the
+     * memory tier uses direct buffers, within -XX:MaxDirectMemorySize. The default budget is half of the smaller limit.
+     * Both limits default to the maximum heap size when they are not set.
+     */
+    static long defaultBudget() {
+        long limit = maxDirectMemory();
+        if (Pointer.maxBytes() > 0) {
+            limit = Math.min(limit, Pointer.maxBytes());
+        }
+        return limit / 2;
+    }
+
+    /**
+     * Maximum size of the direct buffers of this JVM, from -XX:MaxDirectMemorySize, or the maximum heap size (the
+     * default of the JVM) when the option is absent.
+     */
+    static long maxDirectMemory() {
+        long maxDirectMemory = Runtime.getRuntime().maxMemory();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith(MAX_DIRECT_MEMORY_OPTION)) {
+                maxDirectMemory = parseSize(argument.substring(MAX_DIRECT_MEMORY_OPTION.length()));
+            }
+        }
+        return maxDirectMemory;
+    }
+
+    /**
+     * Parse a JVM memory size, such as 512m or 4G.
+     */
+    static long parseSize(String size) {
+        final String units = "kmgt";
+        int unit = units.indexOf(Character.toLowerCase(size.charAt(size.length() - 1)));
+        if (unit == -1) {
+            return Long.parseLong(size);
+        }
+        return Long.parseLong(size.substring(0, size.length() - 1)) << (10 * (unit + 1));
+    }
+
+    /**
+     * Estimate the memory needed to hold all the minibatches of a cache after decoding, from the size of its first
+     * minibatch.
+     */
+    static long estimateDecodedSize(MultiDatasetMemoryMappedIterator cache) {
+        if (cache.numMinibatches() == 0) {
+            return 0;
+        }
+        MultiDataSet first = cache.get(0);
+        long size = 0;
+        INDArray[][] groups = {first.getFeatures(), first.getLabels(), first.getFeaturesMaskArrays(),
+                first.getLabelsMaskArrays()};
+        for (INDArray[] group : groups) {
+            if (group == null) {
+                continue;
+            }
+            for (INDArray array : group) {
+                if (array != null) {
+                    size += (long) array.length() * Nd4j.sizeOfDataType();
+                }
+            }
+        }
+        return size * cache.numMinibatches();
+    }
+
+    /**
+     * Return the memory-mapped cache that an iterator returned by the cache method reads, or null if the cache is
+     * not memory-mapped.
+     */
+    private static MultiDatasetMemoryMappedIterator memoryMapped(MultiDataSetIterator cached) {
+        if (cached instanceof PrefetchingCacheIterator) {
+            return ((PrefetchingCacheIterator) cached).getCache();
+        } else if (cached instanceof MultiDatasetMemoryMappedIterator) {
+            return (MultiDatasetMemoryMappedIterator) cached;
+        }
+        return null;
+    }
+
+    /**
+     * Build a cache unless it already exists. Processes that need the same cache coordinate with a lock file
+     * (cacheName.lock): one process builds the cache while the others wait for the lock, and then find that the
+     * cache exists. File locks are held by the whole JVM, so threads of the same process are serialized on a lock
+     * object of the cache before they request the file lock. Builds interrupted after a checkpoint resume where
+     * they stopped (see CacheWriter).
+     *
+     * @param cacheName basename of the cache.
+     * @param cacheN    number of records the cache must hold.
+     * @param builder   builds the cache when it does not exist.
+     */
+    public static void buildOnce(String cacheName, int cacheN, Runnable builder) {
+        if (cacheExists(cacheName, cacheN, true)) {
+            return;
+        }
+        File cacheFile = new File(cacheName).getAbsoluteFile();
+        synchronized (BUILD_LOCKS.computeIfAbsent(cacheFile.getPath(), path -> new Object())) {
+            ExclusiveLockRequestWithFile lock = new ExclusiveLockRequestWithFile(cacheFile.getName() + ".lock",
+                    cacheFile.getParentFile());
+            try {
+                try {
+                    lock.query();
+                    if (!lock.granted()) {
+                        LOG.info("Waiting for another process to finish building cache " + cacheName);
+                        lock.waitAndLock();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to lock cache " + cacheName, e);
+                }
+                // the cache may have been built by the process or thread that held the lock:
+                if (!cacheExists(cacheName, cacheN, true)) {
+                    builder.run();
+                }
+            } finally {
+                try {
+                    lock.release();
+                } catch (IOException e) {
+                    LOG.warn("Unable to release the lock on cache " + cacheName, e);
+                } finally {
+                    IOUtils.closeQuietly(lock.getLockedFile());
+                }
+            }
+        }
     }
 
     private String decorateCacheName(DomainDescriptor domainDescriptor, String cacheName,int miniBatchSize) {
@@ -0,0 +1,157 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+
+import java.io.*;
+
+/**
+ * Sidecar offset index for a .cf cache (stored in a .cfi file). The index stores, for each minibatch entry of the
+ * cache, the offset of the entry in the .cf file and the number of examples in the entry. It makes it possible to
+ * seek to any minibatch in constant time.
+ *
+ * @author Fabien Campagne
+ */
+public class CacheIndex {
+    public static final String EXTENSION = ".cfi";
+    /**
+     * Number of bytes used to store each entry in the index.
+     */
+    public static final int ENTRY_SIZE = 12;
+
+    private final long[] offsets;
+    private final int[] numExamples;
+    private final long[] firstExample;
+
+    private CacheIndex(long[] offsets, int[] numExamples) {
+        this.offsets = offsets;
+        this.numExamples = numExamples;
+        firstExample = new long[numExamples.length + 1];
+        for (int i = 0; i < numExamples.length; i++) {
+            firstExample[i + 1] = firstExample[i] + numExamples[i];
+        }
+    }
+
+    /**
+     * Return true when the cache with this basename has an index.
+     */
+    public static boolean exists(String basename) {
+        return new File(basename + EXTENSION).exists();
+    }
+
+    /**
+     * Number of entries recorded in the index of the cache with this basename.
+     */
+    public static long numEntries(String basename) {
+        return new File(basename + EXTENSION).length() / ENTRY_SIZE;
+    }
+
+    /**
+     * Load the index of the cache with this basename.
+     */
+    public static CacheIndex load(String basename) throws IOException {
+        File file = new File(basename + EXTENSION);
+        int numEntries = (int) (file.length() / ENTRY_SIZE);
+        long[] offsets = new long[numEntries];
+        int[] numExamples = new int[numEntries];
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(file)))) {
+            for (int i = 0; i < numEntries; i++) {
+                offsets[i] = input.readLong();
+                numExamples[i] = input.readInt();
+            }
+        }
+        return new CacheIndex(offsets, numExamples);
+    }
+
+    /**
+     * Number of minibatch entries in the cache.
+     */
+    public int numEntries() {
+        return offsets.length;
+    }
+
+    /**
+     * Offset of an entry (i.e., of the length that precedes the entry bytes) in the .cf file.
+     */
+    public long offset(int entryIndex) {
+        return offsets[entryIndex];
+    }
+
+    /**
+     * Number of examples in an entry.
+     */
+    public int numExamples(int entryIndex) {
+        return numExamples[entryIndex];
+    }
+
+    /**
+     * Index of the first example of an entry, counted from the start of the cache.
+     */
+    public long firstExample(int entryIndex) {
+        return firstExample[entryIndex];
+    }
+
+    /**
+     * Total number of examples in the cache.
+     */
+    public long totalExamples() {
+        return firstExample[numExamples.length];
+    }
+
+    /**
+     * Writes the index while the cache is being written.
+     */
+    public static class Writer implements Closeable {
+        private final FileOutputStream file;
+        private final DataOutputStream output;
+        private long position;
+
+        public Writer(String basename) throws FileNotFoundException {
+            this(basename, 0);
+        }
+
+        /**
+         * Create a writer that appends to an existing index.
+         *
+         * @param basename basename of the cache.
+         * @param position length of the .cf file described by the existing index, or zero to start a new index.
+         */
+        public Writer(String basename, long position) throws FileNotFoundException {
+            file = new FileOutputStream(basename + EXTENSION, position > 0);
+            output = new DataOutputStream(new FastBufferedOutputStream(file));
+            this.position = position;
+        }
+
+        /**
+         * Record an entry written to the cache.
+         *
+         * @param entryLength number of bytes written for the entry, including the 4-byte length.
+         * @param numExamples number of examples in the entry.
+         */
+        public void append(int entryLength, int numExamples) throws IOException {
+            output.writeLong(position);
+            output.writeInt(numExamples);
+            position += entryLength;
+        }
+
+        /**
+         * Write the entries appended so far to the index file.
+         */
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        /**
+         * Write the entries appended so far to the index file, and force them to the storage device.
+         */
+        public void force() throws IOException {
+            output.flush();
+            file.getChannel().force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
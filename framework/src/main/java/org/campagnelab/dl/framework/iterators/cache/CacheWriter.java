@@ -0,0 +1,213 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Writes the entries of a .cf cache and its offset index, and checkpoints progress so that an interrupted build can
+ * resume where it stopped. Every checkpointEvery entries, the .cf and .cfi files are forced to the storage device and
+ * the number of entries and records written so far is recorded in a checkpoint file (.cfc). When a writer is created for a cache that has a
+ * checkpoint written with the same build parameters, the files are truncated to the checkpoint and writing resumes
+ * after the last checkpointed entry. The caller is responsible for skipping the records already written (see
+ * resumedRecords()).
+ * <p>
+ * The .cfp file is written last, when the build completes, so that a cache is never considered complete before all
+ * its entries are written.
+ *
+ * @author Fabien Campagne
+ */
+public class CacheWriter implements Closeable {
+    static private Logger LOG = LoggerFactory.getLogger(CacheWriter.class);
+    public static final String CHECKPOINT_EXTENSION = ".cfc";
+
+    private final String basename;
+    private final Properties buildParameters;
+    private final int checkpointEvery;
+    private final FileOutputStream file;
+    private final OutputStream output;
+    private final CacheIndex.Writer indexWriter;
+    private final long resumedRecords;
+    private long numDatasets;
+    private long numRecords;
+    private long length;
+    private boolean closed;
+
+    /**
+     * Create a writer for a cache, resuming from its checkpoint if there is one.
+     *
+     * @param basename        basename of the cache (without the .cf extension).
+     * @param buildParameters parameters that determine the content of the cache. A checkpoint is only resumed when
+     *                        it was written with the same parameters.
+     * @param checkpointEvery number of entries between checkpoints, or zero to disable checkpoints.
+     */
+    public CacheWriter(String basename, Properties buildParameters, int checkpointEvery) throws IOException {
+        this.basename = basename;
+        this.buildParameters = buildParameters;
+        this.checkpointEvery = checkpointEvery;
+        Properties checkpoint = readCheckpoint();
+        if (checkpoint != null) {
+            numDatasets = Long.parseLong(checkpoint.getProperty("numDatasets"));
+            numRecords = Long.parseLong(checkpoint.getProperty("numRecords"));
+            length = Long.parseLong(checkpoint.getProperty("length"));
+            truncate(basename + ".cf", length);
+            truncate(basename + CacheIndex.EXTENSION, numDatasets * CacheIndex.ENTRY_SIZE);
+            LOG.info(String.format("Resuming cache build of %s after %d minibatches (%d records).", basename,
+                    numDatasets, numRecords));
+        } else {
+            // a stale checkpoint must not be resumed once the files have been overwritten:
+            new File(basename + CHECKPOINT_EXTENSION).delete();
+        }
+        resumedRecords = numRecords;
+        file = new FileOutputStream(basename + ".cf", checkpoint != null);
+        output = new FastBufferedOutputStream(file);
+        indexWriter = new CacheIndex.Writer(basename, length);
+    }
+
+    /**
+     * Number of records that were written before this build resumed. The caller must skip these records.
+     */
+    public long resumedRecords() {
+        return resumedRecords;
+    }
+
+    /**
+     * Number of entries written to the cache, including entries written before the build resumed.
+     */
+    public long numDatasets() {
+        return numDatasets;
+    }
+
+    /**
+     * Number of records written to the cache, including records written before the build resumed.
+     */
+    public long numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Append an entry to the cache.
+     *
+     * @param bytes       the encoded entry.
+     * @param numExamples number of examples (records) in the entry.
+     */
+    public void append(byte[] bytes, int numExamples) throws IOException {
+        // write the length of the array first, most significant bytes first:
+        output.write((bytes.length >> 8 * 3) & 0xFF);
+        output.write((bytes.length >> 8 * 2) & 0xFF);
+        output.write((bytes.length >> 8) & 0xFF);
+        output.write(bytes.length & 0xFF);
+        output.write(bytes);
+        indexWriter.append(bytes.length + 4, numExamples);
+        length += bytes.length + 4;
+        numDatasets += 1;
+        numRecords += numExamples;
+        if (checkpointEvery > 0 && numDatasets % checkpointEvery == 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Force the entries written so far to the storage device, then record them in the checkpoint file. A checkpoint
+     * therefore never describes entries that could be lost if the machine stops.
+     */
+    public void checkpoint() throws IOException {
+        output.flush();
+        file.getChannel().force(false);
+        indexWriter.force();
+        Properties checkpoint = new Properties();
+        checkpoint.putAll(buildParameters);
+        checkpoint.put("numDatasets", Long.toString(numDatasets));
+        checkpoint.put("numRecords", Long.toString(numRecords));
+        checkpoint.put("length", Long.toString(length));
+        storeAtomically(checkpoint, basename + CHECKPOINT_EXTENSION);
+    }
+
+    /**
+     * Close the cache files and write the cache properties, which marks the cache as complete. The checkpoint
+     * is removed.
+     *
+     * @param cfpProperties properties of the cache (.cfp file).
+     */
+    public void complete(Properties cfpProperties) throws IOException {
+        close();
+        storeAtomically(cfpProperties, basename + ".cfp");
+        new File(basename + CHECKPOINT_EXTENSION).delete();
+    }
+
+    /**
+     * Close the cache files. The cache is not complete until complete() is called, and entries written after the
+     * last checkpoint are discarded if the build resumes. Closing a writer that is already closed has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            output.close();
+        } finally {
+            indexWriter.close();
+        }
+    }
+
+    private Properties readCheckpoint() {
+        File file = new File(basename + CHECKPOINT_EXTENSION);
+        if (!file.exists() || !new File(basename + ".cf").exists() || !CacheIndex.exists(basename)) {
+            return null;
+        }
+        Properties checkpoint = new Properties();
+        try (FileReader reader = new FileReader(file)) {
+            checkpoint.load(reader);
+        } catch (IOException e) {
+            LOG.warn("Unable to read cache checkpoint, rebuilding the cache from the start.", e);
+            return null;
+        }
+        for (String name : buildParameters.stringPropertyNames()) {
+            if (!buildParameters.getProperty(name).equals(checkpoint.getProperty(name))) {
+                LOG.info("Cache checkpoint was written with different parameters, rebuilding the cache from the start.");
+                return null;
+            }
+        }
+        long length = Long.parseLong(checkpoint.getProperty("length", "-1"));
+        long numDatasets = Long.parseLong(checkpoint.getProperty("numDatasets", "-1"));
+        if (length < 0 || numDatasets < 0 || new File(basename + ".cf").length() < length ||
+                CacheIndex.numEntries(basename) < numDatasets) {
+            LOG.warn("Cache checkpoint does not match the cache files, rebuilding the cache from the start.");
+            return null;
+        }
+        return checkpoint;
+    }
+
+    private static void truncate(String filename, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * Store properties to a temporary file, force it to the storage device, then rename it, so that readers never
+     * see a partially written file.
+     *
+     * @throws java.nio.file.AtomicMoveNotSupportedException when the file system cannot rename the file atomically.
+     */
+    static void storeAtomically(Properties properties, String filename) throws IOException {
+        File destination = new File(filename);
+        File temporary = new File(filename + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            properties.store(stream, new Date().toString());
+            stream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,400 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.logging.ProgressLogger;
+import org.campagnelab.dl.framework.mappers.CompositeFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
+import org.campagnelab.dl.framework.mappers.MappedDimensions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Stores the features produced by each leaf mapper of a composite feature mapper as a separate group of columns.
+ * Composite mappers (see CompositeFeatureMapper) are decomposed into leaf mappers, and each leaf is identified by a
+ * key built from its class, its feature names, the record transformations applied by the composites above it, and a
+ * fingerprint of the features it produces for the first records. Mappers that share leaves with a mapper stored
+ * previously only compute the columns of their new leaves: the other columns are read from the store.
+ * <p>
+ * Each column group is stored in directory/key.col (numRecords rows of big-endian floats) and directory/key.colp. The
+ * .colp file is written last, so groups without it are incomplete and are rebuilt.
+ *
+ * @author Fabien Campagne
+ */
+public class ColumnStore<RecordType> implements Closeable {
+    static private Logger LOG = LoggerFactory.getLogger(ColumnStore.class);
+    /**
+     * Number of records used to fingerprint the features of leaf mappers.
+     */
+    static final int FINGERPRINT_RECORDS = 64;
+
+    private final File directory;
+    private final List<Closeable> readers = new ObjectArrayList<>();
+    private int numGroupsBuilt;
+    private int numGroupsReused;
+
+    /**
+     * @param directory directory where column groups are stored. Created if it does not exist.
+     */
+    public ColumnStore(String directory) {
+        this.directory = new File(directory);
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new RuntimeException("Unable to create column store directory " + directory);
+        }
+    }
+
+    /**
+     * Return a feature mapper that reads the features of mapper from the store. Column groups that are not stored yet
+     * are built first, by mapping the records with their leaf mapper only. The returned mapper reads one row each
+     * time prepareToNormalize is called, so records must be mapped in the order of the records iterable, starting at
+     * firstRecord.
+     *
+     * @param mapper      mapper whose features are read from the store.
+     * @param records     records to map, in the order they are mapped.
+     * @param cacheN      maximum number of records mapped.
+     * @param firstRecord index of the first record mapped with the returned mapper.
+     * @return a mapper that reads features from the store, or null if the features of mapper cannot be stored in
+     * columns (only one-dimensional features without masks can be stored).
+     */
+    public FeatureMapper<RecordType> columns(FeatureMapper<RecordType> mapper, Iterable<RecordType> records,
+                                             int cacheN, long firstRecord) throws IOException {
+        if (mapper.hasMask() || mapper.dimensions().numDimensions() != 1) {
+            return null;
+        }
+        Node<RecordType> root = decompose(mapper, "");
+        List<Node<RecordType>> leaves = new ObjectArrayList<>();
+        root.collectLeaves(leaves);
+        fingerprint(root, leaves, records);
+        ObjectOpenHashSet<String> keysToBuild = new ObjectOpenHashSet<>();
+        for (Node<RecordType> leaf : leaves) {
+            if (!isStored(leaf, cacheN)) {
+                // a leaf shared by several composites is built once:
+                leaf.build = keysToBuild.add(leaf.key);
+            }
+        }
+        numGroupsReused += leaves.size() - keysToBuild.size();
+        numGroupsBuilt += keysToBuild.size();
+        LOG.info(String.format("%s: %d of %d column groups stored, building %d.", mapper.getClass().getSimpleName(),
+                leaves.size() - keysToBuild.size(), leaves.size(), keysToBuild.size()));
+        if (!keysToBuild.isEmpty()) {
+            build(root, leaves, records, cacheN);
+        }
+        ColumnReader<RecordType> reader = new ColumnReader<>(mapper.numberOfFeatures(), leaves, directory, firstRecord);
+        readers.add(reader);
+        return reader;
+    }
+
+    /**
+     * Number of column groups built since this store was created.
+     */
+    public int getNumGroupsBuilt() {
+        return numGroupsBuilt;
+    }
+
+    /**
+     * Number of column groups read from the store rather than built, since this store was created.
+     */
+    public int getNumGroupsReused() {
+        return numGroupsReused;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Closeable reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+    }
+
+    private static <RecordType> Node<RecordType> decompose(FeatureMapper<RecordType> mapper, String transformations) {
+        Node<RecordType> node = new Node<>(mapper, transformations);
+        if (mapper instanceof CompositeFeatureMapper) {
+            CompositeFeatureMapper<RecordType> composite = (CompositeFeatureMapper<RecordType>) mapper;
+            FeatureMapper<RecordType>[] delegates = composite.delegates();
+            int numFeatures = 0;
+            for (FeatureMapper<RecordType> delegate : delegates) {
+                numFeatures += delegate.numberOfFeatures();
+            }
+            // composites that do not simply concatenate their delegates are leaves:
+            if (delegates.length > 0 && numFeatures == mapper.numberOfFeatures()) {
+                final String childTransformations = transformations + "/" + composite.recordTransformation();
+                node.children = new ObjectArrayList<>();
+                for (FeatureMapper<RecordType> delegate : delegates) {
+                    node.children.add(decompose(delegate, childTransformations));
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Compute the keys of the leaves from the features they produce for the first records.
+     */
+    private static <RecordType> void fingerprint(Node<RecordType> root, List<Node<RecordType>> leaves,
+                                                 Iterable<RecordType> records) {
+        for (Node<RecordType> leaf : leaves) {
+            leaf.fingerprint = leaf.describe().hashCode();
+            leaf.mapped = new float[leaf.mapper.numberOfFeatures()];
+            leaf.build = true;
+        }
+        Iterator<RecordType> iterator = records.iterator();
+        for (int i = 0; i < FINGERPRINT_RECORDS && iterator.hasNext(); i++) {
+            root.map(iterator.next());
+            for (Node<RecordType> leaf : leaves) {
+                for (float value : leaf.mapped) {
+                    leaf.fingerprint = 31 * leaf.fingerprint + Float.floatToIntBits(value);
+                }
+            }
+        }
+        for (Node<RecordType> leaf : leaves) {
+            leaf.key = leaf.mapper.getClass().getSimpleName() + "-" + Long.toHexString(leaf.fingerprint);
+            leaf.build = false;
+        }
+    }
+
+    private boolean isStored(Node<RecordType> leaf, int cacheN) {
+        File properties = new File(directory, leaf.key + ".colp");
+        if (!properties.exists() || !new File(directory, leaf.key + ".col").exists()) {
+            return false;
+        }
+        Properties colp = new Properties();
+        try (FileReader reader = new FileReader(properties)) {
+            colp.load(reader);
+        } catch (IOException e) {
+            return false;
+        }
+        final int numFeatures = Integer.parseInt(colp.getProperty("numFeatures", "-1"));
+        final long numRecords = Long.parseLong(colp.getProperty("numRecords", "0"));
+        final long builtWithCacheN = Long.parseLong(colp.getProperty("cacheN", "0"));
+        // groups built with a smaller cacheN may miss records, unless all the records were mapped:
+        return numFeatures == leaf.mapper.numberOfFeatures() && (numRecords >= cacheN || builtWithCacheN >= cacheN);
+    }
+
+    private void build(Node<RecordType> root, List<Node<RecordType>> leaves, Iterable<RecordType> records,
+                       int cacheN) throws IOException {
+        List<Node<RecordType>> built = new ObjectArrayList<>();
+        for (Node<RecordType> leaf : leaves) {
+            if (leaf.build) {
+                leaf.output = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(new File(directory, leaf.key + ".col.tmp")), 1 << 16));
+                built.add(leaf);
+            }
+        }
+        ProgressLogger pg = new ProgressLogger(LOG);
+        pg.itemsName = "records";
+        pg.displayLocalSpeed = true;
+        pg.start("Building " + built.size() + " column groups in " + directory);
+        long numRecords = 0;
+        try {
+            for (RecordType record : records) {
+                if (numRecords >= cacheN) {
+                    break;
+                }
+                root.map(record);
+                for (Node<RecordType> leaf : built) {
+                    for (float value : leaf.mapped) {
+                        leaf.output.writeFloat(value);
+                    }
+                }
+                numRecords++;
+                pg.lightUpdate();
+            }
+        } finally {
+            for (Node<RecordType> leaf : built) {
+                leaf.output.close();
+                leaf.output = null;
+            }
+        }
+        pg.stop();
+        for (Node<RecordType> leaf : built) {
+            File temporary = new File(directory, leaf.key + ".col.tmp");
+            Files.move(temporary.toPath(), new File(directory, leaf.key + ".col").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Properties colp = new Properties();
+            colp.put("featureMapper", leaf.mapper.getClass().getName());
+            colp.put("description", leaf.describe());
+            colp.put("numFeatures", Integer.toString(leaf.mapper.numberOfFeatures()));
+            colp.put("numRecords", Long.toString(numRecords));
+            colp.put("cacheN", Integer.toString(cacheN));
+            CacheWriter.storeAtomically(colp, new File(directory, leaf.key + ".colp").getPath());
+            leaf.build = false;
+        }
+    }
+
+    /**
+     * A mapper in the tree of composite mappers.
+     */
+    private static class Node<RecordType> {
+        final FeatureMapper<RecordType> mapper;
+        /**
+         * Record transformations applied by the composites above this node.
+         */
+        final String transformations;
+        List<Node<RecordType>> children;
+        String key;
+        long fingerprint;
+        /**
+         * True when the features of this leaf must be mapped.
+         */
+        boolean build;
+        float[] mapped;
+        DataOutputStream output;
+
+        Node(FeatureMapper<RecordType> mapper, String transformations) {
+            this.mapper = mapper;
+            this.transformations = transformations;
+        }
+
+        void collectLeaves(List<Node<RecordType>> leaves) {
+            if (children == null) {
+                leaves.add(this);
+            } else {
+                for (Node<RecordType> child : children) {
+                    child.collectLeaves(leaves);
+                }
+            }
+        }
+
+        /**
+         * Map the record with the leaves under this node that must be built, as the composites above them would.
+         */
+        void map(RecordType record) {
+            if (children == null) {
+                if (build) {
+                    mapper.prepareToNormalize(record, 0);
+                    mapper.mapFeatures(record, mapped, 0, 0);
+                }
+            } else if (needsMapping()) {
+                RecordType delegateRecord = ((CompositeFeatureMapper<RecordType>) mapper).delegateRecord(record);
+                for (Node<RecordType> child : children) {
+                    child.map(delegateRecord);
+                }
+            }
+        }
+
+        boolean needsMapping() {
+            if (children == null) {
+                return build;
+            }
+            for (Node<RecordType> child : children) {
+                if (child.needsMapping()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String describe() {
+            StringBuilder description = new StringBuilder();
+            description.append(mapper.getClass().getName()).append(transformations).append(':')
+                    .append(mapper.numberOfFeatures());
+            if (mapper instanceof FeatureNameMapper) {
+                for (int featureIndex = 0; featureIndex < mapper.numberOfFeatures(); featureIndex++) {
+                    description.append(',').append(((FeatureNameMapper<RecordType>) mapper).getFeatureName(featureIndex));
+                }
+            }
+            return description.toString();
+        }
+    }
+
+    /**
+     * Reads the features of a mapper from its column groups, one record at a time.
+     */
+    private static class ColumnReader<RecordType> implements FeatureMapper<RecordType>, Closeable {
+        private final float[] row;
+        private final DataInputStream[] inputs;
+        private final int[] offsets;
+        private final int[] widths;
+        private final int[] indices = {0, 0};
+
+        ColumnReader(int numFeatures, List<Node<RecordType>> leaves, File directory, long firstRecord) throws IOException {
+            row = new float[numFeatures];
+            inputs = new DataInputStream[leaves.size()];
+            offsets = new int[leaves.size()];
+            widths = new int[leaves.size()];
+            int offset = 0;
+            for (int i = 0; i < leaves.size(); i++) {
+                widths[i] = leaves.get(i).mapper.numberOfFeatures();
+                offsets[i] = offset;
+                offset += widths[i];
+                FileInputStream input = new FileInputStream(new File(directory, leaves.get(i).key + ".col"));
+                input.getChannel().position(firstRecord * widths[i] * Float.BYTES);
+                inputs[i] = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+            }
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return row.length;
+        }
+
+        @Override
+        public MappedDimensions dimensions() {
+            return new MappedDimensions(row.length);
+        }
+
+        @Override
+        public void prepareToNormalize(RecordType record, int indexOfRecord) {
+            try {
+                for (int i = 0; i < inputs.length; i++) {
+                    for (int j = 0; j < widths[i]; j++) {
+                        row[offsets[i] + j] = inputs[i].readFloat();
+                    }
+                }
+            } catch (EOFException e) {
+                throw new RuntimeException("The column store has fewer records than mapped.", e);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read column store", e);
+            }
+        }
+
+        @Override
+        public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
+            indices[0] = indexOfRecord;
+            for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+                indices[1] = featureIndex;
+                inputs.putScalar(indices, row[featureIndex]);
+            }
+        }
+
+        @Override
+        public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+            System.arraycopy(row, 0, inputs, offset, row.length);
+        }
+
+        @Override
+        public boolean hasMask() {
+            return false;
+        }
+
+        @Override
+        public void maskFeatures(RecordType record, INDArray mask, int indexOfRecord) {
+        }
+
+        @Override
+        public boolean isMasked(RecordType record, int featureIndex) {
+            return false;
+        }
+
+        @Override
+        public float produceFeature(RecordType record, int featureIndex) {
+            return row[featureIndex];
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream input : inputs) {
+                input.close();
+            }
+        }
+    }
+}
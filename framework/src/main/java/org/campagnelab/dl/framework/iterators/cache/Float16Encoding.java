@@ -0,0 +1,101 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores values as IEEE 754 half-precision (2-byte) floats. Values are rounded to the nearest representable half
+ * float, so the encoding is lossy: integers up to 2048 and values of one-hot columns are stored exactly, while other
+ * values keep about three significant decimal digits. Values larger than 65504 in magnitude become infinite.
+ *
+ * @author Fabien Campagne
+ */
+public class Float16Encoding implements MultiDataSetRawFormat.ValueEncoding {
+
+    @Override
+    public int encodedSize(int[] shape, float[] values) {
+        return 2 * values.length;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, int[] shape, float[] values) {
+        for (float value : values) {
+            buffer.putShort(toHalf(value));
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int[] shape, float[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toFloat(buffer.getShort());
+        }
+    }
+
+    /**
+     * Convert a float to the bits of the nearest half float (ties rounded to even).
+     */
+    public static short toHalf(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int exponent = (bits >>> 23) & 0xFF;
+        final int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {
+            // infinity or NaN (keep NaN payloads non-zero):
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 | (mantissa >>> 13) : 0));
+        }
+        final int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1F) {
+            // too large, overflow to infinity:
+            return (short) (sign | 0x7C00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                // too small, underflow to signed zero:
+                return (short) sign;
+            }
+            // subnormal half float: shift the mantissa, including its implicit leading bit.
+            final int fullMantissa = mantissa | 0x800000;
+            final int shift = 14 - halfExponent;
+            int halfMantissa = fullMantissa >>> shift;
+            final int remainder = fullMantissa & ((1 << shift) - 1);
+            final int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (halfMantissa & 1) != 0)) {
+                halfMantissa++;
+            }
+            return (short) (sign | halfMantissa);
+        }
+        int half = sign | (halfExponent << 10) | (mantissa >>> 13);
+        final int remainder = mantissa & 0x1FFF;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            // rounding may carry into the exponent, which correctly produces the next power of two or infinity:
+            half++;
+        }
+        return (short) half;
+    }
+
+    /**
+     * Convert the bits of a half float to a float.
+     */
+    public static float toFloat(short half) {
+        final int bits = half & 0xFFFF;
+        final int sign = (bits & 0x8000) << 16;
+        final int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            if (mantissa == 0) {
+                return Float.intBitsToFloat(sign);
+            }
+            // subnormal half float, normalize the mantissa:
+            int e = -14;
+            while ((mantissa & 0x400) == 0) {
+                mantissa <<= 1;
+                e--;
+            }
+            mantissa &= 0x3FF;
+            return Float.intBitsToFloat(sign | ((e + 127) << 23) | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
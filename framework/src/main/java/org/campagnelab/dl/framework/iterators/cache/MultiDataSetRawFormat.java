@@ -0,0 +1,222 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Properties;
+
+/**
+ * A raw layout for the entries of a .cf cache. Each entry holds the features, labels, feature masks and label masks
+ * of one MultiDataSet. Arrays are stored as their rank, their shape and their float values in 'f' order, all in
+ * little-endian byte order. In contrast to MultiDataSet.save, the layout makes it possible to create INDArrays
+ * directly over a memory-mapped region of the cache file, without copying the bytes to the heap.
+ * <p>
+ * Entry layout (all values are 4 bytes):
+ * <pre>
+ * group   := count (-1 when the group is null), array*
+ * array   := rank (-1 when the array is null), shape[rank], values[prod(shape)]
+ * entry   := group(features) group(labels) group(featureMasks) group(labelMasks)
+ * </pre>
+ * Values are written as 4-byte floats by default. Other value encodings (see ValueEncoding) change how the values of
+ * an array are stored, but not the rest of the layout.
+ *
+ * @author Fabien Campagne
+ */
+public class MultiDataSetRawFormat {
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * Name of the .cfp property that records the layout of cache entries.
+     */
+    public static final String FORMAT_PROPERTY = "cacheFormat";
+    public static final String RAW = "raw";
+    public static final String SERIALIZED = "serialized";
+
+    /**
+     * Stores the values of an array in an entry. Values are provided in 'f' order.
+     */
+    public interface ValueEncoding {
+        /**
+         * Number of bytes needed to store the values.
+         */
+        int encodedSize(int[] shape, float[] values);
+
+        /**
+         * Write the values at the position of the buffer, and advance the position past them.
+         */
+        void write(ByteBuffer buffer, int[] shape, float[] values);
+
+        /**
+         * Read values.length values at the position of the buffer, and advance the position past them.
+         */
+        void read(ByteBuffer buffer, int[] shape, float[] values);
+    }
+
+    /**
+     * Stores values as 4-byte floats.
+     */
+    public static final ValueEncoding FLOAT32 = new ValueEncoding() {
+        @Override
+        public int encodedSize(int[] shape, float[] values) {
+            return 4 * values.length;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int[] shape, float[] values) {
+            buffer.asFloatBuffer().put(values);
+            buffer.position(buffer.position() + 4 * values.length);
+        }
+
+        @Override
+        public void read(ByteBuffer buffer, int[] shape, float[] values) {
+            buffer.asFloatBuffer().get(values);
+            buffer.position(buffer.position() + 4 * values.length);
+        }
+    };
+
+    /**
+     * Determine if a cache was written with the raw layout. Caches written before the layout was introduced do not
+     * define the property and hold entries serialized with MultiDataSet.save.
+     *
+     * @param cfProperties properties of the cache (.cfp file).
+     * @return True when entries use the raw layout.
+     */
+    public static boolean isRaw(Properties cfProperties) {
+        return RAW.equals(cfProperties.getProperty(FORMAT_PROPERTY, SERIALIZED));
+    }
+
+    /**
+     * Encode a MultiDataSet in the raw layout.
+     *
+     * @param mds multi dataset to encode.
+     * @return bytes of the encoded entry.
+     */
+    public static byte[] encode(MultiDataSet mds) {
+        return encode(mds, FLOAT32);
+    }
+
+    /**
+     * Encode a MultiDataSet in the raw layout, storing array values with the encoding.
+     *
+     * @param mds      multi dataset to encode.
+     * @param encoding how array values are stored.
+     * @return bytes of the encoded entry.
+     */
+    public static byte[] encode(MultiDataSet mds, ValueEncoding encoding) {
+        INDArray[][] groups = {mds.getFeatures(), mds.getLabels(), mds.getFeaturesMaskArrays(), mds.getLabelsMaskArrays()};
+        float[][][] values = new float[groups.length][][];
+        int size = 0;
+        for (int g = 0; g < groups.length; g++) {
+            size += 4;
+            if (groups[g] == null) {
+                continue;
+            }
+            values[g] = new float[groups[g].length][];
+            for (int a = 0; a < groups[g].length; a++) {
+                INDArray array = groups[g][a];
+                size += 4;
+                if (array == null) {
+                    continue;
+                }
+                values[g][a] = toFortranOrderFloats(array);
+                size += 4 * array.rank() + encoding.encodedSize(array.shape(), values[g][a]);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(BYTE_ORDER);
+        for (int g = 0; g < groups.length; g++) {
+            if (groups[g] == null) {
+                buffer.putInt(-1);
+                continue;
+            }
+            buffer.putInt(groups[g].length);
+            for (int a = 0; a < groups[g].length; a++) {
+                INDArray array = groups[g][a];
+                if (array == null) {
+                    buffer.putInt(-1);
+                    continue;
+                }
+                buffer.putInt(array.rank());
+                for (int dim : array.shape()) {
+                    buffer.putInt(dim);
+                }
+                encoding.write(buffer, array.shape(), values[g][a]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decode an entry. When the entry is a writable direct buffer (i.e., a slice of a privately mapped file) and the
+     * platform byte order matches the cache byte order, the INDArrays are created over the buffer itself and no copy
+     * takes place. In this case, the caller must keep the mapped buffer reachable for as long as the arrays are in use.
+     * Heap buffers and read-only buffers are decoded by copying the values.
+     *
+     * @param entry buffer positioned at the start of the entry. The position is advanced past the entry.
+     * @return decoded multi dataset.
+     */
+    public static MultiDataSet decode(ByteBuffer entry) {
+        return decode(entry, FLOAT32);
+    }
+
+    /**
+     * Decode an entry whose array values were stored with the encoding. Arrays are created over the buffer only
+     * for the FLOAT32 encoding, under the conditions described in decode(ByteBuffer).
+     *
+     * @param entry    buffer positioned at the start of the entry. The position is advanced past the entry.
+     * @param encoding how array values were stored.
+     * @return decoded multi dataset.
+     */
+    public static MultiDataSet decode(ByteBuffer entry, ValueEncoding encoding) {
+        entry.order(BYTE_ORDER);
+        final boolean canWrap = encoding == FLOAT32 && entry.isDirect() && !entry.isReadOnly()
+                && ByteOrder.nativeOrder() == BYTE_ORDER
+                && Nd4j.dataType() == DataBuffer.Type.FLOAT;
+        INDArray[] features = readGroup(entry, encoding, canWrap);
+        INDArray[] labels = readGroup(entry, encoding, canWrap);
+        INDArray[] featureMasks = readGroup(entry, encoding, canWrap);
+        INDArray[] labelMasks = readGroup(entry, encoding, canWrap);
+        return new org.nd4j.linalg.dataset.MultiDataSet(features, labels, featureMasks, labelMasks);
+    }
+
+    private static INDArray[] readGroup(ByteBuffer entry, ValueEncoding encoding, boolean canWrap) {
+        int count = entry.getInt();
+        if (count == -1) {
+            return null;
+        }
+        INDArray[] arrays = new INDArray[count];
+        for (int a = 0; a < count; a++) {
+            int rank = entry.getInt();
+            if (rank == -1) {
+                continue;
+            }
+            int[] shape = new int[rank];
+            int length = 1;
+            for (int d = 0; d < rank; d++) {
+                shape[d] = entry.getInt();
+                length *= shape[d];
+            }
+            if (canWrap) {
+                ByteBuffer slice = entry.slice().order(BYTE_ORDER);
+                slice.limit(4 * length);
+                DataBuffer data = Nd4j.createBuffer(slice, DataBuffer.Type.FLOAT, length);
+                arrays[a] = Nd4j.create(data, shape, Nd4j.getStrides(shape, 'f'), 0, 'f');
+                entry.position(entry.position() + 4 * length);
+            } else {
+                float[] values = new float[length];
+                encoding.read(entry, shape, values);
+                arrays[a] = Nd4j.create(values, shape, 'f');
+            }
+        }
+        return arrays;
+    }
+
+    private static float[] toFortranOrderFloats(INDArray array) {
+        INDArray contiguous = array.ordering() == 'f' && !array.isView() && array.data().length() == array.length() ?
+                array : array.dup('f');
+        return contiguous.data().asFloat();
+    }
+}
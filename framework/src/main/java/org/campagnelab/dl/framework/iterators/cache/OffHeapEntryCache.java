@@ -0,0 +1,194 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A memory tier for the entries of a .cf cache, with a bounded size in bytes. Entries are kept in their encoded
+ * (packed) form, in direct buffers outside the Java heap. Entries that do not fit in the budget are read from the
+ * cache file on disk.
+ * <p>
+ * Resident entries are evicted with the CLOCK policy (an approximation of LRU): each entry has a reference bit set
+ * when the entry is read, and cleared as the clock hand passes over it. An entry read from disk replaces the first
+ * entry the hand finds with a clear reference bit, but only if the entry from disk was requested more often than the
+ * victim. This admission rule keeps the resident set stable when every pass over the cache reads all entries once (a
+ * pattern where plain LRU or CLOCK would evict every entry before its next use), so that a cache k times larger than
+ * the budget still has a hit rate of about 1/k.
+ * <p>
+ * Entries are returned as read-only views, so that the minibatches decoded from them copy their values rather than
+ * wrap memory that a later eviction releases.
+ * <p>
+ * All methods are thread-safe. Statistics are logged after each pass over the cache.
+ *
+ * @author Fabien Campagne
+ */
+public class OffHeapEntryCache {
+    static private Logger LOG = LoggerFactory.getLogger(OffHeapEntryCache.class);
+
+    private final long budget;
+    private final ByteBuffer[] resident;
+    private final boolean[] referenced;
+    private final int[] frequency;
+    private final int[] slotEntry;
+    private final int[] entrySlot;
+    private int numSlots;
+    private int hand;
+    private long residentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long passHits;
+    private long passMisses;
+
+    /**
+     * @param numEntries number of entries in the cache.
+     * @param budget     maximum number of bytes of entries kept in memory.
+     */
+    public OffHeapEntryCache(int numEntries, long budget) {
+        this.budget = budget;
+        resident = new ByteBuffer[numEntries];
+        referenced = new boolean[numEntries];
+        frequency = new int[numEntries];
+        slotEntry = new int[numEntries];
+        entrySlot = new int[numEntries];
+        Arrays.fill(entrySlot, -1);
+    }
+
+    /**
+     * Return an entry, from memory when it is resident, or with the loader otherwise. Entries obtained with the loader
+     * are admitted to memory according to the policy described above.
+     *
+     * @param entryIndex index of the entry in the cache.
+     * @param loader     reads an entry from disk.
+     * @return a buffer that holds exactly the bytes of the entry, read-only when the entry is held in memory.
+     */
+    public ByteBuffer get(int entryIndex, IntFunction<ByteBuffer> loader) {
+        synchronized (this) {
+            frequency[entryIndex] = Math.min(Integer.MAX_VALUE - 1, frequency[entryIndex] + 1);
+            if (resident[entryIndex] != null) {
+                referenced[entryIndex] = true;
+                hits++;
+                passHits++;
+                logPass();
+                return resident[entryIndex].asReadOnlyBuffer();
+            }
+            misses++;
+            passMisses++;
+            logPass();
+        }
+        ByteBuffer entry = loader.apply(entryIndex);
+        ByteBuffer copy = null;
+        synchronized (this) {
+            if (resident[entryIndex] == null && admit(entryIndex, entry.remaining())) {
+                copy = ByteBuffer.allocateDirect(entry.remaining());
+                copy.put(entry.duplicate());
+                copy.flip();
+                resident[entryIndex] = copy;
+                residentBytes += copy.capacity();
+                entrySlot[entryIndex] = numSlots;
+                slotEntry[numSlots++] = entryIndex;
+            }
+        }
+        return copy != null ? copy.asReadOnlyBuffer() : entry;
+    }
+
+    /**
+     * Make room for an entry of this size. Return true when the entry can be added.
+     */
+    private boolean admit(int entryIndex, int size) {
+        if (size > budget) {
+            return false;
+        }
+        // evict entries until the new entry fits, but only those used less frequently than the new entry:
+        int examined = 0;
+        while (residentBytes + size > budget) {
+            if (numSlots == 0 || examined > 2 * numSlots) {
+                return false;
+            }
+            hand = hand % numSlots;
+            final int victim = slotEntry[hand];
+            if (referenced[victim]) {
+                // second chance:
+                referenced[victim] = false;
+                hand++;
+                examined++;
+                continue;
+            }
+            if (frequency[victim] >= frequency[entryIndex]) {
+                return false;
+            }
+            evict(victim);
+            evictions++;
+        }
+        return true;
+    }
+
+    private void evict(int victim) {
+        final int slot = entrySlot[victim];
+        residentBytes -= resident[victim].capacity();
+        resident[victim] = null;
+        referenced[victim] = false;
+        entrySlot[victim] = -1;
+        // move the last slot to the freed slot:
+        numSlots--;
+        if (slot != numSlots) {
+            slotEntry[slot] = slotEntry[numSlots];
+            entrySlot[slotEntry[slot]] = slot;
+        }
+    }
+
+    private void logPass() {
+        if (passHits + passMisses == resident.length) {
+            LOG.info(String.format("Memory cache: %.1f%% hits over the last %d reads, %d entries (%d MB of %d MB) resident.",
+                    100.0 * passHits / (passHits + passMisses), resident.length, numSlots, residentBytes >> 20, budget >> 20));
+            passHits = 0;
+            passMisses = 0;
+        }
+    }
+
+    /**
+     * Number of reads served from memory.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Number of reads served from disk.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Number of entries evicted from memory.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Fraction of reads served from memory.
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    /**
+     * Number of bytes of entries held in memory.
+     */
+    public synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Number of entries held in memory.
+     */
+    public synchronized int residentEntries() {
+        return numSlots;
+    }
+}
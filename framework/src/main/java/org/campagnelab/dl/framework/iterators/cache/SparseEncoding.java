@@ -0,0 +1,158 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores arrays where most values are 0 (e.g., one-hot encoded features and labels) or 1 (e.g., masks) as the indices
+ * of the values that differ from this background value. One-hot arrays are stored with about one byte per one instead
+ * of four bytes per value. Arrays that have too many other values for this to save space are stored as 4-byte floats.
+ * The encoding is lossless, and arrays are expanded to dense values when the entry is read.
+ * <p>
+ * Layout: the number of values that differ from the background (or -1 when values are stored as floats). For sparse
+ * arrays, the background value (0 or 1), a byte that is 1 when all other values are the complement of the background
+ * (1 or 0), followed by the gap before each other value (a varint of the number of background values since the
+ * previous other value), and, unless all other values are the complement, the other values as floats.
+ *
+ * @author Fabien Campagne
+ */
+public class SparseEncoding implements MultiDataSetRawFormat.ValueEncoding {
+    private static final int DENSE = -1;
+
+    @Override
+    public int encodedSize(int[] shape, float[] values) {
+        return Math.min(sparseSize(values, background(values)), denseSize(values));
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, int[] shape, float[] values) {
+        final float background = background(values);
+        if (sparseSize(values, background) >= denseSize(values)) {
+            buffer.putInt(DENSE);
+            for (float value : values) {
+                buffer.putFloat(value);
+            }
+            return;
+        }
+        final float complement = 1f - background;
+        int numOthers = 0;
+        boolean allComplement = true;
+        for (float value : values) {
+            if (!same(value, background)) {
+                numOthers++;
+                allComplement &= same(value, complement);
+            }
+        }
+        buffer.putInt(numOthers);
+        buffer.put((byte) background);
+        buffer.put((byte) (allComplement ? 1 : 0));
+        int previous = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (!same(values[i], background)) {
+                writeVarint(buffer, i - previous - 1);
+                previous = i;
+            }
+        }
+        if (!allComplement) {
+            for (float value : values) {
+                if (!same(value, background)) {
+                    buffer.putFloat(value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int[] shape, float[] values) {
+        final int numOthers = buffer.getInt();
+        if (numOthers == DENSE) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getFloat();
+            }
+            return;
+        }
+        final float background = buffer.get();
+        final boolean allComplement = buffer.get() == 1;
+        final int[] indices = new int[numOthers];
+        int previous = -1;
+        for (int n = 0; n < numOthers; n++) {
+            previous += readVarint(buffer) + 1;
+            indices[n] = previous;
+        }
+        Arrays.fill(values, background);
+        for (int n = 0; n < numOthers; n++) {
+            values[indices[n]] = allComplement ? 1f - background : buffer.getFloat();
+        }
+    }
+
+    /**
+     * Return 1 when the array has more ones than zeros, 0 otherwise.
+     */
+    private static float background(float[] values) {
+        int balance = 0;
+        for (float value : values) {
+            if (same(value, 1f)) {
+                balance++;
+            } else if (same(value, 0f)) {
+                balance--;
+            }
+        }
+        return balance > 0 ? 1f : 0f;
+    }
+
+    private static int denseSize(float[] values) {
+        return 4 + 4 * values.length;
+    }
+
+    private static int sparseSize(float[] values, float background) {
+        final float complement = 1f - background;
+        int size = 6;
+        int previous = -1;
+        int numOthers = 0;
+        boolean allComplement = true;
+        for (int i = 0; i < values.length; i++) {
+            if (!same(values[i], background)) {
+                size += varintSize(i - previous - 1);
+                previous = i;
+                numOthers++;
+                allComplement &= same(values[i], complement);
+            }
+        }
+        return allComplement ? size : size + 4 * numOthers;
+    }
+
+    /**
+     * Compare bits, so that -0.0 is not confused with 0 and is decoded exactly.
+     */
+    private static boolean same(float value, float other) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(other);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
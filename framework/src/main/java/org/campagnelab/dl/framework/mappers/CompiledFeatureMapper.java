@@ -0,0 +1,220 @@
+package org.campagnelab.dl.framework.mappers;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A flat execution plan for a tree of composite feature mappers (see CompositeFeatureMapper). The tree is walked once
+ * when the plan is compiled, and flattened into an array of leaf mappers, each with the offset of its features in the
+ * features of the tree, and the record it maps (records are transformed once per record by the composites that
+ * transform them, for instance to sort counts). Mapping a record then loops over the leaves, without the virtual
+ * dispatch and offset searches of each level of the tree. The plan produces the same features and masks as the tree.
+ *
+ * @author Fabien Campagne
+ */
+public class CompiledFeatureMapper<RecordType> implements FeatureNameMapper<RecordType> {
+    private final FeatureMapper<RecordType> tree;
+    private final FeatureMapper<RecordType>[] leaves;
+    /**
+     * Offsets of the features of each leaf, followed by the number of features of the tree.
+     */
+    private final int[] offsets;
+    /**
+     * Index in records of the record mapped by each leaf.
+     */
+    private final int[] leafRecords;
+    /**
+     * Composites that transform records, in the order their transformed records must be computed.
+     */
+    private final CompositeFeatureMapper<RecordType>[] transformations;
+    /**
+     * Index in records of the record transformed by each composite of transformations.
+     */
+    private final int[] transformedRecords;
+    private final Object[] records;
+    private final boolean hasMask;
+    private final int numFeatures;
+    private float[] buffer;
+
+    /**
+     * Compile a plan for a mapper. Mappers that cannot be decomposed in leaves (mappers that are not composite, or
+     * that produce features with more than one dimension) are returned unchanged.
+     *
+     * @param mapper mapper to compile.
+     * @return a compiled plan that produces the features of mapper, or mapper.
+     */
+    public static <RecordType> FeatureMapper<RecordType> compile(FeatureMapper<RecordType> mapper) {
+        if (!(mapper instanceof CompositeFeatureMapper) || mapper instanceof CompiledFeatureMapper
+                || mapper.dimensions().numDimensions() != 1 || !isDecomposable(mapper)) {
+            return mapper;
+        }
+        return new CompiledFeatureMapper<>(mapper);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompiledFeatureMapper(FeatureMapper<RecordType> tree) {
+        this.tree = tree;
+        List<FeatureMapper<RecordType>> leafList = new ObjectArrayList<>();
+        IntArrayList leafRecordList = new IntArrayList();
+        List<CompositeFeatureMapper<RecordType>> transformationList = new ObjectArrayList<>();
+        IntArrayList transformedRecordList = new IntArrayList();
+        flatten(tree, 0, leafList, leafRecordList, transformationList, transformedRecordList);
+        leaves = leafList.toArray(new FeatureMapper[leafList.size()]);
+        leafRecords = leafRecordList.toIntArray();
+        transformations = transformationList.toArray(new CompositeFeatureMapper[transformationList.size()]);
+        transformedRecords = transformedRecordList.toIntArray();
+        records = new Object[transformations.length + 1];
+        offsets = new int[leaves.length + 1];
+        boolean anyMask = false;
+        for (int i = 0; i < leaves.length; i++) {
+            offsets[i + 1] = offsets[i] + leaves[i].numberOfFeatures();
+            anyMask |= leaves[i].hasMask();
+        }
+        numFeatures = offsets[leaves.length];
+        hasMask = anyMask;
+    }
+
+    /**
+     * Composites that do not simply concatenate the features of their delegates are leaves.
+     */
+    private static <RecordType> boolean isDecomposable(FeatureMapper<RecordType> mapper) {
+        if (!(mapper instanceof CompositeFeatureMapper)) {
+            return false;
+        }
+        FeatureMapper<RecordType>[] delegates = ((CompositeFeatureMapper<RecordType>) mapper).delegates();
+        int numFeatures = 0;
+        for (FeatureMapper<RecordType> delegate : delegates) {
+            numFeatures += delegate.numberOfFeatures();
+        }
+        return delegates.length > 0 && numFeatures == mapper.numberOfFeatures();
+    }
+
+    private static <RecordType> void flatten(FeatureMapper<RecordType> mapper, int record,
+                                             List<FeatureMapper<RecordType>> leaves, IntArrayList leafRecords,
+                                             List<CompositeFeatureMapper<RecordType>> transformations,
+                                             IntArrayList transformedRecords) {
+        if (!isDecomposable(mapper)) {
+            leaves.add(mapper);
+            leafRecords.add(record);
+            return;
+        }
+        CompositeFeatureMapper<RecordType> composite = (CompositeFeatureMapper<RecordType>) mapper;
+        int delegateRecord = record;
+        if (!composite.recordTransformation().isEmpty()) {
+            transformations.add(composite);
+            transformedRecords.add(record);
+            // records[0] is the record mapped by the tree, records[i] is the record of transformations[i-1]:
+            delegateRecord = transformations.size();
+        }
+        for (FeatureMapper<RecordType> delegate : composite.delegates()) {
+            flatten(delegate, delegateRecord, leaves, leafRecords, transformations, transformedRecords);
+        }
+    }
+
+    /**
+     * Number of leaves in the plan.
+     */
+    public int numLeaves() {
+        return leaves.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RecordType record(int leaf) {
+        return (RecordType) records[leafRecords[leaf]];
+    }
+
+    @Override
+    public int numberOfFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public MappedDimensions dimensions() {
+        return new MappedDimensions(numFeatures);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void prepareToNormalize(RecordType record, int indexOfRecord) {
+        records[0] = record;
+        for (int i = 0; i < transformations.length; i++) {
+            records[i + 1] = transformations[i].delegateRecord((RecordType) records[transformedRecords[i]]);
+        }
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i].prepareToNormalize(record(i), indexOfRecord);
+        }
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
+        if (buffer == null) {
+            buffer = new float[numFeatures];
+        }
+        mapFeatures(record, buffer, 0, indexOfRecord);
+        final int[] indices = {indexOfRecord, 0};
+        for (int j = 0; j < numFeatures; j++) {
+            indices[1] = j;
+            inputs.putScalar(indices, buffer[j]);
+        }
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i].mapFeatures(record(i), inputs, offset + offsets[i], indexOfRecord);
+        }
+    }
+
+    @Override
+    public boolean hasMask() {
+        return hasMask;
+    }
+
+    @Override
+    public void maskFeatures(RecordType record, INDArray mask, int indexOfRecord) {
+        if (hasMask) {
+            final int[] indices = {indexOfRecord, 0};
+            for (int i = 0; i < leaves.length; i++) {
+                final RecordType leafRecord = record(i);
+                for (int j = 0; j < offsets[i + 1] - offsets[i]; j++) {
+                    indices[1] = offsets[i] + j;
+                    mask.putScalar(indices, leaves[i].isMasked(leafRecord, j) ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isMasked(RecordType record, int featureIndex) {
+        final int leaf = leafOf(featureIndex);
+        return leaves[leaf].isMasked(record(leaf), featureIndex - offsets[leaf]);
+    }
+
+    @Override
+    public float produceFeature(RecordType record, int featureIndex) {
+        final int leaf = leafOf(featureIndex);
+        return leaves[leaf].produceFeature(record(leaf), featureIndex - offsets[leaf]);
+    }
+
+    @Override
+    public String getFeatureName(int featureIndex) {
+        return tree instanceof FeatureNameMapper ? ((FeatureNameMapper<RecordType>) tree).getFeatureName(featureIndex) :
+                "feature" + featureIndex;
+    }
+
+    private int leafOf(int featureIndex) {
+        int leaf = Arrays.binarySearch(offsets, featureIndex);
+        if (leaf < 0) {
+            leaf = -(leaf + 1) - 1;
+        }
+        // skip leaves without features, whose offset equals the offset of the next leaf:
+        while (leaf + 1 < leaves.length && offsets[leaf + 1] == offsets[leaf]) {
+            leaf++;
+        }
+        return leaf;
+    }
+}
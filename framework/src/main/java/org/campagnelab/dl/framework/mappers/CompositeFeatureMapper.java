@@ -0,0 +1,39 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * A feature mapper whose features are the concatenation of the features of its delegates. Composite mappers can be
+ * decomposed into leaf mappers, for instance to store the features of each leaf separately (see ColumnStore).
+ *
+ * @author Fabien Campagne
+ */
+public interface CompositeFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Return the mappers whose features, concatenated in this order, form the features of this mapper.
+     *
+     * @return delegate mappers.
+     */
+    FeatureMapper<RecordType>[] delegates();
+
+    /**
+     * Return the record that the delegates map when this mapper maps record. Mappers that transform records before
+     * delegating (e.g., to reorder counts) must override this method.
+     *
+     * @param record The record mapped by this mapper.
+     * @return The record mapped by the delegates.
+     */
+    default RecordType delegateRecord(RecordType record) {
+        return record;
+    }
+
+    /**
+     * Describe the transformation applied by delegateRecord. Delegates that map transformed records produce different
+     * features than the same delegates mapping the original records, so the description must distinguish transformations
+     * that produce different records.
+     *
+     * @return A description of the transformation, or an empty string when records are not transformed.
+     */
+    default String recordTransformation() {
+        return "";
+    }
+}
@@ -9,12 +9,13 @@ import java.util.Arrays;
  * Concatenate features from different mappers.
  * Created by fac2003 on 5/24/16.
  */
-public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
+public class ConcatFeatureMapper<RecordType> implements CompositeFeatureMapper<RecordType> {
 
     protected FeatureMapper<RecordType>[] mappers;
     protected int numFeatures = 0;
     protected int[] offsets;
     private boolean normalizedCalled;
+    private float[] buffer;
 
     @SafeVarargs
     public ConcatFeatureMapper(FeatureMapper<RecordType>... featureMappers) {
@@ -41,6 +42,11 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
         return numFeatures;
     }
 
+    @Override
+    public FeatureMapper<RecordType>[] delegates() {
+        return mappers;
+    }
+
     @Override
     public MappedDimensions dimensions() {
         return new MappedDimensions(numberOfFeatures());
@@ -58,17 +64,26 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
     @Override
     public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
         assert normalizedCalled : "prepareToNormalize must be called before mapFeatures.";
-        int offset = 0;
-        final int[] indicesOuter = {0, 0};
-        for (FeatureMapper<RecordType> delegate : mappers) {
-
-            final int delNumFeatures = delegate.numberOfFeatures();
-            for (int j = 0; j < delNumFeatures; j++) {
-                indicesOuter[0] = indexOfRecord;
-                indicesOuter[1] = j + offset;
-                inputs.putScalar(indicesOuter, delegate.produceFeature(record, j));
-            }
-            offset += delNumFeatures;
+        if (buffer == null) {
+            buffer = new float[numFeatures];
+        }
+        mapFeatures(record, buffer, 0, indexOfRecord);
+        final int[] indicesOuter = {indexOfRecord, 0};
+        for (int j = 0; j < numFeatures; j++) {
+            indicesOuter[1] = j;
+            inputs.putScalar(indicesOuter, buffer[j]);
+        }
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        if (mappers.length == 0) {
+            // subclasses that hold their own delegate instead of concatenating mappers:
+            CompositeFeatureMapper.super.mapFeatures(record, inputs, offset, indexOfRecord);
+            return;
+        }
+        for (int i = 0; i < mappers.length; i++) {
+            mappers[i].mapFeatures(record, inputs, offset + offsets[i], indexOfRecord);
         }
     }
 
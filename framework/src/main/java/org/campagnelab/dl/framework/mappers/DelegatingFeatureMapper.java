@@ -0,0 +1,18 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * A feature mapper whose features are computed from the features of a single delegate (e.g., normalizing or memoizing
+ * mappers). Unlike composite mappers, delegating mappers are not decomposed into their delegate, but mapper graphs can
+ * be walked through them, for instance to configure the leaf mappers of a graph.
+ *
+ * @author Fabien Campagne
+ */
+public interface DelegatingFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Return the mapper whose features this mapper transforms. The delegate maps the same records as this mapper.
+     *
+     * @return delegate mapper.
+     */
+    FeatureMapper<RecordType> delegate();
+}
@@ -40,6 +40,24 @@ public interface FeatureMapper<RecordType> {
      */
     void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord);
 
+    /**
+     * Fill in the features of a record into a float array, starting at offset. This bulk variant of mapFeatures
+     * avoids one INDArray access per feature, and is only used with mappers that produce one-dimensional features.
+     * prepareToNormalize must be called before this method. The default implementation calls produceFeature for each
+     * feature. Mappers that can produce their features faster should override it.
+     *
+     * @param record        The record to convert to features.
+     * @param inputs        The array to fill with numberOfFeatures() features.
+     * @param offset        Index in inputs where the first feature of the record is written.
+     * @param indexOfRecord Index of the record in the destination dataset.
+     */
+    default void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        final int numFeatures = numberOfFeatures();
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            inputs[offset + featureIndex] = produceFeature(record, featureIndex);
+        }
+    }
+
     /**
      * Return true if the mapper creates an input mask (maskLabels is implemented).
      *
@@ -28,6 +28,24 @@ public interface LabelMapper<RecordType> {
      */
     void mapLabels(RecordType record, INDArray labels, int indexOfRecord);
 
+    /**
+     * Fill in the labels of a record into a float array, starting at offset. This bulk variant of mapLabels avoids one
+     * INDArray access per label, and is only used with mappers that produce one-dimensional labels.
+     * prepareToNormalize must be called before this method. The default implementation calls produceLabel for each
+     * label. Mappers that can produce their labels faster should override it.
+     *
+     * @param record        The record to convert to labels.
+     * @param labels        The array to fill with numberOfLabels() labels.
+     * @param offset        Index in labels where the first label of the record is written.
+     * @param indexOfRecord Index of the record in the destination dataset.
+     */
+    default void mapLabels(RecordType record, float[] labels, int offset, int indexOfRecord) {
+        final int numLabels = numberOfLabels();
+        for (int labelIndex = 0; labelIndex < numLabels; labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(record, labelIndex);
+        }
+    }
+
     /**
      * Produce the value of a given label for the specified record.
      *
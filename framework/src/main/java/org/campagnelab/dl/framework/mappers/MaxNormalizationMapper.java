@@ -7,7 +7,8 @@ package org.campagnelab.dl.framework.mappers;
  * @author Remi Torracinta
  */
 
-public class MaxNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType> {
+public class MaxNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType>
+        implements DelegatingFeatureMapper<RecordType> {
 
     FeatureNameMapper delegate;
     float absMax=Float.NEGATIVE_INFINITY;
@@ -16,19 +17,42 @@ public class MaxNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<
         this.delegate = delegate;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
     @Override
     public int numberOfFeatures() {
         return delegate.numberOfFeatures();
     }
 
+    /**
+     * Features of the delegate for the record, computed once in prepareToNormalize.
+     */
+    private float[] values;
+
     public void prepareToNormalize(RecordType record, int indexOfRecord) {
-        for (int i = 0; i < numberOfFeatures(); i++) {
-            absMax = Math.max(Math.abs(delegate.produceFeature(record, i)), absMax);
+        delegate.prepareToNormalize(record, indexOfRecord);
+        if (values == null) {
+            values = new float[numberOfFeatures()];
+        }
+        delegate.mapFeatures(record, values, 0, indexOfRecord);
+        for (float value : values) {
+            absMax = Math.max(Math.abs(value), absMax);
         }
     }
 
     public float produceFeature(RecordType record, int featureIndex) {
-        return normalize(produceFeatureInternal(record, featureIndex), absMax);
+        return normalize(values[featureIndex], absMax);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        for (int featureIndex = 0; featureIndex < values.length; featureIndex++) {
+            inputs[offset + featureIndex] = normalize(values[featureIndex], absMax);
+        }
     }
 
     @Override
@@ -46,11 +70,6 @@ public class MaxNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<
         return normalized;
     }
 
-
-    private float produceFeatureInternal(RecordType record, int featureIndex) {
-        return delegate.produceFeature(record, featureIndex);
-    }
-
 }
 
 
@@ -1,6 +1,5 @@
 package org.campagnelab.dl.framework.mappers;
 
-import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
@@ -9,7 +8,8 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Fabien Campagne
  */
 
-public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType> {
+public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType>
+        implements DelegatingFeatureMapper<RecordType> {
 
     private final boolean dividebyStdev;
     FeatureNameMapper<RecordType> delegate;
@@ -24,6 +24,11 @@ public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D
         this.dividebyStdev = dividebyStdev;
     }
 
+    @Override
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
     @Override
     public int numberOfFeatures() {
         return delegate.numberOfFeatures();
@@ -36,18 +41,21 @@ public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D
         normalizedCalled = false;
     }
 
-    private FloatArrayList values = new FloatArrayList();
+    /**
+     * Features of the delegate for the record, computed once in prepareToNormalize.
+     */
+    private float[] values;
 
     public void prepareToNormalize(RecordType record, int indexOfRecord) {
         mean = 0;
         stdev = 0;
         int count = 0;
         delegate.prepareToNormalize(record, indexOfRecord);
-        values.clear();
-        for (int i = 0; i < numberOfFeatures(); i++) {
-
-            final float v = delegate.produceFeature(record, i);
-            values.add(v);
+        if (values == null) {
+            values = new float[numberOfFeatures()];
+        }
+        delegate.mapFeatures(record, values, 0, indexOfRecord);
+        for (float v : values) {
             mean += v;
             count += 1;
         }
@@ -58,15 +66,22 @@ public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D
             variance += difference * difference;
         }
         stdev = Math.sqrt(variance);
-
-        delegate.prepareToNormalize(record, indexOfRecord);
         normalizedCalled = true;
     }
 
 
     public float produceFeature(RecordType record, int featureIndex) {
         assert normalizedCalled == true : "normalized must be called before produceFeature";
-        return normalize(produceFeatureInternal(record, featureIndex), mean);
+        return normalize(values[featureIndex], mean);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        assert normalizedCalled : "normalized must be called before mapFeatures";
+        for (int featureIndex = 0; featureIndex < values.length; featureIndex++) {
+            inputs[offset + featureIndex] = normalize(values[featureIndex], mean);
+        }
+        normalizedCalled = false;
     }
 
     @Override
@@ -87,11 +102,6 @@ public class MeanNormalizationMapper<RecordType> extends AbstractFeatureMapper1D
         return normalized;
     }
 
-
-    private float produceFeatureInternal(RecordType record, int featureIndex) {
-        return delegate.produceFeature(record, featureIndex);
-    }
-
 }
 
 
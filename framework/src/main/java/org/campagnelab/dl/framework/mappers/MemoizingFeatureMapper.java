@@ -0,0 +1,175 @@
+package org.campagnelab.dl.framework.mappers;
+
+import com.google.protobuf.MessageLite;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes the features that a delegate mapper produces for the record being mapped. Mapper graphs that use the same
+ * sub-mapper several times (e.g., counts that are normalized in two different ways) share one instance of this mapper
+ * instead of the sub-mapper, so that the features of the sub-mapper are computed once per record, and read by the
+ * other users. Features are keyed by the identity of the record and by its index in the minibatch: the features are
+ * computed again when either changes. Records must not be modified while they are mapped.
+ * <p>
+ * Protobuf builders are not memoized: callers reuse a builder for successive records (e.g., ModelOutputHelper maps
+ * each record it predicts at index 0), so that identity and index do not tell records apart. Features of builders
+ * are obtained from the delegate, as if this mapper were not in the graph.
+ * <p>
+ * The number of records whose features were computed, and of records whose features were reused, is counted across
+ * all instances (see statistics()), to measure the redundant work eliminated.
+ *
+ * @author Fabien Campagne
+ */
+public class MemoizingFeatureMapper<RecordType> implements FeatureNameMapper<RecordType>,
+        DelegatingFeatureMapper<RecordType> {
+    private static final LongAdder computedFeatures = new LongAdder();
+    private static final LongAdder reusedFeatures = new LongAdder();
+    private static final LongAdder computedRecords = new LongAdder();
+    private static final LongAdder reusedRecords = new LongAdder();
+
+    private final FeatureMapper<RecordType> delegate;
+    private final float[] values;
+    private RecordType cachedRecord;
+    private int cachedIndexOfRecord = -1;
+
+    public MemoizingFeatureMapper(FeatureMapper<RecordType> delegate) {
+        if (delegate.dimensions().numDimensions() != 1) {
+            throw new IllegalArgumentException("Only mappers that produce one-dimensional features can be memoized.");
+        }
+        this.delegate = delegate;
+        this.values = new float[delegate.numberOfFeatures()];
+    }
+
+    /**
+     * Compute the features of the record, unless they were computed for this record and index.
+     */
+    private void memoize(RecordType record, int indexOfRecord) {
+        if (record == cachedRecord && indexOfRecord == cachedIndexOfRecord) {
+            reusedRecords.increment();
+            reusedFeatures.add(values.length);
+            return;
+        }
+        delegate.prepareToNormalize(record, indexOfRecord);
+        delegate.mapFeatures(record, values, 0, indexOfRecord);
+        cachedRecord = record;
+        cachedIndexOfRecord = indexOfRecord;
+        computedRecords.increment();
+        computedFeatures.add(values.length);
+    }
+
+    /**
+     * Forget the memoized features, for instance after a record was modified.
+     */
+    public void invalidate() {
+        cachedRecord = null;
+        cachedIndexOfRecord = -1;
+    }
+
+    @Override
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
+    @Override
+    public int numberOfFeatures() {
+        return values.length;
+    }
+
+    @Override
+    public MappedDimensions dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public void prepareToNormalize(RecordType record, int indexOfRecord) {
+        if (record instanceof MessageLite.Builder) {
+            delegate.prepareToNormalize(record, indexOfRecord);
+            return;
+        }
+        memoize(record, indexOfRecord);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
+        if (record instanceof MessageLite.Builder) {
+            delegate.mapFeatures(record, inputs, indexOfRecord);
+            return;
+        }
+        memoizeIfNeeded(record);
+        final int[] indices = {indexOfRecord, 0};
+        for (int featureIndex = 0; featureIndex < values.length; featureIndex++) {
+            indices[1] = featureIndex;
+            inputs.putScalar(indices, values[featureIndex]);
+        }
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        if (record instanceof MessageLite.Builder) {
+            delegate.mapFeatures(record, inputs, offset, indexOfRecord);
+            return;
+        }
+        memoizeIfNeeded(record);
+        System.arraycopy(values, 0, inputs, offset, values.length);
+    }
+
+    @Override
+    public float produceFeature(RecordType record, int featureIndex) {
+        if (record instanceof MessageLite.Builder) {
+            return delegate.produceFeature(record, featureIndex);
+        }
+        memoizeIfNeeded(record);
+        return values[featureIndex];
+    }
+
+    /**
+     * Users that do not call prepareToNormalize (e.g., normalization mappers that only call produceFeature) get the
+     * features of the record they ask for.
+     */
+    private void memoizeIfNeeded(RecordType record) {
+        if (record != cachedRecord) {
+            memoize(record, cachedIndexOfRecord);
+        }
+    }
+
+    @Override
+    public boolean hasMask() {
+        return delegate.hasMask();
+    }
+
+    @Override
+    public void maskFeatures(RecordType record, INDArray mask, int indexOfRecord) {
+        delegate.maskFeatures(record, mask, indexOfRecord);
+    }
+
+    @Override
+    public boolean isMasked(RecordType record, int featureIndex) {
+        return delegate.isMasked(record, featureIndex);
+    }
+
+    @Override
+    public String getFeatureName(int featureIndex) {
+        return delegate instanceof FeatureNameMapper ? ((FeatureNameMapper<RecordType>) delegate).getFeatureName(featureIndex) :
+                "feature" + featureIndex;
+    }
+
+    /**
+     * Return the features computed and reused by all the memoizing mappers since the last reset.
+     */
+    public static String statistics() {
+        final long computed = computedFeatures.sum();
+        final long reused = reusedFeatures.sum();
+        return String.format("memoized sub-mappers: computed %d records (%d features), reused %d records " +
+                        "(%d features, %.1f%% of feature computations eliminated)",
+                computedRecords.sum(), computed, reusedRecords.sum(), reused,
+                computed + reused == 0 ? 0 : 100.0 * reused / (computed + reused));
+    }
+
+    public static void resetStatistics() {
+        computedFeatures.reset();
+        reusedFeatures.reset();
+        computedRecords.reset();
+        reusedRecords.reset();
+    }
+}
@@ -7,11 +7,16 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * A wrapper to provide a name to a feature.
  * Created by fac2003 on 2/22/17.
  */
-public abstract class NamedWrapper<RecordType> implements FeatureNameMapper<RecordType>, FeatureMapper<RecordType> {
+public abstract class NamedWrapper<RecordType> implements FeatureNameMapper<RecordType>, DelegatingFeatureMapper<RecordType> {
     public NamedWrapper(FeatureMapper<RecordType> delegate) {
         this.delegate=delegate;
     }
 
+    @Override
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
     @Override
     public int numberOfFeatures() {
         return delegate.numberOfFeatures();
@@ -24,7 +24,7 @@ import java.util.function.Function;
  * <p>
  * Created by rct66 on 10/25/16.
  */
-public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
+public class OneHotBaseFeatureMapper<RecordType> implements SparseFeatureMapper<RecordType> {
     static private Logger LOG = LoggerFactory.getLogger(OneHotBaseFeatureMapper.class);
     private final int numFeatures;
     private boolean ignoreOutOfRangeIndices = false;
@@ -67,7 +67,7 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
 
     }
 
-    private static final int[] indices = new int[]{0, 0};
+    private final int[] indices = new int[]{0, 0};
 
     public int numberOfFeatures() {
         return numFeatures;
@@ -89,8 +89,20 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
         }
     }
 
+    @Override
+    public void mapActiveFeatures(RecordType record, float[] inputs, int offset, int stride) {
+        final int value = encodedValue();
+        if (value >= 0 && value < numFeatures) {
+            inputs[offset + value * stride] = 1F;
+        }
+    }
+
     @Override
     public float produceFeature(RecordType record, int featureIndex) {
+        return encodedValue() == featureIndex ? 1F : 0F;
+    }
+
+    private int encodedValue() {
         int value = recordStringAtBaseToInteger.apply(cachedString, baseIndex);
         if (value==0) {
             if (!ignoreOutOfRangeIndices) {
@@ -99,7 +111,7 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
             }
 
         }
-        return value == featureIndex ? 1F : 0F;
+        return value;
     }
 
     @Override
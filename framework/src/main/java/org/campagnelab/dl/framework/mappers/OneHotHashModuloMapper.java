@@ -12,7 +12,8 @@ import java.util.function.Function;
  * Maps an object to a fixed set of bit elements. Transform the object to a hashcode and reduce with modulo
  * to a fixed number of values. Then use one hot encoding to yield a vector.
  */
-public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<RecordType> {
+public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<RecordType>
+        implements SparseFeatureMapper<RecordType> {
 
     static private Logger LOG = LoggerFactory.getLogger(OneHotHashModuloMapper.class);
 
@@ -27,7 +28,7 @@ public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<Reco
         this.recordToString = recordToString;
     }
 
-    private static final int[] indices = new int[]{0, 0};
+    private final int[] indices = new int[]{0, 0};
 
     public int numberOfFeatures() {
         return vectorNumElements;
@@ -54,6 +55,14 @@ public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<Reco
         }
     }
 
+    @Override
+    public void mapActiveFeatures(RecordType record, float[] inputs, int offset, int stride) {
+        assert reducedValue >= 0: "prepareToNormalize must be called before mapActiveFeatures.";
+        if (reducedValue >= 0) {
+            inputs[offset + reducedValue * stride] = 1F;
+        }
+    }
+
     @Override
     public float produceFeature(RecordType record, int featureIndex) {
         assert reducedValue >= 0: "prepareToNormalize must be called before produceFeature.";
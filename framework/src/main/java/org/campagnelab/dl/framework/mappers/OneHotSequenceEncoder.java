@@ -0,0 +1,220 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Encodes each base of a sequence (e.g., a genomic context, or an indel sequence) in one-hot encoding. The bases of the
+ * sequence are converted to integer codes once per record, when encode is called, and the features of all the
+ * positions are then written in one pass. This replaces one OneHotBaseFeatureMapper per position, which converts the
+ * record to a string, and the base to an integer, for each position (and for each feature of the position when
+ * features are produced one by one). Position p of the sequence is encoded with features
+ * [p * featuresPerBase, (p + 1) * featuresPerBase).
+ *
+ * @author Fabien Campagne
+ */
+public class OneHotSequenceEncoder {
+    /**
+     * Codes of DNA bases, identical to those of OneHotBaseFeatureMapper.getIntegerOfBase.
+     */
+    public static final IntUnaryOperator DNA = OneHotSequenceEncoder::codeOfBase;
+
+    private final int maxLength;
+    private final int featuresPerBase;
+    private final IntUnaryOperator baseToCode;
+    private final int outOfRangeCode;
+    private final int[] codes;
+    private int sequenceLength;
+
+    /**
+     * @param maxLength       number of positions encoded.
+     * @param featuresPerBase number of features per position. Codes outside [0, featuresPerBase) produce no feature.
+     * @param baseToCode      converts a base (a character of the sequence) to a code.
+     * @param outOfRangeCode  code of positions past the end of the sequence.
+     */
+    public OneHotSequenceEncoder(int maxLength, int featuresPerBase, IntUnaryOperator baseToCode, int outOfRangeCode) {
+        this.maxLength = maxLength;
+        this.featuresPerBase = featuresPerBase;
+        this.baseToCode = baseToCode;
+        this.outOfRangeCode = outOfRangeCode;
+        this.codes = new int[maxLength];
+    }
+
+    /**
+     * Encode the first maxLength bases of a sequence.
+     */
+    public void encode(CharSequence sequence) {
+        encode(sequence, 0);
+    }
+
+    /**
+     * Encode up to maxLength bases of a sequence, starting at base start.
+     *
+     * @param sequence sequence to encode.
+     * @param start    index in sequence of the base encoded at position 0.
+     */
+    public void encode(CharSequence sequence, int start) {
+        sequenceLength = Math.max(0, Math.min(maxLength, sequence.length() - start));
+        for (int position = 0; position < sequenceLength; position++) {
+            codes[position] = baseToCode.applyAsInt(sequence.charAt(start + position));
+        }
+        Arrays.fill(codes, sequenceLength, maxLength, outOfRangeCode);
+    }
+
+    /**
+     * Encode the maxLength bases at the center of a sequence, without creating a trimmed copy of the sequence.
+     * Sequences with maxLength bases or less are encoded from their first base.
+     */
+    public void encodeCentered(CharSequence sequence) {
+        encode(sequence, Math.max(0, (sequence.length() - maxLength) / 2));
+    }
+
+    /**
+     * Number of positions encoded with bases of the sequence (other positions have outOfRangeCode).
+     */
+    public int sequenceLength() {
+        return sequenceLength;
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    public int featuresPerBase() {
+        return featuresPerBase;
+    }
+
+    public int numberOfFeatures() {
+        return maxLength * featuresPerBase;
+    }
+
+    /**
+     * Return the code of the base at a position.
+     */
+    public int code(int position) {
+        return codes[position];
+    }
+
+    /**
+     * Return true when a code is encoded as a one in the features of its position.
+     */
+    public boolean isActive(int code) {
+        return code >= 0 && code < featuresPerBase;
+    }
+
+    /**
+     * Produce a feature of the encoded sequence.
+     */
+    public float produceFeature(int featureIndex) {
+        return codes[featureIndex / featuresPerBase] == featureIndex % featuresPerBase ? 1F : 0F;
+    }
+
+    /**
+     * Write the ones of the features of the first numPositions positions, see SparseFeatureMapper.mapActiveFeatures.
+     */
+    public void mapActiveFeatures(float[] inputs, int offset, int stride, int numPositions) {
+        for (int position = 0; position < numPositions; position++) {
+            final int code = codes[position];
+            if (isActive(code)) {
+                inputs[offset + (position * featuresPerBase + code) * stride] = 1F;
+            }
+        }
+    }
+
+    /**
+     * Write the features of all the positions to a matrix, at row indexOfRecord.
+     */
+    public void mapFeatures(INDArray inputs, int indexOfRecord) {
+        final int[] indices = {indexOfRecord, 0};
+        for (int position = 0; position < maxLength; position++) {
+            final int code = codes[position];
+            for (int j = 0; j < featuresPerBase; j++) {
+                indices[1] = position * featuresPerBase + j;
+                inputs.putScalar(indices, code == j ? 1F : 0F);
+            }
+        }
+    }
+
+    /**
+     * Write the features of the sequence to a 3D tensor (records, features per base, positions), at row
+     * indexOfRecord, as RNNFeatureMapper does: positions past the end of the sequence have no features.
+     */
+    public void mapSequenceFeatures(INDArray inputs, int indexOfRecord) {
+        final int[] indices = {indexOfRecord, 0, 0};
+        for (int position = 0; position < maxLength; position++) {
+            indices[2] = position;
+            final int code = position < sequenceLength ? codes[position] : -1;
+            for (int j = 0; j < featuresPerBase; j++) {
+                indices[1] = j;
+                inputs.putScalar(indices, code == j ? 1F : 0F);
+            }
+        }
+    }
+
+    /**
+     * Write the features of the sequence to the buffer of a zeroed (records, features per base, positions) array in
+     * 'f' order (see SequenceFeatureMapper). Positions past the end of the sequence have no features.
+     */
+    public void mapSequenceFeatures(float[] inputs, int indexOfRecord, int numRecords) {
+        for (int position = 0; position < sequenceLength; position++) {
+            final int code = codes[position];
+            if (isActive(code)) {
+                inputs[SequenceFeatureMapper.offset(indexOfRecord, code, position, numRecords, featuresPerBase)] = 1F;
+            }
+        }
+    }
+
+    /**
+     * Write the ones of the mask of the sequence to the buffer of a zeroed (records, positions) array in 'f' order.
+     */
+    public void maskSequence(float[] mask, int indexOfRecord, int numRecords) {
+        for (int position = 0; position < sequenceLength; position++) {
+            mask[indexOfRecord + position * numRecords] = 1F;
+        }
+    }
+
+    /**
+     * Write the mask of the sequence (one per position of the sequence, zero past the end), at row indexOfRecord.
+     */
+    public void maskSequence(INDArray mask, int indexOfRecord) {
+        final int[] indices = {indexOfRecord, 0};
+        for (int position = 0; position < maxLength; position++) {
+            indices[1] = position;
+            mask.putScalar(indices, position < sequenceLength ? 1F : 0F);
+        }
+    }
+
+    /**
+     * Produce a feature of the encoded sequence, as RNNFeatureMapper does: features of positions past the end of
+     * the sequence are zero.
+     */
+    public float produceSequenceFeature(int featureIndex) {
+        return featureIndex / featuresPerBase >= sequenceLength ? 0F : produceFeature(featureIndex);
+    }
+
+    private static int codeOfBase(int base) {
+        switch (base) {
+            case 'a':
+            case 'A':
+                return 1;
+            case 't':
+            case 'T':
+                return 2;
+            case 'c':
+            case 'C':
+                return 3;
+            case 'g':
+            case 'G':
+                return 4;
+            case 'n':
+            case 'N':
+                return 5;
+            case '-':
+                return 6;
+            default:
+                return 0;
+        }
+    }
+}
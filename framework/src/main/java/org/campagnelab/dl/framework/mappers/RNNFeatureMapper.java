@@ -30,13 +30,14 @@ import java.util.function.Function;
  *  [0, 0, 0]]
  * Created by joshuacohen on 11/18/16.
  */
-public class RNNFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
+public class RNNFeatureMapper<RecordType> implements SequenceFeatureMapper<RecordType> {
     private int featuresPerTimeStep;
     private FeatureMapper<RecordType>[] delegates;
     private Function<RecordType, Integer> recordToSequenceLength;
 
     private int[] indicesMapper = new int[]{0, 0, 0};
     private int[] indicesMasker = new int[]{0, 0};
+    private float[] timeStepFeatures;
 
     int sequenceLength;
 
@@ -117,6 +118,35 @@ public class RNNFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
         }
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void mapSequenceFeatures(RecordType record, float[] inputs, int indexOfRecord, int numRecords) {
+        final int numTimeSteps = Math.min(sequenceLength, delegates.length);
+        for (int i = 0; i < numTimeSteps; i++) {
+            final FeatureMapper<RecordType> delegate = delegates[i];
+            final int offset = SequenceFeatureMapper.offset(indexOfRecord, 0, i, numRecords, featuresPerTimeStep);
+            if (delegate instanceof SparseFeatureMapper) {
+                ((SparseFeatureMapper<RecordType>) delegate).mapActiveFeatures(record, inputs, offset, numRecords);
+            } else {
+                if (timeStepFeatures == null) {
+                    timeStepFeatures = new float[featuresPerTimeStep];
+                }
+                delegate.mapFeatures(record, timeStepFeatures, 0, indexOfRecord);
+                for (int j = 0; j < featuresPerTimeStep; j++) {
+                    inputs[offset + j * numRecords] = timeStepFeatures[j];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void maskSequenceFeatures(RecordType record, float[] mask, int indexOfRecord, int numRecords) {
+        final int numTimeSteps = Math.min(sequenceLength, delegates.length);
+        for (int i = 0; i < numTimeSteps; i++) {
+            mask[indexOfRecord + i * numRecords] = 1F;
+        }
+    }
+
     @Override
     public boolean hasMask() {
         return true;
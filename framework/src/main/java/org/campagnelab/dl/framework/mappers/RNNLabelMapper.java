@@ -30,7 +30,7 @@ import java.util.function.Function;
  * [0, 0, 0]]
  * Created by joshuacohen on 11/21/16.
  */
-public class RNNLabelMapper<RecordType> implements LabelMapper<RecordType> {
+public class RNNLabelMapper<RecordType> implements SequenceLabelMapper<RecordType> {
     private final float epsilon;
     private int labelsPerTimeStep;
     private LabelMapper<RecordType>[] delegates;
@@ -38,6 +38,7 @@ public class RNNLabelMapper<RecordType> implements LabelMapper<RecordType> {
 
     private int[] indicesMapper = new int[]{0, 0, 0};
     private int[] indicesMasker = new int[]{0, 0};
+    private float[] timeStepLabels;
 
     private MappedDimensions dim;
 
@@ -130,6 +131,34 @@ public class RNNLabelMapper<RecordType> implements LabelMapper<RecordType> {
         }
     }
 
+    @Override
+    public void mapSequenceLabels(RecordType record, float[] labels, int indexOfRecord, int numRecords) {
+        if (timeStepLabels == null) {
+            timeStepLabels = new float[labelsPerTimeStep];
+        }
+        for (int i = 0; i < delegates.length; i++) {
+            final int offset = SequenceFeatureMapper.offset(indexOfRecord, 0, i, numRecords, labelsPerTimeStep);
+            if (i < sequenceLength) {
+                delegates[i].mapLabels(record, timeStepLabels, 0, indexOfRecord);
+                for (int j = 0; j < labelsPerTimeStep; j++) {
+                    labels[offset + j * numRecords] = timeStepLabels[j] - epsilon;
+                }
+            } else if (epsilon != 0) {
+                for (int j = 0; j < labelsPerTimeStep; j++) {
+                    labels[offset + j * numRecords] = epsilon;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void maskSequenceLabels(RecordType record, float[] mask, int indexOfRecord, int numRecords) {
+        final int numTimeSteps = Math.min(sequenceLength, delegates.length);
+        for (int i = 0; i < numTimeSteps; i++) {
+            mask[indexOfRecord + i * numRecords] = 1F;
+        }
+    }
+
     @Override
     public boolean hasMask() {
         return true;
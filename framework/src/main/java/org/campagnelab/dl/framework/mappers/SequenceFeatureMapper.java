@@ -0,0 +1,43 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * Feature mappers that produce features for recurrent networks: the features of a record are a two-dimensional array
+ * (features per time step, time steps), and the features of a minibatch a three-dimensional array (records, features
+ * per time step, time steps). Such mappers write the features of a record directly to the buffer of the minibatch
+ * array, stored in 'f' order and zeroed, instead of writing one element at a time with an index array. Features that
+ * are zero (e.g., time steps past the end of the sequence) are not written.
+ *
+ * @author Fabien Campagne
+ */
+public interface SequenceFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Write the features of the record that are not zero. Feature j of time step t is written at
+     * inputs[offset(indexOfRecord, j, t, numRecords, featuresPerTimeStep)]. prepareToNormalize must be called before
+     * this method.
+     *
+     * @param record        The record to convert to features.
+     * @param inputs        Buffer of the minibatch features, in 'f' order, where all features are zero.
+     * @param indexOfRecord Index of the record in the minibatch.
+     * @param numRecords    Number of records in the minibatch.
+     */
+    void mapSequenceFeatures(RecordType record, float[] inputs, int indexOfRecord, int numRecords);
+
+    /**
+     * Write the mask of the record (one value per time step). The mask of time step t is written at
+     * mask[indexOfRecord + t * numRecords]. Time steps that are masked out need not be written.
+     *
+     * @param record        The record to convert to a mask.
+     * @param mask          Buffer of the minibatch mask, in 'f' order, where all values are zero.
+     * @param indexOfRecord Index of the record in the minibatch.
+     * @param numRecords    Number of records in the minibatch.
+     */
+    void maskSequenceFeatures(RecordType record, float[] mask, int indexOfRecord, int numRecords);
+
+    /**
+     * Return the index of an element of a (records, features per time step, time steps) array stored in 'f' order.
+     */
+    static int offset(int indexOfRecord, int featureInTimeStep, int timeStep, int numRecords, int featuresPerTimeStep) {
+        return indexOfRecord + numRecords * (featureInTimeStep + featuresPerTimeStep * timeStep);
+    }
+}
@@ -0,0 +1,28 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * Label mappers that produce labels for recurrent networks, and write the labels of a record directly to the buffer
+ * of the minibatch array, stored in 'f' order and zeroed (see SequenceFeatureMapper).
+ *
+ * @author Fabien Campagne
+ */
+public interface SequenceLabelMapper<RecordType> extends LabelMapper<RecordType> {
+
+    /**
+     * Write the labels of the record that are not zero. Label j of time step t is written at
+     * labels[SequenceFeatureMapper.offset(indexOfRecord, j, t, numRecords, labelsPerTimeStep)]. prepareToNormalize
+     * must be called before this method.
+     *
+     * @param record        The record to convert to labels.
+     * @param labels        Buffer of the minibatch labels, in 'f' order, where all labels are zero.
+     * @param indexOfRecord Index of the record in the minibatch.
+     * @param numRecords    Number of records in the minibatch.
+     */
+    void mapSequenceLabels(RecordType record, float[] labels, int indexOfRecord, int numRecords);
+
+    /**
+     * Write the mask of the record (one value per time step) at mask[indexOfRecord + t * numRecords]. Time steps that
+     * are masked out need not be written.
+     */
+    void maskSequenceLabels(RecordType record, float[] mask, int indexOfRecord, int numRecords);
+}
@@ -0,0 +1,32 @@
+package org.campagnelab.dl.framework.mappers;
+
+import java.util.Arrays;
+
+/**
+ * Feature mappers that produce one-dimensional features where only a few features are one and all others are zero
+ * (e.g., one-hot encoded bases or genomic context). Such mappers only write the indices of the features that are one
+ * to buffers that are already zeroed, instead of writing each feature.
+ *
+ * @author Fabien Campagne
+ */
+public interface SparseFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Write 1 for each feature of the record that is one. Features that are zero are not written, and must already be
+     * zero in inputs. Feature featureIndex is written at inputs[offset + featureIndex * stride], so that features can
+     * be written to rows (stride 1) or directly to the columns of a minibatch stored in 'f' order (stride is the number
+     * of records in the minibatch). prepareToNormalize must be called before this method.
+     *
+     * @param record The record to convert to features.
+     * @param inputs The array where features are written.
+     * @param offset Index in inputs of the first feature of the record.
+     * @param stride Distance in inputs between two consecutive features of the record.
+     */
+    void mapActiveFeatures(RecordType record, float[] inputs, int offset, int stride);
+
+    @Override
+    default void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        Arrays.fill(inputs, offset, offset + numberOfFeatures(), 0F);
+        mapActiveFeatures(record, inputs, offset, 1);
+    }
+}
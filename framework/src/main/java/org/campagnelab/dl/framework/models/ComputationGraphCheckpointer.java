@@ -0,0 +1,324 @@
+package org.campagnelab.dl.framework.models;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Saves checkpoints of a graph being trained, with its updater state, without stalling training for serialization.
+ * A save copies the parameters, updater state, iteration counts and learning rates of the graph into a staging copy,
+ * and returns. A background thread serializes the staging copy to a temporary file, forces it to disk, and renames it
+ * atomically over the model file (ComputationGraphSaver naming), so that a model file is never seen half written.
+ * When a save arrives for a prefix whose previous checkpoint has not started writing, the staged parameters are
+ * replaced and only the newest checkpoint is written (the saves coalesce). Staging copies are reused across saves.
+ * <p>
+ * The time a save stalls the training thread is measured, in asynchronous mode (staging copy only) and in synchronous
+ * mode (the whole write, on the training thread), so that both can be compared with statistics().
+ *
+ * @author Fabien Campagne
+ */
+public class ComputationGraphCheckpointer {
+    private static final Logger LOG = LoggerFactory.getLogger(ComputationGraphCheckpointer.class);
+    /**
+     * Name of the entry of the model file where the state of training is stored.
+     */
+    private static final String STATE_ENTRY = "trainingState.properties";
+    private final ComputationGraphSaver saver;
+    private final ExecutorService writer;
+    private final Map<String, ComputationGraph> pending = new HashMap<>();
+    private final Map<String, Properties> pendingStates = new HashMap<>();
+    private final ArrayDeque<ComputationGraph> staging = new ArrayDeque<>();
+    private final ArrayDeque<Future<?>> writes = new ArrayDeque<>();
+    private int numSaves;
+    private int numCoalesced;
+    private long stallNanos;
+    private long maxStallNanos;
+    private volatile long writeNanos;
+    private volatile IOException writeError;
+
+    /**
+     * @param directory directory where models are saved.
+     * @param async     when true, models are written on a background thread. When false, save writes the model on
+     *                  the calling thread, but still atomically.
+     */
+    public ComputationGraphCheckpointer(String directory, boolean async) {
+        this(directory, async ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        }) : null);
+    }
+
+    /**
+     * @param writer single threaded executor that writes models, or null to write them on the calling thread.
+     */
+    ComputationGraphCheckpointer(String directory, ExecutorService writer) {
+        saver = new ComputationGraphSaver(directory);
+        this.writer = writer;
+    }
+
+    public void saveLatestModel(ComputationGraph graph) throws IOException {
+        save(graph, "latest");
+    }
+
+    /**
+     * Save the parameters and updater state of the graph under a prefix (e.g., latest, bestAUC). In asynchronous
+     * mode, the graph can be modified as soon as this method returns.
+     *
+     * @throws IOException when the model cannot be written, or when a previous background write failed.
+     */
+    public void save(ComputationGraph graph, String prefix) throws IOException {
+        save(graph, prefix, null);
+    }
+
+    /**
+     * Save the graph under a prefix, with properties that describe the state of training when the graph was saved.
+     * The properties are stored in the model file (see loadState), so the model and its state are replaced together
+     * by a single rename: a crash can never leave a state that describes another model. Coalesced saves keep the
+     * properties of the newest save.
+     *
+     * @param state properties to store with the model, or null.
+     */
+    public void save(ComputationGraph graph, String prefix, Properties state) throws IOException {
+        final long start = System.nanoTime();
+        checkWriteError();
+        if (writer == null) {
+            write(graph, prefix, state);
+        } else {
+            synchronized (this) {
+                pendingStates.put(prefix, state);
+                ComputationGraph staged = pending.get(prefix);
+                if (staged != null) {
+                    // the previous checkpoint of this prefix has not started writing, only write the newest:
+                    numCoalesced++;
+                    copy(graph, staged);
+                } else {
+                    staged = staging.poll();
+                    if (staged == null) {
+                        staged = graph.clone();
+                    } else {
+                        copy(graph, staged);
+                    }
+                    pending.put(prefix, staged);
+                    writes.addLast(writer.submit(() -> writePending(prefix)));
+                }
+                while (writes.peekFirst() != null && writes.peekFirst().isDone()) {
+                    writes.pollFirst();
+                }
+            }
+        }
+        final long stall = System.nanoTime() - start;
+        numSaves++;
+        stallNanos += stall;
+        maxStallNanos = Math.max(maxStallNanos, stall);
+    }
+
+    /**
+     * Wait until all the checkpoints saved so far are written.
+     *
+     * @throws IOException when a write failed.
+     */
+    public void flush() throws IOException {
+        while (true) {
+            Future<?> write;
+            synchronized (this) {
+                write = writes.pollFirst();
+            }
+            if (write == null) {
+                break;
+            }
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for checkpoints to be written", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to write checkpoint", e.getCause());
+            }
+        }
+        checkWriteError();
+    }
+
+    /**
+     * Write the pending checkpoints, and stop the background thread.
+     */
+    public void close() throws IOException {
+        flush();
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Return a summary of the stalls: number of saves, saves coalesced, total and largest time the training thread
+     * spent in save, and time spent writing models.
+     */
+    public String statistics() {
+        return String.format("%s checkpoints: %d saves, %d coalesced, training stalled %.2f s (max %.0f ms), " +
+                        "writing took %.2f s",
+                writer == null ? "synchronous" : "asynchronous", numSaves, numCoalesced, stallNanos / 1E9,
+                maxStallNanos / 1E6, (writer == null ? stallNanos : writeNanos) / 1E9);
+    }
+
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * Return the state saved with a model, or null when the model was saved without state.
+     *
+     * @param modelFilename name of a model file written by a checkpointer.
+     */
+    public static Properties loadState(String modelFilename) throws IOException {
+        try (ZipFile model = new ZipFile(modelFilename)) {
+            ZipEntry entry = model.getEntry(STATE_ENTRY);
+            if (entry == null) {
+                return null;
+            }
+            Properties state = new Properties();
+            try (InputStream input = model.getInputStream(entry)) {
+                state.load(input);
+            }
+            return state;
+        }
+    }
+
+    private void writePending(String prefix) {
+        ComputationGraph staged;
+        Properties state;
+        synchronized (this) {
+            staged = pending.remove(prefix);
+            state = pendingStates.remove(prefix);
+        }
+        if (staged == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            write(staged, prefix, state);
+        } catch (IOException e) {
+            LOG.error("Unable to write checkpoint " + prefix, e);
+            writeError = e;
+        } finally {
+            writeNanos += System.nanoTime() - start;
+            synchronized (this) {
+                staging.add(staged);
+            }
+        }
+    }
+
+    /**
+     * Write the model, with the state when there is one, to a temporary file, and rename it over the model file.
+     */
+    private void write(ComputationGraph graph, String prefix, Properties state) throws IOException {
+        File target = new File(saver.modelFilename(prefix));
+        File temporary = new File(target.getPath() + ".tmp");
+        ModelSerializer.writeModel(graph, temporary, true);
+        if (state != null) {
+            // add the state to the zip archive of the model, where model readers ignore it:
+            try (FileSystem model = FileSystems.newFileSystem(URI.create("jar:" + temporary.toURI()),
+                    Collections.<String, Object>emptyMap());
+                 OutputStream output = Files.newOutputStream(model.getPath(STATE_ENTRY))) {
+                state.store(output, "state of training when " + prefix + " was saved");
+            }
+        }
+        replace(temporary, target);
+    }
+
+    /**
+     * Force a temporary file in the model directory to disk, rename it over the target file, and force the directory
+     * entry of the rename to disk, so that the new file survives a crash of the machine.
+     */
+    private static void replace(File temporary, File target) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.getAbsoluteFile().toPath().getParent());
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms (e.g., Windows), where renames are durable already:
+            LOG.debug("Unable to force directory " + directory + " to disk", e);
+        }
+    }
+
+    /**
+     * Copy the parameters, updater state, iteration counts and current learning rates of a graph into a staging copy
+     * of the same graph.
+     */
+    private static void copy(ComputationGraph graph, ComputationGraph staged) {
+        staged.params().assign(graph.params());
+        // learning rate schedules and updaters read the iteration counts of the graph and layer configurations:
+        staged.getConfiguration().setIterationCount(graph.getConfiguration().getIterationCount());
+        Layer[] layers = graph.getLayers();
+        Layer[] stagedLayers = staged.getLayers();
+        for (int i = 0; i < layers.length; i++) {
+            NeuralNetConfiguration conf = layers[i].conf();
+            NeuralNetConfiguration stagedConf = stagedLayers[i].conf();
+            stagedConf.setIterationCount(conf.getIterationCount());
+            // decay policies and momentum schedules update the layer configuration in place at each iteration:
+            if (conf.getLearningRateByParam() != null) {
+                stagedConf.setLearningRateByParam(new HashMap<>(conf.getLearningRateByParam()));
+            }
+            stagedConf.getLayer().setMomentum(conf.getLayer().getMomentum());
+        }
+        ComputationGraphUpdater updater = graph.getUpdater();
+        INDArray state = updater == null ? null : updater.getStateViewArray();
+        if (state != null) {
+            INDArray stagedState = staged.getUpdater().getStateViewArray();
+            if (stagedState != null && stagedState.length() == state.length()) {
+                stagedState.assign(state);
+            } else {
+                staged.getUpdater().setStateViewArray(state.dup());
+            }
+        }
+    }
+
+    private void checkWriteError() throws IOException {
+        IOException error = writeError;
+        if (error != null) {
+            writeError = null;
+            throw new IOException("Unable to write checkpoint", error);
+        }
+    }
+}
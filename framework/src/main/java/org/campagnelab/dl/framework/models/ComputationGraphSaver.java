@@ -41,8 +41,14 @@ public class ComputationGraphSaver implements EarlyStoppingModelSaver<Computatio
 
 
     public void saveModel(ComputationGraph net, String prefix) throws IOException {
-        String confOut = FilenameUtils.concat(directory, prefix + "-ComputationGraph.bin");
-        save(net, confOut);
+        save(net, modelFilename(prefix));
+    }
+
+    /**
+     * Return the name of the file where the model with this prefix is saved.
+     */
+    public String modelFilename(String prefix) {
+        return FilenameUtils.concat(directory, prefix + "-ComputationGraph.bin");
     }
 
 
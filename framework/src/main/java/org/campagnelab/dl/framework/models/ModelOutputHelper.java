@@ -2,6 +2,7 @@
 package org.campagnelab.dl.framework.models;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.graph.ComputationGraph;
@@ -9,7 +10,6 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
-import org.nd4j.linalg.factory.Nd4j;
 
 import java.util.Arrays;
 import java.util.Iterator;
@@ -22,9 +22,12 @@ import java.util.Iterator;
 public class ModelOutputHelper<RecordType> {
     private INDArray[] resultGraph;
     private DomainDescriptor<RecordType> domainDescriptor;
+    // the features of one record are mapped to the same arrays for each record:
+    private final MinibatchArrayPool recordArrays;
 
     public ModelOutputHelper(DomainDescriptor<RecordType> domainDescriptor) {
         this.domainDescriptor = domainDescriptor;
+        recordArrays = new MinibatchArrayPool(domainDescriptor.getComputationalGraph().getInputNames().length);
     }
 
     /**
@@ -46,22 +49,24 @@ public class ModelOutputHelper<RecordType> {
         if (model instanceof MultiLayerNetwork) {
             MultiLayerNetwork network = (MultiLayerNetwork) model;
             String inputName = domainDescriptor.getComputationalGraph().getInputNames()[0];
-            INDArray testFeatures = Nd4j.zeros(domainDescriptor.getInputShape(1, inputName));
+            INDArray testFeatures = recordArrays.zeros(domainDescriptor.getInputShape(1, inputName));
             featureMappers[0].prepareToNormalize(record, 0);
             featureMappers[0].mapFeatures(record, testFeatures, 0);
             Arrays.fill(resultGraph, null);
             resultGraph[0] = network.output(testFeatures, false);
+            recordArrays.release(testFeatures);
         } else if (model instanceof ComputationGraph) {
             ComputationGraph graph = (ComputationGraph) model;
             INDArray[] testFeatures = new INDArray[featureMappers.length];
             for (int i = 0; i < featureMappers.length; i++) {
                 String inputName = domainDescriptor.getComputationalGraph().getInputNames()[i];
-                testFeatures[i] = Nd4j.zeros(domainDescriptor.getInputShape(1, inputName));
+                testFeatures[i] = recordArrays.zeros(domainDescriptor.getInputShape(1, inputName));
                 featureMappers[i].prepareToNormalize(record, 0);
                 featureMappers[i].mapFeatures(record, testFeatures[i], 0);
             }
 
             resultGraph = graph.output(false, testFeatures);
+            recordArrays.release(testFeatures);
         } else {
             throw new IllegalArgumentException("model is not of supported type: " + model.getClass().getCanonicalName());
         }
@@ -9,6 +9,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
+import java.util.Properties;
 
 /**
  * Write performance logs under the model directory. Supports multiple models produced during training,
@@ -246,6 +247,63 @@ public class PerformanceLogger {
 
     }
 
+    /**
+     * Store the performances logged so far with logMetrics, and the best value of each metric, in properties, so that
+     * they can be restored when training resumes from a checkpoint.
+     */
+    public void store(Properties properties) {
+        for (int index = 0; index < performanceNames.length; index++) {
+            properties.setProperty("bestPerformance." + performanceNames[index], Double.toString(bestPerformances[index]));
+        }
+        for (String prefix : log.keySet()) {
+            List<Performance> perfs = log.get(prefix);
+            properties.setProperty("performanceLog." + prefix + ".size", Integer.toString(perfs.size()));
+            for (int i = 0; i < perfs.size(); i++) {
+                Performance perf = perfs.get(i);
+                StringBuilder values = new StringBuilder();
+                values.append(perf.numExamplesUsed).append('\t').append(perf.epoch).append('\t').append(perf.trainingScore);
+                for (double value : perf.performanceValues == null ? new double[0] : perf.performanceValues) {
+                    values.append('\t').append(value);
+                }
+                properties.setProperty("performanceLog." + prefix + "." + i, values.toString());
+            }
+        }
+    }
+
+    /**
+     * Restore the performances and best values stored with store. The metrics must have been defined with
+     * definePerformances, as when the performances were stored.
+     */
+    public void restore(Properties properties) {
+        for (int index = 0; index < performanceNames.length; index++) {
+            String best = properties.getProperty("bestPerformance." + performanceNames[index]);
+            if (best != null) {
+                bestPerformances[index] = Double.parseDouble(best);
+            }
+        }
+        log.clear();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith("performanceLog.") || !key.endsWith(".size")) {
+                continue;
+            }
+            final String prefix = key.substring("performanceLog.".length(), key.length() - ".size".length());
+            final int size = Integer.parseInt(properties.getProperty(key));
+            ObjectArrayList<Performance> perfs = new ObjectArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String[] tokens = properties.getProperty("performanceLog." + prefix + "." + i).split("\t");
+                double[] values = new double[tokens.length - 3];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = Double.parseDouble(tokens[v + 3]);
+                }
+                Performance perf = new Performance(Long.parseLong(tokens[0]), Integer.parseInt(tokens[1]),
+                        performanceNames, values);
+                perf.trainingScore = Double.parseDouble(tokens[2]);
+                perfs.add(perf);
+            }
+            log.put(prefix, perfs);
+        }
+    }
+
     private void writeHeaders(Writer writer) throws IOException {
         writer.write("numExamplesUsed\tepoch\ttrainingScore\t" + getMetricHeader());
         if (conditionId != null) {
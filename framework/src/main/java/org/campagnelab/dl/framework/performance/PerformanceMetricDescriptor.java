@@ -8,6 +8,7 @@ import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 
 public abstract class PerformanceMetricDescriptor<RecordType> {
     protected DomainDescriptor<RecordType> domainDescriptor;
+    private boolean fusedEvaluation = true;
 
     public PerformanceMetricDescriptor(DomainDescriptor<RecordType> domainDescriptor) {
         this.domainDescriptor = domainDescriptor;
@@ -58,6 +59,21 @@ public abstract class PerformanceMetricDescriptor<RecordType> {
         return results.toDoubleArray();
     }
 
+    /**
+     * Fuse the forward passes of the evaluators created by newEvaluator (the default), or compute outputs with
+     * graph.output and losses with graph.score (see SinglePassEvaluator).
+     */
+    public void setFusedEvaluation(boolean fusedEvaluation) {
+        this.fusedEvaluation = fusedEvaluation;
+    }
+
+    /**
+     * Create an evaluator for one pass over a validation set, configured by setFusedEvaluation.
+     */
+    protected SinglePassEvaluator newEvaluator() {
+        return new SinglePassEvaluator(fusedEvaluation);
+    }
+
     /**
      * Return the name of the metric to use for early stopping.
      *
@@ -0,0 +1,155 @@
+package org.campagnelab.dl.framework.performance;
+
+import org.deeplearning4j.nn.api.layers.IOutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a graph over a validation set with one forward pass per minibatch. The outputs of the pass are handed to
+ * an observer, which feeds the metric accumulators, and the loss of the minibatch is computed from the activations of
+ * the same pass: only the output layers are applied again to obtain their pre-activations. This replaces calling
+ * graph.output and graph.score on each minibatch, which propagates every example through the whole graph twice, and
+ * iterating the validation set once per metric.
+ * <p>
+ * The loss of a minibatch is the value graph.score would return: the sum of the losses of the output layers, with the
+ * L1/L2 penalties of the network, computed with the feature and label masks of the minibatch. Outputs are computed
+ * with the masks as well: the label masks are applied to the activations of the output layers, so the outputs of
+ * masked examples are zero. graph.output ignores label masks, so with masked labels the metrics computed from the
+ * fused outputs differ from those computed when the evaluator is not fused.
+ *
+ * @author Fabien Campagne
+ */
+public class SinglePassEvaluator {
+    private final boolean fused;
+
+    private double scoreSum;
+    private long numScored;
+    private long numExamples;
+
+    /**
+     * Observes the outputs of the graph for each minibatch of the validation set.
+     */
+    @FunctionalInterface
+    public interface MinibatchObserver {
+        /**
+         * Observe the outputs of the graph for a minibatch.
+         *
+         * @param minibatch minibatch of the validation set.
+         * @param outputs   outputs of the graph, in the order of the network outputs.
+         * @param score     loss of the minibatch (may be NaN).
+         * @return true to stop the evaluation after this minibatch.
+         */
+        boolean observe(MultiDataSet minibatch, INDArray[] outputs, double score);
+    }
+
+    /**
+     * Create an evaluator that fuses the forward passes.
+     */
+    public SinglePassEvaluator() {
+        this(true);
+    }
+
+    /**
+     * @param fused true to fuse the forward passes, false to compute outputs with graph.output and the loss with
+     *              graph.score, as the estimators did before. Used by EvaluationBenchmark to measure the cost of the
+     *              extra pass.
+     */
+    public SinglePassEvaluator(boolean fused) {
+        this.fused = fused;
+    }
+
+    /**
+     * Evaluate the graph over the validation set. The iterator is reset before and after the evaluation.
+     *
+     * @param graph    model.
+     * @param iterator iterator over the validation set.
+     * @param scoreN   evaluation stops after the minibatch where more than scoreN examples have been seen.
+     * @param observer observer of the outputs of each minibatch.
+     * @return the average loss over the minibatches evaluated, ignoring NaN losses, or NaN when no loss was a number.
+     */
+    public double evaluate(ComputationGraph graph, MultiDataSetIterator iterator, long scoreN,
+                           MinibatchObserver observer) {
+        scoreSum = 0;
+        numScored = 0;
+        numExamples = 0;
+        iterator.reset();
+        while (iterator.hasNext()) {
+            MultiDataSet minibatch = iterator.next();
+            final INDArray[] outputs;
+            final double score;
+            if (fused) {
+                if (minibatch.hasMaskArrays()) {
+                    graph.setLayerMaskArrays(minibatch.getFeaturesMaskArrays(), minibatch.getLabelsMaskArrays());
+                }
+                outputs = output(graph, minibatch.getFeatures());
+                score = score(graph, minibatch.getLabels());
+                graph.clearLayerMaskArrays();
+            } else {
+                outputs = graph.output(minibatch.getFeatures());
+                score = graph.score(minibatch);
+            }
+            if (score == score) {
+                // not a NaN
+                scoreSum += score;
+                numScored += 1;
+            }
+            numExamples += minibatch.getFeatures(0).size(0);
+            if (observer.observe(minibatch, outputs, score) || numExamples > scoreN) {
+                break;
+            }
+        }
+        iterator.reset();
+        return getScore();
+    }
+
+    /**
+     * Return the average loss of the last evaluation, or NaN when no loss was a number.
+     */
+    public double getScore() {
+        return numScored > 0 ? scoreSum / numScored : Double.NaN;
+    }
+
+    /**
+     * Return the number of examples seen by the last evaluation.
+     */
+    public long getNumExamples() {
+        return numExamples;
+    }
+
+    /**
+     * Propagate the features through the graph. The activations of the layers stay in the graph, for score.
+     */
+    private static INDArray[] output(ComputationGraph graph, INDArray[] features) {
+        Map<String, INDArray> activations = graph.feedForward(features, false);
+        List<String> outputNames = graph.getConfiguration().getNetworkOutputs();
+        INDArray[] outputs = new INDArray[outputNames.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = activations.get(outputNames.get(i));
+        }
+        return outputs;
+    }
+
+    /**
+     * Compute the loss from the inputs the output layers received in the last forward pass, as graph.score does after
+     * its own pass. The L1/L2 penalties of the network are added once.
+     */
+    private static double score(ComputationGraph graph, INDArray[] labels) {
+        graph.setLabels(labels);
+        double l1 = graph.calcL1();
+        double l2 = graph.calcL2();
+        double score = 0;
+        for (int i = 0; i < labels.length; i++) {
+            IOutputLayer outputLayer = (IOutputLayer) graph.getOutputLayer(i);
+            outputLayer.setLabels(labels[i]);
+            score += outputLayer.computeScore(l1, l2, false);
+            l1 = 0;
+            l2 = 0;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,111 @@
+package org.campagnelab.dl.framework.tools;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Re-encode the minibatches of an existing cache with each codec, and report bytes per record, decoding throughput
+ * and the largest difference between decoded and original values (non-zero only for lossy codecs). Entries are
+ * decoded from direct buffers, as when they are read from a memory-mapped cache.
+ *
+ * @author Fabien Campagne
+ */
+public class CacheCodecBenchmark extends AbstractTool<CacheCodecBenchmarkArguments> {
+
+    public static void main(String[] args) {
+
+        CacheCodecBenchmark tool = new CacheCodecBenchmark();
+        tool.parseArguments(args, "CacheCodecBenchmark", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    public CacheCodecBenchmarkArguments createArguments() {
+        return new CacheCodecBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        MultiDataSetIterator iterator = CacheIndex.exists(args().cacheBasename) ?
+                new MultiDatasetMemoryMappedIterator(args().cacheBasename, args().cacheN) :
+                new MultiDatasetMappedFeaturesIterator(args().cacheBasename, args().cacheN);
+        ObjectArrayList<MultiDataSet> minibatches = new ObjectArrayList<>();
+        long numRecords = 0;
+        while (iterator.hasNext()) {
+            MultiDataSet ds = iterator.next();
+            minibatches.add(ds);
+            numRecords += ds.getFeatures(0).size(0);
+        }
+        System.out.printf("Loaded %d minibatches, %d records.%n", minibatches.size(), numRecords);
+        List<String> codecNames = args().codecs.isEmpty() ? Arrays.asList(CacheCodecs.NAMES) : args().codecs;
+        System.out.println("codec\tbytesPerRecord\tencodeMs\tdecodeMs\tdecodedRecords/s\tmaxAbsError");
+        for (String codecName : codecNames) {
+            benchmark(CacheCodecs.forName(codecName), minibatches, numRecords);
+        }
+    }
+
+    private void benchmark(CacheCodec codec, ObjectArrayList<MultiDataSet> minibatches, long numRecords) {
+        long start = System.nanoTime();
+        ObjectArrayList<ByteBuffer> entries = new ObjectArrayList<>(minibatches.size());
+        long numBytes = 0;
+        for (MultiDataSet ds : minibatches) {
+            byte[] bytes = codec.encode(ds);
+            ByteBuffer entry = ByteBuffer.allocateDirect(bytes.length);
+            entry.put(bytes);
+            entry.flip();
+            entries.add(entry);
+            // count the 4-byte length written before each entry in a .cf file:
+            numBytes += bytes.length + 4;
+        }
+        long encodeTime = (System.nanoTime() - start) / 1000000;
+
+        double bestSeconds = Double.MAX_VALUE;
+        for (int pass = 0; pass < args().repeat; pass++) {
+            start = System.nanoTime();
+            for (ByteBuffer entry : entries) {
+                codec.decode(entry.duplicate()).getFeatures(0).getFloat(0);
+            }
+            bestSeconds = Math.min(bestSeconds, (System.nanoTime() - start) / 1E9);
+        }
+        double maxError = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            maxError = Math.max(maxError, maxAbsError(minibatches.get(i), codec.decode(entries.get(i).duplicate())));
+        }
+        System.out.printf("%s\t%.1f\t%d\t%.0f\t%.1f\t%g%n", codec.name(), numBytes / (double) numRecords, encodeTime,
+                bestSeconds * 1000, numRecords / bestSeconds, maxError);
+    }
+
+    private static double maxAbsError(MultiDataSet original, MultiDataSet decoded) {
+        double maxError = 0;
+        INDArray[][] originalGroups = {original.getFeatures(), original.getLabels(), original.getFeaturesMaskArrays(),
+                original.getLabelsMaskArrays()};
+        INDArray[][] decodedGroups = {decoded.getFeatures(), decoded.getLabels(), decoded.getFeaturesMaskArrays(),
+                decoded.getLabelsMaskArrays()};
+        for (int g = 0; g < originalGroups.length; g++) {
+            if (originalGroups[g] == null) {
+                continue;
+            }
+            for (int a = 0; a < originalGroups[g].length; a++) {
+                if (originalGroups[g][a] == null) {
+                    continue;
+                }
+                double error = Transforms.abs(originalGroups[g][a].sub(decodedGroups[g][a]), false).maxNumber().doubleValue();
+                maxError = Math.max(maxError, error);
+            }
+        }
+        return maxError;
+    }
+}
@@ -0,0 +1,26 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments for CacheCodecBenchmark.
+ */
+@Parameters(commandDescription = "Report the size and decoding throughput of cache codecs on the minibatches of an existing mapped features cache.")
+public class CacheCodecBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--cache"}, description = "Basename of the cache (without the .cf extension).")
+    public String cacheBasename;
+
+    @Parameter(names = {"-n", "--cache-n"}, description = "Use at most n records from the cache.")
+    public int cacheN = 100000;
+
+    @Parameter(names = "--codecs", variableArity = true, description = "Codecs to benchmark. All codecs are benchmarked when none are listed.")
+    public List<String> codecs = new ArrayList<>();
+
+    @Parameter(names = "--repeat", description = "Number of timed decoding passes for each codec. The best pass is reported.")
+    public int repeat = 3;
+}
@@ -0,0 +1,85 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure the time needed to read a mapped features cache with the stream reader (MultiDatasetMappedFeaturesIterator)
+ * and with the memory-mapped reader (MultiDatasetMemoryMappedIterator). Reports epoch wall time and the time spent
+ * in garbage collection for each reader.
+ *
+ * @author Fabien Campagne
+ */
+public class CacheReaderBenchmark extends AbstractTool<CacheReaderBenchmarkArguments> {
+
+    public static void main(String[] args) {
+
+        CacheReaderBenchmark tool = new CacheReaderBenchmark();
+        tool.parseArguments(args, "CacheReaderBenchmark", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    public CacheReaderBenchmarkArguments createArguments() {
+        return new CacheReaderBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        System.out.println("reader\tepoch\tminibatches\twallTimeMs\tgcTimeMs\tgcCount");
+        time("stream", new MultiDatasetMappedFeaturesIterator(args().cacheBasename, args().cacheN));
+        if (CacheIndex.exists(args().cacheBasename)) {
+            time("memory-mapped", new MultiDatasetMemoryMappedIterator(args().cacheBasename, args().cacheN));
+        } else {
+            System.err.println("The cache has no offset index (.cfi file), rebuild the cache to benchmark the memory-mapped reader.");
+        }
+    }
+
+    /**
+     * Time a few epochs over the cache with an iterator.
+     *
+     * @param readerName name of the reader, printed in the report.
+     * @param iterator   iterator over the cache.
+     */
+    protected void time(String readerName, MultiDataSetIterator iterator) {
+        for (int epoch = 0; epoch < args().numEpochs; epoch++) {
+            iterator.reset();
+            long gcTime = gcTime();
+            long gcCount = gcCount();
+            long start = System.nanoTime();
+            long numMinibatches = 0;
+            while (iterator.hasNext()) {
+                MultiDataSet ds = iterator.next();
+                // touch the data so that lazy readers cannot skip decoding:
+                ds.getFeatures(0).getFloat(0);
+                numMinibatches++;
+            }
+            long wallTime = (System.nanoTime() - start) / 1000000;
+            System.out.printf("%s\t%d\t%d\t%d\t%d\t%d%n", readerName, epoch, numMinibatches, wallTime,
+                    gcTime() - gcTime, gcCount() - gcCount);
+        }
+    }
+
+    static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+}
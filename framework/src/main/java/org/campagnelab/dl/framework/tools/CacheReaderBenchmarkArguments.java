@@ -0,0 +1,20 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+/**
+ * Arguments for CacheReaderBenchmark.
+ */
+@Parameters(commandDescription = "Compare the epoch wall time and GC time of the readers of a mapped features cache (.cf/.cfp/.cfi files).")
+public class CacheReaderBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--cache"}, description = "Basename of the cache (without the .cf extension).")
+    public String cacheBasename;
+
+    @Parameter(names = {"--epochs"}, description = "Number of epochs (full passes over the cache) to time for each reader.")
+    public int numEpochs = 3;
+
+    @Parameter(names = {"-n", "--cache-n"}, description = "Read at most n records per epoch.")
+    public int cacheN = Integer.MAX_VALUE;
+}
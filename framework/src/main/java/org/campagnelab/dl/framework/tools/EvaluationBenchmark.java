@@ -0,0 +1,87 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.DomainDescriptorLoader;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.models.ModelLoader;
+import org.campagnelab.dl.framework.performance.PerformanceMetricDescriptor;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measure the wall time of estimating the validation metrics of a model, as TrainModel does after each epoch. The
+ * metrics are estimated with the multi-metric estimator of the performance descriptor of the domain, first when each
+ * minibatch is propagated once by graph.output and again by graph.score, then with one fused forward pass per minibatch
+ * (see SinglePassEvaluator). The fastest evaluation of each mode is reported with its speedup, and the metric values of
+ * both modes are printed, so that they can be checked to agree.
+ *
+ * @author Fabien Campagne
+ */
+public class EvaluationBenchmark extends AbstractTool<EvaluationBenchmarkArguments> {
+
+    public static void main(String[] args) {
+
+        EvaluationBenchmark tool = new EvaluationBenchmark();
+        tool.parseArguments(args, "EvaluationBenchmark", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    public EvaluationBenchmarkArguments createArguments() {
+        return new EvaluationBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        DomainDescriptor domainDescriptor = DomainDescriptorLoader.load(args().modelPath);
+        PerformanceMetricDescriptor performanceDescriptor = domainDescriptor.performanceDescritor();
+        String[] metrics = args().metrics.isEmpty() ? performanceDescriptor.performanceMetrics() :
+                args().metrics.toArray(new String[args().metrics.size()]);
+        ComputationGraph graph = loadModel();
+        MultiDataSetIterator iterator = CacheIndex.exists(args().cacheBasename) ?
+                new MultiDatasetMemoryMappedIterator(args().cacheBasename, args().numValidation) :
+                new MultiDatasetMappedFeaturesIterator(args().cacheBasename, args().numValidation);
+        // one pass to count the examples, which also brings the cache in the page cache:
+        int numExamples = 0;
+        while (iterator.hasNext()) {
+            numExamples += iterator.next().getFeatures(0).size(0);
+        }
+        System.out.printf("Estimating %s on %d examples.%n", Arrays.toString(metrics), numExamples);
+        System.out.println("mode\texamples\tseconds\texamples/s\tspeedup\tvalues");
+        double baseline = Double.NaN;
+        for (boolean fused : new boolean[]{false, true}) {
+            performanceDescriptor.setFusedEvaluation(fused);
+            double best = Double.MAX_VALUE;
+            double[] values = null;
+            for (int repeat = 0; repeat < args().repeat; repeat++) {
+                long start = System.nanoTime();
+                values = performanceDescriptor.estimateMetric(graph, iterator, args().numValidation, metrics);
+                best = Math.min(best, (System.nanoTime() - start) / 1E9);
+            }
+            if (Double.isNaN(baseline)) {
+                baseline = best;
+            }
+            System.out.printf("%s\t%d\t%.2f\t%.0f\t%.2f\t%s%n", fused ? "fused pass" : "output and score",
+                    numExamples, best, numExamples / best, baseline / best, Arrays.toString(values));
+        }
+    }
+
+    private ComputationGraph loadModel() {
+        try {
+            Model model = new ModelLoader(args().modelPath).loadModel(args().modelName);
+            if (!(model instanceof ComputationGraph)) {
+                throw new RuntimeException("Unable to load a computation graph from " + args().modelPath);
+            }
+            return (ComputationGraph) model;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load model from " + args().modelPath, e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments for EvaluationBenchmark.
+ */
+@Parameters(commandDescription = "Measure the wall time of estimating validation metrics on a cached validation set, with separate output and score passes, and with one fused pass per minibatch.")
+public class EvaluationBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--cache"}, description = "Basename of the cache of the validation set (without the .cf extension).")
+    public String cacheBasename;
+
+    @Parameter(required = true, names = "--model-path", description = "Path of a model directory. The domain descriptor of the model provides the metrics.")
+    public String modelPath;
+
+    @Parameter(names = "--model-name", description = "Name of the model to load from the model directory (e.g., best or latest).")
+    public String modelName = "best";
+
+    @Parameter(names = {"-n", "--num-validation"}, description = "Estimate metrics on at most n examples of the validation set.")
+    public int numValidation = Integer.MAX_VALUE;
+
+    @Parameter(names = "--metrics", variableArity = true, description = "Metrics to estimate. Defaults to the performance metrics of the domain.")
+    public List<String> metrics = new ArrayList<>();
+
+    @Parameter(names = "--repeat", description = "Number of timed evaluations for each mode. The fastest evaluation is reported.")
+    public int repeat = 3;
+}
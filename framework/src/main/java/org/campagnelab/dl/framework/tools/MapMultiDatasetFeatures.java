@@ -2,11 +2,18 @@ package org.campagnelab.dl.framework.tools;
 
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.ParallelMappingIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
+import org.campagnelab.dl.framework.iterators.cache.CacheWriter;
+import org.campagnelab.dl.framework.iterators.cache.ColumnStore;
+import org.campagnelab.dl.framework.iterators.cache.MultiDataSetRawFormat;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
-import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import com.google.common.collect.Iterables;
 import it.unimi.dsi.logging.ProgressLogger;
 import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.deeplearning4j.datasets.iterator.AsyncMultiDataSetIterator;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
@@ -14,9 +21,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.Supplier;
 
 /**
  * A tool to cache DL4J's multidatasets into in a .cf (cached features) file.
@@ -64,27 +71,49 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                 throw new RuntimeException("Unable to load training set ", e);
             }
         }
-        MultiDataSetIterator iterator=adapter;
-        if (adapter.asyncSupported()) {
-                iterator = new AsyncMultiDataSetIterator(adapter, 12);
-        }
-       /* if ( != null) {
-            inputs = Iterables.limit(Iterables.concat(args().iterables), (int) args().cacheN);
-        } else {
-            inputs = domainDescriptor.getRecordIterable(args().trainingSets, (int) args().cacheN);
+        final String outputFilename = args().outputBasename + ".cf";
+        final boolean raw = MultiDataSetRawFormat.RAW.equals(args().cacheFormat);
+        final CacheCodec codec = CacheCodecs.forName(args().cacheCodec);
+        if (!raw && !CacheCodecs.NONE.equals(codec.name())) {
+            throw new IllegalArgumentException("Cache codecs require --cache-format " + MultiDataSetRawFormat.RAW);
         }
-*/
-           /* MultiDataSetIteratorAdapter<RecordType> adapter = new MultiDataSetIteratorAdapter<RecordType>(inputs, args().miniBatchSize, domainDescriptor) {
-                @Override
-                public String getBasename() {
-                    return "multi-" + args().getTrainingSets().hashCode();
+        // parameters that determine the content of the cache. A checkpoint is resumed only when they match:
+        Properties buildParameters = new Properties();
+        buildParameters.put("miniBatchSize", Integer.toString(args().miniBatchSize));
+        buildParameters.put(MultiDataSetRawFormat.FORMAT_PROPERTY, raw ? MultiDataSetRawFormat.RAW : MultiDataSetRawFormat.SERIALIZED);
+        buildParameters.put(CacheCodecs.CODEC_PROPERTY, codec.name());
+        buildParameters.put("cacheN", Integer.toString(args().cacheN));
+        buildParameters.put("writeAtMostN", Long.toString(args().writeAtMostN));
+        buildParameters.put("stored", args().trainingSets.toString());
+
+        final Iterable<RecordType> records = adapter.getIterable();
+        ColumnStore<RecordType> columnStore = null;
+        try (CacheWriter writer = new CacheWriter(args().outputBasename, buildParameters, args().checkpointEvery)) {
+            if (writer.resumedRecords() > 0) {
+                // skip the records that were mapped before the build was interrupted:
+                adapter = skipRecords(adapter, domainDescriptor, writer.resumedRecords());
+            }
+            if (args().columnStore != null) {
+                // read the features of the inputs from the column store, building the columns that are missing:
+                columnStore = new ColumnStore<>(args().columnStore);
+                for (String inputName : domainDescriptor.getComputationalGraph().getInputNames()) {
+                    FeatureMapper<RecordType> columns = columnStore.columns(domainDescriptor.getFeatureMapper(inputName),
+                            records, args().cacheN, writer.resumedRecords());
+                    if (columns != null) {
+                        adapter.setFeatureMapper(inputName, columns);
+                    }
                 }
-            };
-
-            LabelMapper labelMapper = new SimpleFeatureCalculator();
-*/
-        final String outputFilename = args().outputBasename + ".cf";
-        try (FastBufferedOutputStream outputStream = new FastBufferedOutputStream(new FileOutputStream(outputFilename))) {
+            }
+            MultiDataSetIterator iterator = adapter;
+            if (args().numWorkers > 1 && columnStore == null) {
+                Supplier<DomainDescriptor<RecordType>> workerDomainDescriptors = this::domainDescriptor;
+                if (args().workerDomainDescriptors != null) {
+                    workerDomainDescriptors = args().workerDomainDescriptors;
+                }
+                iterator = new ParallelMappingIterator<RecordType>(adapter, args().numWorkers, workerDomainDescriptors);
+            } else if (adapter.asyncSupported()) {
+                iterator = new AsyncMultiDataSetIterator(adapter, 12);
+            }
             ProgressLogger pg = new ProgressLogger(LOG);
             long numExamples = domainDescriptor.getNumRecords(args().getTrainingSets());
             pg.expectedUpdates = Math.min(numExamples, args().cacheN) / args().miniBatchSize;
@@ -92,42 +121,41 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
             pg.itemsName = "miniBatch";
             pg.start();
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            long numDatasets = 0;
             long writeAtMostN = args().writeAtMostN;
-            numRecordsWritten = 0;
-
-            while (iterator.hasNext()) {
-                MultiDataSet mds = iterator.next();
-                baos.reset();
-                mds.save(baos);
-
-                final byte[] bytes = baos.toByteArray();
-
-                // write the length of the array first, most significant bytes first:
-                outputStream.write((bytes.length >> 8 * 3) & 0xFF);
-                outputStream.write((bytes.length >> 8 * 2) & 0xFF);
-                outputStream.write((bytes.length >> 8) & 0xFF);
-                outputStream.write(bytes.length & 0xFF);
-                outputStream.write(bytes);
-                pg.lightUpdate();
-                if (numRecordsWritten > writeAtMostN) {
-                    break;
+            numRecordsWritten = (int) writer.numRecords();
+
+            try {
+                while (numRecordsWritten <= writeAtMostN && numRecordsWritten <= args().cacheN && iterator.hasNext()) {
+                    MultiDataSet mds = iterator.next();
+                    final byte[] bytes;
+                    if (raw) {
+                        bytes = codec.encode(mds);
+                    } else {
+                        baos.reset();
+                        mds.save(baos);
+                        bytes = baos.toByteArray();
+                    }
+                    int numExamplesInDataset = mds.getFeatures()[0].size(0);
+                    writer.append(bytes, numExamplesInDataset);
+                    pg.lightUpdate();
+                    numRecordsWritten += numExamplesInDataset;
                 }
-                numDatasets += 1;
-                int numExamplesInDataset = mds.getFeatures()[0].size(0);
-                numRecordsWritten += numExamplesInDataset;
-                if (numRecordsWritten > args().cacheN) {
-                    break;
+            } finally {
+                // stop the mapping workers, also when mapping or writing fails:
+                if (iterator instanceof ParallelMappingIterator) {
+                    ((ParallelMappingIterator) iterator).shutdown();
                 }
             }
-            outputStream.close();
             pg.stop();
 
-            long numRecords = domainDescriptor.getNumRecords(args().getTrainingSets());
             Properties cfpProperties = new Properties();
             cfpProperties.put("domainDescriptor", domainDescriptor().getClass().getCanonicalName());
             cfpProperties.put("multiDataSet", "true");
             cfpProperties.put("miniBatchSize", Integer.toString(args().miniBatchSize));
+            cfpProperties.put(MultiDataSetRawFormat.FORMAT_PROPERTY, raw ? MultiDataSetRawFormat.RAW : MultiDataSetRawFormat.SERIALIZED);
+            if (raw) {
+                cfpProperties.put(CacheCodecs.CODEC_PROPERTY, codec.name());
+            }
             if (args().domainDescriptor != null) {
                 args().domainDescriptor.putProperties(cfpProperties);
             } else {
@@ -135,8 +163,8 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
             }
             //  cfpProperties.put("labelMapper", labelMapper.getClass().getCanonicalName());
             cfpProperties.put("isTrio", Boolean.toString(args().isTrio));
-            cfpProperties.put("numRecords", Long.toString(numRecordsWritten));
-            cfpProperties.put("numDatasets", Long.toString(numDatasets));
+            cfpProperties.put("numRecords", Long.toString(writer.numRecords()));
+            cfpProperties.put("numDatasets", Long.toString(writer.numDatasets()));
             String[] inputNames = domainDescriptor.getComputationalGraph().getInputNames();
             for (String inputName : inputNames) {
                 int dimIndex = 0;
@@ -150,16 +178,43 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                 cfpProperties.put("numFeatures", Integer.toString(domainDescriptor().getNumInputs(inputNames[0])[0]));
             }
             cfpProperties.put("stored", args().trainingSets.toString());
-            cfpProperties.store(new FileWriter(new File(args().outputBasename + ".cfp")), new Date().toString());
+            writer.complete(cfpProperties);
 
         } catch (FileNotFoundException e) {
             LOG.error("Unable to create output file: " + outputFilename, e);
         } catch (IOException e) {
             LOG.error("Unable to write to output file: " + outputFilename, e);
+        } finally {
+            if (columnStore != null) {
+                try {
+                    columnStore.close();
+                } catch (IOException e) {
+                    LOG.warn("Unable to close column store " + args().columnStore, e);
+                }
+            }
         }
 
     }
 
+    private MultiDataSetIteratorAdapter<RecordType> skipRecords(MultiDataSetIteratorAdapter<RecordType> adapter,
+                                                                DomainDescriptor<RecordType> domainDescriptor,
+                                                                long numRecords) {
+        try {
+            MultiDataSetIteratorAdapter<RecordType> skipping = new MultiDataSetIteratorAdapter<RecordType>(
+                    Iterables.skip(adapter.getIterable(), (int) numRecords), adapter.getBatchSize(), domainDescriptor,
+                    adapter.isPretrained(), adapter.getEosIndex()) {
+                @Override
+                public String getBasename() {
+                    return adapter.getBasename();
+                }
+            };
+            skipping.setCompileMappers(adapter.isCompileMappers());
+            return skipping;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to skip records ", e);
+        }
+    }
+
     private String buildBaseName(List<String> trainingSets) {
         String cacheName;// only one input, use its name as cache name:
         if (trainingSets.size() == 1) {
@@ -1,7 +1,12 @@
 package org.campagnelab.dl.framework.tools;
 
+import com.beust.jcommander.Parameter;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
+import org.campagnelab.dl.framework.iterators.cache.MultiDataSetRawFormat;
+
+import java.util.function.Supplier;
 
 /**
  * Arguments for MapFeatures.
@@ -17,4 +22,31 @@ public class MapMultiDatasetFeaturesArguments<RecordType> extends MapFeaturesArg
 
 
     public DomainDescriptor domainDescriptor;
+
+    /**
+     * Creates new domain descriptor instances, one for each mapping worker, when the cache is built with several
+     * workers. When null, the tool's domainDescriptor() method is used.
+     */
+    public Supplier<DomainDescriptor<RecordType>> workerDomainDescriptors = null;
+
+    @Parameter(names = "--num-workers", description = "Number of threads that map records to features. Minibatches are " +
+            "written in the order of the records irrespective of the number of workers.")
+    public int numWorkers = 1;
+
+    @Parameter(names = "--cache-format", description = "Layout of the cache entries. Use raw to write entries that readers " +
+            "can memory map, or serialized to write entries with MultiDataSet.save (format of caches created with earlier releases).")
+    public String cacheFormat = MultiDataSetRawFormat.RAW;
+
+    @Parameter(names = "--cache-codec", description = "Codec used to encode the entries of raw caches. One of none, " +
+            "float16, bitpacked, sparse, deflate, float16+deflate, bitpacked+deflate, sparse+deflate.")
+    public String cacheCodec = CacheCodecs.NONE;
+
+    @Parameter(names = "--checkpoint-every", description = "Number of minibatches written between checkpoints of the cache " +
+            "build. An interrupted build resumes after the last checkpoint. Use 0 to disable checkpoints.")
+    public int checkpointEvery = 1000;
+
+    @Parameter(names = "--column-store", description = "Directory where the features of each leaf feature mapper are " +
+            "stored as a group of columns. Feature mappers that share leaf mappers with mappers stored previously only " +
+            "compute their missing columns. Records are then mapped with one worker.")
+    public String columnStore = null;
 }
@@ -0,0 +1,306 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.ParallelMappingIterator;
+import org.campagnelab.dl.framework.mappers.CompiledFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MemoizingFeatureMapper;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Measure the throughput (records per second) of mapping records to minibatches with the feature and label mappers
+ * of a domain. The cost per record of the INDArray and bulk feature mapping paths, and of the bulk path of the compiled
+ * plan of each mapper (see CompiledFeatureMapper), is reported first. Subclasses can also report the CPU time per
+ * record of an optimization of their mappers, switched off and on (see compareCpuTime). The sequential adapter is
+ * measured next, with and without compiled plans, then the parallel mapping iterator with each of the requested
+ * numbers of workers, and the adapter mapping the records of each minibatch with each of the requested numbers of
+ * threads. The features computed and reused by memoized sub-mappers (see MemoizingFeatureMapper) are reported after
+ * the sequential run. Finally, the median and 99th percentile latency of each minibatch, and the off-heap bytes
+ * allocated per second in steady state, are reported when the adapter allocates new arrays for each minibatch, and
+ * when it reuses the arrays of released minibatches (see MinibatchArrayPool).
+ *
+ * @author Fabien Campagne
+ */
+public abstract class MappingBenchmark<RecordType> extends AbstractTool<MappingBenchmarkArguments> {
+
+    /**
+     * Create a new domain descriptor. Must return a new instance each time it is called.
+     */
+    protected abstract DomainDescriptor<RecordType> domainDescriptor();
+
+    @Override
+    public MappingBenchmarkArguments createArguments() {
+        return new MappingBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        DomainDescriptor<RecordType> domainDescriptor = domainDescriptor();
+        ObjectArrayList<RecordType> records = new ObjectArrayList<>();
+        Iterables.addAll(records, Iterables.limit(domainDescriptor.getRecordIterable().apply(args().datasetFilename),
+                args().numRecords));
+        System.out.printf("Loaded %d records.%n", records.size());
+        compareFeaturePaths(domainDescriptor, records);
+        System.out.println("mode\tworkers\trecords\tseconds\trecords/s\tspeedup");
+        try {
+            MultiDataSetIteratorAdapter<RecordType> adapter = createAdapter(records, domainDescriptor);
+            MemoizingFeatureMapper.resetStatistics();
+            double sequential = time(adapter, records.size());
+            report("sequential", 1, records.size(), sequential, sequential);
+            System.out.println(MemoizingFeatureMapper.statistics());
+            MultiDataSetIteratorAdapter<RecordType> compiled = createAdapter(records, domainDescriptor);
+            compiled.setCompileMappers(true);
+            report("compiled", 1, records.size(), time(compiled, records.size()), sequential);
+            for (int numWorkers : args().workers) {
+                ParallelMappingIterator<RecordType> parallel = new ParallelMappingIterator<RecordType>(
+                        createAdapter(records, domainDescriptor), numWorkers, this::domainDescriptor);
+                report("parallel", numWorkers, records.size(), time(parallel, records.size()), sequential);
+                parallel.shutdown();
+            }
+            for (int numThreads : args().minibatchThreads) {
+                MultiDataSetIteratorAdapter<RecordType> minibatch = createAdapter(records, domainDescriptor);
+                minibatch.setMappingThreads(numThreads, this::domainDescriptor);
+                report("minibatch", numThreads, records.size(), time(minibatch, records.size()), sequential);
+                minibatch.shutdownMappingThreads();
+            }
+            compareArrayPool(domainDescriptor, records);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create adapter", e);
+        }
+    }
+
+    /**
+     * Measure the cost per record of mapping the features of each one-dimensional input with INDArray writes (one
+     * putScalar per feature) and with the bulk float[] path, followed by one copy to an INDArray per minibatch.
+     */
+    protected void compareFeaturePaths(DomainDescriptor<RecordType> domainDescriptor, List<RecordType> records) {
+        System.out.println("input\tfeatures\tpath\tns/record\tspeedup");
+        for (String input : domainDescriptor.getComputationalGraph().getInputNames()) {
+            FeatureMapper<RecordType> mapper = domainDescriptor.getFeatureMapper(input);
+            if (mapper.dimensions().numDimensions() != 1) {
+                continue;
+            }
+            final int numFeatures = mapper.numberOfFeatures();
+            final int miniBatchSize = args().miniBatchSize;
+            FeatureMapper<RecordType> plan = CompiledFeatureMapper.compile(mapper);
+            double indArray = Double.MAX_VALUE;
+            double bulk = Double.MAX_VALUE;
+            double compiled = Double.MAX_VALUE;
+            for (int pass = 0; pass < args().repeat; pass++) {
+                long start = System.nanoTime();
+                INDArray inputs = Nd4j.create(new int[]{miniBatchSize, numFeatures}, 'f');
+                int indexOfRecord = 0;
+                for (RecordType record : records) {
+                    if (indexOfRecord == miniBatchSize) {
+                        inputs = Nd4j.create(new int[]{miniBatchSize, numFeatures}, 'f');
+                        indexOfRecord = 0;
+                    }
+                    mapper.prepareToNormalize(record, indexOfRecord);
+                    mapper.mapFeatures(record, inputs, indexOfRecord++);
+                }
+                indArray = Math.min(indArray, (System.nanoTime() - start) / (double) records.size());
+
+                start = System.nanoTime();
+                float[] rows = new float[miniBatchSize * numFeatures];
+                indexOfRecord = 0;
+                for (RecordType record : records) {
+                    mapper.prepareToNormalize(record, indexOfRecord);
+                    mapper.mapFeatures(record, rows, indexOfRecord * numFeatures, indexOfRecord);
+                    if (++indexOfRecord == miniBatchSize) {
+                        MultiDataSetIteratorAdapter.fromRows(rows, miniBatchSize, numFeatures);
+                        rows = new float[miniBatchSize * numFeatures];
+                        indexOfRecord = 0;
+                    }
+                }
+                bulk = Math.min(bulk, (System.nanoTime() - start) / (double) records.size());
+                if (plan != mapper) {
+                    compiled = Math.min(compiled, timeBulk(plan, records, miniBatchSize));
+                }
+            }
+            System.out.printf("%s\t%d\tINDArray\t%.0f\t%.2f%n", input, numFeatures, indArray, 1.0);
+            System.out.printf("%s\t%d\tbulk\t%.0f\t%.2f%n", input, numFeatures, bulk, indArray / bulk);
+            if (plan != mapper) {
+                System.out.printf("%s\t%d\tcompiled (%d leaves)\t%.0f\t%.2f%n", input, numFeatures,
+                        ((CompiledFeatureMapper<RecordType>) plan).numLeaves(), compiled, indArray / compiled);
+            }
+        }
+    }
+
+    /**
+     * Return the cost per record, in nanoseconds, of mapping the records with the bulk path of the mapper.
+     */
+    protected double timeBulk(FeatureMapper<? super RecordType> mapper, List<RecordType> records, int miniBatchSize) {
+        long start = System.nanoTime();
+        mapBulk(mapper, records, miniBatchSize);
+        return (System.nanoTime() - start) / (double) records.size();
+    }
+
+    /**
+     * Return the CPU time per record, in nanoseconds, of mapping the records with the bulk path of the mapper on the
+     * current thread, or the elapsed time when the JVM does not measure thread CPU time.
+     */
+    protected double cpuTimeBulk(FeatureMapper<? super RecordType> mapper, List<RecordType> records, int miniBatchSize) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            return timeBulk(mapper, records, miniBatchSize);
+        }
+        long start = bean.getCurrentThreadCpuTime();
+        mapBulk(mapper, records, miniBatchSize);
+        return (bean.getCurrentThreadCpuTime() - start) / (double) records.size();
+    }
+
+    /**
+     * Report the best CPU time per record of mapping each one-dimensional input with the bulk path, before and after
+     * an optimization that enable switches off (false) and on (true). The optimization is left on.
+     */
+    protected void compareCpuTime(String optimization, DomainDescriptor<RecordType> domainDescriptor,
+                                  List<RecordType> records, Consumer<Boolean> enable) {
+        compareCpuTime(optimization, domainDescriptor, domainDescriptor, records, enable);
+    }
+
+    /**
+     * Report the best CPU time per record of mapping each one-dimensional input with the bulk path, with the feature
+     * mappers of a domain descriptor built without an optimization, and of one built with it.
+     */
+    protected void compareCpuTime(String optimization, DomainDescriptor<RecordType> without,
+                                  DomainDescriptor<RecordType> with, List<RecordType> records) {
+        compareCpuTime(optimization, without, with, records, enabled -> {
+        });
+    }
+
+    private void compareCpuTime(String optimization, DomainDescriptor<RecordType> without,
+                                DomainDescriptor<RecordType> with, List<RecordType> records,
+                                Consumer<Boolean> enable) {
+        System.out.println("input\tfeatures\t" + optimization + "\tCPU ns/record\tspeedup");
+        for (String input : with.getComputationalGraph().getInputNames()) {
+            FeatureMapper<RecordType> mapper = with.getFeatureMapper(input);
+            if (mapper.dimensions().numDimensions() != 1) {
+                continue;
+            }
+            FeatureMapper<RecordType> unoptimized = without.getFeatureMapper(input);
+            double before = Double.MAX_VALUE;
+            double after = Double.MAX_VALUE;
+            try {
+                for (int pass = 0; pass < args().repeat; pass++) {
+                    enable.accept(false);
+                    before = Math.min(before, cpuTimeBulk(unoptimized, records, args().miniBatchSize));
+                    enable.accept(true);
+                    after = Math.min(after, cpuTimeBulk(mapper, records, args().miniBatchSize));
+                }
+            } finally {
+                enable.accept(true);
+            }
+            final String name = mapper.getClass().getSimpleName();
+            System.out.printf("%s\t%d\toff (%s)\t%.0f\t%.2f%n", input, mapper.numberOfFeatures(), name, before, 1.0);
+            System.out.printf("%s\t%d\ton (%s)\t%.0f\t%.2f%n", input, mapper.numberOfFeatures(), name, after,
+                    before / after);
+        }
+    }
+
+    private void mapBulk(FeatureMapper<? super RecordType> mapper, List<RecordType> records, int miniBatchSize) {
+        final int numFeatures = mapper.numberOfFeatures();
+        float[] rows = new float[miniBatchSize * numFeatures];
+        int indexOfRecord = 0;
+        for (RecordType record : records) {
+            mapper.prepareToNormalize(record, indexOfRecord);
+            mapper.mapFeatures(record, rows, indexOfRecord * numFeatures, indexOfRecord);
+            if (++indexOfRecord == miniBatchSize) {
+                MultiDataSetIteratorAdapter.fromRows(rows, miniBatchSize, numFeatures);
+                rows = new float[miniBatchSize * numFeatures];
+                indexOfRecord = 0;
+            }
+        }
+    }
+
+    /**
+     * Measure minibatch latencies and the rate of off-heap allocations in steady state (after one warm-up pass), when
+     * minibatches are allocated anew and when their arrays are reused. Each minibatch is released once mapped, as
+     * the sequential trainer does after fit.
+     */
+    protected void compareArrayPool(DomainDescriptor<RecordType> domainDescriptor, List<RecordType> records)
+            throws IOException {
+        System.out.println("arrays\tminibatches\tp50 us\tp99 us\toff-heap MB/s\treused");
+        for (int capacity : new int[]{0, 2}) {
+            MinibatchArrayPool arrayPool = new MinibatchArrayPool(capacity);
+            MultiDataSetIteratorAdapter<RecordType> adapter = createAdapter(records, domainDescriptor);
+            adapter.setArrayPool(arrayPool);
+            mapAndRelease(adapter, arrayPool, new LongArrayList());
+            final long bytesBefore = arrayPool.getBytesAllocated();
+            final long reusedBefore = arrayPool.getNumReused();
+            LongArrayList latencies = new LongArrayList();
+            final long start = System.nanoTime();
+            for (int pass = 0; pass < args().repeat; pass++) {
+                mapAndRelease(adapter, arrayPool, latencies);
+            }
+            final double seconds = (System.nanoTime() - start) / 1E9;
+            long[] sorted = latencies.toLongArray();
+            Arrays.sort(sorted);
+            System.out.printf("%s\t%d\t%.1f\t%.1f\t%.1f\t%d%n", capacity == 0 ? "new" : "pooled", sorted.length,
+                    percentile(sorted, 0.5) / 1E3, percentile(sorted, 0.99) / 1E3,
+                    (arrayPool.getBytesAllocated() - bytesBefore) / 1E6 / seconds,
+                    arrayPool.getNumReused() - reusedBefore);
+        }
+    }
+
+    private void mapAndRelease(MultiDataSetIteratorAdapter<RecordType> adapter, MinibatchArrayPool arrayPool,
+                               LongArrayList latencies) {
+        adapter.reset();
+        while (adapter.hasNext()) {
+            long start = System.nanoTime();
+            MultiDataSet minibatch = adapter.next();
+            latencies.add(System.nanoTime() - start);
+            arrayPool.release(minibatch);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    protected MultiDataSetIteratorAdapter<RecordType> createAdapter(Iterable<RecordType> records,
+                                                                    DomainDescriptor<RecordType> domainDescriptor) throws IOException {
+        return new MultiDataSetIteratorAdapter<RecordType>(records, args().miniBatchSize, domainDescriptor) {
+            @Override
+            public String getBasename() {
+                return args().datasetFilename;
+            }
+        };
+    }
+
+    /**
+     * Return the best time, in seconds, of several passes over the records with the iterator.
+     */
+    protected double time(MultiDataSetIterator iterator, int numRecords) {
+        double best = Double.MAX_VALUE;
+        for (int pass = 0; pass < args().repeat; pass++) {
+            iterator.reset();
+            long start = System.nanoTime();
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1E9);
+        }
+        return best;
+    }
+
+    protected void report(String mode, int numWorkers, int numRecords, double seconds, double baselineSeconds) {
+        System.out.printf("%s\t%d\t%d\t%.3f\t%.1f\t%.2f%n", mode, numWorkers, numRecords, seconds,
+                numRecords / seconds, baselineSeconds / seconds);
+    }
+}
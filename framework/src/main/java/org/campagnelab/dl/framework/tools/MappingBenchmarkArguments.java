@@ -0,0 +1,37 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments for MappingBenchmark.
+ */
+@Parameters(commandDescription = "Measure the throughput of mapping records to features and labels.")
+public class MappingBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--dataset"}, description = "Dataset to map, for example in .sbi/.sbip format.")
+    public String datasetFilename;
+
+    @Parameter(names = "--feature-mapper", description = "Fully qualified name of the feature mapper class.")
+    public String featureMapperClassname;
+
+    @Parameter(names = {"-n", "--num-records"}, description = "Number of records to map. The records are loaded in memory " +
+            "before timing starts, so that only mapping is measured.")
+    public int numRecords = 100000;
+
+    @Parameter(names = "--mini-batch-size", description = "The size of the minibatches to assemble.")
+    public int miniBatchSize = 32;
+
+    @Parameter(names = "--workers", variableArity = true, description = "Numbers of mapping threads to measure (e.g., --workers 1 2 4 8).")
+    public List<Integer> workers = new ArrayList<>();
+
+    @Parameter(names = "--minibatch-threads", variableArity = true, description = "Numbers of threads that map the records " +
+            "of each minibatch to measure (e.g., --minibatch-threads 1 2 4 8 16 32).")
+    public List<Integer> minibatchThreads = new ArrayList<>();
+
+    @Parameter(names = "--repeat", description = "Number of timed passes over the records for each configuration. The best pass is reported.")
+    public int repeat = 3;
+}
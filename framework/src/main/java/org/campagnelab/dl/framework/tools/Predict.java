@@ -8,6 +8,7 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.DomainDescriptorLoader;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.gpu.InitializeGpu;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
 import org.campagnelab.dl.framework.iterators.cache.CacheHelper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
@@ -130,6 +131,7 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
         domainDescriptor = DomainDescriptorLoader.load(modelPath);
 
         PredictWithModel<RecordType> predictor = new PredictWithModel<RecordType>(domainDescriptor);
+        predictor.setBatchInterpretation(!args().perRecordInterpretation);
 
         Iterable<RecordType> apply = domainDescriptor.getRecordIterable().apply(evaluationDataFilename);
         Iterable<RecordType> itAdapter = Iterables.limit(apply, args().scoreN);
@@ -145,6 +147,12 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
                 return FilenameUtils.getBaseName(args().testSet);
             }
         };
+        if (args().noCache) {
+            adapter.setMappingThreads(args().mappingThreads, () -> DomainDescriptorLoader.load(modelPath));
+            if (args().minibatchArrayPool) {
+                adapter.setArrayPool(new MinibatchArrayPool(2));
+            }
+        }
         MultiDataSetIterator adapterCached = args().noCache ? adapter :
                 cacheHelper.cache(domainDescriptor,
                         adapter, adapter.getBasename(),
@@ -184,6 +192,9 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
                 /* stop if */ nProcessed -> nProcessed > args().scoreN, index
                 );
                 pgReadWrite.update(records.size());
+                if (adapter.getArrayPool() != null) {
+                    adapter.getArrayPool().release(dataset);
+                }
             } else {
                 System.out.printf("dataset #examples %d and # records (%d) must match. Unable to obtain records for some examples in minibatch. Aborting. ",
                         datasetSize, records.size());
@@ -191,7 +202,9 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
             }
 
         }
-
+        adapter.shutdownMappingThreads();
+        LOG.info(String.format("Interpreted and processed predictions in %.0f ns/record (%s interpretation).",
+                predictor.getInterpretationNanosPerRecord(), args().perRecordInterpretation ? "per-record" : "minibatch"));
 
         resutsWriter.close();
         outputWriter.append(String.format("%s\t%s", modelTag, prefix));
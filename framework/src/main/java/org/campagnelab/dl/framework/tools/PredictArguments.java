@@ -58,4 +58,18 @@ public class PredictArguments extends RecordingToolArguments {
 
     @Parameter(names = "--no-cache", description = "Do not create a cache (.cf/.cfp) when this flag is provided.")
     public boolean noCache;
+
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map the records of each minibatch " +
+            "to features when no cache is used (see --no-cache).")
+    public int mappingThreads = 1;
+
+    @Parameter(names = "--minibatch-array-pool", description = "When provided and no cache is used (see --no-cache), " +
+            "reuse the arrays of minibatches once predictions have been made for them, instead of allocating new " +
+            "arrays for each minibatch.")
+    public boolean minibatchArrayPool;
+
+    @Parameter(names = "--per-record-interpretation", description = "Interpret the model outputs of each record from a " +
+            "slice of the output, rather than from a copy of the outputs of the whole minibatch. Slower, useful to " +
+            "compare performance.")
+    public boolean perRecordInterpretation;
 }
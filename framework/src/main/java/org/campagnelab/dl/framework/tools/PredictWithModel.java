@@ -1,5 +1,6 @@
 package org.campagnelab.dl.framework.tools;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
 import org.campagnelab.dl.framework.models.ModelOutputHelper;
@@ -23,6 +24,11 @@ public class PredictWithModel<RecordType> {
     protected DomainDescriptor<RecordType> domainDescriptor;
     ModelOutputHelper outputHelper;
     protected PredictionInterpreter[] interpretors;
+    // one reusable buffer per model output:
+    private MinibatchOutput[] minibatchOutputs;
+    private boolean batchInterpretation = true;
+    private long interpretationNanos;
+    private long numInterpreted;
 
     public PredictWithModel(DomainDescriptor<RecordType> domainDescriptor) {
         this.domainDescriptor = domainDescriptor;
@@ -34,6 +40,27 @@ public class PredictWithModel<RecordType> {
         for (String outputName : outputNames) {
             interpretors[outputIndex++] = domainDescriptor.getPredictionInterpreter(outputName);
         }
+        minibatchOutputs = new MinibatchOutput[outputNames.length];
+        for (int i = 0; i < outputNames.length; i++) {
+            minibatchOutputs[i] = new MinibatchOutput();
+        }
+    }
+
+    /**
+     * Choose how minibatch predictions are interpreted. When true (the default), each model output is copied once per
+     * minibatch and interpreted for all records from the copy. When false, each record is interpreted from a slice of
+     * the model output, as in earlier releases (useful to compare performance).
+     */
+    public void setBatchInterpretation(boolean batchInterpretation) {
+        this.batchInterpretation = batchInterpretation;
+    }
+
+    /**
+     * Return the average time spent interpreting the outputs of a record and processing its predictions, in
+     * nanoseconds, for records predicted from minibatches. Excludes the time spent computing the model outputs.
+     */
+    public double getInterpretationNanosPerRecord() {
+        return numInterpreted == 0 ? 0 : interpretationNanos / (double) numInterpreted;
     }
 
     public void makePredictions(Iterator<RecordType> iterator,
@@ -55,7 +82,14 @@ public class PredictWithModel<RecordType> {
         ComputationGraph graph=(ComputationGraph)model;
         INDArray[] outputPredictions = graph.output(false,dataSet.getFeatures());
         List<Prediction> predictions = new ArrayList<>();
-
+        long start = System.nanoTime();
+        if (batchInterpretation) {
+            for (int outputIndex = 0; outputIndex < domainDescriptor.getNumModelOutputs(); outputIndex++) {
+                if (interpretors[outputIndex] != null) {
+                    minibatchOutputs[outputIndex].load(outputPredictions[outputIndex]);
+                }
+            }
+        }
         RecordType currentRecord;
         for (int exampleIndex = 0; exampleIndex<records.size(); exampleIndex++) {
             predictions.clear();
@@ -64,7 +98,9 @@ public class PredictWithModel<RecordType> {
 
 
                 if (interpretors[outputIndex] != null) {
-                    Prediction prediction = interpretors[outputIndex].interpret(currentRecord,
+                    Prediction prediction = batchInterpretation ?
+                            interpretors[outputIndex].interpret(currentRecord, minibatchOutputs[outputIndex], exampleIndex) :
+                            interpretors[outputIndex].interpret(currentRecord,
                                                     outputPredictions[outputIndex].slice(exampleIndex));
                     prediction.outputIndex = outputIndex;
                     prediction.index = index;
@@ -77,6 +113,8 @@ public class PredictWithModel<RecordType> {
                 break;
             }
         }
+        interpretationNanos += System.nanoTime() - start;
+        numInterpreted += records.size();
         return index;
 
     }
@@ -0,0 +1,71 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.RebatchingCacheIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+/**
+ * Measure the throughput of assembling minibatches of several sizes from a cache stored in blocks, and of reading
+ * caches built for a single minibatch size.
+ *
+ * @author Fabien Campagne
+ */
+public class RebatchingBenchmark extends AbstractTool<RebatchingBenchmarkArguments> {
+
+    public static void main(String[] args) {
+
+        RebatchingBenchmark tool = new RebatchingBenchmark();
+        tool.parseArguments(args, "RebatchingBenchmark", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    public RebatchingBenchmarkArguments createArguments() {
+        return new RebatchingBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        System.out.println("cache\tminiBatchSize\tminibatches\trecords\tbestEpochMs\trecords/s");
+        for (int miniBatchSize : args().miniBatchSizes) {
+            time(args().cacheBasename, miniBatchSize,
+                    new RebatchingCacheIterator(open(args().cacheBasename), miniBatchSize));
+        }
+        for (String basename : args().perSizeCaches) {
+            time(basename, 0, open(basename));
+        }
+    }
+
+    private MultiDataSetIterator open(String basename) {
+        return CacheIndex.exists(basename) ? new MultiDatasetMemoryMappedIterator(basename, args().cacheN) :
+                new MultiDatasetMappedFeaturesIterator(basename, args().cacheN);
+    }
+
+    private void time(String basename, int miniBatchSize, MultiDataSetIterator iterator) {
+        double best = Double.MAX_VALUE;
+        long numRecords = 0;
+        long numMinibatches = 0;
+        int size = miniBatchSize;
+        for (int epoch = 0; epoch < args().numEpochs; epoch++) {
+            iterator.reset();
+            numRecords = 0;
+            numMinibatches = 0;
+            long start = System.nanoTime();
+            while (iterator.hasNext()) {
+                MultiDataSet ds = iterator.next();
+                numRecords += ds.getFeatures(0).size(0);
+                if (numMinibatches == 0 && miniBatchSize == 0) {
+                    size = ds.getFeatures(0).size(0);
+                }
+                numMinibatches++;
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1E9);
+        }
+        System.out.printf("%s\t%d\t%d\t%d\t%.0f\t%.1f%n", basename, size, numMinibatches, numRecords, best * 1000,
+                numRecords / best);
+    }
+}
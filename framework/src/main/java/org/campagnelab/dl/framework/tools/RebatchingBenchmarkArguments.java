@@ -0,0 +1,30 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments for RebatchingBenchmark.
+ */
+@Parameters(commandDescription = "Compare reading minibatches assembled from a block cache with reading caches built for each minibatch size.")
+public class RebatchingBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--cache"}, description = "Basename of a cache stored in blocks (without the .cf extension).")
+    public String cacheBasename;
+
+    @Parameter(names = "--mini-batch-sizes", variableArity = true, description = "Minibatch sizes to assemble from the block cache.")
+    public List<Integer> miniBatchSizes = new ArrayList<>();
+
+    @Parameter(names = "--per-size-caches", variableArity = true, description = "Basenames of caches built for a single " +
+            "minibatch size, read as they are for comparison.")
+    public List<String> perSizeCaches = new ArrayList<>();
+
+    @Parameter(names = {"--epochs"}, description = "Number of epochs to time for each configuration. The best epoch is reported.")
+    public int numEpochs = 3;
+
+    @Parameter(names = {"-n", "--cache-n"}, description = "Read at most n records per epoch.")
+    public int cacheN = Integer.MAX_VALUE;
+}
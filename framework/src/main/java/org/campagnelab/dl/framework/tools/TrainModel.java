@@ -1,7 +1,6 @@
 package org.campagnelab.dl.framework.tools;
 
 import com.google.common.collect.Iterables;
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.floats.FloatArraySet;
 import it.unimi.dsi.fastutil.floats.FloatSet;
 import it.unimi.dsi.logging.ProgressLogger;
@@ -11,10 +10,13 @@ import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssemble
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.gpu.InitializeGpu;
 import org.campagnelab.dl.framework.gpu.ParameterPrecision;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.SeekableIterator;
 import org.campagnelab.dl.framework.iterators.cache.CacheHelper;
 import org.campagnelab.dl.framework.iterators.cache.FullyInMemoryCache;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.models.ComputationGraphCheckpointer;
 import org.campagnelab.dl.framework.models.ComputationGraphSaver;
 import org.campagnelab.dl.framework.models.ModelLoader;
 import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
@@ -22,9 +24,12 @@ import org.campagnelab.dl.framework.performance.Metric;
 import org.campagnelab.dl.framework.performance.PerformanceLogger;
 import org.campagnelab.dl.framework.performance.PerformanceMetricDescriptor;
 import org.campagnelab.dl.framework.tools.arguments.ConditionRecordingTool;
+import org.campagnelab.dl.framework.training.AsyncValidator;
+import org.campagnelab.dl.framework.training.ParallelTrainerOnCPU;
 import org.campagnelab.dl.framework.training.ParallelTrainerOnGPU;
 import org.campagnelab.dl.framework.training.SequentialTrainer;
 import org.campagnelab.dl.framework.training.Trainer;
+import org.campagnelab.dl.framework.training.TrainingCheckpoint;
 import org.deeplearning4j.api.storage.StatsStorage;
 import org.deeplearning4j.earlystopping.EarlyStoppingResult;
 import org.deeplearning4j.nn.api.Layer;
@@ -36,6 +41,7 @@ import org.deeplearning4j.ui.api.UIServer;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.deeplearning4j.ui.storage.FileStatsStorage;
 import org.deeplearning4j.ui.storage.InMemoryStatsStorage;
+import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -62,6 +68,15 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
     protected DomainDescriptor<RecordType> domainDescriptor;
     private String bestMetricName;
+    private double bestValue;
+    private int notImproved;
+    /**
+     * Checkpoint training resumes from, or null when training starts from scratch.
+     */
+    private TrainingCheckpoint resumeFrom;
+    private int checkpointEpoch;
+    private int epochStartPosition;
+    private long epochStartExamples;
 
     protected abstract DomainDescriptor<RecordType> domainDescriptor();
 
@@ -108,12 +123,25 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
         if ("FP16".equals(args().precision)) {
             DataTypeUtil.setDTypeForContext(DataBuffer.Type.HALF);
         }
-        time = new Date().getTime();
+        if (args().resume != null) {
+            // continue training in the directory of the interrupted run, from its last checkpoint:
+            directory = args().resume;
+            resumeFrom = TrainingCheckpoint.load(
+                    new ComputationGraphSaver(directory).modelFilename(TrainingCheckpoint.PREFIX));
+            time = resumeFrom.time;
+            if (args().seed != resumeFrom.seed) {
+                System.out.printf("Using the random seed of the checkpoint (%d) to resume training.%n", resumeFrom.seed);
+                args().seed = resumeFrom.seed;
+            }
+            System.out.printf("Resuming training at epoch %d, minibatch %d.%n", resumeFrom.epoch, resumeFrom.position);
+        } else {
+            time = new Date().getTime();
+            directory = "models/" + Long.toString(time);
+        }
 
         System.out.println("epochs: " + args().maxEpochs);
         System.out.println("FeatureMapper:"+featureCalculator.getClass().getTypeName());
         System.out.println("ComputationGraphAssembler:"+args().architectureClassname);
-        directory = "models/" + Long.toString(time);
         FileUtils.forceMkdir(new File(directory));
         System.out.println("model directory: " + new File(directory).getAbsolutePath());
 
@@ -144,6 +172,15 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
         computationGraph = assembler.createComputationalGraph(domainDescriptor);
         computationGraph.init();
+        if (resumeFrom != null) {
+            // parameters, updater state and iteration count of the checkpoint:
+            computationGraph = ModelSerializer.restoreComputationGraph(
+                    new ComputationGraphSaver(directory).modelFilename(TrainingCheckpoint.PREFIX), true);
+            final double checksum = computationGraph.params().sumNumber().doubleValue();
+            if (Math.abs(checksum - resumeFrom.parameterChecksum) > 1E-4 * Math.max(1, Math.abs(checksum))) {
+                throw new IOException("The checkpoint model does not match the checkpoint state in " + directory);
+            }
+        }
         if (args().addUiListener) {
             UIServer uiServer = UIServer.getInstance();
             StatsStorage statsStorage = args().uiStatsFile == null
@@ -152,7 +189,7 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
             uiServer.attach(statsStorage);
             computationGraph.setListeners(new StatsListener(statsStorage));
         }
-        if (args().previousModelPath != null) {
+        if (args().previousModelPath != null && resumeFrom == null) {
             // Load the parameters of a previously trained model and set them on the new model to continue
             // training where we left it off. Note that models must have the same architecture or setting
             // parameters will fail.
@@ -279,19 +316,27 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
         int miniBatchNumber = 0;
         boolean init = true;
         bestScore = Double.MAX_VALUE;
-        ComputationGraphSaver saver = new ComputationGraphSaver(directory);
+        ComputationGraphCheckpointer saver = new ComputationGraphCheckpointer(directory, args().asyncCheckpoint);
         int iter = 0;
         Map<Integer, Double> scoreMap = new HashMap<Integer, Double>();
         System.out.println("errorEnrichment=" + args().errorEnrichment);
 
         performanceLogger.setCondition(args().experimentalCondition);
         long numExamplesUsed = 0;
-        int notImproved = 0;
+        notImproved = 0;
 
         System.out.flush();
         PerformanceMetricDescriptor perfDescriptor = domainDescriptor.performanceDescritor();
         String validationMetricName = perfDescriptor.earlyStoppingMetric();
-        double bestValue = initializePerformance(perfDescriptor, validationMetricName);
+        bestValue = initializePerformance(perfDescriptor, validationMetricName);
+        int startEpoch = 0;
+        if (resumeFrom != null) {
+            numExamplesUsed = resumeFrom.numExamplesUsed;
+            bestValue = resumeFrom.bestValue;
+            notImproved = resumeFrom.notImproved;
+            resumeFrom.restorePerformances(performanceLogger);
+            startEpoch = resumeFrom.epoch;
+        }
         int epoch;
 
         // Assemble the training iterator from the concatenation of individual training set iterables:
@@ -310,16 +355,30 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
         };
 
         boolean useCache = !args().ignoreCache;
+        adapter.setCompileMappers(args().compileMappers);
+        if (!useCache) {
+            adapter.setMappingThreads(args().mappingThreads, this::newWorkerDomainDescriptor);
+        }
+        cacheHelper.setCacheCodec(args().cacheCodec);
+        cacheHelper.setDecodeThreads(args().cacheDecodeThreads);
+        cacheHelper.setBlockSize(args().cacheBlockSize);
+        cacheHelper.setColumnStore(args().columnCache);
         MultiDataSetIterator iterator = useCache ? cacheHelper.cache(domainDescriptor,
                 adapter, adapter.getBasename(),
-                args().numTraining, args().miniBatchSize) :
+                args().numTraining, args().miniBatchSize, this::newWorkerDomainDescriptor, args().cacheBuildWorkers) :
                 adapter;
         if (args().memoryCacheTraining()) {
-            iterator = new FullyInMemoryCache(iterator);
-            // force loading immediately:
-            LOG.warn("Loading training set in memory.");
-            iterator.reset();
-            LOG.warn("Done.");
+            iterator = useCache ? cacheHelper.inMemory(iterator, args().memoryCacheBudget * 1024L * 1024L) :
+                    new FullyInMemoryCache(iterator);
+            if (iterator instanceof FullyInMemoryCache) {
+                // force loading immediately:
+                LOG.warn("Loading training set in memory.");
+                iterator.reset();
+                LOG.warn("Done.");
+            }
+        }
+        if (useCache && args().shuffleCache && !(iterator instanceof FullyInMemoryCache)) {
+            iterator = cacheHelper.shuffle(iterator, args().seed, args().shuffleWindow, args().shuffleRecordGroup);
         }
         // MultiDataSetIterator iterator=adapter;
         final long numRecords = Math.min(args().numTraining, domainDescriptor.getNumRecords(args().getTrainingSets()));
@@ -349,11 +408,48 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 System.out.println("Unsupported tracking style: " + args().trackingStyle);
         }
 
-        Trainer trainer = args().parallel ? new ParallelTrainerOnGPU(computationGraph, args().miniBatchSize,
-                (int) domainDescriptor.getNumRecords(args().getTrainingSets())) :
-                new SequentialTrainer();
+        Trainer trainer;
+        if (args().parallel) {
+            trainer = new ParallelTrainerOnGPU(computationGraph, args().miniBatchSize,
+                    (int) domainDescriptor.getNumRecords(args().getTrainingSets()));
+        } else if (args().cpuWorkers > 1) {
+            trainer = new ParallelTrainerOnCPU(computationGraph, args().cpuWorkers, args().averagingFrequency,
+                    args().parallelPrefetch, args().blasThreadsPerWorker, (int) numRecords);
+        } else {
+            trainer = new SequentialTrainer();
+        }
+        if (args().minibatchArrayPool && iterator == adapter && trainer instanceof SequentialTrainer) {
+            // minibatches are used once, by the sequential trainer, which releases them after fit:
+            MinibatchArrayPool arrayPool = new MinibatchArrayPool(2);
+            adapter.setArrayPool(arrayPool);
+            ((SequentialTrainer) trainer).setArrayPool(arrayPool);
+        }
         trainer.setLogSpeed(args().trackingStyle == TrainingArguments.TrackStyle.SPEED);
-        for (epoch = 0; epoch < args().maxEpochs; epoch++) {
+        final MultiDataSetIterator trainingIterator = iterator;
+        if (args().checkpointEvery > 0) {
+            if (trainer instanceof SequentialTrainer) {
+                ((SequentialTrainer) trainer).setMinibatchListener((numMinibatches, numExamples) -> {
+                    final int position = epochStartPosition + numMinibatches;
+                    if (position % args().checkpointEvery == 0) {
+                        checkpoint(saver, trainingIterator, checkpointEpoch, position, epochStartExamples + numExamples);
+                    }
+                });
+            } else {
+                LOG.warn("Checkpoints are only taken in the middle of epochs with the sequential trainer. " +
+                        "Checkpoints will be taken at the end of each epoch.");
+            }
+        }
+        if (resumeFrom != null) {
+            seek(iterator, resumeFrom.pass, resumeFrom.position);
+            epochStartPosition = resumeFrom.position;
+            Nd4j.getRandom().setSeed(TrainingCheckpoint.rngSeed(args().seed, resumeFrom.epoch, resumeFrom.position));
+        }
+        AsyncValidator validator = args().asyncValidation ?
+                new AsyncValidator(graph -> estimatePerformance(graph, validationIterator), 2, args().deviceIndex) :
+                null;
+        for (epoch = startEpoch; epoch < args().maxEpochs; epoch++) {
+            checkpointEpoch = epoch;
+            epochStartExamples = numExamplesUsed;
             ProgressLogger pg = new ProgressLogger(LOG);
             pg.itemsName = "mini-batch";
             iter = 0;
@@ -363,67 +459,171 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
             }
             // train the graph with the content of the iterator:
             numExamplesUsed += trainer.train(computationGraph, iterator, pg);
+            epochStartPosition = 0;
 
             //save latest after the end of an epoch:
             double trainingScore = computationGraph.score();
-            saver.saveLatestModel(computationGraph, trainingScore);
+            saver.saveLatestModel(computationGraph);
             writeProperties();
             writeBestScoreFile();
             if (epoch % args().validateEvery == 0) {
-
-                // estimate all performance metrics. Note that we do a pass over the validation set for each metric:
-                // (avoid using several metrics).
-                double validationMetricValue = initializePerformance(perfDescriptor, perfDescriptor.earlyStoppingMetric());
-                DoubleArrayList metricValues = new DoubleArrayList();
-
-
-                validationIterator.reset();
-                assert validationIterator.hasNext() : "validation iterator must have datasets. Make sure the latest release of Goby is installed in the maven repo.";
-                final double[] performanceValues = perfDescriptor.estimateMetric(computationGraph,
-                        validationIterator, args().numValidation, perfDescriptor.performanceMetrics());
-                metricValues = DoubleArrayList.wrap(performanceValues);
-
-                validationMetricValue = findMetricValue(perfDescriptor.earlyStoppingMetric(),
-                        perfDescriptor.performanceMetrics(),
-                        performanceValues);
-
-                performanceLogger.logMetrics("epochs", numExamplesUsed, epoch, metricValues.toDoubleArray());
-                performanceLogger.logTrainingScore("epochs", epoch, trainingScore);
-                if (args().trackingStyle == TrainingArguments.TrackStyle.PERFS) {
-                    performanceLogger.show("epochs");
-                }
-                //System.out.println(metricValues);
-                if (!Double.isNaN(bestValue) &&
-                        (perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue > bestValue) ||
-                        (!perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue < bestValue)) {
-                    saver.saveModel(computationGraph, "best" + validationMetricName);
-                    bestValue = validationMetricValue;
-
-                    performanceLogger.logMetrics(bestMetricName, numExamplesUsed, epoch, metricValues.toDoubleArray());
-                    notImproved = 0;
-                } else {
-                    notImproved++;
-                }
-                if (Double.isNaN(bestValue)|| notImproved > args().stopWhenEpochsWithoutImprovement) {
-                    // we have not improved after earlyStopCondition epoch, or got NaN, time to stop.
+                if (validator != null) {
+                    // validate a snapshot of the parameters while the next epoch trains:
+                    validator.submit(epoch, numExamplesUsed, trainingScore, computationGraph);
+                } else if (recordValidation(saver, epoch, numExamplesUsed, trainingScore, computationGraph,
+                        estimatePerformance(computationGraph, validationIterator))) {
                     break;
                 }
             }
+            if (validator != null && recordValidations(saver, validator.completed())) {
+                break;
+            }
             if (args().trackingStyle == TrainingArguments.TrackStyle.SPEED) {
                 pg.stop();
                 pgEpoch.updateAndDisplay();
             }
             iterator.reset();    //Reset iterator for another epoch
             performanceLogger.write();
+            if (args().checkpointEvery > 0) {
+                checkpoint(saver, iterator, epoch + 1, 0, numExamplesUsed);
+            }
             //addCustomOption("--error-enrichment", args().errorEnrichment);
             //addCustomOption("--num-errors-added", args().numErrorsAdded);
         }
+        if (validator != null) {
+            // record the validations of the last epochs, including those submitted before early stopping:
+            recordValidations(saver, validator.awaitAll());
+            validator.shutdown();
+            performanceLogger.write();
+        }
         pgEpoch.stop();
+        // wait for the last checkpoints, so that the best and latest models can be loaded:
+        saver.close();
+        System.out.println(saver.statistics());
+        if (trainer instanceof ParallelTrainerOnCPU) {
+            ((ParallelTrainerOnCPU) trainer).shutdown();
+        }
         return new EarlyStoppingResult<ComputationGraph>(EarlyStoppingResult.TerminationReason.EpochTerminationCondition,
                 "not early stopping", scoreMap, performanceLogger.getBestEpoch(bestMetricName), bestScore, args().maxEpochs, computationGraph);
     }
 
 
+    /**
+     * Save the model, its updater state and the state of training, so that training can resume at this position of
+     * the epoch. The random number generator is then re-seeded, as it will be when training resumes from this
+     * checkpoint.
+     *
+     * @param position        number of minibatches of the epoch already fit.
+     * @param numExamplesUsed number of examples used for training, including those of the epoch.
+     */
+    private void checkpoint(ComputationGraphCheckpointer saver, MultiDataSetIterator iterator, int epoch, int position,
+                            long numExamplesUsed) {
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        checkpoint.epoch = epoch;
+        checkpoint.pass = iterator instanceof SeekableIterator ? ((SeekableIterator) iterator).pass() : epoch;
+        checkpoint.position = position;
+        checkpoint.numExamplesUsed = numExamplesUsed;
+        checkpoint.seed = args().seed;
+        checkpoint.time = time;
+        checkpoint.bestValue = bestValue;
+        checkpoint.notImproved = notImproved;
+        checkpoint.parameterChecksum = computationGraph.params().sumNumber().doubleValue();
+        try {
+            saver.save(computationGraph, TrainingCheckpoint.PREFIX, checkpoint.toProperties(performanceLogger));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to save checkpoint", e);
+        }
+        Nd4j.getRandom().setSeed(TrainingCheckpoint.rngSeed(args().seed, epoch, position));
+    }
+
+    /**
+     * Position the training iterator at a minibatch of a pass. Seekable iterators (caches, including block caches and
+     * shuffled caches) are positioned in the order of that pass. Other iterators (records mapped without a cache,
+     * caches without an offset index, which cannot be shuffled, or caches held fully in memory) return minibatches in
+     * the same order in every pass, so reading and skipping the minibatches before the position is exact.
+     */
+    private void seek(MultiDataSetIterator iterator, int pass, int position) {
+        if (iterator instanceof SeekableIterator) {
+            ((SeekableIterator) iterator).seek(pass, position);
+        } else {
+            LOG.warn("The training iterator cannot seek, reading and skipping {} minibatches.", position);
+            for (int i = 0; i < position && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+        }
+    }
+
+    /**
+     * Estimate all performance metrics of a graph over the validation set, in the order of performanceMetrics().
+     */
+    private double[] estimatePerformance(ComputationGraph graph, MultiDataSetIterator validationIterator) {
+        PerformanceMetricDescriptor<RecordType> perfDescriptor = domainDescriptor.performanceDescritor();
+        validationIterator.reset();
+        assert validationIterator.hasNext() : "validation iterator must have datasets. Make sure the latest release of Goby is installed in the maven repo.";
+        return perfDescriptor.estimateMetric(graph, validationIterator, args().numValidation,
+                perfDescriptor.performanceMetrics());
+    }
+
+    private boolean recordValidations(ComputationGraphCheckpointer saver, List<AsyncValidator.Validation> validations)
+            throws IOException {
+        boolean stop = false;
+        for (AsyncValidator.Validation validation : validations) {
+            stop |= recordValidation(saver, validation.epoch, validation.numExamplesUsed, validation.trainingScore,
+                    validation.snapshot, validation.performanceValues);
+        }
+        return stop;
+    }
+
+    /**
+     * Log the performance of the parameters of an epoch, save them as the best model when they improve the early
+     * stopping metric, and return true when training should stop.
+     *
+     * @param graph graph with the parameters of the epoch (the graph being trained, or a snapshot of it).
+     */
+    private boolean recordValidation(ComputationGraphCheckpointer saver, int epoch, long numExamplesUsed,
+                                     double trainingScore, ComputationGraph graph, double[] performanceValues)
+            throws IOException {
+        PerformanceMetricDescriptor<RecordType> perfDescriptor = domainDescriptor.performanceDescritor();
+        String validationMetricName = perfDescriptor.earlyStoppingMetric();
+        double validationMetricValue = findMetricValue(validationMetricName,
+                perfDescriptor.performanceMetrics(),
+                performanceValues);
+
+        performanceLogger.logMetrics("epochs", numExamplesUsed, epoch, performanceValues);
+        performanceLogger.logTrainingScore("epochs", epoch, trainingScore);
+        if (args().trackingStyle == TrainingArguments.TrackStyle.PERFS) {
+            performanceLogger.show("epochs");
+        }
+        if (!Double.isNaN(bestValue) &&
+                (perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue > bestValue) ||
+                (!perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue < bestValue)) {
+            saver.save(graph, "best" + validationMetricName);
+            bestValue = validationMetricValue;
+
+            performanceLogger.logMetrics(bestMetricName, numExamplesUsed, epoch, performanceValues);
+            notImproved = 0;
+        } else {
+            notImproved++;
+        }
+        // stop when we have not improved after earlyStopCondition epoch, or got NaN:
+        return Double.isNaN(bestValue) || notImproved > args().stopWhenEpochsWithoutImprovement;
+    }
+
+    /**
+     * Create a domain descriptor configured like the one used for training. Mapping workers use such copies so that
+     * they do not share mapper instances.
+     *
+     * @return a new domain descriptor.
+     */
+    protected DomainDescriptor<RecordType> newWorkerDomainDescriptor() {
+        DomainDescriptor<RecordType> copy = domainDescriptor();
+        if (args().advancedModelConfiguration != null) {
+            copy.loadAdvancedModelProperties(args().advancedModelConfiguration);
+        }
+        copy.setInputsPaddedEos(domainDescriptor.inputsPaddedEos());
+        return copy;
+    }
+
     private double findMetricValue(String lookupName, String[] metricNames, double[] performanceValues) {
         int i = 0;
         for (String name : metricNames) {
@@ -460,19 +660,28 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
     private MultiDataSetIterator readValidationSet() {
         Iterable<RecordType> validationRecords = domainDescriptor.getRecordIterable().apply(args().validationSet);
+        // with --async-validation, records that are not cached are mapped on the validation thread while the
+        // training thread maps training records: validation must not share the (stateful) mappers of training.
+        final DomainDescriptor<RecordType> validationDomain = args().asyncValidation && args().ignoreCache ?
+                newWorkerDomainDescriptor() : domainDescriptor;
         try {
             MultiDataSetIteratorAdapter<RecordType> adapter = new MultiDataSetIteratorAdapter<RecordType>(validationRecords,
-                    args().miniBatchSize, domainDescriptor, args().previousModelPretraining, args().eosIndex) {
+                    args().miniBatchSize, validationDomain, args().previousModelPretraining, args().eosIndex) {
                 @Override
                 public String getBasename() {
                     return args().validationSet;
                 }
             };
+            adapter.setCompileMappers(args().compileMappers);
+            if (args().ignoreCache) {
+                adapter.setMappingThreads(args().mappingThreads, this::newWorkerDomainDescriptor);
+            }
             MultiDataSetIterator iterator = args().ignoreCache ? adapter : cacheHelper.cache(domainDescriptor,
                     adapter, adapter.getBasename(),
-                    args().numValidation, args().miniBatchSize);
+                    args().numValidation, args().miniBatchSize, this::newWorkerDomainDescriptor, args().cacheBuildWorkers);
             if (args().memoryCacheValidation()) {
-                iterator = new FullyInMemoryCache(iterator);
+                iterator = args().ignoreCache ? new FullyInMemoryCache(iterator) :
+                        cacheHelper.inMemory(iterator, args().memoryCacheBudget * 1024L * 1024L);
             }
             return iterator;
         } catch (IOException e) {
@@ -2,6 +2,7 @@ package org.campagnelab.dl.framework.tools;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodecs;
 import org.campagnelab.dl.framework.tools.arguments.RecordingToolArguments;
 
 import java.io.File;
@@ -76,10 +77,17 @@ public abstract class TrainingArguments extends RecordingToolArguments {
 
     @Parameter(names = "--memory-cache", description = "Name of the datasets to fully cache in memory. Use training,validation to " +
             "cache both training and validation set, or validation only when the training set is too large to fit fully in memory. " +
-            "Can speed up training, but requires the training set to be small enough to fit in the GPU memory. The default caches" +
+            "Can speed up training. Datasets that do not fit in memory are partially cached (see --memory-cache-budget). The default caches" +
             "only the validation set. Use none to disable caching entirely.")
     public String memoryCache = "validation";
 
+    @Parameter(names = "--memory-cache-budget", description = "Memory available to each dataset cached in memory (see --memory-cache), " +
+            "in MB. Datasets that fit in the budget are fully loaded in memory. For larger datasets, as many encoded " +
+            "minibatches as the budget allows are kept off-heap and the others are read from disk. The default (0) uses " +
+            "half of the off-heap memory available to ND4J arrays or direct buffers (org.bytedeco.javacpp.maxbytes, " +
+            "-XX:MaxDirectMemorySize), whichever is smaller.")
+    public long memoryCacheBudget = 0;
+
     @Parameter(names = "--label-smoothing-epsilon", description = "Value of epsilon for label smoothing. Zero (default) is no smoothing. Try small values (<0.1).")
     public float labelSmoothingEpsilon = 0;
 
@@ -115,11 +123,78 @@ public abstract class TrainingArguments extends RecordingToolArguments {
     @Parameter(names = "--parallel", description = "When provided, trains on several GPUs in parallel.")
     public boolean parallel;
 
+    @Parameter(names = "--cpu-workers", description = "When larger than one, train data-parallel on the CPU with this " +
+            "number of workers, each fitting its own copy of the model. Parameters are averaged across workers " +
+            "(see --averaging-frequency).")
+    public int cpuWorkers = 1;
+
+    @Parameter(names = "--averaging-frequency", description = "Number of minibatches each CPU worker fits between " +
+            "parameter averaging (see --cpu-workers).")
+    public int averagingFrequency = 5;
+
+    @Parameter(names = "--parallel-prefetch", description = "Number of minibatches read ahead of the CPU workers " +
+            "(see --cpu-workers).")
+    public int parallelPrefetch = 8;
+
+    @Parameter(names = "--blas-threads-per-worker", description = "Maximum number of threads of each BLAS call " +
+            "while CPU workers train (see --cpu-workers). The limit applies to the whole process during training. " +
+            "Zero (default) divides the cores of the host among the workers.")
+    public int blasThreadsPerWorker = 0;
+
     protected abstract String defaultArchitectureClassname();
 
     @Parameter(names = "--build-cache-then-stop", description = "When provided, build the caches, then immediately stop.")
     public boolean buildCacheAndStop = false;
 
+    @Parameter(names = "--cache-build-workers", description = "Number of threads used to map records to features when " +
+            "building a cache. The cache content does not depend on the number of threads.")
+    public int cacheBuildWorkers = 1;
+
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map the records of each minibatch " +
+            "to features when training without a cache (see --ignore-cache). Minibatches do not depend on the number of threads.")
+    public int mappingThreads = 1;
+
+    @Parameter(names = "--minibatch-array-pool", description = "When provided and training without a cache (see " +
+            "--ignore-cache), reuse the arrays of minibatches once the graph has been fit with them, instead of " +
+            "allocating new arrays for each minibatch.")
+    public boolean minibatchArrayPool;
+
+    @Parameter(names = "--compile-mappers", description = "When provided, map features with flat plans compiled from " +
+            "the trees of composite feature mappers. Features are identical, and are mapped faster.")
+    public boolean compileMappers;
+
+    @Parameter(names = "--cache-codec", description = "Codec used to encode the entries of new caches. One of none, " +
+            "float16, bitpacked, sparse, deflate, float16+deflate, bitpacked+deflate, sparse+deflate. Existing caches " +
+            "are read with the codec they were written with.")
+    public String cacheCodec = CacheCodecs.NONE;
+
+    @Parameter(names = "--cache-decode-threads", description = "Number of threads that decode cache entries ahead of " +
+            "training. Use 0 to decode entries on the training thread.")
+    public int cacheDecodeThreads = 2;
+
+    @Parameter(names = "--cache-block-size", description = "Store caches in blocks of this number of records, and assemble " +
+            "minibatches of --mini-batch-size records when reading them. Runs with different minibatch sizes then share " +
+            "the same cache. The default (0) stores one minibatch per cache entry, and builds a cache for each minibatch size.")
+    public int cacheBlockSize = 0;
+
+    @Parameter(names = "--column-cache", description = "When provided, store the features of each leaf feature mapper in a " +
+            "column store next to the cache (basename-columns). Caches built for other feature mappers then only map the " +
+            "features of leaf mappers that are not stored yet.")
+    public boolean columnCache;
+
+    @Parameter(names = "--shuffle-cache", description = "When provided, visit the minibatches of the training cache in a " +
+            "different random order at each epoch (seeded with --random-seed). Requires a cache with an offset index. " +
+            "Ignored when the training set is cached in memory.")
+    public boolean shuffleCache = false;
+
+    @Parameter(names = "--shuffle-window", description = "Number of consecutive cache minibatches shuffled together. " +
+            "Larger windows mix the training set more, smaller windows keep reads more sequential.")
+    public int shuffleWindow = 256;
+
+    @Parameter(names = "--shuffle-records", description = "Number of consecutive minibatches whose records are " +
+            "exchanged at each epoch, when the cache is shuffled. Use 1 to keep the records of cached minibatches together.")
+    public int shuffleRecordGroup = 1;
+
     public String[] getTrainingSets() {
         return this.trainingSets.toArray(new String[this.trainingSets.size()]);
     }
@@ -135,6 +210,30 @@ public abstract class TrainingArguments extends RecordingToolArguments {
     @Parameter(names = {"-e", "--validate-every"}, description = "Validate only every e epochs when using early stopping. This can save time if training is much faster than evaluation.")
     public int validateEvery = 1;
 
+    @Parameter(names = "--async-validation", description = "When provided, validate a snapshot of the model parameters " +
+            "on a separate thread while the next epoch trains. Metrics, the best model and early stopping are " +
+            "attributed to the epoch of the snapshot. Early stopping may occur one or two epochs later than with " +
+            "blocking validation.")
+    public boolean asyncValidation;
+
+    @Parameter(names = "--async-checkpoint", description = "When set, the latest and best models are copied to a " +
+            "staging buffer and written on a separate thread while training continues. Checkpoints of the same model " +
+            "that arrive before the previous one is written are coalesced. The time training stalls for checkpoints " +
+            "is reported at the end of training, with or without this option.")
+    public boolean asyncCheckpoint;
+
+    @Parameter(names = "--checkpoint-every", description = "Checkpoint training every n minibatches, and at the end of " +
+            "each epoch: the model, its updater state, the position in the training cache, the seed and the " +
+            "performances logged so far are saved in the model directory. Zero (default) disables checkpoints. " +
+            "Parallel trainers fit whole epochs, and are only checkpointed at the end of each epoch.")
+    public int checkpointEvery = 0;
+
+    @Parameter(names = "--resume", description = "Model directory of a run interrupted after a checkpoint (see " +
+            "--checkpoint-every). Training continues from the minibatch of the last checkpoint, in the same model " +
+            "directory. Use the arguments of the interrupted run. Validations still running on the asynchronous " +
+            "validation thread when the checkpoint was taken are not resumed.")
+    public String resume;
+
     @Parameter(names = {"--error-enrichment"}, description = "When set, train with error enrichment.)")
     public boolean errorEnrichment = false;
     @Parameter(names = {"--num-errors-added"}, description = "Number of errors added to each mini-batch (only used when training with error enrichment).)")
@@ -0,0 +1,99 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.models.ModelLoader;
+import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.campagnelab.dl.framework.training.ParallelTrainerOnCPU;
+import org.campagnelab.dl.framework.training.SequentialTrainer;
+import org.campagnelab.dl.framework.training.Trainer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+
+/**
+ * Measure how training throughput scales with the number of CPU workers. A copy of a saved model is trained on the
+ * same cached training set with the sequential trainer (one worker), then with the data-parallel CPU trainer
+ * (ParallelTrainerOnCPU) for each requested number of workers. The fastest epoch of each configuration is reported in
+ * examples per second, with its speedup over the first configuration.
+ *
+ * @author Fabien Campagne
+ */
+public class TrainingScalingBenchmark extends AbstractTool<TrainingScalingBenchmarkArguments> {
+
+    public static void main(String[] args) {
+
+        TrainingScalingBenchmark tool = new TrainingScalingBenchmark();
+        tool.parseArguments(args, "TrainingScalingBenchmark", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    public TrainingScalingBenchmarkArguments createArguments() {
+        return new TrainingScalingBenchmarkArguments();
+    }
+
+    @Override
+    public void execute() {
+        ComputationGraph model = loadModel();
+        MultiDataSetIterator iterator = CacheIndex.exists(args().cacheBasename) ?
+                new MultiDatasetMemoryMappedIterator(args().cacheBasename, args().cacheN) :
+                new MultiDatasetMappedFeaturesIterator(args().cacheBasename, args().cacheN);
+        // one pass to count the examples, which also brings the cache in the page cache:
+        int numExamples = 0;
+        while (iterator.hasNext()) {
+            numExamples += iterator.next().getFeatures(0).size(0);
+        }
+        System.out.printf("Training with %d examples per epoch.%n", numExamples);
+        System.out.println("workers\tblasThreadsPerWorker\texamples\tseconds\texamples/s\tspeedup");
+        double baseline = Double.NaN;
+        for (int numWorkers : args().workers) {
+            ComputationGraph graph = model.clone();
+            Trainer trainer;
+            final int blasThreads;
+            if (numWorkers > 1) {
+                trainer = new ParallelTrainerOnCPU(graph, numWorkers, args().averagingFrequency,
+                        args().parallelPrefetch, args().blasThreadsPerWorker, numExamples);
+                blasThreads = args().blasThreadsPerWorker > 0 ? args().blasThreadsPerWorker :
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+            } else {
+                trainer = new SequentialTrainer();
+                blasThreads = args().blasThreadsPerWorker > 0 ? args().blasThreadsPerWorker :
+                        Runtime.getRuntime().availableProcessors();
+                Nd4j.factory().blas().setMaxThreads(blasThreads);
+            }
+            double best = Double.MAX_VALUE;
+            for (int epoch = 0; epoch < args().numEpochs; epoch++) {
+                iterator.reset();
+                long start = System.nanoTime();
+                trainer.train(graph, iterator, null);
+                best = Math.min(best, (System.nanoTime() - start) / 1E9);
+            }
+            if (trainer instanceof ParallelTrainerOnCPU) {
+                ((ParallelTrainerOnCPU) trainer).shutdown();
+            }
+            final double examplesPerSecond = numExamples / best;
+            if (Double.isNaN(baseline)) {
+                baseline = examplesPerSecond;
+            }
+            System.out.printf("%d\t%d\t%d\t%.1f\t%.0f\t%.2f%n", numWorkers, blasThreads, numExamples, best,
+                    examplesPerSecond, examplesPerSecond / baseline);
+        }
+    }
+
+    private ComputationGraph loadModel() {
+        try {
+            Model model = new ModelLoader(args().modelPath).loadModel(args().modelName);
+            if (!(model instanceof ComputationGraph)) {
+                throw new RuntimeException("Unable to load a computation graph from " + args().modelPath);
+            }
+            return (ComputationGraph) model;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load model from " + args().modelPath, e);
+        }
+    }
+}
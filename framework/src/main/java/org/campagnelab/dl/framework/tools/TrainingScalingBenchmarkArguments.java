@@ -0,0 +1,42 @@
+package org.campagnelab.dl.framework.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.campagnelab.dl.framework.tools.arguments.ToolArguments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arguments for TrainingScalingBenchmark.
+ */
+@Parameters(commandDescription = "Measure training throughput (examples per second) on a cached training set, with the sequential trainer and with data-parallel CPU workers.")
+public class TrainingScalingBenchmarkArguments implements ToolArguments {
+    @Parameter(required = true, names = {"-i", "--cache"}, description = "Basename of the cache of the training set (without the .cf extension).")
+    public String cacheBasename;
+
+    @Parameter(required = true, names = "--model-path", description = "Path of a model directory. Each configuration trains a copy of this model.")
+    public String modelPath;
+
+    @Parameter(names = "--model-name", description = "Name of the model to load from the model directory (e.g., best or latest).")
+    public String modelName = "latest";
+
+    @Parameter(names = {"-n", "--cache-n"}, description = "Train with at most n records of the cache per epoch.")
+    public int cacheN = Integer.MAX_VALUE;
+
+    @Parameter(names = "--workers", variableArity = true, description = "Numbers of CPU workers to measure (e.g., --workers 1 2 4 8). One worker trains with the sequential trainer.")
+    public List<Integer> workers = new ArrayList<>(Arrays.asList(1, 2, 4, 8));
+
+    @Parameter(names = "--averaging-frequency", description = "Number of minibatches each worker fits between parameter averaging.")
+    public int averagingFrequency = 5;
+
+    @Parameter(names = "--parallel-prefetch", description = "Number of minibatches read ahead of the workers.")
+    public int parallelPrefetch = 8;
+
+    @Parameter(names = "--blas-threads-per-worker", description = "Number of BLAS threads allotted to each worker. Zero (default) divides the cores of the host among the workers.")
+    public int blasThreadsPerWorker = 0;
+
+    @Parameter(names = "--epochs", description = "Number of epochs timed for each number of workers. The fastest epoch is reported.")
+    public int numEpochs = 2;
+}
@@ -0,0 +1,125 @@
+package org.campagnelab.dl.framework.training;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Estimates validation metrics on a separate thread while training continues. Each validation runs on a snapshot of
+ * the graph (a copy of its parameters taken when the validation is submitted), so that results are attributed to the
+ * epoch that produced the parameters, and the snapshot can be saved as the best model. Validations run one at a time,
+ * in the order they were submitted, so the validation iterator is never used concurrently. At most maxPending
+ * snapshots are kept: submit waits for the oldest validation when validation falls behind training.
+ *
+ * @author Fabien Campagne
+ */
+public class AsyncValidator {
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<Validation>> pending = new ArrayDeque<>();
+    private final Function<ComputationGraph, double[]> estimate;
+    private final int maxPending;
+
+    /**
+     * The metrics estimated for the parameters of an epoch.
+     */
+    public static class Validation {
+        public final int epoch;
+        public final long numExamplesUsed;
+        public final double trainingScore;
+        public final ComputationGraph snapshot;
+        public final double[] performanceValues;
+
+        Validation(int epoch, long numExamplesUsed, double trainingScore, ComputationGraph snapshot,
+                   double[] performanceValues) {
+            this.epoch = epoch;
+            this.numExamplesUsed = numExamplesUsed;
+            this.trainingScore = trainingScore;
+            this.snapshot = snapshot;
+            this.performanceValues = performanceValues;
+        }
+    }
+
+    /**
+     * @param estimate    estimates the performance metrics of a graph over the validation set.
+     * @param maxPending  maximum number of snapshots waiting for, or being, validated.
+     * @param deviceIndex device the validation thread is attached to, or null to keep the default device.
+     */
+    public AsyncValidator(Function<ComputationGraph, double[]> estimate, int maxPending, Integer deviceIndex) {
+        this.estimate = estimate;
+        this.maxPending = Math.max(1, maxPending);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "validation");
+            thread.setDaemon(true);
+            if (deviceIndex != null) {
+                Nd4j.getAffinityManager().attachThreadToDevice(thread, deviceIndex);
+            }
+            return thread;
+        });
+    }
+
+    /**
+     * Take a snapshot of the parameters of the graph, and validate it on the validation thread. Waits for the oldest
+     * validation to complete when maxPending validations are in flight; its result stays available from completed.
+     *
+     * @param epoch           epoch that produced the parameters.
+     * @param numExamplesUsed number of examples used for training up to the end of the epoch.
+     * @param trainingScore   training score at the end of the epoch.
+     * @param graph           graph being trained. Only its snapshot is used after this method returns.
+     */
+    public void submit(int epoch, long numExamplesUsed, double trainingScore, ComputationGraph graph) {
+        if (pending.size() >= maxPending) {
+            get(pending.peekFirst());
+        }
+        final ComputationGraph snapshot = graph.clone();
+        pending.addLast(executor.submit(() -> new Validation(epoch, numExamplesUsed, trainingScore, snapshot,
+                estimate.apply(snapshot))));
+    }
+
+    /**
+     * Return the validations completed so far, in the order they were submitted, without waiting for the others.
+     */
+    public List<Validation> completed() {
+        List<Validation> results = new ArrayList<>();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            results.add(get(pending.pollFirst()));
+        }
+        return results;
+    }
+
+    /**
+     * Wait for all submitted validations, and return them in the order they were submitted.
+     */
+    public List<Validation> awaitAll() {
+        List<Validation> results = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            results.add(get(pending.pollFirst()));
+        }
+        return results;
+    }
+
+    /**
+     * Stop the validation thread once the submitted validations complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Validation get(Future<Validation> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for validation", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Validation failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.campagnelab.dl.framework.training;
+
+import it.unimi.dsi.logging.ProgressLogger;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.parallelism.ParallelWrapper;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trainer that trains data-parallel on the cores of one CPU host. Each worker fits its own copy of the graph with
+ * different minibatches, and the parameters of the copies are averaged every averagingFrequency minibatches. BLAS
+ * operations of the workers share the cores of the host. To keep workers from oversubscribing the host, each BLAS call
+ * is limited to blasThreadsPerWorker threads, by default the number of cores divided by the number of workers. ND4J
+ * only supports this limit for the whole process: it applies to every BLAS call of the JVM while train runs, and the
+ * previous limit is restored when train returns.
+ *
+ * @author Fabien Campagne
+ */
+public class ParallelTrainerOnCPU implements Trainer {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTrainerOnCPU.class);
+    private final ParallelWrapper wrapper;
+    private final int numExamplesPerIterator;
+    private final int blasThreads;
+    private boolean logSpeed;
+
+    /**
+     * @param graph                   graph to train.
+     * @param numWorkers              number of workers, each fitting its own copy of the graph.
+     * @param averagingFrequency      number of minibatches each worker fits between parameter averaging.
+     * @param prefetchBuffer          number of minibatches read ahead of the workers.
+     * @param blasThreadsPerWorker    maximum number of threads of each BLAS call during training (a process-wide
+     *                                limit), or zero to divide the cores of the host among the workers.
+     * @param totalExamplesPerIterator number of examples in one pass over the training iterator.
+     */
+    public ParallelTrainerOnCPU(ComputationGraph graph, int numWorkers, int averagingFrequency, int prefetchBuffer,
+                                int blasThreadsPerWorker, int totalExamplesPerIterator) {
+        blasThreads = blasThreadsPerWorker > 0 ? blasThreadsPerWorker :
+                Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+        wrapper = new ParallelWrapper.Builder(graph)
+                .prefetchBuffer(prefetchBuffer)
+                .workers(numWorkers)
+                .averagingFrequency(averagingFrequency)
+                .reportScoreAfterAveraging(false)
+                .useLegacyAveraging(false)
+                // the queue that spreads minibatches across devices is only useful with several GPUs:
+                .useMQ(false)
+                .build();
+        this.numExamplesPerIterator = totalExamplesPerIterator;
+        LOG.info("Training with {} CPU workers, averaging every {} minibatches, at most {} threads per BLAS call.",
+                numWorkers, averagingFrequency, blasThreads);
+    }
+
+    @Override
+    public int train(ComputationGraph graph, MultiDataSetIterator iterator, ProgressLogger pg) {
+        // the number of BLAS threads is a process-wide setting: it bounds the threads of each BLAS call of a worker,
+        // but also of any other thread of the JVM, so restore it when the pass is over:
+        final int previousBlasThreads = Nd4j.factory().blas().getMaxThreads();
+        Nd4j.factory().blas().setMaxThreads(blasThreads);
+        try {
+            wrapper.fit(iterator);
+        } finally {
+            Nd4j.factory().blas().setMaxThreads(previousBlasThreads);
+        }
+        if (logSpeed) {
+            pg.update(numExamplesPerIterator);
+        }
+        return numExamplesPerIterator;
+    }
+
+    @Override
+    public void setLogSpeed(boolean logSpeed) {
+        this.logSpeed = logSpeed;
+    }
+
+    /**
+     * Stop the workers. The trainer cannot be used after this call.
+     */
+    public void shutdown() {
+        wrapper.shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.framework.training;
 
 import it.unimi.dsi.logging.ProgressLogger;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
@@ -11,10 +12,41 @@ import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
  */
 public class SequentialTrainer implements Trainer {
     private boolean logSpeed;
+    private MinibatchArrayPool arrayPool;
+    private MinibatchListener minibatchListener;
+
+    /**
+     * Listener called after each minibatch is fit.
+     */
+    public interface MinibatchListener {
+        /**
+         * @param numMinibatches number of minibatches fit since train was called.
+         * @param numExamples    number of examples fit since train was called.
+         */
+        void minibatchFit(int numMinibatches, int numExamples);
+    }
+
+    /**
+     * Release each minibatch to a pool once the graph has been fit with it, so that the iterator can reuse its arrays.
+     * Only use when the iterator does not keep the minibatches it returns (e.g., in a cache held in memory).
+     *
+     * @param arrayPool pool the iterator obtains minibatch arrays from.
+     */
+    public void setArrayPool(MinibatchArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
+    /**
+     * Call the listener after each minibatch is fit (e.g., to checkpoint training in the middle of an epoch).
+     */
+    public void setMinibatchListener(MinibatchListener minibatchListener) {
+        this.minibatchListener = minibatchListener;
+    }
 
     @Override
     public int train(ComputationGraph computationGraph, MultiDataSetIterator iterator, ProgressLogger progressLogger) {
         int numExamplesUsed = 0;
+        int numMinibatches = 0;
         while (iterator.hasNext()) {
 
             MultiDataSet ds = iterator.next();
@@ -22,9 +54,16 @@ public class SequentialTrainer implements Trainer {
             computationGraph.fit(ds);
             final int numExamples = ds.getFeatures(0).size(0);
             numExamplesUsed += numExamples;
+            if (arrayPool != null) {
+                arrayPool.release(ds);
+            }
             if (logSpeed) {
                 progressLogger.update();
             }
+            numMinibatches++;
+            if (minibatchListener != null) {
+                minibatchListener.minibatchFit(numMinibatches, numExamplesUsed);
+            }
         }
         return numExamplesUsed;
     }
@@ -0,0 +1,118 @@
+package org.campagnelab.dl.framework.training;
+
+import org.campagnelab.dl.framework.models.ComputationGraphCheckpointer;
+import org.campagnelab.dl.framework.performance.PerformanceLogger;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * State of training saved with a checkpoint of the model, so that training can resume from the minibatch where the
+ * checkpoint was taken: epoch, pass and position of the training iterator in that pass, examples used, shuffle seed,
+ * early stopping counters and the performances logged so far. The state is stored in the model file of the
+ * checkpoint, with the parameters and updater state (see ComputationGraphCheckpointer), so that both are always
+ * replaced together.
+ * <p>
+ * Random number generation is made reproducible at checkpoint boundaries rather than captured: the generator of the
+ * training thread is re-seeded with rngSeed(seed, epoch, position) after each checkpoint, and again when training
+ * resumes, so that a resumed run draws the same numbers (e.g., dropout masks) as the run that was interrupted.
+ *
+ * @author Fabien Campagne
+ */
+public class TrainingCheckpoint {
+    /**
+     * Prefix of the model and state files of the checkpoint.
+     */
+    public static final String PREFIX = "checkpoint";
+
+    /**
+     * Epoch in progress.
+     */
+    public int epoch;
+    /**
+     * Pass of the training iterator for this epoch.
+     */
+    public int pass;
+    /**
+     * Number of minibatches of the epoch already fit.
+     */
+    public int position;
+    /**
+     * Number of examples used for training, including those of the epoch in progress.
+     */
+    public long numExamplesUsed;
+    /**
+     * Seed of the shuffled training iterator and of the random number generator.
+     */
+    public long seed;
+    /**
+     * Time that identifies the model directory.
+     */
+    public long time;
+    public double bestValue;
+    public int notImproved;
+    /**
+     * Sum of the parameters of the model, to check that the model file matches the state.
+     */
+    public double parameterChecksum;
+
+    private Properties properties = new Properties();
+
+    /**
+     * Return the properties describing this state, with the performances logged so far.
+     */
+    public Properties toProperties(PerformanceLogger performanceLogger) {
+        Properties result = new Properties();
+        result.setProperty("epoch", Integer.toString(epoch));
+        result.setProperty("pass", Integer.toString(pass));
+        result.setProperty("position", Integer.toString(position));
+        result.setProperty("numExamplesUsed", Long.toString(numExamplesUsed));
+        result.setProperty("seed", Long.toString(seed));
+        result.setProperty("time", Long.toString(time));
+        result.setProperty("bestValue", Double.toString(bestValue));
+        result.setProperty("notImproved", Integer.toString(notImproved));
+        result.setProperty("parameterChecksum", Double.toString(parameterChecksum));
+        performanceLogger.store(result);
+        return result;
+    }
+
+    /**
+     * Load the state stored in the model file of a checkpoint.
+     */
+    public static TrainingCheckpoint load(String modelFilename) throws IOException {
+        Properties properties = ComputationGraphCheckpointer.loadState(modelFilename);
+        if (properties == null) {
+            throw new IOException("The model file has no training state: " + modelFilename);
+        }
+        return fromProperties(properties);
+    }
+
+    public static TrainingCheckpoint fromProperties(Properties properties) {
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        checkpoint.properties = properties;
+        checkpoint.epoch = Integer.parseInt(properties.getProperty("epoch"));
+        checkpoint.pass = Integer.parseInt(properties.getProperty("pass"));
+        checkpoint.position = Integer.parseInt(properties.getProperty("position"));
+        checkpoint.numExamplesUsed = Long.parseLong(properties.getProperty("numExamplesUsed"));
+        checkpoint.seed = Long.parseLong(properties.getProperty("seed"));
+        checkpoint.time = Long.parseLong(properties.getProperty("time"));
+        checkpoint.bestValue = Double.parseDouble(properties.getProperty("bestValue"));
+        checkpoint.notImproved = Integer.parseInt(properties.getProperty("notImproved"));
+        checkpoint.parameterChecksum = Double.parseDouble(properties.getProperty("parameterChecksum"));
+        return checkpoint;
+    }
+
+    /**
+     * Restore the performances stored with the state. The metrics of the logger must be defined.
+     */
+    public void restorePerformances(PerformanceLogger performanceLogger) {
+        performanceLogger.restore(properties);
+    }
+
+    /**
+     * Return the seed of the random number generator for training after a checkpoint boundary.
+     */
+    public static long rngSeed(long seed, int epoch, int position) {
+        return seed ^ (epoch + 1) * 0x9E3779B97F4A7C15L ^ (position + 1) * 0xC2B2AE3D27D4EB4FL;
+    }
+}
@@ -0,0 +1,59 @@
+package org.campagnelab.dl.framework.domains.prediction;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that values and maxima read from a minibatch output match those read from the INDArray.
+ */
+public class MinibatchOutputTest {
+
+    @Test
+    public void matchesOutputWithTwoDimensions() {
+        Nd4j.getRandom().setSeed(1);
+        INDArray output = Nd4j.rand('f', new int[]{7, 5});
+        MinibatchOutput minibatch = new MinibatchOutput().load(output);
+        for (int example = 0; example < 7; example++) {
+            int maxIndex = -1;
+            double max = -1;
+            for (int column = 0; column < 5; column++) {
+                assertEquals(output.getDouble(example, column), minibatch.get(example, column), 0);
+                if (max < output.getDouble(example, column)) {
+                    max = output.getDouble(example, column);
+                    maxIndex = column;
+                }
+            }
+            assertEquals(maxIndex, minibatch.argMax(example));
+            assertEquals(max, minibatch.max(example), 0);
+            assertEquals(maxIndex, minibatch.argMaxOfFirst(example, 5));
+        }
+    }
+
+    @Test
+    public void matchesOutputWithThreeDimensions() {
+        Nd4j.getRandom().setSeed(2);
+        INDArray output = Nd4j.rand('f', new int[]{3, 4, 6});
+        // reuse a buffer loaded with a larger minibatch:
+        MinibatchOutput minibatch = new MinibatchOutput().load(Nd4j.rand('f', new int[]{10, 4, 6})).load(output);
+        assertEquals(3, minibatch.numExamples());
+        for (int example = 0; example < 3; example++) {
+            for (int step = 0; step < 6; step++) {
+                int maxIndex = -1;
+                double max = -1;
+                for (int column = 0; column < 4; column++) {
+                    final double value = output.getDouble(new int[]{example, column, step});
+                    assertEquals(value, minibatch.get(example, column, step), 0);
+                    if (max < value) {
+                        max = value;
+                        maxIndex = column;
+                    }
+                }
+                assertEquals(maxIndex, minibatch.argMax(example, step));
+                assertEquals(max, minibatch.max(example, step), 0);
+            }
+        }
+    }
+}
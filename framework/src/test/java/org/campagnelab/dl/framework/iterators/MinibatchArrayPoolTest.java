@@ -0,0 +1,62 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that released arrays are reused, cleared or overwritten, and that arrays not obtained from the pool are never
+ * handed out.
+ */
+public class MinibatchArrayPoolTest {
+
+    @Test
+    public void releasedArraysAreReused() {
+        MinibatchArrayPool pool = new MinibatchArrayPool(2);
+        int[] shape = {3, 4};
+        INDArray first = pool.zeros(shape);
+        first.putScalar(new int[]{1, 2}, 5);
+        pool.release(first);
+        INDArray second = pool.zeros(shape);
+        assertSame(first, second);
+        assertEquals(Nd4j.zeros(3, 4), second);
+
+        float[] values = new float[12];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        pool.release(second);
+        INDArray third = pool.create(values, shape);
+        assertSame(first, third);
+        assertEquals(Nd4j.create(values, shape, 'f'), third);
+        assertEquals(1, pool.getNumAllocated());
+        assertEquals(2, pool.getNumReused());
+    }
+
+    @Test
+    public void foreignArraysAreIgnored() {
+        MinibatchArrayPool pool = new MinibatchArrayPool(2);
+        INDArray foreign = Nd4j.create(new int[]{2, 2}, 'f');
+        pool.release(foreign);
+        assertNotSame(foreign, pool.zeros(new int[]{2, 2}));
+
+        INDArray ones = pool.ones(2, 1);
+        assertSame(ones, pool.ones(2, 1));
+        pool.release(ones);
+        assertNotSame(ones, pool.zeros(new int[]{2, 1}));
+    }
+
+    @Test
+    public void arraysReleasedTwiceAreHandedOutOnce() {
+        MinibatchArrayPool pool = new MinibatchArrayPool(2);
+        INDArray array = pool.zeros(new int[]{2, 3});
+        pool.release(array);
+        pool.release(array);
+        assertSame(array, pool.zeros(new int[]{2, 3}));
+        assertNotSame(array, pool.zeros(new int[]{2, 3}));
+    }
+}
@@ -0,0 +1,218 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.BooleanLabelMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
+import org.campagnelab.dl.framework.tools.TrainingArguments;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that minibatches mapped with several threads are identical to minibatches mapped on the calling thread.
+ */
+public class ParallelMinibatchMappingTest {
+    private static final int NUM_RECORDS = 203;
+    private static final int MINI_BATCH_SIZE = 32;
+
+    @Test
+    public void minibatchesMatchSequentialMapping() throws IOException {
+        assertParallelMatchesSequential(false);
+    }
+
+    @Test
+    public void overriddenInputsMatchSequentialMapping() throws IOException {
+        assertParallelMatchesSequential(true);
+    }
+
+    /**
+     * @param override when true, the input is mapped with a mapper set with setFeatureMapper.
+     */
+    private void assertParallelMatchesSequential(boolean override) throws IOException {
+        List<Integer> records = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            records.add(i);
+        }
+        MultiDataSetIteratorAdapter<Integer> sequential = adapter(records);
+        MultiDataSetIteratorAdapter<Integer> parallel = adapter(records);
+        if (override) {
+            sequential.setFeatureMapper("input", new StatefulMapper());
+            parallel.setFeatureMapper("input", new StatefulMapper());
+        }
+        parallel.setMappingThreads(4, TestDomainDescriptor::new);
+        try {
+            int numMinibatches = 0;
+            while (sequential.hasNext()) {
+                MultiDataSet expected = sequential.next();
+                MultiDataSet observed = parallel.next();
+                assertEquals(expected.getFeatures(0), observed.getFeatures(0));
+                assertEquals(expected.getLabels(0), observed.getLabels(0));
+                numMinibatches++;
+            }
+            assertFalse(parallel.hasNext());
+            assertEquals((NUM_RECORDS + MINI_BATCH_SIZE - 1) / MINI_BATCH_SIZE, numMinibatches);
+        } finally {
+            parallel.shutdownMappingThreads();
+        }
+    }
+
+    private MultiDataSetIteratorAdapter<Integer> adapter(List<Integer> records) throws IOException {
+        return new MultiDataSetIteratorAdapter<Integer>(records, MINI_BATCH_SIZE, new TestDomainDescriptor()) {
+            @Override
+            public String getBasename() {
+                return "records";
+            }
+        };
+    }
+
+    /**
+     * Keeps the record prepared for normalization, as mappers of real domains do, so that a mapper shared across
+     * threads would produce the features of the wrong record.
+     */
+    private static class StatefulMapper extends AbstractFeatureMapper1D<Integer> {
+        private int prepared;
+
+        @Override
+        public String getFeatureName(int featureIndex) {
+            return "f" + featureIndex;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return 5;
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+            prepared = record;
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            return prepared * 10 + featureIndex;
+        }
+    }
+
+    private static class TestDomainDescriptor extends DomainDescriptor<Integer> {
+        private final FeatureMapper<Integer> featureMapper = new StatefulMapper();
+        private final LabelMapper<Integer> labelMapper = new BooleanLabelMapper<>(record -> record % 3 == 0);
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName) {
+            return featureMapper;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName) {
+            return labelMapper;
+        }
+
+        @Override
+        public PredictionInterpreter getPredictionInterpreter(String outputName) {
+            return null;
+        }
+
+        @Override
+        public Function<String, ? extends Iterable<Integer>> getRecordIterable() {
+            return null;
+        }
+
+        @Override
+        public ComputationGraphAssembler getComputationalGraph() {
+            return new ComputationGraphAssembler() {
+                @Override
+                public void setArguments(TrainingArguments arguments) {
+                }
+
+                @Override
+                public ComputationGraph createComputationalGraph(DomainDescriptor domainDescriptor) {
+                    return null;
+                }
+
+                @Override
+                public void setNumInputs(String inputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumOutputs(String outputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumHiddenNodes(String componentName, int numHiddenNodes) {
+                }
+
+                @Override
+                public String[] getInputNames() {
+                    return new String[]{"input"};
+                }
+
+                @Override
+                public String[] getOutputNames() {
+                    return new String[]{"label"};
+                }
+
+                @Override
+                public String[] getComponentNames() {
+                    return new String[0];
+                }
+
+                @Override
+                public void setLossFunction(String outputName, ILossFunction lossFunction) {
+                }
+
+                @Override
+                public void saveProperties(ModelPropertiesHelper helper) {
+                }
+            };
+        }
+
+        @Override
+        public int[] getNumInputs(String inputName) {
+            return new int[]{featureMapper.numberOfFeatures()};
+        }
+
+        @Override
+        public int[] getNumOutputs(String outputName) {
+            return new int[]{labelMapper.numberOfLabels()};
+        }
+
+        @Override
+        public int[] getNumMaskInputs(String inputName) {
+            return null;
+        }
+
+        @Override
+        public int[] getNumMaskOutputs(String outputName) {
+            return null;
+        }
+
+        @Override
+        public int getNumHiddenNodes(String componentName) {
+            return 0;
+        }
+
+        @Override
+        public ILossFunction getOutputLoss(String outputName) {
+            return null;
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return NUM_RECORDS;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that minibatches assembled from a block cache hold the records of the cache, in order, and that the iterator
+ * can be positioned at any minibatch of a pass, including passes over shuffled blocks.
+ */
+public class RebatchingCacheIteratorTest {
+    private static final int NUM_RECORDS = 38;
+    private static final int BLOCK_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String basename;
+
+    @Before
+    public void writeCache() throws IOException {
+        basename = folder.getRoot().getAbsolutePath() + "/blocks";
+        ShuffledCacheIteratorTest.writeCache(basename, NUM_RECORDS, BLOCK_SIZE);
+    }
+
+    @Test
+    public void assemblesAnyMinibatchSize() {
+        for (int miniBatchSize : new int[]{1, 3, 4, 5, 8, 16, 38, 100}) {
+            RebatchingCacheIterator iterator = new RebatchingCacheIterator(
+                    new MultiDatasetMemoryMappedIterator(basename), miniBatchSize);
+            for (int epoch = 0; epoch < 2; epoch++) {
+                iterator.reset();
+                int record = 0;
+                while (iterator.hasNext()) {
+                    MultiDataSet ds = iterator.next();
+                    INDArray features = ds.getFeatures(0);
+                    assertEquals(Math.min(miniBatchSize, NUM_RECORDS - record), features.size(0));
+                    assertEquals(2, features.size(1));
+                    for (int row = 0; row < features.size(0); row++) {
+                        assertEquals(record, features.getFloat(row, 0), 0);
+                        assertEquals(-record, features.getFloat(row, 1), 0);
+                        assertEquals(2 * record, ds.getLabels(0).getFloat(row, 0), 0);
+                        record++;
+                    }
+                }
+                assertEquals(NUM_RECORDS, record);
+                assertFalse(iterator.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void seeksToAnyMinibatchOfAPass() {
+        for (int miniBatchSize : new int[]{3, 4, 5}) {
+            seekAndCompare(() -> new RebatchingCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                    miniBatchSize));
+            // windows of three blocks, records exchanged among pairs of blocks:
+            seekAndCompare(() -> new RebatchingCacheIterator(new ShuffledCacheIterator(
+                    new MultiDatasetMemoryMappedIterator(basename), 0, 4, 7, 3, 2), miniBatchSize));
+        }
+    }
+
+    private void seekAndCompare(Supplier<RebatchingCacheIterator> iterators) {
+        RebatchingCacheIterator reference = iterators.get();
+        for (int pass = 0; pass < 3; pass++) {
+            if (pass > 0) {
+                reference.reset();
+            }
+            List<INDArray> minibatches = new ArrayList<>();
+            while (reference.hasNext()) {
+                minibatches.add(reference.next().getFeatures(0).dup());
+            }
+            assertEquals(pass, reference.pass());
+            for (int position = 0; position <= minibatches.size(); position++) {
+                RebatchingCacheIterator resumed = iterators.get();
+                resumed.seek(pass, position);
+                assertEquals(pass, resumed.pass());
+                assertEquals(position, resumed.position());
+                for (int i = position; i < minibatches.size(); i++) {
+                    assertEquals(minibatches.get(i).size(0), resumed.numExamples(pass, i));
+                    assertEquals(minibatches.get(i), resumed.next().getFeatures(0));
+                }
+                assertFalse(resumed.hasNext());
+                assertEquals(0, resumed.numExamples(pass, minibatches.size()));
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.campagnelab.dl.framework.iterators.cache.MultiDataSetRawFormat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the minibatch orders produced by ShuffledCacheIterator over a small cache.
+ */
+public class ShuffledCacheIteratorTest {
+    private static final int NUM_RECORDS = 38;
+    private static final int MINIBATCH_SIZE = 4;
+    private static final int NUM_MINIBATCHES = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String basename;
+
+    @Before
+    public void writeCache() throws IOException {
+        basename = folder.getRoot().getAbsolutePath() + "/test";
+        writeCache(basename, NUM_RECORDS, MINIBATCH_SIZE);
+    }
+
+    @Test
+    public void eachPassVisitsAllMinibatches() {
+        ShuffledCacheIterator iterator = new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                0, 4, 1, 3, 1);
+        IntArrayList first = firstRecords(iterator);
+        IntArrayList second = firstRecords(iterator);
+        assertEquals(NUM_MINIBATCHES, new IntOpenHashSet(first).size());
+        assertEquals(NUM_MINIBATCHES, new IntOpenHashSet(second).size());
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void sameSeedSameOrder() {
+        IntArrayList first = firstRecords(new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                2, 4, 7, 3, 1));
+        IntArrayList second = firstRecords(new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                0, 4, 7, 3, 1));
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void minibatchesStayInTheirWindow() {
+        ShuffledCacheIterator iterator = new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                0, 4, 3, 5, 1);
+        IntArrayList first = firstRecords(iterator);
+        for (int i = 0; i < NUM_MINIBATCHES; i++) {
+            // windows hold 5 minibatches, all minibatches of a window are returned before the next window:
+            assertEquals(first.getInt(i - i % 5) / MINIBATCH_SIZE / 5, first.getInt(i) / MINIBATCH_SIZE / 5);
+        }
+    }
+
+    @Test
+    public void recordsAreExchanged() {
+        ShuffledCacheIterator iterator = new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                0, 4, 11, 10, 3);
+        IntOpenHashSet records = new IntOpenHashSet();
+        int numMinibatches = 0;
+        boolean exchanged = false;
+        iterator.reset();
+        while (iterator.hasNext()) {
+            MultiDataSet ds = iterator.next();
+            INDArray features = ds.getFeatures(0);
+            for (int row = 0; row < features.size(0); row++) {
+                final int record = (int) features.getFloat(row, 0);
+                assertTrue("records must be returned once per pass", records.add(record));
+                // labels must follow their records:
+                assertEquals(record * 2, ds.getLabels(0).getFloat(row, 0), 0);
+                exchanged |= record / MINIBATCH_SIZE != (int) features.getFloat(0, 0) / MINIBATCH_SIZE;
+            }
+            numMinibatches++;
+        }
+        assertEquals(NUM_RECORDS, records.size());
+        assertEquals(NUM_MINIBATCHES, numMinibatches);
+        assertTrue(exchanged);
+    }
+
+    @Test
+    public void seekResumesPass() {
+        for (int recordGroupSize : new int[]{1, 3}) {
+            ShuffledCacheIterator iterator = new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                    0, 4, 5, 3, recordGroupSize);
+            firstRecords(iterator);
+            IntArrayList secondPass = firstRecords(iterator);
+            // a new iterator, as after a restart, positioned in the middle of the second pass:
+            ShuffledCacheIterator resumed = new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                    0, 4, 5, 3, recordGroupSize);
+            AtomicInteger preProcessed = new AtomicInteger();
+            resumed.setPreProcessor(ds -> preProcessed.incrementAndGet());
+            resumed.seek(1, 4);
+            // skipped minibatches are not pre-processed:
+            assertEquals(0, preProcessed.get());
+            assertEquals(1, resumed.pass());
+            assertEquals(4, resumed.position());
+            IntArrayList rest = new IntArrayList();
+            while (resumed.hasNext()) {
+                rest.add((int) resumed.next().getFeatures(0).getFloat(0, 0));
+            }
+            assertEquals(secondPass.subList(4, NUM_MINIBATCHES), rest);
+            assertEquals(NUM_MINIBATCHES - 4, preProcessed.get());
+        }
+    }
+
+    private IntArrayList firstRecords(ShuffledCacheIterator iterator) {
+        IntArrayList result = new IntArrayList();
+        iterator.reset();
+        while (iterator.hasNext()) {
+            result.add((int) iterator.next().getFeatures(0).getFloat(0, 0));
+        }
+        return result;
+    }
+
+    /**
+     * Write a raw cache where the features of each record hold the index of the record, and its labels twice the
+     * index.
+     */
+    public static void writeCache(String basename, int numRecords, int minibatchSize) throws IOException {
+        int numMinibatches = 0;
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(basename + ".cf"));
+             CacheIndex.Writer index = new CacheIndex.Writer(basename)) {
+            for (int start = 0; start < numRecords; start += minibatchSize) {
+                final int size = Math.min(minibatchSize, numRecords - start);
+                INDArray features = Nd4j.create(size, 2);
+                INDArray labels = Nd4j.create(size, 1);
+                for (int row = 0; row < size; row++) {
+                    features.putScalar(row, 0, start + row);
+                    features.putScalar(row, 1, -(start + row));
+                    labels.putScalar(row, 0, 2 * (start + row));
+                }
+                byte[] bytes = MultiDataSetRawFormat.encode(new org.nd4j.linalg.dataset.MultiDataSet(
+                        new INDArray[]{features}, new INDArray[]{labels}));
+                output.writeInt(bytes.length);
+                output.write(bytes);
+                index.append(bytes.length + 4, size);
+                numMinibatches++;
+            }
+        }
+        Properties properties = new Properties();
+        properties.put("miniBatchSize", Integer.toString(minibatchSize));
+        properties.put("numRecords", Integer.toString(numRecords));
+        properties.put("numDatasets", Integer.toString(numMinibatches));
+        properties.put(MultiDataSetRawFormat.FORMAT_PROPERTY, MultiDataSetRawFormat.RAW);
+        try (FileWriter writer = new FileWriter(basename + ".cfp")) {
+            properties.store(writer, "test cache");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Main class run in separate JVMs by CacheHelperTest. Builds a cache with CacheHelper.buildOnce, and records each
+ * build in a log file shared by all processes.
+ */
+public class CacheBuildProcess {
+    static final int NUM_ENTRIES = 20;
+    static final int ENTRY_SIZE = 3;
+
+    public static void main(String[] args) {
+        final String basename = args[0];
+        final String logFilename = args[1];
+        CacheHelper.buildOnce(basename, Integer.MAX_VALUE, () -> {
+            try {
+                try (FileWriter log = new FileWriter(logFilename, true)) {
+                    log.write("built\n");
+                }
+                writeEntries(basename, 0, NUM_ENTRIES, 0);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        if (!CacheHelper.cacheExists(basename, Integer.MAX_VALUE, true)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write entries [first, last) of a test cache. Each entry holds ENTRY_SIZE records and the entry index as bytes.
+     */
+    static void writeEntries(String basename, int first, int last, int checkpointEvery) throws IOException,
+            InterruptedException {
+        try (CacheWriter writer = new CacheWriter(basename, buildParameters(), checkpointEvery)) {
+            for (int entry = first; entry < last; entry++) {
+                writer.append(new byte[]{(byte) entry, (byte) entry}, ENTRY_SIZE);
+                // leave time for other processes to try building the cache:
+                Thread.sleep(50);
+            }
+            Properties cfp = new Properties();
+            cfp.put("domainDescriptor", "test");
+            cfp.put("numRecords", Long.toString(writer.numRecords()));
+            cfp.put("numDatasets", Long.toString(writer.numDatasets()));
+            writer.complete(cfp);
+        }
+    }
+
+    static Properties buildParameters() {
+        Properties parameters = new Properties();
+        parameters.put("miniBatchSize", Integer.toString(ENTRY_SIZE));
+        return parameters;
+    }
+}
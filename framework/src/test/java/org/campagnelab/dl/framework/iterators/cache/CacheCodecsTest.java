@@ -0,0 +1,110 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of multi datasets through the cache codecs.
+ */
+public class CacheCodecsTest {
+
+    @Test
+    public void roundTrips() {
+        MultiDataSet mds = createMultiDataSet();
+        for (String name : CacheCodecs.NAMES) {
+            CacheCodec codec = CacheCodecs.forName(name);
+            assertEquals(name, codec.name());
+            byte[] bytes = codec.encode(mds);
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            direct.flip();
+            // all values of the test dataset are exactly representable as half floats:
+            MultiDataSet decoded = codec.decode(direct);
+            for (int i = 0; i < mds.getFeatures().length; i++) {
+                assertEquals(name, mds.getFeatures(i), decoded.getFeatures(i));
+            }
+            assertEquals(name, mds.getLabels(0), decoded.getLabels(0));
+            assertEquals(name, mds.getFeaturesMaskArrays()[0], decoded.getFeaturesMaskArrays()[0]);
+        }
+    }
+
+    @Test
+    public void bitPackingShrinksOneHotColumns() {
+        MultiDataSet mds = createMultiDataSet();
+        int plain = CacheCodecs.forName(CacheCodecs.NONE).encode(mds).length;
+        int packed = CacheCodecs.forName(CacheCodecs.BITPACKED).encode(mds).length;
+        assertTrue("bit-packed entries must be smaller: " + packed + " >= " + plain, packed < plain);
+    }
+
+    @Test
+    public void sparseEncodingShrinksOneHotColumns() {
+        MultiDataSet mds = createMultiDataSet();
+        int packed = CacheCodecs.forName(CacheCodecs.BITPACKED).encode(mds).length;
+        int sparse = CacheCodecs.forName(CacheCodecs.SPARSE).encode(mds).length;
+        assertTrue("sparse entries must be smaller: " + sparse + " >= " + packed, sparse < packed);
+    }
+
+    @Test
+    public void sparseEncodingIsLossless() {
+        SparseEncoding encoding = new SparseEncoding();
+        float[][] arrays = {{0, 0, 1, 0, 0, 0, 0, 1}, {0, -0f, 0.5f, 0, 0, 0, 0, 0}, {1, 1, 1, 0, 1, 1, 1, 1},
+                {1, 1, 0.25f, 1, 1, 1, 1, 1}, {1, 2, 3, 4}, {}};
+        for (float[] values : arrays) {
+            int[] shape = {values.length};
+            ByteBuffer buffer = ByteBuffer.allocate(encoding.encodedSize(shape, values));
+            encoding.write(buffer, shape, values);
+            assertEquals(buffer.capacity(), buffer.position());
+            buffer.flip();
+            float[] decoded = new float[values.length];
+            java.util.Arrays.fill(decoded, 7f);
+            encoding.read(buffer, shape, decoded);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decoded[i]));
+            }
+        }
+    }
+
+    @Test
+    public void halfFloatConversion() {
+        float[] exact = {0f, -0f, 1f, -1f, 0.5f, 2048f, 65504f, 6.1035156E-5f, 5.9604645E-8f,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float value : exact) {
+            assertEquals(Float.floatToIntBits(value),
+                    Float.floatToIntBits(Float16Encoding.toFloat(Float16Encoding.toHalf(value))));
+        }
+        assertTrue(Float.isNaN(Float16Encoding.toFloat(Float16Encoding.toHalf(Float.NaN))));
+        assertEquals(Float.POSITIVE_INFINITY, Float16Encoding.toFloat(Float16Encoding.toHalf(1E6f)), 0);
+        assertEquals(0.1f, Float16Encoding.toFloat(Float16Encoding.toHalf(0.1f)), 1E-4);
+        // ties round to even:
+        assertEquals(2048f, Float16Encoding.toFloat(Float16Encoding.toHalf(2049f)), 0);
+        assertEquals(2052f, Float16Encoding.toFloat(Float16Encoding.toHalf(2051f)), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCodec() {
+        CacheCodecs.forName("lz77");
+    }
+
+    private MultiDataSet createMultiDataSet() {
+        INDArray density = Nd4j.create(new int[]{10, 3}, 'f');
+        INDArray oneHot = Nd4j.zeros(new int[]{10, 20}, 'f');
+        for (int i = 0; i < density.length(); i++) {
+            density.putScalar(i, i * 0.25f - 2f);
+        }
+        for (int example = 0; example < 10; example++) {
+            oneHot.putScalar(example, (example * 7) % 20, 1f);
+        }
+        INDArray labels = Nd4j.create(new float[]{1, 0, 0, 1, 1, 0, 0, 1, 1, 0,
+                0, 1, 1, 0, 0, 1, 0, 1, 1, 0}, new int[]{10, 2}, 'f');
+        INDArray mask = Nd4j.ones(10, 20);
+        return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{density, oneHot},
+                new INDArray[]{labels}, new INDArray[]{mask, null}, null);
+    }
+}
@@ -0,0 +1,145 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that concurrent processes and threads build a cache once, and that interrupted builds resume from their checkpoint.
+ */
+public class CacheHelperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void processesBuildCacheOnce() throws Exception {
+        String basename = new File(folder.getRoot(), "shared").getAbsolutePath();
+        File log = new File(folder.getRoot(), "builds.log");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    CacheBuildProcess.class.getName(), basename, log.getAbsolutePath()).inheritIO().start());
+        }
+        for (Process process : processes) {
+            assertTrue("process must finish", process.waitFor(2, TimeUnit.MINUTES));
+            assertEquals(0, process.exitValue());
+        }
+        assertEquals(1, FileUtils.readLines(log, StandardCharsets.UTF_8).size());
+        assertEquals(CacheBuildProcess.NUM_ENTRIES, CacheIndex.numEntries(basename));
+        assertEntries(basename, CacheBuildProcess.NUM_ENTRIES);
+    }
+
+    @Test
+    public void threadsBuildCacheOnce() throws Exception {
+        String basename = new File(folder.getRoot(), "threads").getAbsolutePath();
+        AtomicInteger builds = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(executor.submit(() -> CacheHelper.buildOnce(basename, Integer.MAX_VALUE, () -> {
+                builds.incrementAndGet();
+                try {
+                    CacheBuildProcess.writeEntries(basename, 0, CacheBuildProcess.NUM_ENTRIES, 0);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            })));
+        }
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        assertEquals(1, builds.get());
+        assertEntries(basename, CacheBuildProcess.NUM_ENTRIES);
+    }
+
+    @Test
+    public void parsesJvmMemorySizes() {
+        assertEquals(1024, CacheHelper.parseSize("1024"));
+        assertEquals(512L << 20, CacheHelper.parseSize("512m"));
+        assertEquals(4L << 30, CacheHelper.parseSize("4G"));
+        assertTrue(CacheHelper.defaultBudget() > 0);
+        assertTrue(CacheHelper.defaultBudget() <= CacheHelper.maxDirectMemory() / 2);
+    }
+
+    @Test
+    public void interruptedBuildResumes() throws Exception {
+        String basename = new File(folder.getRoot(), "resumed").getAbsolutePath();
+        // write 10 entries, with a checkpoint every 4 entries, then stop without completing the cache:
+        CacheWriter interrupted = new CacheWriter(basename, CacheBuildProcess.buildParameters(), 4);
+        for (int entry = 0; entry < 10; entry++) {
+            interrupted.append(new byte[]{(byte) entry, (byte) entry}, CacheBuildProcess.ENTRY_SIZE);
+        }
+        interrupted.close();
+        assertFalse(CacheHelper.cacheExists(basename, Integer.MAX_VALUE, true));
+
+        CacheWriter resumed = new CacheWriter(basename, CacheBuildProcess.buildParameters(), 4);
+        assertEquals(8 * CacheBuildProcess.ENTRY_SIZE, resumed.resumedRecords());
+        resumed.close();
+        CacheBuildProcess.writeEntries(basename, 8, CacheBuildProcess.NUM_ENTRIES, 4);
+
+        assertTrue(CacheHelper.cacheExists(basename, Integer.MAX_VALUE, true));
+        assertFalse(new File(basename + CacheWriter.CHECKPOINT_EXTENSION).exists());
+        assertEntries(basename, CacheBuildProcess.NUM_ENTRIES);
+        Properties cfp = new Properties();
+        cfp.load(new FileInputStream(basename + ".cfp"));
+        assertEquals(Integer.toString(CacheBuildProcess.NUM_ENTRIES * CacheBuildProcess.ENTRY_SIZE),
+                cfp.getProperty("numRecords"));
+    }
+
+    @Test
+    public void checkpointWithOtherParametersIsIgnored() throws Exception {
+        String basename = new File(folder.getRoot(), "changed").getAbsolutePath();
+        CacheWriter interrupted = new CacheWriter(basename, CacheBuildProcess.buildParameters(), 2);
+        for (int entry = 0; entry < 4; entry++) {
+            interrupted.append(new byte[]{(byte) entry, (byte) entry}, CacheBuildProcess.ENTRY_SIZE);
+        }
+        interrupted.close();
+        Properties otherParameters = CacheBuildProcess.buildParameters();
+        otherParameters.put("miniBatchSize", "128");
+        CacheWriter restarted = new CacheWriter(basename, otherParameters, 2);
+        assertEquals(0, restarted.resumedRecords());
+        restarted.close();
+    }
+
+    /**
+     * Check that the .cf file holds the entries written by CacheBuildProcess, in order, at the offsets of the index.
+     */
+    private void assertEntries(String basename, int numEntries) throws IOException {
+        CacheIndex index = CacheIndex.load(basename);
+        assertEquals(numEntries, index.numEntries());
+        assertEquals(numEntries * CacheBuildProcess.ENTRY_SIZE, index.totalExamples());
+        try (DataInputStream input = new DataInputStream(new FileInputStream(basename + ".cf"))) {
+            long offset = 0;
+            for (int entry = 0; entry < numEntries; entry++) {
+                assertEquals(offset, index.offset(entry));
+                assertEquals(2, input.readInt());
+                assertEquals(entry, input.readByte());
+                assertEquals(entry, input.readByte());
+                offset += 6;
+            }
+            assertEquals(-1, input.read());
+        }
+    }
+}
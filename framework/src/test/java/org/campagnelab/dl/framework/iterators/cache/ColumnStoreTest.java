@@ -0,0 +1,108 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.campagnelab.dl.framework.mappers.ConcatFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.FixtureMappers.Linear;
+import org.campagnelab.dl.framework.mappers.FixtureMappers.Shifting;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that mappers that share leaf mappers reuse the columns stored for these leaves, and that features read from
+ * the store match the features of the mappers.
+ */
+public class ColumnStoreTest {
+    private static final int NUM_RECORDS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String directory;
+    private List<Integer> records;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().getAbsolutePath() + "/columns";
+        records = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            records.add(i);
+        }
+    }
+
+    @Test
+    public void mappersShareLeafColumns() throws IOException {
+        ConcatFeatureMapper<Integer> first = new ConcatFeatureMapper<>(new Linear("a", 1), new Linear("b", 2));
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            check(first, store.columns(first, records, Integer.MAX_VALUE, 0), 0);
+            assertEquals(2, store.getNumGroupsBuilt());
+        }
+        // a new mapper that shares leaf a, and uses a new leaf c:
+        ConcatFeatureMapper<Integer> second = new ConcatFeatureMapper<>(new Linear("c", 3), new Linear("a", 1));
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            check(second, store.columns(second, records, Integer.MAX_VALUE, 0), 0);
+            assertEquals(1, store.getNumGroupsBuilt());
+            assertEquals(1, store.getNumGroupsReused());
+        }
+        // same leaf configuration under a different name produces different features:
+        ConcatFeatureMapper<Integer> third = new ConcatFeatureMapper<>(new Linear("a", 4));
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            check(third, store.columns(third, records, Integer.MAX_VALUE, 10), 10);
+            assertEquals(1, store.getNumGroupsBuilt());
+        }
+    }
+
+    @Test
+    public void transformedRecordsAreStoredSeparately() throws IOException {
+        FeatureMapper<Integer> plain = new ConcatFeatureMapper<>(new Linear("a", 1));
+        FeatureMapper<Integer> shifted = new Shifting(new ConcatFeatureMapper<>(new Linear("a", 1)));
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            check(plain, store.columns(plain, records, Integer.MAX_VALUE, 0), 0);
+            check(shifted, store.columns(shifted, records, Integer.MAX_VALUE, 0), 0);
+            assertEquals(2, store.getNumGroupsBuilt());
+            assertEquals(0, store.getNumGroupsReused());
+        }
+    }
+
+    @Test
+    public void columnsBuiltForFewerRecordsAreRebuilt() throws IOException {
+        ConcatFeatureMapper<Integer> mapper = new ConcatFeatureMapper<>(new Linear("a", 1));
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            store.columns(mapper, records, 50, 0);
+        }
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            check(mapper, store.columns(mapper, records, NUM_RECORDS, 0), 0);
+            assertEquals(1, store.getNumGroupsBuilt());
+        }
+    }
+
+    @Test
+    public void mappersWithMasksAreNotStored() throws IOException {
+        try (ColumnStore<Integer> store = new ColumnStore<>(directory)) {
+            assertNull(store.columns(new Linear("a", 1) {
+                @Override
+                public boolean hasMask() {
+                    return true;
+                }
+            }, records, NUM_RECORDS, 0));
+        }
+    }
+
+    private void check(FeatureMapper<Integer> expected, FeatureMapper<Integer> columns, int firstRecord) {
+        assertEquals(expected.numberOfFeatures(), columns.numberOfFeatures());
+        for (int record = firstRecord; record < NUM_RECORDS; record++) {
+            expected.prepareToNormalize(record, 0);
+            columns.prepareToNormalize(record, 0);
+            for (int featureIndex = 0; featureIndex < expected.numberOfFeatures(); featureIndex++) {
+                assertEquals(expected.produceFeature(record, featureIndex), columns.produceFeature(record, featureIndex), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Round trips of multi datasets through the raw cache layout.
+ */
+public class MultiDataSetRawFormatTest {
+
+    @Test
+    public void roundTripHeap() {
+        MultiDataSet mds = createMultiDataSet();
+        byte[] bytes = MultiDataSetRawFormat.encode(mds);
+        assertSame(mds, MultiDataSetRawFormat.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void roundTripDirect() {
+        MultiDataSet mds = createMultiDataSet();
+        byte[] bytes = MultiDataSetRawFormat.encode(mds);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        assertSame(mds, MultiDataSetRawFormat.decode(direct));
+    }
+
+    private MultiDataSet createMultiDataSet() {
+        INDArray features2d = Nd4j.create(new int[]{3, 4}, 'f');
+        INDArray features3d = Nd4j.create(new int[]{3, 2, 5}, 'f');
+        for (int i = 0; i < features2d.length(); i++) {
+            features2d.putScalar(i, i);
+        }
+        for (int i = 0; i < features3d.length(); i++) {
+            features3d.putScalar(i, -i * 0.5f);
+        }
+        INDArray labels = Nd4j.create(new float[]{1, 0, 0, 1, 1, 0}, new int[]{3, 2}, 'c');
+        INDArray mask3d = Nd4j.ones(3, 5);
+        return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features2d, features3d},
+                new INDArray[]{labels}, new INDArray[]{null, mask3d}, null);
+    }
+
+    private void assertSame(MultiDataSet expected, MultiDataSet decoded) {
+        assertEquals(expected.getFeatures().length, decoded.getFeatures().length);
+        for (int i = 0; i < expected.getFeatures().length; i++) {
+            assertEquals(expected.getFeatures(i), decoded.getFeatures(i));
+        }
+        assertEquals(expected.getLabels(0), decoded.getLabels(0));
+        assertNull(decoded.getFeaturesMaskArrays()[0]);
+        assertEquals(expected.getFeaturesMaskArrays()[1], decoded.getFeaturesMaskArrays()[1]);
+        assertNull(decoded.getLabelsMaskArrays());
+    }
+}
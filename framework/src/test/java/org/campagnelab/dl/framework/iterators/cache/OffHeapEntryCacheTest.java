@@ -0,0 +1,71 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the hit rates and memory bound of OffHeapEntryCache.
+ */
+public class OffHeapEntryCacheTest {
+    private static final int NUM_ENTRIES = 100;
+    private static final int ENTRY_SIZE = 1000;
+
+    @Test
+    public void sequentialPassesKeepAStableResidentSet() {
+        OffHeapEntryCache cache = new OffHeapEntryCache(NUM_ENTRIES, 25 * ENTRY_SIZE);
+        for (int pass = 0; pass < 5; pass++) {
+            for (int entry = 0; entry < NUM_ENTRIES; entry++) {
+                ByteBuffer buffer = cache.get(entry, OffHeapEntryCacheTest::load);
+                assertEquals(entry, buffer.getInt(0));
+                assertEquals(ENTRY_SIZE, buffer.remaining());
+            }
+        }
+        assertEquals(25, cache.residentEntries());
+        // the first pass misses all entries, the next four hit a quarter of them:
+        assertEquals(4 * 25, cache.hits());
+        assertTrue(cache.residentBytes() <= 25 * ENTRY_SIZE);
+    }
+
+    @Test
+    public void frequentlyReadEntriesStayInMemory() {
+        OffHeapEntryCache cache = new OffHeapEntryCache(NUM_ENTRIES, 10 * ENTRY_SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // half the reads go to ten hot entries:
+            int entry = random.nextBoolean() ? random.nextInt(10) : 10 + random.nextInt(NUM_ENTRIES - 10);
+            assertEquals(entry, cache.get(entry, OffHeapEntryCacheTest::load).getInt(0));
+            assertTrue(cache.residentBytes() <= 10 * ENTRY_SIZE);
+        }
+        assertTrue("hit rate was " + cache.hitRate(), cache.hitRate() > 0.4);
+    }
+
+    @Test
+    public void entriesLargerThanTheBudgetAreNotKept() {
+        OffHeapEntryCache cache = new OffHeapEntryCache(NUM_ENTRIES, ENTRY_SIZE / 2);
+        cache.get(0, OffHeapEntryCacheTest::load);
+        cache.get(0, OffHeapEntryCacheTest::load);
+        assertEquals(0, cache.residentEntries());
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    public void residentEntriesAreReadOnly() {
+        OffHeapEntryCache cache = new OffHeapEntryCache(NUM_ENTRIES, 10 * ENTRY_SIZE);
+        assertTrue(cache.get(0, OffHeapEntryCacheTest::load).isReadOnly());
+        ByteBuffer hit = cache.get(0, OffHeapEntryCacheTest::load);
+        assertEquals(1, cache.hits());
+        assertTrue(hit.isReadOnly());
+        assertEquals(0, hit.getInt(0));
+    }
+
+    private static ByteBuffer load(int entryIndex) {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        buffer.putInt(0, entryIndex);
+        return buffer;
+    }
+}
@@ -0,0 +1,48 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.campagnelab.dl.framework.mappers.FixtureMappers.Linear;
+import org.campagnelab.dl.framework.mappers.FixtureMappers.Shifting;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a compiled plan produces the features of the mapper tree it was compiled from.
+ */
+public class CompiledFeatureMapperTest {
+
+    @Test
+    public void planMatchesTree() {
+        FeatureMapper<Integer> tree = new ConcatFeatureMapper<>(
+                new Linear("a", 1),
+                new Shifting(new ConcatFeatureMapper<>(new Linear("b", 2),
+                        new Shifting(new ConcatFeatureMapper<>(new Linear("c", 3), new Linear("d", 4))))),
+                new ConcatFeatureMapper<>(new Linear("e", 5), new ConcatFeatureMapper<>()));
+        FeatureMapper<Integer> plan = CompiledFeatureMapper.compile(tree);
+        assertTrue(plan instanceof CompiledFeatureMapper);
+        // five leaves with features, and an empty concat mapper:
+        assertEquals(6, ((CompiledFeatureMapper<Integer>) plan).numLeaves());
+        assertEquals(tree.numberOfFeatures(), plan.numberOfFeatures());
+        final int numFeatures = tree.numberOfFeatures();
+        float[] expected = new float[numFeatures + 3];
+        float[] observed = new float[numFeatures + 3];
+        for (int record = 0; record < 20; record++) {
+            tree.prepareToNormalize(record, 0);
+            plan.prepareToNormalize(record, 0);
+            tree.mapFeatures(record, expected, 3, 0);
+            plan.mapFeatures(record, observed, 3, 0);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                assertEquals(expected[featureIndex + 3], observed[featureIndex + 3], 0);
+                assertEquals(tree.produceFeature(record, featureIndex), plan.produceFeature(record, featureIndex), 0);
+            }
+        }
+    }
+
+    @Test
+    public void leavesAreNotCompiled() {
+        Linear leaf = new Linear("a", 1);
+        assertSame(leaf, CompiledFeatureMapper.compile(leaf));
+    }
+}
@@ -27,4 +27,27 @@ public class ConcatFeatureMapperTest {
         concatCalculator.mapFeatures(record, labels, 0);
         assertEquals(labels.toString(), expectedLabels);
     }
+
+    @Test
+    public void bulkMappingMatchesProduceFeature() {
+        String[] records = {"012", "210", "111", "0a2"};
+        FeatureMapper<String>[] calculators = new FeatureMapper[3];
+        for (int i = 0; i < calculators.length; i++) {
+            calculators[i] = new OneHotBaseFeatureMapper<>(i, Function.identity(),
+                    (r, idx) -> Character.getNumericValue(r.charAt(idx)), 3);
+        }
+        FeatureMapper<String> concatCalculator = new ConcatFeatureMapper<>(
+                new ConcatFeatureMapper<>(calculators[0], calculators[1]), calculators[2]);
+        final int numFeatures = concatCalculator.numberOfFeatures();
+        float[] rows = new float[records.length * numFeatures + 1];
+        for (int r = 0; r < records.length; r++) {
+            concatCalculator.prepareToNormalize(records[r], r);
+            concatCalculator.mapFeatures(records[r], rows, r * numFeatures + 1, r);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                assertEquals(concatCalculator.produceFeature(records[r], featureIndex),
+                        rows[r * numFeatures + 1 + featureIndex], 0);
+            }
+        }
+        assertEquals(0, rows[0], 0);
+    }
 }
@@ -0,0 +1,86 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * Small mappers over integer records, shared by the tests of mapper trees (compiled plans, column stores).
+ */
+public class FixtureMappers {
+
+    /**
+     * Produces record*factor and record+factor.
+     */
+    public static class Linear extends AbstractFeatureMapper1D<Integer> {
+        private final String name;
+        private final int factor;
+
+        public Linear(String name, int factor) {
+            this.name = name;
+            this.factor = factor;
+        }
+
+        @Override
+        public String getFeatureName(int featureIndex) {
+            return name + featureIndex;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return 2;
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            return featureIndex == 0 ? record * factor : record + factor;
+        }
+    }
+
+    /**
+     * Maps record+1000 with its delegate.
+     */
+    public static class Shifting extends AbstractFeatureMapper1D<Integer> implements CompositeFeatureMapper<Integer> {
+        private final FeatureMapper<Integer> delegate;
+
+        public Shifting(FeatureMapper<Integer> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public FeatureMapper<Integer>[] delegates() {
+            return new FeatureMapper[]{delegate};
+        }
+
+        @Override
+        public Integer delegateRecord(Integer record) {
+            return record + 1000;
+        }
+
+        @Override
+        public String recordTransformation() {
+            return "shifted by 1000";
+        }
+
+        @Override
+        public String getFeatureName(int featureIndex) {
+            return "shifted" + featureIndex;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return delegate.numberOfFeatures();
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+            delegate.prepareToNormalize(delegateRecord(record), indexOfRecord);
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            return delegate.produceFeature(delegateRecord(record), featureIndex);
+        }
+    }
+}
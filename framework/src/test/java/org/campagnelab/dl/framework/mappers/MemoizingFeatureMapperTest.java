@@ -0,0 +1,106 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a memoized sub-mapper shared by two normalization mappers is computed once per record, and that the
+ * features are those of the graph where each normalization mapper has its own sub-mapper.
+ */
+public class MemoizingFeatureMapperTest {
+
+    @Test
+    public void sharedSubMapperIsComputedOncePerRecord() {
+        Counting shared = new Counting();
+        MemoizingFeatureMapper<Integer> memo = new MemoizingFeatureMapper<>(shared);
+        FeatureMapper<Integer> memoized = new ConcatFeatureMapper<>(new MeanNormalizationMapper<>(memo),
+                new MaxNormalizationMapper<Integer>(memo), memo);
+        Counting first = new Counting();
+        Counting second = new Counting();
+        Counting third = new Counting();
+        FeatureMapper<Integer> separate = new ConcatFeatureMapper<>(new MeanNormalizationMapper<>(first),
+                new MaxNormalizationMapper<Integer>(second), third);
+        final int numFeatures = separate.numberOfFeatures();
+        assertEquals(numFeatures, memoized.numberOfFeatures());
+        float[] expected = new float[numFeatures];
+        float[] observed = new float[numFeatures];
+        final int numRecords = 20;
+        for (int index = 0; index < numRecords; index++) {
+            Integer record = new Integer(index + 1);
+            separate.prepareToNormalize(record, index);
+            separate.mapFeatures(record, expected, 0, index);
+            memoized.prepareToNormalize(record, index);
+            memoized.mapFeatures(record, observed, 0, index);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                assertEquals(expected[featureIndex], observed[featureIndex], 0);
+            }
+        }
+        assertEquals(numRecords * shared.numberOfFeatures(), shared.produced);
+        assertEquals(first.produced + second.produced + third.produced, 3 * shared.produced);
+    }
+
+    @Test
+    public void reusedBuildersAreMappedAgain() {
+        FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> memo = new MemoizingFeatureMapper<>(
+                new AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>() {
+                    @Override
+                    public String getFeatureName(int featureIndex) {
+                        return "position";
+                    }
+
+                    @Override
+                    public int numberOfFeatures() {
+                        return 1;
+                    }
+
+                    @Override
+                    public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record,
+                                                   int indexOfRecord) {
+                    }
+
+                    @Override
+                    public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record,
+                                                int featureIndex) {
+                        return record.getPosition();
+                    }
+                });
+        BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+        float[] features = new float[1];
+        for (int position = 1; position <= 3; position++) {
+            // the same builder, modified, is mapped at index 0 for each record:
+            builder.setPosition(position);
+            memo.prepareToNormalize(builder, 0);
+            memo.mapFeatures(builder, features, 0, 0);
+            assertEquals(position, features[0], 0);
+        }
+    }
+
+    /**
+     * Produces record*(featureIndex+1) and counts the features produced.
+     */
+    private static class Counting extends AbstractFeatureMapper1D<Integer> {
+        int produced;
+
+        @Override
+        public String getFeatureName(int featureIndex) {
+            return "count" + featureIndex;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return 4;
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            produced++;
+            return record * (featureIndex + 1);
+        }
+    }
+}
@@ -33,6 +33,28 @@ public class OneHotBaseFeatureMapperTest {
         }
     }
 
+    @Test
+    public void mapActiveFeaturesToColumns() {
+        String[] contexts = {"ACG", "TN-", "x"};
+        OneHotBaseFeatureMapper<String> mapper = new OneHotBaseFeatureMapper<>(1, context -> context);
+        mapper.setIgnoreOutOfRangeIndices(true);
+        final int numFeatures = mapper.numberOfFeatures();
+        // features of the records stored in the columns of a matrix in 'f' order:
+        float[] columns = new float[contexts.length * numFeatures];
+        float[] row = new float[numFeatures];
+        for (int record = 0; record < contexts.length; record++) {
+            mapper.prepareToNormalize(contexts[record], record);
+            mapper.mapActiveFeatures(contexts[record], columns, record, contexts.length);
+            java.util.Arrays.fill(row, 3F);
+            mapper.mapFeatures(contexts[record], row, 0, record);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                final float expected = mapper.produceFeature(contexts[record], featureIndex);
+                assertEquals(expected, columns[featureIndex * contexts.length + record], 0);
+                assertEquals(expected, row[featureIndex], 0);
+            }
+        }
+    }
+
     String[] records = {
                     "reference_index: 0\n" +
                             "position: 20913\n" +
@@ -0,0 +1,81 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the sequence encoder produces the features of one OneHotBaseFeatureMapper per position.
+ */
+public class OneHotSequenceEncoderTest {
+    private static final String[] CONTEXTS = {"ACGTN-ACGTA", "acgtnXACGTAGGT", "GATTACA", "", "TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTT"};
+
+    @Test
+    public void matchesPerPositionMappers() {
+        final int length = 9;
+        OneHotSequenceEncoder encoder = new OneHotSequenceEncoder(length, 7, OneHotSequenceEncoder.DNA, 0);
+        FeatureMapper<String> perPosition = perPositionMapper(length, Function.identity());
+        for (String context : CONTEXTS) {
+            encoder.encode(context);
+            assertMatches(context, encoder, perPosition);
+        }
+    }
+
+    @Test
+    public void centeredMatchesTrimmedContext() {
+        final int length = 7;
+        OneHotSequenceEncoder encoder = new OneHotSequenceEncoder(length, 7, OneHotSequenceEncoder.DNA, 0);
+        FeatureMapper<String> perPosition = perPositionMapper(length, context -> {
+            int clipLength = (context.length() - length) / 2;
+            return context.substring(clipLength, length + clipLength);
+        });
+        for (String context : CONTEXTS) {
+            if (context.length() >= length) {
+                encoder.encodeCentered(context);
+                assertMatches(context, encoder, perPosition);
+            }
+        }
+    }
+
+    @Test
+    public void matchesRecurrentMapper() {
+        final int length = 9;
+        OneHotSequenceEncoder encoder = new OneHotSequenceEncoder(length, 7, OneHotSequenceEncoder.DNA, 0);
+        RNNFeatureMapper<String> rnn = new RNNFeatureMapper<>(length, Function.identity(), String::length);
+        for (String context : CONTEXTS) {
+            String sequence = context.length() > length ? context.substring(0, length) : context;
+            encoder.encode(context);
+            rnn.prepareToNormalize(sequence, 0);
+            assertEquals(Math.min(length, context.length()), encoder.sequenceLength());
+            for (int featureIndex = 0; featureIndex < rnn.numberOfFeatures(); featureIndex++) {
+                assertEquals(context, rnn.produceFeature(sequence, featureIndex),
+                        encoder.produceSequenceFeature(featureIndex), 0);
+            }
+        }
+    }
+
+    private static void assertMatches(String context, OneHotSequenceEncoder encoder, FeatureMapper<String> perPosition) {
+        final int numFeatures = perPosition.numberOfFeatures();
+        assertEquals(numFeatures, encoder.numberOfFeatures());
+        perPosition.prepareToNormalize(context, 0);
+        float[] expected = new float[numFeatures];
+        perPosition.mapFeatures(context, expected, 0, 0);
+        float[] observed = new float[numFeatures];
+        encoder.mapActiveFeatures(observed, 0, 1, encoder.maxLength());
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            assertEquals(context, expected[featureIndex], observed[featureIndex], 0);
+            assertEquals(context, expected[featureIndex], encoder.produceFeature(featureIndex), 0);
+        }
+    }
+
+    private static FeatureMapper<String> perPositionMapper(int length, Function<String, String> recordToString) {
+        OneHotBaseFeatureMapper<String>[] positions = new OneHotBaseFeatureMapper[length];
+        for (int i = 0; i < length; i++) {
+            positions[i] = new OneHotBaseFeatureMapper<>(i, recordToString);
+            positions[i].setIgnoreOutOfRangeIndices(true);
+        }
+        return new ConcatFeatureMapper<>(positions);
+    }
+}
@@ -68,6 +68,30 @@ public class RNNLabelMapperTest {
         assertEquals(mask.toString(), expectedMask);
     }
 
+    @Test
+    public void stridedLabelsMatchINDArray() {
+        String[] sequences = {"ATCGNJ", "ATCG", "AT", "G"};
+        for (float epsilon : new float[]{0, 0.1f}) {
+            RNNLabelMapper<String> rnnLabelMapper = new RNNLabelMapper<>(6, 3,
+                    r -> Arrays.stream(r.split("")).mapToInt(this::testConvert).toArray(), String::length, epsilon);
+            final int numRecords = sequences.length;
+            int[] shape = {numRecords, 3, 6};
+            INDArray labels = Nd4j.create(shape, 'f');
+            INDArray mask = Nd4j.create(new int[]{numRecords, 6}, 'f');
+            float[] sequenceLabels = new float[numRecords * 3 * 6];
+            float[] sequenceMask = new float[numRecords * 6];
+            for (int i = 0; i < numRecords; i++) {
+                rnnLabelMapper.prepareToNormalize(sequences[i], i);
+                rnnLabelMapper.mapLabels(sequences[i], labels, i);
+                rnnLabelMapper.maskLabels(sequences[i], mask, i);
+                rnnLabelMapper.mapSequenceLabels(sequences[i], sequenceLabels, i, numRecords);
+                rnnLabelMapper.maskSequenceLabels(sequences[i], sequenceMask, i, numRecords);
+            }
+            assertEquals(labels, Nd4j.create(sequenceLabels, shape, 'f'));
+            assertEquals(mask, Nd4j.create(sequenceMask, new int[]{numRecords, 6}, 'f'));
+        }
+    }
+
     private int testConvert(String oneChar) {
         switch (oneChar) {
             case "A":
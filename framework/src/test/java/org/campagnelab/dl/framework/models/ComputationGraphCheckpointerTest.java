@@ -0,0 +1,172 @@
+package org.campagnelab.dl.framework.models;
+
+import org.campagnelab.dl.framework.training.FixtureGraphs;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that checkpoints coalesce, that model files are replaced atomically with the state saved with them, and that
+ * write failures are reported.
+ */
+public class ComputationGraphCheckpointerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savesBeforeTheWriteCoalesce() throws Exception {
+        ThreadPoolExecutor writer = writer();
+        CountDownLatch release = new CountDownLatch(1);
+        // keep the writer busy, so that both saves arrive before the first write starts:
+        writer.submit(() -> {
+            release.await();
+            return null;
+        });
+        String directory = folder.getRoot().getPath();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, writer);
+        ComputationGraph graph = FixtureGraphs.twoOutputs(1);
+        checkpointer.saveLatestModel(graph);
+        graph.params().addi(1);
+        checkpointer.saveLatestModel(graph);
+        final ComputationGraph newest = graph.clone();
+        graph.params().addi(1);
+
+        release.countDown();
+        checkpointer.close();
+        assertEquals("the blocking task and a single write must run", 2, writer.getCompletedTaskCount());
+        assertTrue(checkpointer.statistics().contains("1 coalesced"));
+        ComputationGraph saved = restore(directory, "latest");
+        assertEquals(newest.params(), saved.params());
+    }
+
+    @Test
+    public void modelFileIsNeverPartiallyWritten() throws Exception {
+        String directory = folder.getRoot().getPath();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, true);
+        ComputationGraph graph = FixtureGraphs.twoOutputs(2);
+        File model = new File(new ComputationGraphSaver(directory).modelFilename("latest"));
+        for (int i = 0; i < 20; i++) {
+            checkpointer.saveLatestModel(graph);
+            graph.params().addi(1);
+            if (model.exists()) {
+                // whatever write is in progress, the model file holds a complete model:
+                ModelSerializer.restoreComputationGraph(model);
+            }
+        }
+        checkpointer.close();
+        assertFalse(new File(model.getPath() + ".tmp").exists());
+
+        // a write that fails leaves the previous model in place:
+        ComputationGraph previous = restore(directory, "latest");
+        assertTrue(new File(model.getPath() + ".tmp").mkdir());
+        checkpointer = new ComputationGraphCheckpointer(directory, true);
+        checkpointer.saveLatestModel(graph);
+        try {
+            checkpointer.flush();
+            fail("the write must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(previous.params(), restore(directory, "latest").params());
+    }
+
+    @Test
+    public void writeFailureIsReportedByTheNextSave() throws Exception {
+        String directory = folder.getRoot().getPath();
+        ThreadPoolExecutor writer = writer();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, writer);
+        File model = new File(new ComputationGraphSaver(directory).modelFilename("latest"));
+        assertTrue(new File(model.getPath() + ".tmp").mkdir());
+        ComputationGraph graph = FixtureGraphs.twoOutputs(3);
+        checkpointer.saveLatestModel(graph);
+        awaitWrites(writer);
+        try {
+            checkpointer.saveLatestModel(graph);
+            fail("save must report the failed write");
+        } catch (IOException e) {
+            // expected
+        }
+        // the failure is reported once, and later saves write models again:
+        assertTrue(new File(model.getPath() + ".tmp").delete());
+        checkpointer.saveLatestModel(graph);
+        checkpointer.close();
+        assertEquals(graph.params(), restore(directory, "latest").params());
+    }
+
+    @Test
+    public void stateIsStoredInTheModelFile() throws Exception {
+        String directory = folder.getRoot().getPath();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, true);
+        ComputationGraph graph = FixtureGraphs.twoOutputs(4);
+        Properties state = new Properties();
+        state.setProperty("position", "12");
+        checkpointer.save(graph, "checkpoint", state);
+        checkpointer.saveLatestModel(graph);
+        checkpointer.close();
+        String modelFilename = new ComputationGraphSaver(directory).modelFilename("checkpoint");
+        assertEquals(state, ComputationGraphCheckpointer.loadState(modelFilename));
+        assertEquals(graph.params(), restore(directory, "checkpoint").params());
+        assertNull(ComputationGraphCheckpointer.loadState(new ComputationGraphSaver(directory).modelFilename("latest")));
+    }
+
+    @Test
+    public void reusedStagingGraphKeepsIterationCounts() throws Exception {
+        String directory = folder.getRoot().getPath();
+        ThreadPoolExecutor writer = writer();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, writer);
+        ComputationGraph graph = FixtureGraphs.twoOutputs(5);
+        Random random = new Random(5);
+        graph.fit(FixtureGraphs.minibatch(random, 8, false));
+        checkpointer.saveLatestModel(graph);
+        awaitWrites(writer);
+        // the second save copies the graph into the staging graph of the first:
+        for (int i = 0; i < 3; i++) {
+            graph.fit(FixtureGraphs.minibatch(random, 8, false));
+        }
+        checkpointer.saveLatestModel(graph);
+        checkpointer.close();
+        assertTrue(checkpointer.statistics().contains("2 saves, 0 coalesced"));
+
+        ComputationGraph saved = restore(directory, "latest");
+        assertTrue(graph.getConfiguration().getIterationCount() > 1);
+        assertEquals(graph.getConfiguration().getIterationCount(), saved.getConfiguration().getIterationCount());
+        for (int i = 0; i < graph.getLayers().length; i++) {
+            assertEquals(graph.getLayers()[i].conf().getIterationCount(),
+                    saved.getLayers()[i].conf().getIterationCount());
+        }
+        assertEquals(graph.params(), saved.params());
+    }
+
+    private static ThreadPoolExecutor writer() {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Wait until the writer has run the tasks submitted so far.
+     */
+    private static void awaitWrites(ThreadPoolExecutor writer) throws InterruptedException, ExecutionException {
+        writer.submit(() -> null).get();
+    }
+
+    private static ComputationGraph restore(String directory, String prefix) throws IOException {
+        return ModelSerializer.restoreComputationGraph(new ComputationGraphSaver(directory).modelFilename(prefix));
+    }
+}
@@ -0,0 +1,69 @@
+package org.campagnelab.dl.framework.performance;
+
+import org.campagnelab.dl.framework.training.FixtureGraphs;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the single pass evaluation of a two-output graph produces the outputs of graph.output and the mean of
+ * the losses of graph.score, with and without label masks. With label masks, fused outputs are those of graph.output
+ * with the masks set on the graph.
+ */
+public class SinglePassEvaluatorTest {
+
+    @Test
+    public void matchesOutputAndScore() {
+        evaluateAndCompare(false);
+    }
+
+    @Test
+    public void matchesOutputAndScoreWithLabelMasks() {
+        evaluateAndCompare(true);
+    }
+
+    private void evaluateAndCompare(boolean withMasks) {
+        ComputationGraph graph = FixtureGraphs.twoOutputs(3);
+        List<MultiDataSet> minibatches = FixtureGraphs.minibatches(new Random(5), 4, 8, withMasks);
+        List<INDArray[]> outputs = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        SinglePassEvaluator evaluator = new SinglePassEvaluator();
+        double loss = evaluator.evaluate(graph, FixtureGraphs.iterator(minibatches), Long.MAX_VALUE,
+                (minibatch, minibatchOutputs, score) -> {
+                    INDArray[] copies = new INDArray[minibatchOutputs.length];
+                    for (int i = 0; i < copies.length; i++) {
+                        copies[i] = minibatchOutputs[i].dup();
+                    }
+                    outputs.add(copies);
+                    scores.add(score);
+                    return false;
+                });
+        assertEquals(minibatches.size(), outputs.size());
+        assertEquals(minibatches.size() * 8, evaluator.getNumExamples());
+
+        double sum = 0;
+        for (int m = 0; m < minibatches.size(); m++) {
+            MultiDataSet minibatch = minibatches.get(m);
+            final double expectedScore = graph.score(minibatch);
+            assertEquals(expectedScore, scores.get(m), 1E-5);
+            sum += expectedScore;
+            if (minibatch.hasMaskArrays()) {
+                graph.setLayerMaskArrays(minibatch.getFeaturesMaskArrays(), minibatch.getLabelsMaskArrays());
+            }
+            INDArray[] expectedOutputs = graph.output(minibatch.getFeatures());
+            graph.clearLayerMaskArrays();
+            assertEquals(expectedOutputs.length, outputs.get(m).length);
+            for (int i = 0; i < expectedOutputs.length; i++) {
+                assertEquals(expectedOutputs[i], outputs.get(m)[i]);
+            }
+        }
+        assertEquals(sum / minibatches.size(), loss, 1E-5);
+    }
+}
@@ -0,0 +1,84 @@
+package org.campagnelab.dl.framework.training;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that validations complete in submission order, are attributed to the epoch and parameters they were
+ * submitted with, and that submit waits when maxPending validations are in flight.
+ */
+public class AsyncValidatorTest {
+
+    @Test
+    public void resultsFollowSubmissionOrder() {
+        ComputationGraph graph = FixtureGraphs.twoOutputs(1);
+        AsyncValidator validator = new AsyncValidator(snapshot -> new double[]{sumOfParameters(snapshot)}, 2, null);
+        double[] expected = new double[5];
+        for (int epoch = 0; epoch < 5; epoch++) {
+            expected[epoch] = sumOfParameters(graph);
+            validator.submit(epoch, epoch * 10L, epoch / 10.0, graph);
+            // training continues on the graph while the snapshot is validated:
+            graph.params().addi(1);
+        }
+        List<AsyncValidator.Validation> validations = validator.awaitAll();
+        validator.shutdown();
+        assertEquals(5, validations.size());
+        for (int epoch = 0; epoch < 5; epoch++) {
+            AsyncValidator.Validation validation = validations.get(epoch);
+            assertEquals(epoch, validation.epoch);
+            assertEquals(epoch * 10L, validation.numExamplesUsed);
+            assertEquals(epoch / 10.0, validation.trainingScore, 0);
+            assertEquals(expected[epoch], validation.performanceValues[0], 1E-3);
+            assertEquals(expected[epoch], sumOfParameters(validation.snapshot), 1E-3);
+            assertNotSame(graph, validation.snapshot);
+        }
+    }
+
+    @Test
+    public void submitWaitsWhenMaxPendingAreInFlight() throws InterruptedException {
+        ComputationGraph graph = FixtureGraphs.twoOutputs(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        AsyncValidator validator = new AsyncValidator(snapshot -> {
+            started.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new double[]{0};
+        }, 2, null);
+        validator.submit(0, 0, 0, graph);
+        validator.submit(1, 0, 0, graph);
+        Thread third = new Thread(() -> validator.submit(2, 0, 0, graph));
+        third.start();
+        third.join(500);
+        assertTrue("submit must wait for the oldest validation", third.isAlive());
+        assertEquals(1, started.get());
+
+        release.countDown();
+        third.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(third.isAlive());
+        List<AsyncValidator.Validation> validations = validator.awaitAll();
+        validator.shutdown();
+        assertEquals(3, validations.size());
+        for (int epoch = 0; epoch < 3; epoch++) {
+            assertEquals(epoch, validations.get(epoch).epoch);
+        }
+        assertEquals(3, started.get());
+    }
+
+    private static double sumOfParameters(ComputationGraph graph) {
+        return graph.params().sumNumber().doubleValue();
+    }
+}
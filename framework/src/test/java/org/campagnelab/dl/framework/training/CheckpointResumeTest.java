@@ -0,0 +1,151 @@
+package org.campagnelab.dl.framework.training;
+
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedIterator;
+import org.campagnelab.dl.framework.iterators.RebatchingCacheIterator;
+import org.campagnelab.dl.framework.iterators.ShuffledCacheIterator;
+import org.campagnelab.dl.framework.iterators.ShuffledCacheIteratorTest;
+import org.campagnelab.dl.framework.models.ComputationGraphCheckpointer;
+import org.campagnelab.dl.framework.models.ComputationGraphSaver;
+import org.campagnelab.dl.framework.performance.PerformanceLogger;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that training killed in the middle of an epoch, and resumed from its last checkpoint in a fresh trainer, ends
+ * with the parameters and updater state of training that was not interrupted. Training reads a shuffled block cache,
+ * so that resuming must restore the order of the interrupted pass. The training loop follows TrainModel: checkpoints
+ * every few minibatches, with the random generator re-seeded at each checkpoint and when training resumes. The
+ * learning rate of the fixture graph decays with the iteration count, which the checkpoint must therefore restore.
+ */
+public class CheckpointResumeTest {
+    private static final int NUM_RECORDS = 38;
+    private static final int BLOCK_SIZE = 4;
+    private static final int MINIBATCH_SIZE = 5;
+    private static final int NUM_EPOCHS = 3;
+    private static final int CHECKPOINT_EVERY = 3;
+    private static final long SEED = 1234;
+    /**
+     * Training is killed in this epoch, after this number of minibatches (after the checkpoint at minibatch 3).
+     */
+    private static final int KILLED_IN_EPOCH = 1;
+    private static final int KILLED_AFTER = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String basename;
+
+    @Before
+    public void writeCache() throws IOException {
+        basename = folder.getRoot().getAbsolutePath() + "/blocks";
+        ShuffledCacheIteratorTest.writeCache(basename, NUM_RECORDS, BLOCK_SIZE);
+    }
+
+    @Test
+    public void resumedTrainingEndsWithTheParametersOfUninterruptedTraining() throws IOException {
+        ComputationGraph uninterrupted = FixtureGraphs.regression(SEED, 2);
+        new Run(uninterrupted, null, Integer.MAX_VALUE).train(iterator(), 0, 0);
+
+        String directory = folder.newFolder("model").getPath();
+        ComputationGraphCheckpointer checkpointer = new ComputationGraphCheckpointer(directory, true);
+        ComputationGraph interrupted = FixtureGraphs.regression(SEED, 2);
+        try {
+            new Run(interrupted, checkpointer, KILLED_AFTER).train(iterator(), 0, 0);
+            fail("training must be killed");
+        } catch (Killed e) {
+            // expected
+        }
+        checkpointer.close();
+
+        // resume with a new graph, iterator and trainer, from the files of the checkpoint only:
+        String modelFilename = new ComputationGraphSaver(directory).modelFilename(TrainingCheckpoint.PREFIX);
+        TrainingCheckpoint checkpoint = TrainingCheckpoint.load(modelFilename);
+        assertEquals(KILLED_IN_EPOCH, checkpoint.epoch);
+        assertEquals(CHECKPOINT_EVERY, checkpoint.position);
+        ComputationGraph resumed = ModelSerializer.restoreComputationGraph(modelFilename, true);
+        assertEquals(checkpoint.parameterChecksum, resumed.params().sumNumber().doubleValue(), 1E-4);
+        RebatchingCacheIterator iterator = iterator();
+        iterator.seek(checkpoint.pass, checkpoint.position);
+        Nd4j.getRandom().setSeed(TrainingCheckpoint.rngSeed(checkpoint.seed, checkpoint.epoch, checkpoint.position));
+        new Run(resumed, null, Integer.MAX_VALUE).train(iterator, checkpoint.epoch, checkpoint.position);
+
+        assertEquals(uninterrupted.getConfiguration().getIterationCount(),
+                resumed.getConfiguration().getIterationCount());
+        assertEquals(uninterrupted.params(), resumed.params());
+        assertEquals(uninterrupted.getUpdater().getStateViewArray(), resumed.getUpdater().getStateViewArray());
+    }
+
+    private RebatchingCacheIterator iterator() {
+        // windows of three blocks, records exchanged among pairs of blocks:
+        return new RebatchingCacheIterator(new ShuffledCacheIterator(new MultiDatasetMemoryMappedIterator(basename),
+                0, 4, SEED, 3, 2), MINIBATCH_SIZE);
+    }
+
+    private static class Killed extends RuntimeException {
+    }
+
+    /**
+     * A training run over NUM_EPOCHS epochs, which checkpoints and can be killed as TrainModel would be.
+     */
+    private class Run {
+        private final ComputationGraph graph;
+        private final ComputationGraphCheckpointer checkpointer;
+        private final int killAfter;
+        private final PerformanceLogger performanceLogger;
+        private int epoch;
+        private int epochStartPosition;
+
+        Run(ComputationGraph graph, ComputationGraphCheckpointer checkpointer, int killAfter) throws IOException {
+            this.graph = graph;
+            this.checkpointer = checkpointer;
+            this.killAfter = killAfter;
+            performanceLogger = new PerformanceLogger(folder.newFolder().getPath());
+            performanceLogger.definePerformances();
+        }
+
+        void train(RebatchingCacheIterator iterator, int startEpoch, int startPosition) {
+            SequentialTrainer trainer = new SequentialTrainer();
+            trainer.setMinibatchListener((numMinibatches, numExamples) -> {
+                final int position = epochStartPosition + numMinibatches;
+                if (position % CHECKPOINT_EVERY == 0) {
+                    checkpoint(iterator, position);
+                }
+                if (epoch == KILLED_IN_EPOCH && position == killAfter) {
+                    throw new Killed();
+                }
+            });
+            epochStartPosition = startPosition;
+            for (epoch = startEpoch; epoch < NUM_EPOCHS; epoch++) {
+                trainer.train(graph, iterator, null);
+                epochStartPosition = 0;
+                iterator.reset();
+            }
+        }
+
+        private void checkpoint(RebatchingCacheIterator iterator, int position) {
+            if (checkpointer != null) {
+                TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+                checkpoint.epoch = epoch;
+                checkpoint.pass = iterator.pass();
+                checkpoint.position = position;
+                checkpoint.seed = SEED;
+                checkpoint.parameterChecksum = graph.params().sumNumber().doubleValue();
+                try {
+                    checkpointer.save(graph, TrainingCheckpoint.PREFIX, checkpoint.toProperties(performanceLogger));
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to save checkpoint", e);
+                }
+            }
+            Nd4j.getRandom().setSeed(TrainingCheckpoint.rngSeed(SEED, epoch, position));
+        }
+    }
+}
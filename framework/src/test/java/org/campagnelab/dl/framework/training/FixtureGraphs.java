@@ -0,0 +1,185 @@
+package org.campagnelab.dl.framework.training;
+
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.LearningRatePolicy;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Small computation graphs and minibatches shared by the training, evaluation and checkpointing tests.
+ *
+ * @author Fabien Campagne
+ */
+public class FixtureGraphs {
+    public static final int NUM_INPUTS = 4;
+    public static final int NUM_CLASSES = 2;
+
+    /**
+     * A graph with one dense layer and two outputs: a softmax over NUM_CLASSES classes and a single regression value.
+     *
+     * @param seed seed used to initialize the parameters.
+     * @return an initialized graph.
+     */
+    public static ComputationGraph twoOutputs(long seed) {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(seed)
+                .iterations(1)
+                .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+                .learningRate(0.1)
+                .updater(Updater.ADAGRAD)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder().addInputs("input")
+                .addLayer("dense1", new DenseLayer.Builder().nIn(NUM_INPUTS).nOut(5)
+                        .activation("relu").build(), "input")
+                .addLayer("class", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT)
+                        .activation("softmax").nIn(5).nOut(NUM_CLASSES).build(), "dense1")
+                .addLayer("value", new OutputLayer.Builder(LossFunctions.LossFunction.MSE)
+                        .activation("identity").nIn(5).nOut(1).build(), "dense1")
+                .setOutputs("class", "value")
+                .pretrain(false).backprop(true).build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+        return graph;
+    }
+
+    /**
+     * A graph with one dense layer and a single regression output. The learning rate decays with the iteration count,
+     * so that training resumed with a stale iteration count does not follow the uninterrupted trajectory.
+     *
+     * @param seed      seed used to initialize the parameters.
+     * @param numInputs number of features.
+     * @return an initialized graph.
+     */
+    public static ComputationGraph regression(long seed, int numInputs) {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(seed)
+                .iterations(1)
+                .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+                .learningRate(0.01)
+                .learningRateDecayPolicy(LearningRatePolicy.Exponential)
+                .lrPolicyDecayRate(0.9)
+                .updater(Updater.ADAGRAD)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder().addInputs("input")
+                .addLayer("dense1", new DenseLayer.Builder().nIn(numInputs).nOut(5)
+                        .activation("relu").build(), "input")
+                .addLayer("value", new OutputLayer.Builder(LossFunctions.LossFunction.MSE)
+                        .activation("identity").nIn(5).nOut(1).build(), "dense1")
+                .setOutputs("value")
+                .pretrain(false).backprop(true).build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+        return graph;
+    }
+
+    /**
+     * A minibatch for twoOutputs graphs.
+     *
+     * @param random    source of the features and labels.
+     * @param size      number of examples.
+     * @param withMasks when true, the labels of each output have a per-example mask. Every output keeps at least one
+     *                  example.
+     * @return the minibatch.
+     */
+    public static MultiDataSet minibatch(Random random, int size, boolean withMasks) {
+        INDArray features = Nd4j.zeros(size, NUM_INPUTS);
+        INDArray classes = Nd4j.zeros(size, NUM_CLASSES);
+        INDArray values = Nd4j.zeros(size, 1);
+        for (int example = 0; example < size; example++) {
+            for (int i = 0; i < NUM_INPUTS; i++) {
+                features.putScalar(example, i, random.nextFloat());
+            }
+            classes.putScalar(example, random.nextInt(NUM_CLASSES), 1);
+            values.putScalar(example, 0, random.nextFloat());
+        }
+        INDArray[] labelMasks = null;
+        if (withMasks) {
+            labelMasks = new INDArray[]{mask(random, size), mask(random, size)};
+        }
+        return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features}, new INDArray[]{classes, values}, null, labelMasks);
+    }
+
+    /**
+     * A list of minibatches for twoOutputs graphs.
+     */
+    public static List<MultiDataSet> minibatches(Random random, int numMinibatches, int size,
+                                                 boolean withMasks) {
+        List<MultiDataSet> minibatches = new ArrayList<>();
+        for (int i = 0; i < numMinibatches; i++) {
+            minibatches.add(minibatch(random, size, withMasks));
+        }
+        return minibatches;
+    }
+
+    /**
+     * An iterator over a list of minibatches, which supports reset.
+     */
+    public static MultiDataSetIterator iterator(List<MultiDataSet> minibatches) {
+        return new MultiDataSetIterator() {
+            private int index;
+
+            @Override
+            public MultiDataSet next(int num) {
+                return next();
+            }
+
+            @Override
+            public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean resetSupported() {
+                return true;
+            }
+
+            @Override
+            public boolean asyncSupported() {
+                return false;
+            }
+
+            @Override
+            public void reset() {
+                index = 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index < minibatches.size();
+            }
+
+            @Override
+            public MultiDataSet next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return minibatches.get(index++);
+            }
+        };
+    }
+
+    private static INDArray mask(Random random, int size) {
+        INDArray mask = Nd4j.zeros(size, 1);
+        mask.putScalar(0, 0, 1);
+        for (int example = 1; example < size; example++) {
+            mask.putScalar(example, 0, random.nextBoolean() ? 1 : 0);
+        }
+        return mask;
+    }
+}
@@ -50,6 +50,7 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
     private int trueGenotypeLength;
     private float modelCapacity;
     private boolean isPredicting;
+    private boolean readSortedCountsThrough = true;
 
 
     public GenotypeDomainDescriptor(GenotypeTrainingArguments arguments) {
@@ -121,6 +122,15 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
 
     private GenotypeTrainingArguments arguments;
 
+    /**
+     * Build genotype feature mappers that read sorted counts through the view of the record (the default), or that
+     * map a copy of the record with sorted counts (see GenotypeFeatureMapper.readSortedCountsThrough). Must be called
+     * before the feature mappers are created. Used by MappingBenchmarkG to compare the two.
+     */
+    public void setReadSortedCountsThrough(boolean readSortedCountsThrough) {
+        this.readSortedCountsThrough = readSortedCountsThrough;
+    }
+
     private GenotypeTrainingArguments args() {
         return arguments;
     }
@@ -202,6 +212,9 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
             try {
                 Class clazz = Class.forName(args().featureMapperClassname);
                 final FeatureMapper featureMapper = (FeatureMapper) clazz.newInstance();
+                if (featureMapper instanceof GenotypeFeatureMapper) {
+                    ((GenotypeFeatureMapper) featureMapper).readSortedCountsThrough = readSortedCountsThrough;
+                }
                 if (featureMapper instanceof ConfigurableFeatureMapper) {
                     ConfigurableFeatureMapper cmapper = (ConfigurableFeatureMapper) featureMapper;
                     final Properties properties = TrainSomaticModel.getReaderProperties(args().trainingSets.get(0));
@@ -219,6 +232,9 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
                 String mapperName = domainProperties.getProperty("input.featureMapper");
 
                 FeatureMapper fMapper = (FeatureMapper) Class.forName(mapperName).newInstance();
+                if (fMapper instanceof GenotypeFeatureMapper) {
+                    ((GenotypeFeatureMapper) fMapper).readSortedCountsThrough = readSortedCountsThrough;
+                }
 
                 if (fMapper instanceof ConfigurableFeatureMapper) {
                     ConfigurableFeatureMapper cfmapper = (ConfigurableFeatureMapper) fMapper;
@@ -521,7 +537,9 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
                                            String... metrics) {
 
 
-                GenotypeTrainingPerformanceHelperWithAUC helper = new GenotypeTrainingPerformanceHelperWithAUC(domainDescriptor);
+                // one forward pass per minibatch provides the loss and all the metrics:
+                GenotypeTrainingPerformanceHelperWithAUC helper = new GenotypeTrainingPerformanceHelperWithAUC(domainDescriptor, metrics);
+                helper.setEvaluator(newEvaluator());
                 helper.estimateWithGraph(dataSetIterator, graph,
                         index -> index > scoreN
                             /* first output represents probabilityIsCalled of mutation */);
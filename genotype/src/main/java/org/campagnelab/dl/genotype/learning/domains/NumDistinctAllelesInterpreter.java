@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.learning.domains;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
@@ -25,8 +26,9 @@ public class NumDistinctAllelesInterpreter implements PredictionInterpreter<Base
     public NumDistinctAllelesOutputLayerPrediction interpret(INDArray trueLabels, INDArray output, int predictionIndex) {
         NumDistinctAllelesOutputLayerPrediction result = new NumDistinctAllelesOutputLayerPrediction();
 
-        result.predictedValue = readPredicted(output, result,predictionIndex);
         result.trueValue = readPredicted(trueLabels, result,predictionIndex);
+        // read the output last: the probability is the largest output of the model, not of the labels:
+        result.predictedValue = readPredicted(output, result,predictionIndex);
         result.probability=maxProbability;
         return result;
     }
@@ -42,6 +44,26 @@ public class NumDistinctAllelesInterpreter implements PredictionInterpreter<Base
         return result;
     }
 
+    @Override
+    public NumDistinctAllelesOutputLayerPrediction interpret(MinibatchOutput trueLabels, MinibatchOutput output,
+                                                             int predictionIndex) {
+        NumDistinctAllelesOutputLayerPrediction result = new NumDistinctAllelesOutputLayerPrediction();
+        result.predictedValue = output.argMaxOfFirst(predictionIndex, ploidy + 1);
+        result.trueValue = trueLabels.argMaxOfFirst(predictionIndex, ploidy + 1);
+        result.probability = output.get(predictionIndex, result.predictedValue);
+        return result;
+    }
+
+    @Override
+    public NumDistinctAllelesOutputLayerPrediction interpret(BaseInformationRecords.BaseInformation record,
+                                                             MinibatchOutput output, int exampleIndex) {
+        NumDistinctAllelesOutputLayerPrediction result = new NumDistinctAllelesOutputLayerPrediction();
+        result.trueValue = GenotypeHelper.getAlleles(record.getTrueGenotype()).size();
+        result.predictedValue = output.argMaxOfFirst(exampleIndex, ploidy + 1);
+        result.probability = output.get(exampleIndex, result.predictedValue);
+        return result;
+    }
+
     private int readPredicted(INDArray output, NumDistinctAllelesOutputLayerPrediction result, int  predictionIndex) {
         maxProbability = -1;
         int maxIndex = -1;
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.learning.domains;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
 import org.campagnelab.dl.genotype.predictions.SoftmaxGenotypePrediction;
@@ -30,8 +31,9 @@ public class SoftmaxGenotypeInterpreter implements PredictionInterpreter<BaseInf
     public SoftmaxGenotypePrediction interpret(INDArray trueLabels, INDArray output, int predictionIndex) {
         SoftmaxGenotypePrediction result = new SoftmaxGenotypePrediction();
 
-        result.predictedGenotypeIndex = readPredicted(output, result, predictionIndex);
         result.trueGenotypeIndex = readPredicted(trueLabels, result, predictionIndex);
+        // read the output last: the probability is the largest output of the model, not of the labels:
+        result.predictedGenotypeIndex = readPredicted(output, result, predictionIndex);
         result.probability = maxProbability;
         result.numBits=numBits;
         return result;
@@ -50,6 +52,27 @@ public class SoftmaxGenotypeInterpreter implements PredictionInterpreter<BaseInf
         return result;
     }
 
+    @Override
+    public SoftmaxGenotypePrediction interpret(MinibatchOutput trueLabels, MinibatchOutput output, int predictionIndex) {
+        SoftmaxGenotypePrediction result = new SoftmaxGenotypePrediction();
+        result.predictedGenotypeIndex = output.argMaxOfFirst(predictionIndex, numBits);
+        result.trueGenotypeIndex = trueLabels.argMaxOfFirst(predictionIndex, numBits);
+        result.probability = output.get(predictionIndex, result.predictedGenotypeIndex);
+        result.numBits = numBits;
+        return result;
+    }
+
+    @Override
+    public SoftmaxGenotypePrediction interpret(BaseInformationRecords.BaseInformation record, MinibatchOutput output,
+                                               int exampleIndex) {
+        SoftmaxGenotypePrediction result = new SoftmaxGenotypePrediction();
+        result.numBits = numBits;
+        result.trueGenotype = record.getTrueGenotype();
+        result.predictedGenotypeIndex = output.argMaxOfFirst(exampleIndex, numBits);
+        result.probability = output.get(exampleIndex, result.predictedGenotypeIndex);
+        return result;
+    }
+
     private int readPredicted(INDArray output, SoftmaxGenotypePrediction result, int predictionIndex) {
         maxProbability = -1;
         int maxIndex = -1;
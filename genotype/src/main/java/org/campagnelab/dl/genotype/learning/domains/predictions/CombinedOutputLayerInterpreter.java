@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.learning.domains.predictions;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.CombinedLabelsMapper;
 import org.campagnelab.dl.genotype.predictions.CombinedOutputLayerPrediction;
@@ -51,12 +52,38 @@ public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<Comb
         return pred;
     }
 
+    @Override
+    public CombinedOutputLayerPrediction interpret(MinibatchOutput trueLabels, MinibatchOutput output, int predictionIndex) {
+        CombinedOutputLayerPrediction p = new CombinedOutputLayerPrediction();
+        p.trueGenotype = reconstructGenotype(trueLabels.argMaxOfFirst(predictionIndex, MAX_GENOTYPES));
+        final int maxIndex = output.argMaxOfFirst(predictionIndex, MAX_GENOTYPES);
+        p.predictedGenotype = reconstructGenotype(maxIndex);
+        p.overallProbability = output.get(predictionIndex, maxIndex);
+        return p;
+    }
+
+    @Override
+    public CombinedOutputLayerPrediction interpret(BaseInformationRecords.BaseInformation record, MinibatchOutput output,
+                                                   int exampleIndex) {
+        sortedCountRecord = sort(record);
+        CombinedOutputLayerPrediction pred = new CombinedOutputLayerPrediction();
+        pred.inspectRecord(sortedCountRecord);
+        setToSequences(sortedCountRecord);
+        final int maxIndex = output.argMaxOfFirst(exampleIndex, MAX_GENOTYPES);
+        pred.predictedGenotype = reconstructGenotype(maxIndex);
+        pred.overallProbability = output.get(exampleIndex, maxIndex);
+        return pred;
+    }
+
     public String getPrediction(BaseInformationRecords.BaseInformation record, INDArray output) {
+        setToSequences(record);
+        return reconstructGenotype(output, 0);
+    }
 
+    private void setToSequences(BaseInformationRecords.BaseInformation record) {
         for (int genotypeIndex = 0; genotypeIndex < MAX_GENOTYPES; genotypeIndex++) {
             toSequences[genotypeIndex] = record.getSamples(0).getCounts(genotypeIndex).getToSequence();
         }
-        return reconstructGenotype(output, 0);
     }
 
     @NotNull
@@ -70,6 +97,10 @@ public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<Comb
                 probability = outputDouble;
             }
         }
+        return reconstructGenotype(maxIndex);
+    }
+
+    private String reconstructGenotype(int maxIndex) {
         switch (maxIndex) {
             case 0:
                 String homozygAllele = toSequences[0];
@@ -2,7 +2,6 @@ package org.campagnelab.dl.genotype.learning.domains.predictions;
 
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.HomozygousLabelsMapper;
-import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
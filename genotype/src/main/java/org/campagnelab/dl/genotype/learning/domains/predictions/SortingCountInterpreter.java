@@ -2,7 +2,7 @@ package org.campagnelab.dl.genotype.learning.domains.predictions;
 
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
-import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
+import org.campagnelab.dl.genotype.mappers.SortedCountView;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
 /**
@@ -18,14 +18,17 @@ public abstract class SortingCountInterpreter<P extends Prediction> implements P
     }
 
     public BaseInformationRecords.BaseInformation sort(BaseInformationRecords.BaseInformation record) {
-        int sortedIndex = 0;
-        indexPermutation = new int[record.getSamples(0).getCountsCount()];
+        final int numCounts = record.getSamples(0).getCountsCount();
+        if (indexPermutation == null || indexPermutation.length != numCounts) {
+            indexPermutation = new int[numCounts];
+        }
 
         if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(0,record);
-            for (BaseInformationRecords.CountInfo count : sortedCountRecord.getSamples(0).getCountsList()) {
+            SortedCountView view = SortedCountView.of(0, record);
+            sortedCountRecord = view.sortedRecord();
+            for (int originalIndex = 0; originalIndex < numCounts; originalIndex++) {
                 // reverse permutation: from goby genotype index to sorted order.
-                indexPermutation[count.getGobyGenotypeIndex()] = sortedIndex++;
+                indexPermutation[originalIndex] = view.sortedIndex(originalIndex);
             }
         } else {
             sortedCountRecord = record;
@@ -38,6 +41,5 @@ public abstract class SortingCountInterpreter<P extends Prediction> implements P
     }
 
     protected BaseInformationRecords.BaseInformation sortedCountRecord;
-    private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
 }
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.learning.domains.predictions;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.predictions.TrueGenotypeOutputLayerPrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
@@ -48,6 +49,76 @@ public class TrueGenotypeOutputLayerInterpreter implements
         return trueGenotypePrediction;
     }
 
+    @Override
+    public TrueGenotypeOutputLayerPrediction interpret(MinibatchOutput trueLabels, MinibatchOutput output,
+                                                      int predictionIndex) {
+        TrueGenotypeOutputLayerPrediction trueGenotypePrediction = new TrueGenotypeOutputLayerPrediction();
+        String trueGenotype = getGenotype(trueLabels, predictionIndex);
+        String predictedGenotype = getGenotype(output, predictionIndex).substring(0, trueGenotype.length());
+        String predictedGenotypeIsIndel = predictedGenotype.replace("$", "").replace("*", "");
+        trueGenotypePrediction.trueGenotype = trueGenotype;
+        trueGenotypePrediction.predictedGenotype = predictedGenotype;
+        trueGenotypePrediction.isPredictedIndel = predictedGenotypeIsIndel.length() > 3;
+        trueGenotypePrediction.overallProbability = getAverageMax(output, predictionIndex);
+        return trueGenotypePrediction;
+    }
+
+    @Override
+    public TrueGenotypeOutputLayerPrediction interpret(BaseInformationRecords.BaseInformation record,
+                                                      MinibatchOutput output, int exampleIndex) {
+        TrueGenotypeOutputLayerPrediction trueGenotypePrediction = new TrueGenotypeOutputLayerPrediction();
+        trueGenotypePrediction.inspectRecord(record);
+        String predictedGenotype = getGenotype(output, exampleIndex).substring(0,
+                trueGenotypePrediction.trueGenotype.length());
+        String predictedGenotypeIsIndel = predictedGenotype.replace("$", "").replace("*", "");
+        trueGenotypePrediction.predictedGenotype = predictedGenotype;
+        trueGenotypePrediction.isPredictedIndel = predictedGenotypeIsIndel.length() > 3;
+        trueGenotypePrediction.overallProbability = getAverageMax(output, exampleIndex);
+        return trueGenotypePrediction;
+    }
+
+    /**
+     * Decode the bases of the time steps of an example, up to the number of steps whose labels sum to a positive
+     * value (all steps if none do), as getGenotypeFromINDArray does for a slice of the output.
+     */
+    private static String getGenotype(MinibatchOutput output, int example) {
+        int numValidSteps = 0;
+        for (int step = 0; step < output.numSteps(); step++) {
+            float sum = 0;
+            for (int column = 0; column < output.numColumns(); column++) {
+                sum += output.get(example, column, step);
+            }
+            if (sum > 0) {
+                numValidSteps++;
+            }
+        }
+        final int numSteps = numValidSteps > 0 ? numValidSteps : output.numSteps();
+        StringBuilder genotypeBuilder = new StringBuilder(numSteps);
+        for (int step = 0; step < numSteps; step++) {
+            genotypeBuilder.append(labelToBase(output.argMax(example, step)));
+        }
+        return genotypeBuilder.toString();
+    }
+
+    /**
+     * Average the maximum probability of the time steps of an example, over the number of steps whose maximum is
+     * positive (all steps if none are), as getAverageFloatMaxArray does for a slice of the output.
+     */
+    private static double getAverageMax(MinibatchOutput output, int example) {
+        int numValidSteps = 0;
+        for (int step = 0; step < output.numSteps(); step++) {
+            if (output.max(example, step) > 0) {
+                numValidSteps++;
+            }
+        }
+        final int numSteps = numValidSteps > 0 ? numValidSteps : output.numSteps();
+        double sum = 0;
+        for (int step = 0; step < numSteps; step++) {
+            sum += output.max(example, step);
+        }
+        return sum / numSteps;
+    }
+
     private static String getGenotypeFromINDArray(INDArray genotypeArray) {
         INDArray genotypeLabels = getIntArgMaxArray(genotypeArray);
         StringBuilder genotypeBuilder = new StringBuilder();
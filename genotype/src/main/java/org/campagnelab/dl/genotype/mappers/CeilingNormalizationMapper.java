@@ -1,6 +1,8 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.DelegatingFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 
 /**
@@ -11,7 +13,8 @@ import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
  * @author Fabien Campagne
  */
 
-public class CeilingNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType> {
+public class CeilingNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType>
+        implements DelegatingFeatureMapper<RecordType> {
 
     FeatureNameMapper<RecordType> delegate;
     private float ceiling;
@@ -21,12 +24,26 @@ public class CeilingNormalizationMapper<RecordType> extends AbstractFeatureMappe
         this.ceiling=ceiling;
     }
 
+    @Override
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
     @Override
     public int numberOfFeatures() {
         return delegate.numberOfFeatures();
     }
 
     public void prepareToNormalize(RecordType record, int indexOfRecord) {
+        delegate.prepareToNormalize(record, indexOfRecord);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        delegate.mapFeatures(record, inputs, offset, indexOfRecord);
+        for (int i = offset; i < offset + numberOfFeatures(); i++) {
+            inputs[i] = normalize(inputs[i]);
+        }
     }
 
     public float produceFeature(RecordType record, int featureIndex) {
@@ -42,30 +42,50 @@ public class CombinedLabelsMapperRef extends NoMasksLabelMapper<BaseInformationR
 
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(mappedRecord, labelIndex));
+        }
+    }
+
+    @Override
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(mappedRecord, labelIndex);
         }
     }
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        sortedCountRecord = sortHelper.sort(record);
+        mappedRecord = record;
+        numCounts = record.getSamples(0).getCountsCount();
+        indexPermutation = SortedCountView.permutation(0, record, true, indexPermutation);
     }
 
-    private BaseInformationRecords.BaseInformation sortedCountRecord;
-    private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+    private BaseInformationRecords.BaseInformation mappedRecord;
+    /**
+     * Goby genotype index of each sorted count of the mapped record.
+     */
+    private int[] indexPermutation;
+    private int numCounts;
+
+    /**
+     * Return the count of the first sample of the mapped record at a sorted index.
+     */
+    private BaseInformationRecords.CountInfo sortedCount(int sortedIndex) {
+        return mappedRecord.getSamples(0).getCounts(sortedIndex < numCounts ? indexPermutation[sortedIndex] : sortedIndex);
+    }
 
 
     @Override
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
         int correctLabelIndex;
-        boolean firstCalled = sortedCountRecord.getSamples(0).getCounts(0).getIsCalled();
-        boolean secondCalled = sortedCountRecord.getSamples(0).getCounts(1).getIsCalled();
-        boolean firstIsRef = sortedCountRecord.getSamples(0).getCounts(0).getMatchesReference();
-        boolean secondIsRef = sortedCountRecord.getSamples(0).getCounts(1).getMatchesReference();;
+        boolean firstCalled = sortedCount(0).getIsCalled();
+        boolean secondCalled = sortedCount(1).getIsCalled();
+        boolean firstIsRef = sortedCount(0).getMatchesReference();
+        boolean secondIsRef = sortedCount(1).getMatchesReference();;
         boolean otherCalled = false;
 
-        for (int i = 2; i < sortedCountRecord.getSamples(0).getCountsCount(); i++){
-            otherCalled |= sortedCountRecord.getSamples(0).getCounts(i).getIsCalled();
+        for (int i = 2; i < numCounts; i++){
+            otherCalled |= sortedCount(i).getIsCalled();
         }
         if (otherCalled){
             //other call case
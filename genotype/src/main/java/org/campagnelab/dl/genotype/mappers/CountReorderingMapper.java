@@ -1,19 +1,74 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.CompositeFeatureMapper;
+import org.campagnelab.dl.framework.mappers.DelegatingFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
 /**
+ * Map the counts of a sample sorted by decreasing allele support. By default, the delegate maps a copy of the record
+ * where the counts of the sample are sorted (see SortedCountView.sortedFeatureRecord()). Mappers built with sortedView
+ * give the record itself to the delegate instead, and read the counts through the view of the sample: the mappers of
+ * the delegate graph must then read counts by sorted index (SortedCountReader, or the static methods of
+ * SortedCountView in the functions of function mappers).
  * Created by fac2003 on 12/15/16.
  */
-public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements CompositeFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
     private int sampleIndex;
     private FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate;
+    private final boolean readThrough;
 
     public CountReorderingMapper(int sampleIndex, FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate) {
+        this(sampleIndex, delegate, false);
+    }
+
+    private CountReorderingMapper(int sampleIndex, FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate,
+                                  boolean readThrough) {
         this.delegate = delegate;
-        this.sampleIndex=sampleIndex;
+        this.sampleIndex = sampleIndex;
+        this.readThrough = readThrough;
+        if (readThrough) {
+            readSortedCounts(delegate);
+        }
+    }
+
+    /**
+     * Create a mapper whose delegate reads the counts of the record through the sorted view of the sample, without a
+     * copy of the record. The SortedCountReader mappers of the delegate graph are configured to read the counts of
+     * the sample by sorted index, and the functions of the other mappers must do so too.
+     *
+     * @param sampleIndex index of the sample whose counts are sorted.
+     * @param delegate    mapper of the sorted counts.
+     * @return a count reordering mapper that reads through the view.
+     */
+    public static CountReorderingMapper sortedView(int sampleIndex,
+                                                   FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate) {
+        return new CountReorderingMapper(sampleIndex, delegate, true);
+    }
+
+    /**
+     * Configure the SortedCountReader mappers found in the graph of the mapper. Other count reordering mappers sort
+     * the record again for their own delegates and are not walked.
+     */
+    private void readSortedCounts(FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> mapper) {
+        if (mapper instanceof CountReorderingMapper) {
+            return;
+        }
+        if (mapper instanceof SortedCountReader) {
+            ((SortedCountReader) mapper).readSortedCounts(sampleIndex);
+        }
+        if (mapper instanceof CompositeFeatureMapper) {
+            for (FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate :
+                    ((CompositeFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>) mapper).delegates()) {
+                readSortedCounts(delegate);
+            }
+        }
+        if (mapper instanceof DelegatingFeatureMapper) {
+            readSortedCounts(((DelegatingFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>) mapper).delegate());
+        }
     }
 
     @Override
@@ -26,18 +81,39 @@ public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformati
         return delegate.numberOfFeatures();
     }
 
-    private BaseInformationRecords.BaseInformationOrBuilder sortedCountRecord;
-    private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+    private BaseInformationRecords.BaseInformationOrBuilder mappedRecord;
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
 
-        sortedCountRecord = sortHelper.sort(sampleIndex,record);
-        delegate.prepareToNormalize(sortedCountRecord, indexOfRecord);
+        mappedRecord = delegateRecord(record);
+        delegate.prepareToNormalize(mappedRecord, indexOfRecord);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] delegates() {
+        return new FeatureMapper[]{delegate};
+    }
+
+    @Override
+    public BaseInformationRecords.BaseInformationOrBuilder delegateRecord(BaseInformationRecords.BaseInformationOrBuilder record) {
+        final SortedCountView view = SortedCountView.of(sampleIndex, record);
+        return readThrough ? record : view.sortedFeatureRecord();
+    }
+
+    @Override
+    public String recordTransformation() {
+        return "counts sorted for sample " + sampleIndex;
+    }
+
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
+        delegate.mapFeatures(mappedRecord, inputs, offset, indexOfRecord);
     }
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        return delegate.produceFeature(sortedCountRecord, featureIndex);
+        return delegate.produceFeature(mappedRecord, featureIndex);
     }
 }
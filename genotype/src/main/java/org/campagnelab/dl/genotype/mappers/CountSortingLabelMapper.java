@@ -7,13 +7,19 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
- * A label mapper that can optionally pre-sort genotypes by decreasing count.
+ * A label mapper that can optionally pre-sort genotypes by decreasing count. Counts are not copied: subclasses read
+ * them by sorted index with sortedCount, through a permutation of the counts of the record.
  * Created by fac2003 on 12/20/16.
  *
  */
 public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation> {
     int[] indices = new int[]{0, 0};
     private final boolean sortCounts;
+    /**
+     * Goby genotype index of each sorted count of the mapped record.
+     */
+    private int[] indexPermutation;
+    private int numCounts;
 
     public CountSortingLabelMapper(boolean sortCounts) {
         this.sortCounts = sortCounts;
@@ -25,20 +31,42 @@ public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInf
 
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(mappedRecord, labelIndex));
         }
     }
 
     @Override
-    public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(0,record);
-        } else {
-            sortedCountRecord = record;
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(mappedRecord, labelIndex);
         }
     }
 
-    protected BaseInformationRecords.BaseInformation sortedCountRecord;
-    private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+    @Override
+    public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
+        mappedRecord = record;
+        numCounts = record.getSamples(0).getCountsCount();
+        indexPermutation = SortedCountView.permutation(0, record, sortCounts, indexPermutation);
+    }
+
+    /**
+     * Return the number of counts of the first sample of the mapped record.
+     */
+    protected int numCounts() {
+        return numCounts;
+    }
+
+    /**
+     * Return the count of the first sample of the mapped record at a sorted index (at this index when counts are not
+     * sorted).
+     */
+    protected BaseInformationRecords.CountInfo sortedCount(int sortedIndex) {
+        return mappedRecord.getSamples(0).getCounts(sortedIndex < numCounts ? indexPermutation[sortedIndex] : sortedIndex);
+    }
+
+    /**
+     * The record passed to prepareToNormalize.
+     */
+    protected BaseInformationRecords.BaseInformation mappedRecord;
 
 }
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.somatic.mappers.NamingConcatFeatureMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
@@ -15,4 +16,19 @@ public abstract class GenotypeFeatureMapper extends NamingConcatFeatureMapper<Ba
     public boolean hasIsVariantLabelMapper;
     public boolean withSoftmaxGenotype;
     public static int MAX_GENOTYPES = 3;
+    /**
+     * When true (the default), the count reordering mappers built by configure read the counts of the record through
+     * the sorted view of the sample (see CountReorderingMapper.sortedView). When false, they give their delegates a
+     * copy of the record with sorted counts. Must be set before configure.
+     */
+    public boolean readSortedCountsThrough = true;
+
+    /**
+     * Create the count reordering mapper of the sample, as selected by readSortedCountsThrough.
+     */
+    protected CountReorderingMapper countReorderingMapper(int sampleIndex,
+                                                          FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate) {
+        return readSortedCountsThrough ? CountReorderingMapper.sortedView(sampleIndex, delegate) :
+                new CountReorderingMapper(sampleIndex, delegate);
+    }
 }
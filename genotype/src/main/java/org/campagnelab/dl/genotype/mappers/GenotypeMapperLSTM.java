@@ -2,22 +2,18 @@ package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.*;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
-import org.campagnelab.goby.util.WarningCounter;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
-import java.util.function.Function;
 
 /**
  * Created by joshuacohen on 1/17/17.
  */
 public class GenotypeMapperLSTM implements
-        FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder>, ConfigurableFeatureMapper {
+        FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder>, SequenceFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>,
+        ConfigurableFeatureMapper {
     private int sampleIndex;
-    private RNNFeatureMapper<String> delegate;
-    private String cachedRecordIndelString;
+    private OneHotSequenceEncoder encoder;
     private int indelSequenceLength;
 
     public enum Input {
@@ -32,12 +28,7 @@ public class GenotypeMapperLSTM implements
     @Override
     public void configure(Properties readerProperties) {
         indelSequenceLength = Integer.parseInt(readerProperties.getProperty("indelSequenceLength"));
-        OneHotBaseFeatureMapper<String>[] delegateMapperArray = new OneHotBaseFeatureMapper[indelSequenceLength];
-        for (int i = 0; i < indelSequenceLength; i++) {
-            delegateMapperArray[i] = new OneHotBaseFeatureMapper<>(i, Function.identity(),
-                    GenotypeMapperLSTM::getIntegerOfBase, featuresPerOHBM);
-        }
-        delegate = new RNNFeatureMapper<>(String::length, delegateMapperArray);
+        encoder = new OneHotSequenceEncoder(indelSequenceLength, featuresPerOHBM, GenotypeMapperLSTM::getIntegerOfBase, 6);
     }
 
     @Override
@@ -48,62 +39,71 @@ public class GenotypeMapperLSTM implements
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
         BaseInformationRecords.SampleInfo sampleInfo = record.getSamples(sampleIndex);
+        final String indelString;
         switch (inputType) {
             case FROM:
-                cachedRecordIndelString = sampleInfo.getCounts(0).getFromSequence();
+                indelString = sampleInfo.getCounts(0).getFromSequence();
                 break;
             case G1:
-                cachedRecordIndelString = sampleInfo.getCounts(0).getToSequence();
+                indelString = sampleInfo.getCounts(0).getToSequence();
                 break;
             case G2:
-                cachedRecordIndelString = sampleInfo.getCounts(1).getToSequence();
+                indelString = sampleInfo.getCounts(1).getToSequence();
                 break;
             case G3:
-                cachedRecordIndelString = sampleInfo.getCounts(2).getToSequence();
+                indelString = sampleInfo.getCounts(2).getToSequence();
                 break;
             default:
                 throw new RuntimeException("Invalid input type");
         }
-        if (cachedRecordIndelString.length() > indelSequenceLength) {
-            cachedRecordIndelString = cachedRecordIndelString.substring(0, indelSequenceLength);
-        }
-        delegate.prepareToNormalize(cachedRecordIndelString, indexOfRecord);
+        // bases past indelSequenceLength are not encoded:
+        encoder.encode(indelString);
     }
 
     @Override
     public int numberOfFeatures() {
-        return delegate.numberOfFeatures();
+        return encoder.numberOfFeatures();
     }
 
     @Override
     public MappedDimensions dimensions() {
-        return delegate.dimensions();
+        return new MappedDimensions(featuresPerOHBM, indelSequenceLength);
     }
 
 
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs, int indexOfRecord) {
-        delegate.mapFeatures(cachedRecordIndelString, inputs, indexOfRecord);
+        encoder.mapSequenceFeatures(inputs, indexOfRecord);
+    }
+
+    @Override
+    public void mapSequenceFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int indexOfRecord, int numRecords) {
+        encoder.mapSequenceFeatures(inputs, indexOfRecord, numRecords);
+    }
+
+    @Override
+    public void maskSequenceFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] mask, int indexOfRecord, int numRecords) {
+        encoder.maskSequence(mask, indexOfRecord, numRecords);
     }
 
     @Override
     public boolean hasMask() {
-        return delegate.hasMask();
+        return true;
     }
 
     @Override
     public void maskFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray mask, int indexOfRecord) {
-        delegate.maskFeatures(cachedRecordIndelString, mask, indexOfRecord);
+        encoder.maskSequence(mask, indexOfRecord);
     }
 
     @Override
     public boolean isMasked(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        return delegate.isMasked(cachedRecordIndelString, featureIndex);
+        return featureIndex / featuresPerOHBM < encoder.sequenceLength();
     }
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        return delegate.produceFeature(cachedRecordIndelString, featureIndex);
+        return encoder.produceSequenceFeature(featureIndex);
     }
 
     public void setSampleIndex(int sampleIndex) {
@@ -115,16 +115,7 @@ public class GenotypeMapperLSTM implements
         this.inputType = inputType;
     }
 
-    private static WarningCounter counter = new WarningCounter();
-    private static final Logger LOG = LoggerFactory.getLogger(GenotypeMapperLSTM.class);
-
-    private static int getIntegerOfBase(String context, int baseIndex) {
-        if (baseIndex < 0 || baseIndex >= context.length()) {
-            counter.warn(LOG, "incompatible character index: %d for context: {} of length {}",
-                    baseIndex, context, context.length());
-            return 6;
-        }
-        Character base = context.charAt(baseIndex);
+    private static int getIntegerOfBase(int base) {
         int baseInt;
         switch (base) {
             case 'a':
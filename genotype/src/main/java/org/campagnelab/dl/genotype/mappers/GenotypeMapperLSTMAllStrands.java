@@ -13,8 +13,8 @@ import java.util.Properties;
 /**
  * Created by joshuacohen on 2/6/17.
  */
-public class GenotypeMapperLSTMAllStrands implements
-        FeatureNameMapper<BaseInformationRecords.BaseInformation>, ConfigurableFeatureMapper {
+public class GenotypeMapperLSTMAllStrands implements FeatureNameMapper<BaseInformationRecords.BaseInformation>,
+        SequenceFeatureMapper<BaseInformationRecords.BaseInformation>, ConfigurableFeatureMapper {
     private static final Logger LOG = LoggerFactory.getLogger(GenotypeMapperLSTMAllStrands.class);
     private static final WarningCounter counter = new WarningCounter();
     private int sampleIndex;
@@ -80,6 +80,32 @@ public class GenotypeMapperLSTMAllStrands implements
         }
     }
 
+    @Override
+    public void mapSequenceFeatures(BaseInformationRecords.BaseInformation record, float[] inputs, int indexOfRecord,
+                                    int numRecords) {
+        for (int sequenceIndex = 0; sequenceIndex < sequencesPerIndel; sequenceIndex++) {
+            String sequence = cachedSample.getSequence(sequenceIndex);
+            final int firstFeature = sequenceIndex * featuresPerSequence;
+            final int sequenceLength = Math.min(indelSequenceLength, sequence.length());
+            for (int i = 0; i < sequenceLength; i++) {
+                inputs[SequenceFeatureMapper.offset(indexOfRecord, firstFeature + getIntegerOfBase(sequence, i), i,
+                        numRecords, featuresPerTimeStep)] = 1F;
+            }
+            for (int i = sequenceLength; i < maskLen; i++) {
+                inputs[SequenceFeatureMapper.offset(indexOfRecord, firstFeature + featuresPerSequence - 2, i,
+                        numRecords, featuresPerTimeStep)] = 1F;
+            }
+        }
+    }
+
+    @Override
+    public void maskSequenceFeatures(BaseInformationRecords.BaseInformation record, float[] mask, int indexOfRecord,
+                                     int numRecords) {
+        for (int i = 0; i < maskLen; i++) {
+            mask[indexOfRecord + i * numRecords] = 1F;
+        }
+    }
+
     @Override
     public boolean hasMask() {
         return true;
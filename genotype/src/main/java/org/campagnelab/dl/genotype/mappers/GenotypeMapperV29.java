@@ -70,13 +70,13 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
             queryPositions[i] = new DensityMapper("queryPosition",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQueryPositionsList) /*,
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQueryPositionsList) /*,
                     queryPosition -> (float)(Math.log(queryPosition+1)/Math.log(2))*/);
 
             matchesRefMappers[i] = (new MatchesReferenceMapper(sampleIndex, i));
             isIndelMappers[i] = new NamedWrapper<BaseInformationRecords.BaseInformationOrBuilder>(
                     new BooleanFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>(record ->
-                    record.getSamples(sampleIndex).getCounts(constantGenotypeIndex).getIsIndel(), 0)) {
+                    SortedCountView.sortedCount(sampleIndex, record, sampleIndex, constantGenotypeIndex).getIsIndel(), 0)) {
                 @Override
                 public String getFeatureName(int featureIndex) {
                     return "isIndel_sample="+sampleIndex+"_count="+constantGenotypeIndex;
@@ -84,7 +84,7 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
             };
             isReadInsertionMappers[i] = new NamedWrapper<BaseInformationRecords.BaseInformationOrBuilder>(
                     new BooleanFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>(record ->
-                            record.getSamples(sampleIndex).getCounts(constantGenotypeIndex).getFromSequence().contains("-"), 0)) {
+                            SortedCountView.sortedCount(sampleIndex, record, sampleIndex, constantGenotypeIndex).getFromSequence().contains("-"), 0)) {
                 @Override
                 public String getFeatureName(int featureIndex) {
                     return "isReadInsertion_sample="+sampleIndex+"_count="+constantGenotypeIndex;
@@ -92,7 +92,7 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
             };
             isReadDeletionMappers[i] = new NamedWrapper<BaseInformationRecords.BaseInformationOrBuilder>(
                     new BooleanFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>(record ->
-                            record.getSamples(sampleIndex).getCounts(constantGenotypeIndex).getToSequence().contains("-"), 0)) {
+                            SortedCountView.sortedCount(sampleIndex, record, sampleIndex, constantGenotypeIndex).getToSequence().contains("-"), 0)) {
                 @Override
                 public String getFeatureName(int featureIndex) {
                     return "isReadDeletion_sample="+sampleIndex+"_count="+constantGenotypeIndex;
@@ -103,7 +103,7 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
 
                     record -> {
 
-                        String toSequence = record.getSamples(0).getCounts(constantGenotypeIndex).getToSequence();
+                        String toSequence = SortedCountView.sortedCount(sampleIndex, record, 0, constantGenotypeIndex).getToSequence();
                         int length=Math.min(toSequence.length(),baseContextLength);
                         return StringUtils.rightPad(toSequence.substring(0, length), baseContextLength);
 
@@ -112,7 +112,7 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
 
                     record -> {
 
-                        String fromSequence = record.getSamples(0).getCounts(constantGenotypeIndex).getFromSequence();
+                        String fromSequence = SortedCountView.sortedCount(sampleIndex, record, 0, constantGenotypeIndex).getFromSequence();
                         int length=Math.min(fromSequence.length(),baseContextLength);
                         return StringUtils.rightPad(fromSequence.substring(0, length), baseContextLength);
 
@@ -120,33 +120,34 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
             numVariationsInReadMappers[i] = new DensityMapper("numVariationsInRead",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getNumVariationsInReadsList));
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getNumVariationsInReadsList));
             //bin width 1 density mapper that ignores variations outside of caps
             distancesToReadVariations[i] = new DensityMapperCapped("distancesToReadVariations.forward","distancesToReadVariations.reverse",
                     -50,50, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotypeBothStrands(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder,
+                            SortedCountView.forOneSampleGenotypeBothStrands(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder,
                                     BaseInformationRecords.CountInfo::getDistancesToReadVariationsForwardStrandList,
                                     BaseInformationRecords.CountInfo::getDistancesToReadVariationsReverseStrandList));
             readMappingQualityMappers[i] = new DensityMapper("readMappingQuality.forward",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex,
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex,
                                     baseInformationOrBuilder, BaseInformationRecords.CountInfo::getReadMappingQualityForwardStrandList));
             baseQualityMappers[i] = new DensityMapper("baseQuality.forward",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList));
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList));
 
             targetAlignedLengthMappers[i] = new DensityMapper("targetAlignedLength",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getTargetAlignedLengthsList));
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getTargetAlignedLengthsList));
             queryAlignedLengthMappers[i] = new DensityMapper("queryAlignedLength",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQueryAlignedLengthsList));
-            bamFlagMappers[i] = new BamFlagMapper(sampleIndex,genotypeIndex);
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQueryAlignedLengthsList));
+            bamFlagMappers[i] = new BamFlagMapper(12, record ->
+                    SortedCountView.sortedCount(sampleIndex, record, sampleIndex, constantGenotypeIndex).getPairFlagsList());
             originalGobyCountIndexMappers[i] = new OriginalGobyCountIndexMapper(sampleIndex, constantGenotypeIndex);
 
             genotypeIndex++;
@@ -161,16 +162,16 @@ public class GenotypeMapperV29 extends GenotypeMapperV11 {
             readMappingQualityMappers[i] = new DensityMapper("readMappingQuality.reverse",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex,
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex,
                                     baseInformationOrBuilder, BaseInformationRecords.CountInfo::getReadMappingQualityReverseStrandList));
             baseQualityMappers[i] = new DensityMapper("baseQuality.reverse",
                     10, sbiProperties,
                     baseInformationOrBuilder ->
-                            TraversalHelper.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQualityScoresReverseStrandList));
+                            SortedCountView.forOneSampleGenotype(sampleIndex, constantGenotypeIndex, baseInformationOrBuilder, BaseInformationRecords.CountInfo::getQualityScoresReverseStrandList));
             genotypeIndex++;
         }
         delegate =
-                new CountReorderingMapper(sampleIndex, new NamingConcatFeatureMapper<>(
+                countReorderingMapper(sampleIndex, new NamingConcatFeatureMapper<>(
                         new NamingConcatFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>(originalGobyCountIndexMappers),
                         new NaiveNumAlleleMapper<BaseInformationRecords.BaseInformationOrBuilder>(sampleIndex),
                         new NamingConcatFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>(matchesRefMappers),
@@ -36,49 +36,64 @@ public class HomozygousLabelsMapper extends NoMasksLabelMapper<BaseInformationRe
 
             for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
                 indices[1] = labelIndex;
-                labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+                labels.putScalar(indices, produceLabel(mappedRecord, labelIndex));
             }
         }
 
         @Override
-        public void prepareToNormalize (BaseInformationRecords.BaseInformation record,int indexOfRecord){
-            if (sortCounts) {
-                sortedCountRecord = sortHelper.sort(record);
-            } else {
-                sortedCountRecord = record;
+        public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+            for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
+                labels[offset + labelIndex] = produceLabel(mappedRecord, labelIndex);
             }
         }
 
-        private BaseInformationRecords.BaseInformation sortedCountRecord;
-        private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+        @Override
+        public void prepareToNormalize (BaseInformationRecords.BaseInformation record,int indexOfRecord){
+            mappedRecord = record;
+            numCounts = record.getSamples(0).getCountsCount();
+            indexPermutation = SortedCountView.permutation(0, record, sortCounts, indexPermutation);
+        }
+
+        private BaseInformationRecords.BaseInformation mappedRecord;
+        /**
+         * Goby genotype index of each sorted count of the mapped record.
+         */
+        private int[] indexPermutation;
+        private int numCounts;
+
+        /**
+         * Return the count of the first sample of the mapped record at a sorted index (at this index when counts are
+         * not sorted).
+         */
+        private BaseInformationRecords.CountInfo sortedCount(int sortedIndex) {
+            return mappedRecord.getSamples(0).getCounts(sortedIndex < numCounts ? indexPermutation[sortedIndex] : sortedIndex);
+        }
 
         @Override
         public float produceLabel (BaseInformationRecords.BaseInformation record,int labelIndex){
             float v = epsilon / (numberOfLabels() - 1);
-            record = sortedCountRecord;
-            if (!getHomozygous(record)) {
+            if (!getHomozygous()) {
                 // this site is heterozygous. The Allele will only be encoded in the other outputs.
 
                 return (labelIndex == IS_HETEROZYGOUS_INDEX/**last index */) ? 1f-epsilon : v;
             } else {
                 // the site is homozygous.
-                if (labelIndex >= record.getSamples(0).getCountsCount()) {
+                if (labelIndex >= numCounts) {
                     // the labelIndex is outside the range of counts in the protobuff.
                     return v;
                 } else {
                     // The allele is encoded here:
-                    return record.getSamples(0).getCounts(labelIndex).getIsCalled() ? 1f-epsilon : v;
+                    return sortedCount(labelIndex).getIsCalled() ? 1f-epsilon : v;
                 }
             }
         }
 
 
-    private boolean getHomozygous(BaseInformationRecords.BaseInformation record) {
-        record = sortedCountRecord;
+    private boolean getHomozygous() {
         //count number of called alleles
         int numAlleles = 0;
-        for (int i = 0; i < record.getSamples(0).getCountsCount(); i++) {
-            if (record.getSamples(0).getCounts(i).getIsCalled()) {
+        for (int i = 0; i < numCounts; i++) {
+            if (sortedCount(i).getIsCalled()) {
                 numAlleles++;
             }
         }
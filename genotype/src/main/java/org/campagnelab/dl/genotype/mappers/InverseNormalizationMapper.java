@@ -1,6 +1,8 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.DelegatingFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
@@ -10,7 +12,8 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * @author Remi Torracinta
  */
 
-public class InverseNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType> {
+public class InverseNormalizationMapper<RecordType> extends AbstractFeatureMapper1D<RecordType>
+        implements DelegatingFeatureMapper<RecordType> {
 
     FeatureNameMapper<RecordType> delegate;
 
@@ -18,12 +21,26 @@ public class InverseNormalizationMapper<RecordType> extends AbstractFeatureMappe
         this.delegate = delegate;
     }
 
+    @Override
+    public FeatureMapper<RecordType> delegate() {
+        return delegate;
+    }
+
     @Override
     public int numberOfFeatures() {
         return delegate.numberOfFeatures();
     }
 
     public void prepareToNormalize(RecordType record, int indexOfRecord) {
+        delegate.prepareToNormalize(record, indexOfRecord);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        delegate.mapFeatures(record, inputs, offset, indexOfRecord);
+        for (int i = offset; i < offset + numberOfFeatures(); i++) {
+            inputs[i] = normalize(inputs[i], 0);
+        }
     }
 
     public float produceFeature(RecordType record, int featureIndex) {
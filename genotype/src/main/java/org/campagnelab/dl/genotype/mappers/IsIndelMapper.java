@@ -7,11 +7,13 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * Indicate if a count corresponds to an indel
  */
 
-public class IsIndelMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class IsIndelMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements SortedCountReader {
 
 
     int sampleIndex;
     int genotypeIndex;
+    private int sortedSampleIndex = -1;
 
 
 
@@ -20,6 +22,11 @@ public class IsIndelMapper extends AbstractFeatureMapper1D<BaseInformationRecord
         this.genotypeIndex = genotype;
     }
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public int numberOfFeatures() {
         return 2;
@@ -51,7 +58,7 @@ public class IsIndelMapper extends AbstractFeatureMapper1D<BaseInformationRecord
         if (sampleIndex < record.getSamplesCount()) {
             final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
             if (genotypeIndex < sample.getCountsCount()) {
-                genoInfo = sample.getCounts(genotypeIndex);
+                genoInfo = sample.getCounts(SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex));
                 if (featureIndex==0) {
                     return genoInfo.getIsIndel() ? 1 : 0;
                 } else {
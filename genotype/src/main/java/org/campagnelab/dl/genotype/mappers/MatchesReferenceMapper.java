@@ -7,11 +7,13 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * Indicate if a count matches the reference.
  */
 
-public class MatchesReferenceMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class MatchesReferenceMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements SortedCountReader {
 
 
     int sampleIndex;
     int genotypeIndex;
+    private int sortedSampleIndex = -1;
 
 
 
@@ -20,6 +22,11 @@ public class MatchesReferenceMapper extends AbstractFeatureMapper1D<BaseInformat
         this.genotypeIndex = genotype;
     }
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public int numberOfFeatures() {
         return 2;
@@ -51,7 +58,7 @@ public class MatchesReferenceMapper extends AbstractFeatureMapper1D<BaseInformat
         if (sampleIndex < record.getSamplesCount()) {
             final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
             if (genotypeIndex < sample.getCountsCount()) {
-                genoInfo = sample.getCounts(genotypeIndex);
+                genoInfo = sample.getCounts(SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex));
 
                 if (featureIndex==0) {
                     return genoInfo.getMatchesReference()?1:0;
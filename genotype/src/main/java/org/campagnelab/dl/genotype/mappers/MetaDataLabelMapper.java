@@ -62,7 +62,7 @@ public class MetaDataLabelMapper extends RecordCountSortingLabelMapperImpl {
     @Override
     public void mapLabels(BaseInformationRecords.BaseInformation record, INDArray labels, int indexOfRecord) {
         indices[0] = indexOfRecord;
-        record = sortedCountRecord;
+        record = mappedRecord;
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
             labels.putScalar(indices, produceLabel(record, labelIndex));
@@ -79,7 +79,7 @@ public class MetaDataLabelMapper extends RecordCountSortingLabelMapperImpl {
                 final String trueGenotype = record.getTrueGenotype();
                 return GenotypeHelper.isIndel(record.getReferenceBase(), trueGenotype) ? 1 : 0;
             case IS_MATCHING_REF_FEATURE_INDEX:
-                return calculateReferenceIndex(sortedCountRecord);
+                return calculateReferenceIndex();
             case IS_COUNT1_ORIGINAL_INDEX_FEATURE_INDEX:
             case IS_COUNT2_ORIGINAL_INDEX_FEATURE_INDEX:
             case IS_COUNT3_ORIGINAL_INDEX_FEATURE_INDEX:
@@ -90,18 +90,30 @@ public class MetaDataLabelMapper extends RecordCountSortingLabelMapperImpl {
             case IS_COUNT8_ORIGINAL_INDEX_FEATURE_INDEX:
             case IS_COUNT9_ORIGINAL_INDEX_FEATURE_INDEX:
             case IS_COUNT10_ORIGINAL_INDEX_FEATURE_INDEX:
-                return calculateCountIndex(sortedCountRecord, labelIndex - IS_COUNT1_ORIGINAL_INDEX_FEATURE_INDEX);
+                return calculateCountIndex(labelIndex - IS_COUNT1_ORIGINAL_INDEX_FEATURE_INDEX);
 
             default:
                 throw new RuntimeException("No such labelIndex: " + labelIndex);
         }
     }
 
-    private float calculateCountIndex(BaseInformationRecords.BaseInformation record, int sortedCountIndex) {
-        if (sortedCountIndex >= record.getSamples(0).getCountsCount()) {
+    private float calculateCountIndex(int sortedCountIndex) {
+        if (sortedCountIndex >= numCounts()) {
             return -1;
         }
-        return record.getSamples(0).getCounts(sortedCountIndex).getGobyGenotypeIndex();
+        return gobyGenotypeIndex(sortedCountIndex);
+    }
+
+    /**
+     * Determine the original goby count index of the allele matching the reference, in the mapped record.
+     */
+    private int calculateReferenceIndex() {
+        for (int sortedIndex = 0; sortedIndex < numCounts(); sortedIndex++) {
+            if (sortedCount(sortedIndex).getMatchesReference()) {
+                return gobyGenotypeIndex(sortedIndex);
+            }
+        }
+        return -1;
     }
 
     /**
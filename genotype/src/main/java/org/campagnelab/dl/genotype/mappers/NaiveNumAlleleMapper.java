@@ -2,6 +2,7 @@ package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.campagnelab.dl.somatic.mappers.RecordCountSummary;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -13,7 +14,7 @@ import java.util.Arrays;
  */
 public class NaiveNumAlleleMapper<T>
         extends NoMaskFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
-        implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
+        implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder>, SortedCountReader {
     @Override
     public int numberOfFeatures() {
         return MAX_GENOTYPES;
@@ -24,18 +25,25 @@ public class NaiveNumAlleleMapper<T>
     }
 
     int sampleIndex = 0;
+    private int sortedSampleIndex = -1;
     int counts[] = new int[MAX_GENOTYPES];
     private static int MAX_GENOTYPES = 3;
     int numAlleles = 0;
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
         int sumCounts = 0;
         Arrays.fill(counts, 0);
+        final RecordCountSummary summary = RecordCountSummary.of(record);
         for (int i = 0; i < MAX_GENOTYPES; i++) {
-            BaseInformationRecords.CountInfo counts = record.getSamples(sampleIndex).getCounts(i);
-            if (!counts.getMatchesReference()) {
-                this.counts[i] += counts.getGenotypeCountForwardStrand() + counts.getGenotypeCountReverseStrand();
+            final int countIndex = SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, i);
+            if (!record.getSamples(sampleIndex).getCounts(countIndex).getMatchesReference()) {
+                this.counts[i] += summary.totalCount(sampleIndex, countIndex);
                 sumCounts += this.counts[i];
             }
         }
@@ -51,7 +59,7 @@ public class NaiveNumAlleleMapper<T>
      //   System.out.println("num Alleles:" + numAlleles);
     }
 
-    private static final int[] indices = new int[]{0, 0};
+    private final int[] indices = new int[]{0, 0};
 
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs, int indexOfRecord) {
@@ -8,12 +8,30 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * Map the original index of the goby count in the sbi.
  * Created by fac2003 on 2/19/17.
  */
-public class OriginalGobyCountIndexMapper extends OneHotHashModuloMapper<BaseInformationRecords.BaseInformationOrBuilder> implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
+public class OriginalGobyCountIndexMapper extends OneHotHashModuloMapper<BaseInformationRecords.BaseInformationOrBuilder> implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder>,
+        SortedCountReader {
+    private static final int NUM_ELEMENTS = 20;
     int genotypeIndex;
     int sampleIndex;
+    private int sortedSampleIndex = -1;
 
     public OriginalGobyCountIndexMapper(int sampleIndex, int genotypeIndex) {
-        super(20, record -> record.getSamples(sampleIndex).getCounts(genotypeIndex).getGobyGenotypeIndex());
+        super(NUM_ELEMENTS, record -> record.getSamples(sampleIndex).getCounts(genotypeIndex).getGobyGenotypeIndex());
+        this.sampleIndex = sampleIndex;
+        this.genotypeIndex = genotypeIndex;
+    }
+
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
+    @Override
+    public int getIntegerOfBase(BaseInformationRecords.BaseInformationOrBuilder record) {
+        if (sortedSampleIndex < 0) {
+            return super.getIntegerOfBase(record);
+        }
+        return SortedCountView.gobyGenotypeIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex) % NUM_ELEMENTS;
     }
 
     @Override
@@ -7,7 +7,8 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Sort genotypes of a record by decreasing count.
+ * Sort genotypes of a record by decreasing count. Each call builds a copy of the record: mappers and interpreters
+ * share a SortedCountView instead.
  * Created by fac2003 on 12/15/16.
  */
 public class RecordCountSortHelper {
@@ -6,14 +6,17 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 /**
  *
  * Mapper that pre-sorts the counts of a record by decreasing allele support. Stores a permutation from the sorted order
- * to  the original count order.
+ * to  the original count order. Counts are not copied: subclasses read them by sorted index with sortedCount.
  * Created by fac2003 on 2/21/17.
  */
 public abstract class RecordCountSortingLabelMapperImpl extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation> {
     protected int[] indexPermutation;
     protected boolean sortCounts=true;
-    protected BaseInformationRecords.BaseInformation sortedCountRecord;
-    protected RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+    /**
+     * The record passed to prepareToNormalize.
+     */
+    protected BaseInformationRecords.BaseInformation mappedRecord;
+    private int numCounts;
 
     public RecordCountSortingLabelMapperImpl(boolean sortCounts) {
         this.sortCounts = sortCounts;
@@ -21,21 +24,38 @@ public abstract class RecordCountSortingLabelMapperImpl extends NoMasksLabelMapp
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        int sortedIndex = 0;
-        indexPermutation = new int[record.getSamples(0).getCountsCount()];
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(0,record);
-
-            for (BaseInformationRecords.CountInfo count : sortedCountRecord.getSamples(0).getCountsList()) {
-                indexPermutation[sortedIndex++] = count.getGobyGenotypeIndex();
-            }
-        } else {
-            sortedCountRecord = record;
-            for (BaseInformationRecords.CountInfo count : sortedCountRecord.getSamples(0).getCountsList()) {
-                indexPermutation[sortedIndex] = sortedIndex;
-                sortedIndex++;
-            }
-        }
+        mappedRecord = record;
+        numCounts = record.getSamples(0).getCountsCount();
+        indexPermutation = SortedCountView.permutation(0, record, sortCounts, indexPermutation);
+    }
+
+    /**
+     * Return the number of counts of the first sample of the mapped record.
+     */
+    protected int numCounts() {
+        return numCounts;
+    }
+
+    /**
+     * Return the count of the first sample of the mapped record at a sorted index (at this index when counts are not
+     * sorted).
+     */
+    protected BaseInformationRecords.CountInfo sortedCount(int sortedIndex) {
+        return mappedRecord.getSamples(0).getCounts(sortedIndex < numCounts ? indexPermutation[sortedIndex] : sortedIndex);
+    }
+
+    /**
+     * Return the goby genotype index of the count at a sorted index, as set in the records sorted by
+     * RecordCountSortHelper.
+     */
+    protected int gobyGenotypeIndex(int sortedIndex) {
+        return sortCounts ? indexPermutation[sortedIndex] : sortedCount(sortedIndex).getGobyGenotypeIndex();
+    }
 
+    @Override
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(mappedRecord, labelIndex);
+        }
     }
 }
@@ -17,11 +17,13 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * @author Remi Torracinta
  */
 
-public class SingleGenoTypeCountMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class SingleGenoTypeCountMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements SortedCountReader {
 
 
     int sampleIndex;
     int genotypeIndex;
+    private int sortedSampleIndex = -1;
     boolean getForwardStrand;
 
 
@@ -31,6 +33,11 @@ public class SingleGenoTypeCountMapper extends AbstractFeatureMapper1D<BaseInfor
         this.getForwardStrand = getForwardStrand;
     }
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public int numberOfFeatures() {
         return 1;
@@ -95,7 +102,7 @@ public class SingleGenoTypeCountMapper extends AbstractFeatureMapper1D<BaseInfor
         if (sampleIndex < record.getSamplesCount()) {
             final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
             if (genotypeIndex < sample.getCountsCount()) {
-                genoInfo = sample.getCounts(genotypeIndex);
+                genoInfo = sample.getCounts(SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex));
                 float val = getForwardStrand ? genoInfo.getGenotypeCountForwardStrand() : genoInfo.getGenotypeCountReverseStrand();
                 return val;
             }
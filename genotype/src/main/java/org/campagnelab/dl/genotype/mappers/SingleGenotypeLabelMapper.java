@@ -35,7 +35,7 @@ public class SingleGenotypeLabelMapper extends RecordCountSortingLabelMapperImpl
         indices[0] = indexOfRecord;
         for (int labelIndex = 0; labelIndex < 2; labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(mappedRecord, labelIndex));
         }
     }
 
@@ -43,11 +43,10 @@ public class SingleGenotypeLabelMapper extends RecordCountSortingLabelMapperImpl
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
         assert labelIndex == 0 || labelIndex == 1 : "only one label.";
         boolean isCalled;
-        record = sortedCountRecord;
-        if (sortedGenotypeIndex >= record.getSamples(0).getCountsCount() || sortedGenotypeIndex>= GenotypeFeatureMapper.MAX_GENOTYPES) {
+        if (sortedGenotypeIndex >= numCounts() || sortedGenotypeIndex>= GenotypeFeatureMapper.MAX_GENOTYPES) {
             isCalled = false;
         } else {
-            isCalled = record.getSamples(0).getCounts(sortedGenotypeIndex).getIsCalled();
+            isCalled = sortedCount(sortedGenotypeIndex).getIsCalled();
         }
         if (labelIndex == 0) {
             // first index is 1 when site is  called.
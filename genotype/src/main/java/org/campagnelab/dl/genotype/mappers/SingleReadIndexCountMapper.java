@@ -22,11 +22,13 @@ import java.util.List;
  * @author Remi Torracinta
  */
 
-public class SingleReadIndexCountMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class SingleReadIndexCountMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements SortedCountReader {
 
 
     int sampleIndex;
     int genotypeIndex;
+    private int sortedSampleIndex = -1;
     boolean getForwardStrand;
 
 
@@ -36,6 +38,11 @@ public class SingleReadIndexCountMapper extends AbstractFeatureMapper1D<BaseInfo
         this.getForwardStrand = getForwardStrand;
     }
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public int numberOfFeatures() {
         return 1;
@@ -102,7 +109,7 @@ public class SingleReadIndexCountMapper extends AbstractFeatureMapper1D<BaseInfo
         if (sampleIndex < record.getSamplesCount()) {
             final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
             if (genotypeIndex < sample.getCountsCount()) {
-                genoInfo = sample.getCounts(genotypeIndex);
+                genoInfo = sample.getCounts(SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex));
                 List<Integer> readIndicesList = ProtoPredictor.expandFreq(getForwardStrand ? genoInfo.getReadIndicesForwardStrandList() : genoInfo.getReadIndicesReverseStrandList());
                 IntSet readIndicesSet = new IntArraySet(readIndicesList);
                 return readIndicesSet.size();
@@ -5,6 +5,7 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Properties;
 
 /**
@@ -58,8 +59,8 @@ public class SoftmaxLabelMapper extends CountSortingLabelMapper implements Confi
         super.prepareToNormalize(record, indexOfRecord);
         cachedValue = 0;
         int index = 0;
-        for (BaseInformationRecords.CountInfo count : sortedCountRecord.getSamples(0).getCountsList()) {
-            cachedValue |= (count.getIsCalled() ? 1 : 0) << index;
+        for (int sortedIndex = 0; sortedIndex < numCounts(); sortedIndex++) {
+            cachedValue |= (sortedCount(sortedIndex).getIsCalled() ? 1 : 0) << index;
             index++;
             if (index > maxCalledAlleles) {
    //             break;
@@ -74,6 +75,14 @@ public class SoftmaxLabelMapper extends CountSortingLabelMapper implements Confi
         return (cachedValue == labelIndex) ? 1f - epsilon : v;
     }
 
+    @Override
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        final int n = numberOfLabels();
+        Arrays.fill(labels, offset, offset + n, epsilon / (n - 1f));
+        if (cachedValue >= 0 && cachedValue < n) {
+            labels[offset + cachedValue] = 1f - epsilon;
+        }
+    }
 
     public static final String PLOIDY_PROPERTY = "genotypes.ploidy";
 
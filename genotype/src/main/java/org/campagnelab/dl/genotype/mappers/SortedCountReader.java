@@ -0,0 +1,18 @@
+package org.campagnelab.dl.genotype.mappers;
+
+/**
+ * A feature mapper that can read the counts of a sample by sorted index (see SortedCountView), instead of reading the
+ * counts of a copy of the record where they are sorted. CountReorderingMapper.sortedView configures the readers of its
+ * delegate graph, and gives them the record itself.
+ *
+ * @author Fabien Campagne
+ */
+public interface SortedCountReader {
+
+    /**
+     * Read the counts of the record as if the counts of a sample were sorted.
+     *
+     * @param sortedSampleIndex index of the sample whose counts are sorted.
+     */
+    void readSortedCounts(int sortedSampleIndex);
+}
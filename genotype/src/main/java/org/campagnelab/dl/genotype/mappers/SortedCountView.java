@@ -0,0 +1,344 @@
+package org.campagnelab.dl.genotype.mappers;
+
+import org.campagnelab.dl.somatic.mappers.RecordCountSummary;
+import org.campagnelab.dl.somatic.mappers.functional.NumberWithFrequencyConsumer;
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Counts of a sample, sorted by decreasing allele support, without copying the record. The view is a permutation over
+ * the CountInfo entries of the record: count(i) is the count with the i-th largest support (ties keep the original
+ * order, as RecordCountSortHelper does), and originalIndex(i) is its goby genotype index.
+ * <p>
+ * Views are shared by the feature mappers, label mappers and interpreters that run on the same thread: of(sampleIndex,
+ * record) sorts the counts once per record, and returns the same view to the other callers. Mappers whose delegates
+ * need a record with sorted counts obtain it from sortedRecord() or sortedFeatureRecord(), which are built at most once
+ * per record and view. A view is only valid until of is called with another record on the same thread: callers must
+ * copy what they need (or keep the sorted record) in prepareToNormalize.
+ * <p>
+ * The static methods countIndex, sortedCount and forOneSampleGenotype read the record as if the counts of one sample
+ * were sorted, without a copy: mappers under a CountReorderingMapper that reads through the view (see
+ * CountReorderingMapper.sortedView) use them instead of indexing the counts of the record. They read through the view
+ * of the thread only when it was sorted for the very record they are given. Any other record, such as the sorted copy
+ * that a CountReorderingMapper built without sortedView gives its delegates, is indexed as is.
+ *
+ * @author Fabien Campagne
+ */
+public class SortedCountView {
+    private static final ThreadLocal<SortedCountView[]> VIEWS = ThreadLocal.withInitial(() -> new SortedCountView[0]);
+
+    private final int sampleIndex;
+    private BaseInformationRecords.BaseInformationOrBuilder record;
+    private int numCounts;
+    private int[] order = new int[0];
+    private int[] sortedIndices = new int[0];
+    private int[] totals = new int[0];
+    private BaseInformationRecords.BaseInformation sortedRecord;
+    private BaseInformationRecords.BaseInformation sortedFeatureRecord;
+
+    public SortedCountView(int sampleIndex) {
+        this.sampleIndex = sampleIndex;
+    }
+
+    /**
+     * Return the view of the counts of a sample of the record, shared by the callers on this thread. Counts are sorted
+     * again only when the record differs from the record of the previous call. Builders can be modified between calls,
+     * so their counts are always sorted again.
+     */
+    public static SortedCountView of(int sampleIndex, BaseInformationRecords.BaseInformationOrBuilder record) {
+        SortedCountView[] views = VIEWS.get();
+        if (sampleIndex >= views.length) {
+            views = Arrays.copyOf(views, sampleIndex + 1);
+            VIEWS.set(views);
+        }
+        SortedCountView view = views[sampleIndex];
+        if (view == null) {
+            view = new SortedCountView(sampleIndex);
+            views[sampleIndex] = view;
+        }
+        if (view.record != record || !(record instanceof BaseInformationRecords.BaseInformation)) {
+            view.sort(record);
+        }
+        return view;
+    }
+
+    /**
+     * Return the view of the thread for the sample when it was sorted for this record, or null. Unlike of, builders
+     * are not sorted again: CountReorderingMapper sorts them once before its delegates read them.
+     */
+    static SortedCountView current(int sampleIndex, BaseInformationRecords.BaseInformationOrBuilder record) {
+        final SortedCountView[] views = VIEWS.get();
+        if (sampleIndex < 0 || sampleIndex >= views.length) {
+            return null;
+        }
+        final SortedCountView view = views[sampleIndex];
+        return view != null && view.record == record ? view : null;
+    }
+
+    /**
+     * Return the index in the record of the count found at index in sample sampleIndex of the copy of the record
+     * where the counts of sample sortedSampleIndex are sorted. Only the counts of the sorted sample are reordered, and
+     * indices past the last count are returned as is. A negative sortedSampleIndex designates a record that is not
+     * sorted, and so does a record for which the view of the thread was not sorted (see of).
+     */
+    public static int countIndex(int sortedSampleIndex, BaseInformationRecords.BaseInformationOrBuilder record,
+                                 int sampleIndex, int index) {
+        final SortedCountView view = sortedSampleIndex == sampleIndex ? current(sampleIndex, record) : null;
+        return view != null && index < view.numCounts ? view.order[index] : index;
+    }
+
+    /**
+     * Return the count found at index in sample sampleIndex of the record, where the counts of sample
+     * sortedSampleIndex are sorted (see countIndex).
+     */
+    public static BaseInformationRecords.CountInfo sortedCount(int sortedSampleIndex,
+                                                               BaseInformationRecords.BaseInformationOrBuilder record,
+                                                               int sampleIndex, int index) {
+        return record.getSamples(sampleIndex).getCounts(countIndex(sortedSampleIndex, record, sampleIndex, index));
+    }
+
+    /**
+     * Return the goby genotype index of the count found at index in sample sampleIndex of the record, where the
+     * counts of sample sortedSampleIndex are sorted. Sorted counts have their goby genotype index set to their index in
+     * the record, as in sortedFeatureRecord().
+     */
+    public static int gobyGenotypeIndex(int sortedSampleIndex, BaseInformationRecords.BaseInformationOrBuilder record,
+                                        int sampleIndex, int index) {
+        final SortedCountView view = sortedSampleIndex == sampleIndex ? current(sampleIndex, record) : null;
+        if (view != null) {
+            return index < view.numCounts ? view.order[index] : index;
+        }
+        return record.getSamples(sampleIndex).getCounts(index).getGobyGenotypeIndex();
+    }
+
+    /**
+     * TraversalHelper.forOneSampleGenotype, where genotypeIndex is a sorted index of the counts of the sample.
+     */
+    public static List<BaseInformationRecords.NumberWithFrequency> forOneSampleGenotype(int sampleIndex,
+                                                                                        int genotypeIndex,
+                                                                                        BaseInformationRecords.BaseInformationOrBuilder record,
+                                                                                        Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function) {
+        return TraversalHelper.forOneSampleGenotype(sampleIndex, countIndex(sampleIndex, record, sampleIndex, genotypeIndex),
+                record, function);
+    }
+
+    /**
+     * TraversalHelper.forOneSampleGenotypeBothStrands, where genotypeIndex is a sorted index of the counts of the
+     * sample.
+     */
+    public static List<BaseInformationRecords.NumberWithFrequency> forOneSampleGenotypeBothStrands(int sampleIndex,
+                                                                                                   int genotypeIndex,
+                                                                                                   BaseInformationRecords.BaseInformationOrBuilder record,
+                                                                                                   Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> forwardFunction,
+                                                                                                   Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> reverseFunction) {
+        return TraversalHelper.forOneSampleGenotypeBothStrands(sampleIndex,
+                countIndex(sampleIndex, record, sampleIndex, genotypeIndex), record, forwardFunction, reverseFunction);
+    }
+
+    /**
+     * TraversalHelper.forOneSampleGenotype with a consumer, where genotypeIndex is a sorted index of the counts of the
+     * sample.
+     */
+    public static void forOneSampleGenotype(int sampleIndex,
+                                            int genotypeIndex,
+                                            BaseInformationRecords.BaseInformationOrBuilder record,
+                                            Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function,
+                                            NumberWithFrequencyConsumer consumer) {
+        TraversalHelper.forOneSampleGenotype(sampleIndex, countIndex(sampleIndex, record, sampleIndex, genotypeIndex),
+                record, function, consumer);
+    }
+
+    /**
+     * TraversalHelper.forOneSampleGenotypeBothStrands with a consumer, where genotypeIndex is a sorted index of the
+     * counts of the sample.
+     */
+    public static void forOneSampleGenotypeBothStrands(int sampleIndex,
+                                                       int genotypeIndex,
+                                                       BaseInformationRecords.BaseInformationOrBuilder record,
+                                                       Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> forwardFunction,
+                                                       Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> reverseFunction,
+                                                       NumberWithFrequencyConsumer consumer) {
+        TraversalHelper.forOneSampleGenotypeBothStrands(sampleIndex,
+                countIndex(sampleIndex, record, sampleIndex, genotypeIndex), record, forwardFunction, reverseFunction,
+                consumer);
+    }
+
+    /**
+     * Sort the counts of the record. Arrays are reused across records, and the record is not copied.
+     */
+    public void sort(BaseInformationRecords.BaseInformationOrBuilder record) {
+        this.record = record;
+        sortedRecord = null;
+        sortedFeatureRecord = null;
+        final RecordCountSummary summary = RecordCountSummary.of(record);
+        numCounts = summary.numCounts(sampleIndex);
+        if (order.length < numCounts) {
+            order = new int[numCounts];
+            sortedIndices = new int[numCounts];
+            totals = new int[numCounts];
+        }
+        for (int i = 0; i < numCounts; i++) {
+            totals[i] = summary.totalCount(sampleIndex, i);
+        }
+        sortByDecreasingTotal(totals, order, numCounts);
+        for (int i = 0; i < numCounts; i++) {
+            sortedIndices[order[i]] = i;
+        }
+    }
+
+    /**
+     * Store in order the indices of the first n totals, by decreasing total. Equal totals keep their order.
+     */
+    static void sortByDecreasingTotal(int[] totals, int[] order, int n) {
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            int j = i;
+            while (j > 0 && totals[order[j - 1]] < totals[index]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = index;
+        }
+    }
+
+    public int sampleIndex() {
+        return sampleIndex;
+    }
+
+    public int numCounts() {
+        return numCounts;
+    }
+
+    /**
+     * Return the goby genotype index (index in the record) of the count at a sorted index.
+     */
+    public int originalIndex(int sortedIndex) {
+        return order[sortedIndex];
+    }
+
+    /**
+     * Return the sorted index of the count at a goby genotype index.
+     */
+    public int sortedIndex(int originalIndex) {
+        return sortedIndices[originalIndex];
+    }
+
+    /**
+     * Return the count at a sorted index. The count is the one of the record: its goby genotype index is
+     * originalIndex(sortedIndex), whether or not the field is set. Indices past the last count fail as in the record.
+     */
+    public BaseInformationRecords.CountInfo count(int sortedIndex) {
+        return record.getSamples(sampleIndex).getCounts(sortedIndex < numCounts ? order[sortedIndex] : sortedIndex);
+    }
+
+    /**
+     * Store in permutation the goby genotype index of each sorted count of the sample of the record, or the identity
+     * when sort is false. Label mappers copy the permutation in prepareToNormalize, because the view of the thread
+     * changes with the next record.
+     *
+     * @param permutation array reused across records.
+     * @return permutation, or a larger array when permutation cannot hold the counts of the record.
+     */
+    public static int[] permutation(int sampleIndex, BaseInformationRecords.BaseInformationOrBuilder record,
+                                    boolean sort, int[] permutation) {
+        final int numCounts = record.getSamples(sampleIndex).getCountsCount();
+        if (permutation == null || permutation.length < numCounts) {
+            permutation = new int[numCounts];
+        }
+        final SortedCountView view = sort ? of(sampleIndex, record) : null;
+        for (int sortedIndex = 0; sortedIndex < numCounts; sortedIndex++) {
+            permutation[sortedIndex] = sort ? view.order[sortedIndex] : sortedIndex;
+        }
+        return permutation;
+    }
+
+    /**
+     * Return true when the counts of the record are already in sorted order.
+     */
+    public boolean isIdentity() {
+        for (int i = 0; i < numCounts; i++) {
+            if (order[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a copy of the record where the counts of the sample are sorted, and have their goby genotype index, as
+     * RecordCountSortHelper.sort(int, BaseInformation) does. The copy is built once per record. The record itself is
+     * returned when its counts are sorted and indexed already.
+     */
+    public BaseInformationRecords.BaseInformation sortedRecord() {
+        if (sortedRecord == null) {
+            if (record instanceof BaseInformationRecords.BaseInformation && isIdentity() && indexed()) {
+                sortedRecord = (BaseInformationRecords.BaseInformation) record;
+            } else {
+                BaseInformationRecords.BaseInformation.Builder copyOfRecord =
+                        record instanceof BaseInformationRecords.BaseInformation ?
+                                ((BaseInformationRecords.BaseInformation) record).toBuilder() :
+                                ((BaseInformationRecords.BaseInformation.Builder) record).build().toBuilder();
+                copyOfRecord.setSamples(sampleIndex, sortedSample());
+                sortedRecord = copyOfRecord.build();
+            }
+        }
+        return sortedRecord;
+    }
+
+    /**
+     * Return a copy of the fields of the record used by the feature mappers, where the counts of the sample are
+     * sorted, as RecordCountSortHelper.sort(int, BaseInformationOrBuilder) does. The copy is built once per record.
+     */
+    public BaseInformationRecords.BaseInformation sortedFeatureRecord() {
+        if (sortedFeatureRecord == null) {
+            BaseInformationRecords.BaseInformation.Builder copyOfRecord = BaseInformationRecords.BaseInformation.newBuilder();
+            copyOfRecord.setGenomicSequenceContext(record.getGenomicSequenceContext());
+            copyOfRecord.setPosition(record.getPosition());
+            copyOfRecord.setReferenceId(record.getReferenceId());
+            copyOfRecord.setReferenceBase(record.getReferenceBase());
+            copyOfRecord.setTrueGenotype(record.getTrueGenotype());
+            copyOfRecord.setReferenceIndex(record.getReferenceIndex());
+            copyOfRecord.addAllSamples(record.getSamplesList());
+            copyOfRecord.setSamples(sampleIndex, sortedSample());
+            sortedFeatureRecord = copyOfRecord.build();
+        }
+        return sortedFeatureRecord;
+    }
+
+    /**
+     * Return true when each count of the sample has its goby genotype index set to its index in the record.
+     */
+    private boolean indexed() {
+        final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
+        for (int i = 0; i < numCounts; i++) {
+            final BaseInformationRecords.CountInfo count = sample.getCounts(i);
+            if (!count.hasGobyGenotypeIndex() || count.getGobyGenotypeIndex() != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the sample with sorted counts. Counts whose goby genotype index is already set are not copied.
+     */
+    private BaseInformationRecords.SampleInfo sortedSample() {
+        final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
+        final BaseInformationRecords.SampleInfo.Builder builder = sample.toBuilder();
+        builder.clearCounts();
+        for (int i = 0; i < numCounts; i++) {
+            final int originalIndex = order[i];
+            final BaseInformationRecords.CountInfo count = sample.getCounts(originalIndex);
+            if (count.hasGobyGenotypeIndex() && count.getGobyGenotypeIndex() == originalIndex) {
+                builder.addCounts(count);
+            } else {
+                builder.addCounts(count.toBuilder().setGobyGenotypeIndex(originalIndex));
+            }
+        }
+        return builder.build();
+    }
+}
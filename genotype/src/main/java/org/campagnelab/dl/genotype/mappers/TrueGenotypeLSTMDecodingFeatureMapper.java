@@ -5,16 +5,14 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.Properties;
-import java.util.function.Function;
 
 /**
  * Created by joshuacohen on 2/8/17.
  */
-public class TrueGenotypeLSTMDecodingFeatureMapper implements
-        FeatureNameMapper<BaseInformationRecords.BaseInformation>, ConfigurableFeatureMapper {
+public class TrueGenotypeLSTMDecodingFeatureMapper implements FeatureNameMapper<BaseInformationRecords.BaseInformation>,
+        SequenceFeatureMapper<BaseInformationRecords.BaseInformation>, ConfigurableFeatureMapper {
 
-    private RNNFeatureMapper<String> delegate;
-    private String cachedRecordGenotype;
+    private OneHotSequenceEncoder encoder;
     private int trueGenotypeLength;
     private static final int defaultGenotypeSequenceLength = 30;
     private boolean isPredicting;
@@ -28,13 +26,8 @@ public class TrueGenotypeLSTMDecodingFeatureMapper implements
         } else {
             trueGenotypeLength = Integer.parseInt(trueGenotypeLengthProperty);
         }
-        OneHotBaseFeatureMapper<String>[] delegateMapperArray = new OneHotBaseFeatureMapper[trueGenotypeLength + 3];
-        for (int i = 0; i < trueGenotypeLength + 3; i++) {
-            delegateMapperArray[i] = new OneHotBaseFeatureMapper<>(i, Function.identity(),
-                   TrueGenotypeLSTMDecodingFeatureMapper::baseToPaddingFeature,
-                    TrueGenotypeLSTMLabelMapper.featuresOrLabelsPerTimeStep);
-        }
-        delegate = new RNNFeatureMapper<>(String::length, delegateMapperArray);
+        encoder = new OneHotSequenceEncoder(trueGenotypeLength + 3, TrueGenotypeLSTMLabelMapper.featuresOrLabelsPerTimeStep,
+                TrueGenotypeLSTMLabelMapper::baseToLabel, -1);
     }
 
     @Override
@@ -44,12 +37,12 @@ public class TrueGenotypeLSTMDecodingFeatureMapper implements
 
     @Override
     public int numberOfFeatures() {
-        return delegate.numberOfFeatures();
+        return encoder.numberOfFeatures();
     }
 
     @Override
     public MappedDimensions dimensions() {
-        return delegate.dimensions();
+        return new MappedDimensions(encoder.featuresPerBase(), encoder.maxLength());
     }
 
     @Override
@@ -60,42 +53,47 @@ public class TrueGenotypeLSTMDecodingFeatureMapper implements
         if (!isPredicting) {
             cachedRecordGenotypeBuilder.append('$');
             if (trueGenotype.length() >= trueGenotypeLength) {
-                cachedRecordGenotypeBuilder.append(trueGenotype.substring(0, trueGenotypeLength));
+                cachedRecordGenotypeBuilder.append(trueGenotype, 0, trueGenotypeLength);
             } else {
                 cachedRecordGenotypeBuilder.append(trueGenotype);
             }
             cachedRecordGenotypeBuilder.append('*');
         }
-        cachedRecordGenotype = cachedRecordGenotypeBuilder.toString();
-        delegate.prepareToNormalize(cachedRecordGenotype, indexOfRecord);
+        encoder.encode(cachedRecordGenotypeBuilder);
     }
 
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformation record, INDArray inputs, int indexOfRecord) {
-        delegate.mapFeatures(cachedRecordGenotype, inputs, indexOfRecord);
+        encoder.mapSequenceFeatures(inputs, indexOfRecord);
+    }
+
+    @Override
+    public void mapSequenceFeatures(BaseInformationRecords.BaseInformation record, float[] inputs, int indexOfRecord, int numRecords) {
+        encoder.mapSequenceFeatures(inputs, indexOfRecord, numRecords);
+    }
+
+    @Override
+    public void maskSequenceFeatures(BaseInformationRecords.BaseInformation record, float[] mask, int indexOfRecord, int numRecords) {
+        encoder.maskSequence(mask, indexOfRecord, numRecords);
     }
 
     @Override
     public boolean hasMask() {
-        return delegate.hasMask();
+        return true;
     }
 
     @Override
     public void maskFeatures(BaseInformationRecords.BaseInformation record, INDArray mask, int indexOfRecord) {
-        delegate.maskFeatures(cachedRecordGenotype, mask, indexOfRecord);
+        encoder.maskSequence(mask, indexOfRecord);
     }
 
     @Override
     public boolean isMasked(BaseInformationRecords.BaseInformation record, int featureIndex) {
-        return delegate.isMasked(cachedRecordGenotype, featureIndex);
+        return featureIndex / encoder.featuresPerBase() < encoder.sequenceLength();
     }
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformation record, int featureIndex) {
-        return delegate.produceFeature(cachedRecordGenotype, featureIndex);
-    }
-
-    private static int baseToPaddingFeature(String recordString, int baseIndex) {
-        return TrueGenotypeLSTMLabelMapper.baseToLabel(recordString.charAt(baseIndex));
+        return encoder.produceSequenceFeature(featureIndex);
     }
 }
@@ -1,15 +1,15 @@
 package org.campagnelab.dl.genotype.mappers;
 
-import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.campagnelab.dl.framework.mappers.MappedDimensions;
 import org.campagnelab.dl.framework.mappers.RNNLabelMapper;
+import org.campagnelab.dl.framework.mappers.SequenceLabelMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * Created by joshuacohen on 2/8/17.
  */
-public class TrueGenotypeLSTMLabelMapper implements LabelMapper<BaseInformationRecords.BaseInformation> {
+public class TrueGenotypeLSTMLabelMapper implements SequenceLabelMapper<BaseInformationRecords.BaseInformation> {
 
     private final RNNLabelMapper<String> delegate;
     static final int featuresOrLabelsPerTimeStep = 10;
@@ -37,6 +37,18 @@ public class TrueGenotypeLSTMLabelMapper implements LabelMapper<BaseInformationR
         delegate.mapLabels(cachedRecordGenotype, labels, indexOfRecord);
     }
 
+    @Override
+    public void mapSequenceLabels(BaseInformationRecords.BaseInformation record, float[] labels, int indexOfRecord,
+                                  int numRecords) {
+        delegate.mapSequenceLabels(cachedRecordGenotype, labels, indexOfRecord, numRecords);
+    }
+
+    @Override
+    public void maskSequenceLabels(BaseInformationRecords.BaseInformation record, float[] mask, int indexOfRecord,
+                                   int numRecords) {
+        delegate.maskSequenceLabels(cachedRecordGenotype, mask, indexOfRecord, numRecords);
+    }
+
     @Override
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
         return delegate.produceLabel(cachedRecordGenotype, labelIndex);
@@ -7,11 +7,13 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * Indicate if a count corresponds to a SNP, insertion, deletion, or ref
  */
 
-public class VariantTypeMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class VariantTypeMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements SortedCountReader {
 
 
     int sampleIndex;
     int genotypeIndex;
+    private int sortedSampleIndex = -1;
 
 
 
@@ -20,6 +22,11 @@ public class VariantTypeMapper extends AbstractFeatureMapper1D<BaseInformationRe
         this.genotypeIndex = genotype;
     }
 
+    @Override
+    public void readSortedCounts(int sortedSampleIndex) {
+        this.sortedSampleIndex = sortedSampleIndex;
+    }
+
     @Override
     public int numberOfFeatures() {
         return 4;
@@ -51,7 +58,7 @@ public class VariantTypeMapper extends AbstractFeatureMapper1D<BaseInformationRe
         if (sampleIndex < record.getSamplesCount()) {
             final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
             if (genotypeIndex < sample.getCountsCount()) {
-                BaseInformationRecords.CountInfo genoInfo = sample.getCounts(genotypeIndex);
+                BaseInformationRecords.CountInfo genoInfo = sample.getCounts(SortedCountView.countIndex(sortedSampleIndex, record, sampleIndex, genotypeIndex));
                 if (sample.getIsVariant()) {
                     if (genoInfo.getToSequence().length() == 1) {
                         featureProduced = 0;
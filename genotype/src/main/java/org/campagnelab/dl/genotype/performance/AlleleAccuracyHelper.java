@@ -13,33 +13,41 @@ import java.util.function.Predicate;
 
  */
 public class AlleleAccuracyHelper {
+    private int index;
+    private int nProcessed;
+    private int nCorrect;
+    private final BinaryClassPrediction prediction = new BinaryClassPrediction();
 
     public double estimateWithGraph(MultiDataSetIterator iterator, ComputationGraph graph, Predicate<Integer> stopIfTrue) {
-        int index = 0;
-        int nProcessed = 0;
-        int nCorrect = 0;
-        BinaryClassPrediction prediction = new BinaryClassPrediction();
         while (iterator.hasNext()) {
             MultiDataSet next = iterator.next();
-            INDArray[] outputs = graph.output(next.getFeatures());
-            INDArray[] labels = next.getLabels();
-
-            for (int recordIndex = 0; recordIndex < outputs[0].rows(); recordIndex++){
-                for (int predictionIndex = 1; predictionIndex < outputs.length; predictionIndex++) {
-                    nProcessed++;
-                    prediction.trueLabelYes = labels[predictionIndex].getDouble(recordIndex, 0);
-                    prediction.predictedLabelYes = outputs[predictionIndex].getDouble(recordIndex, 0);
-                    if ((prediction.trueLabelYes >= 0.5)?(prediction.predictedLabelYes>=0.5):(prediction.predictedLabelYes<0.5)){
-                        nCorrect++;
-                    }
-                    prediction.index = index++;
-                }
-            }
+            observe(graph.output(next.getFeatures()), next.getLabels());
             if (stopIfTrue.test(nProcessed)) {
                 break;
             }
 
         }
+        return getAccuracy();
+    }
+
+    /**
+     * Count the allele predictions (outputs after the first) of a minibatch that agree with the labels.
+     */
+    public void observe(INDArray[] outputs, INDArray[] labels) {
+        for (int recordIndex = 0; recordIndex < outputs[0].rows(); recordIndex++){
+            for (int predictionIndex = 1; predictionIndex < outputs.length; predictionIndex++) {
+                nProcessed++;
+                prediction.trueLabelYes = labels[predictionIndex].getDouble(recordIndex, 0);
+                prediction.predictedLabelYes = outputs[predictionIndex].getDouble(recordIndex, 0);
+                if ((prediction.trueLabelYes >= 0.5)?(prediction.predictedLabelYes>=0.5):(prediction.predictedLabelYes<0.5)){
+                    nCorrect++;
+                }
+                prediction.index = index++;
+            }
+        }
+    }
+
+    public double getAccuracy() {
         return nCorrect/(double)nProcessed;
     }
 }
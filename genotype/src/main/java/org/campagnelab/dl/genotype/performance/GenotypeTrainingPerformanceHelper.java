@@ -1,14 +1,15 @@
 package org.campagnelab.dl.genotype.performance;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
+import org.campagnelab.dl.framework.performance.SinglePassEvaluator;
 import org.campagnelab.dl.framework.tools.PredictWithModel;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
 import org.campagnelab.dl.genotype.predictions.GenotypePrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 
 import java.util.ArrayList;
@@ -22,12 +23,20 @@ import java.util.function.Predicate;
 public class GenotypeTrainingPerformanceHelper extends PredictWithModel<BaseInformationRecords.BaseInformation> {
 
     protected StatsAccumulator accumulator;
+    private SinglePassEvaluator evaluator = new SinglePassEvaluator();
 
 
     public GenotypeTrainingPerformanceHelper(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
         super(domainDescriptor);
     }
 
+    /**
+     * Set the evaluator that propagates the minibatches through the graph.
+     */
+    public void setEvaluator(SinglePassEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
     public double estimateWithGraph(MultiDataSetIterator iterator,
                                     ComputationGraph graph,
                                     Predicate<Integer> stopIfTrue) {
@@ -40,35 +49,56 @@ public class GenotypeTrainingPerformanceHelper extends PredictWithModel<BaseInfo
                                     ComputationGraph graph,
                                     Predicate<Integer> stopIfTrue,
                                     Consumer<GenotypePrediction> observer, Consumer<Double> scoreObserver) {
-        iterator.reset();
+        return estimateWithGraph(iterator, graph, stopIfTrue, observer, scoreObserver, (minibatch, outputs, score) -> false);
+    }
+
+    /**
+     * Estimate the statistics with one forward pass per minibatch. The outputs of the pass are interpreted as genotype
+     * predictions for the accumulator and the observer, and are also handed to minibatchObserver, so that other
+     * metrics can be accumulated from the same pass. The loss of each minibatch is computed from the same pass.
+     */
+    public double estimateWithGraph(MultiDataSetIterator iterator,
+                                    ComputationGraph graph,
+                                    Predicate<Integer> stopIfTrue,
+                                    Consumer<GenotypePrediction> observer, Consumer<Double> scoreObserver,
+                                    SinglePassEvaluator.MinibatchObserver minibatchObserver) {
         accumulator = new StatsAccumulator();
         accumulator.initializeStats();
-        int index = 0;
-        int nProcessed = 0;
-        int nCorrect = 0;
+        final int[] nProcessed = {0};
 
         List<Prediction> predictions = new ArrayList<>();
-        while (iterator.hasNext()) {
-            MultiDataSet next = iterator.next();
-            INDArray[] outputs = graph.output(next.getFeatures());
-            double dsScore = graph.score(next);
+        final int numOutputs = domainDescriptor.getNumModelOutputs();
+        MinibatchOutput[] minibatchOutputs = new MinibatchOutput[numOutputs];
+        MinibatchOutput[] minibatchLabels = new MinibatchOutput[numOutputs];
+        for (int outputIndex = 0; outputIndex < numOutputs; outputIndex++) {
+            minibatchOutputs[outputIndex] = new MinibatchOutput();
+            minibatchLabels[outputIndex] = new MinibatchOutput();
+        }
+        evaluator.evaluate(graph, iterator, Long.MAX_VALUE, (next, outputs, dsScore) -> {
             if (dsScore == dsScore) {
                 scoreObserver.accept(dsScore);
             }
+            minibatchObserver.observe(next, outputs, dsScore);
             INDArray[] trueLabels = next.getLabels();
 
+            for (int outputIndex = 0; outputIndex < numOutputs; outputIndex++) {
+                if (interpretors[outputIndex] != null) {
+                    minibatchOutputs[outputIndex].load(outputs[outputIndex]);
+                    minibatchLabels[outputIndex].load(trueLabels[outputIndex]);
+                }
+            }
             int numExamples = next.getFeatures(0).size(0);
             for (int predictionIndex = 0; predictionIndex < numExamples; predictionIndex++) {
                 predictions.clear();
-                for (int outputIndex = 0; outputIndex < domainDescriptor.getNumModelOutputs(); outputIndex++) {
+                for (int outputIndex = 0; outputIndex < numOutputs; outputIndex++) {
 
                     if (interpretors[outputIndex] != null) {
                         Prediction prediction = interpretors[outputIndex].interpret(
-                                trueLabels[outputIndex],
-                                outputs[outputIndex],
+                                minibatchLabels[outputIndex],
+                                minibatchOutputs[outputIndex],
                                 predictionIndex);
                         prediction.outputIndex = outputIndex;
-                        prediction.index = index;
+                        prediction.index = nProcessed[0];
                         predictions.add(prediction);
                     }
                 }
@@ -78,12 +108,14 @@ public class GenotypeTrainingPerformanceHelper extends PredictWithModel<BaseInfo
                 String referenceBase = Integer.toString(gp.referenceGobyIndex);
                 accumulator.observe(gp, gp.isVariant(), GenotypeHelper.isVariant(gp.predictedGenotype, referenceBase));
                 observer.accept(gp);
-                if (stopIfTrue.test(nProcessed)) {
-                    break;
+                if (stopIfTrue.test(nProcessed[0])) {
+                    // stop the evaluation, rather than only this minibatch:
+                    return true;
                 }
-                nProcessed += 1;
+                nProcessed[0] += 1;
             }
-        }
+            return false;
+        });
 
         return accumulator.createOutputStatistics()[StatsAccumulator.F1_INDEX];
     }
@@ -4,14 +4,17 @@ import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.performance.AreaUnderTheROCCurve;
+import org.campagnelab.dl.framework.performance.SinglePassEvaluator;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 
+import java.util.Arrays;
 import java.util.function.Predicate;
 
 /**
-
+ * Estimates the loss, AUC, allele accuracy and the statistics of StatsAccumulator (F1, indel metrics, Het_Hom_Ratio,
+ * ...) from a single forward pass over the validation set.
  */
 public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPerformanceHelper {
     private final GenotypeTrainingPerformanceHelper delegate;
@@ -19,10 +22,23 @@ public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPe
     private double observedAUC;
     AreaUnderTheROCCurve aucCalculator = new AreaUnderTheROCCurve(100000);
     private double observedAUC_F1;
+    private final AlleleAccuracyHelper alleleAccuracyHelper = new AlleleAccuracyHelper();
+    private final boolean withAlleleAccuracy;
 
-    public GenotypeTrainingPerformanceHelperWithAUC(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
+    /**
+     * @param metrics metrics that will be requested from getMetricValues. Metrics that need outputs the statistics
+     *                do not use (alleleAccuracy) are only accumulated when requested.
+     */
+    public GenotypeTrainingPerformanceHelperWithAUC(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor,
+                                                    String... metrics) {
         super(domainDescriptor);
         delegate = new GenotypeTrainingPerformanceHelper(domainDescriptor);
+        withAlleleAccuracy = Arrays.asList(metrics).contains("alleleAccuracy");
+    }
+
+    @Override
+    public void setEvaluator(SinglePassEvaluator evaluator) {
+        delegate.setEvaluator(evaluator);
     }
 
     public double estimateWithGraph(MultiDataSetIterator iterator, ComputationGraph graph, Predicate<Integer> stopIfTrue) {
@@ -37,6 +53,12 @@ public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPe
                 dsScore -> {
                     score[0] += dsScore;
                     numMiniBatchesScored[0] += 1;
+                },
+                (minibatch, outputs, dsScore) -> {
+                    if (withAlleleAccuracy) {
+                        alleleAccuracyHelper.observe(outputs, minibatch.getLabels());
+                    }
+                    return false;
                 });
 
         observedScore = score[0] / (double) numMiniBatchesScored[0];
@@ -50,6 +72,7 @@ public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPe
         metricsNoScore.remove("score");
         metricsNoScore.remove("AUC");
         metricsNoScore.remove("AUC+F1");
+        metricsNoScore.remove("alleleAccuracy");
         metricsNoScore.trim();
         String[] elements = metricsNoScore.toArray(new String[metricsNoScore.size()]);
         DoubleArrayList all = DoubleArrayList.wrap(delegate.getMetricValues(elements));
@@ -74,6 +97,9 @@ public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPe
             if ("AUC+F1".equals(metrics[i])) {
                 all.add(i, observedAUC_F1);
             }
+            if ("alleleAccuracy".equals(metrics[i])) {
+                all.add(i, alleleAccuracyHelper.getAccuracy());
+            }
         }
         return all.toDoubleArray();
     }
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.predictions;
 
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.framework.mappers.BooleanLabelMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
@@ -41,4 +42,27 @@ public class IsVariantInterpreter implements PredictionInterpreter<BaseInformati
 
         return p;
     }
+
+    @Override
+    public IsVariantPrediction interpret(MinibatchOutput trueLabels, MinibatchOutput output, int predictionIndex) {
+        IsVariantPrediction p = new IsVariantPrediction();
+        p.isVariantPredicted = output.get(predictionIndex, BooleanLabelMapper.IS_TRUE) > DECISION_THRESHOLD;
+        p.isVariantTruth = trueLabels.get(predictionIndex, BooleanLabelMapper.IS_TRUE) > trueLabels.get(predictionIndex, BooleanLabelMapper.IS_FALSE);
+        p.probability = Math.max(
+                output.get(predictionIndex, BooleanLabelMapper.IS_TRUE),
+                output.get(predictionIndex, BooleanLabelMapper.IS_FALSE));
+        return p;
+    }
+
+    @Override
+    public IsVariantPrediction interpret(BaseInformationRecords.BaseInformation record, MinibatchOutput output,
+                                         int exampleIndex) {
+        IsVariantPrediction p = new IsVariantPrediction();
+        p.isVariantTruth = record.getSamples(0).getIsVariant();
+        p.isVariantPredicted = output.get(exampleIndex, BooleanLabelMapper.IS_TRUE) > DECISION_THRESHOLD;
+        p.probability = Math.max(
+                output.get(exampleIndex, BooleanLabelMapper.IS_TRUE),
+                output.get(exampleIndex, BooleanLabelMapper.IS_FALSE));
+        return p;
+    }
 }
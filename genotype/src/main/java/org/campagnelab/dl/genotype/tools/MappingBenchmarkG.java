@@ -0,0 +1,323 @@
+package org.campagnelab.dl.genotype.tools;
+
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.mappers.MappedDimensions;
+import org.campagnelab.dl.framework.tools.MappingBenchmark;
+import org.campagnelab.dl.genotype.learning.GenotypeTrainingArguments;
+import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
+import org.campagnelab.dl.genotype.mappers.GenotypeMapperLSTMAllStrands;
+import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
+import org.campagnelab.dl.genotype.mappers.SortedCountView;
+import org.campagnelab.dl.somatic.mappers.DensityMapper;
+import org.campagnelab.dl.somatic.mappers.RecordCountSummary;
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Measure the throughput of the genotype feature and label mappers. The CPU time per record of the feature mappers
+ * (e.g., GenotypeMapperV37) is reported when each mapper walks the counts of the record, and when the mappers share a
+ * RecordCountSummary. The cost of sorting the counts of each record for the feature mapper, a label mapper and an
+ * interpreter is also reported, in time and in bytes allocated per record, when the sorted record is rebuilt by each of
+ * them (RecordCountSortHelper), and when they share a SortedCountView. The CPU time and bytes allocated per record to
+ * map the features and labels of each record are then reported when the delegates of CountReorderingMapper map a copy
+ * of the record with sorted counts, and when they read the counts through the view (see
+ * GenotypeDomainDescriptor.setReadSortedCountsThrough). Finally, density mappers that collect values in
+ * lists are compared with density mappers that traverse values without boxing, on synthetic records with deep coverage
+ * (1000 reads per site), and the indel sequences of the records are mapped to LSTM minibatch arrays element by element,
+ * then with strided writes to the buffers of the arrays, for indel sequence lengths of 30, 60 and 100.
+ *
+ * @author Fabien Campagne
+ */
+public class MappingBenchmarkG extends MappingBenchmark<BaseInformationRecords.BaseInformation> {
+    private static final int DEEP_COVERAGE = 1000;
+    private static final int NUM_DEEP_COVERAGE_RECORDS = 1000;
+    /**
+     * Fraction of the reads of a site that support each genotype of the synthetic records.
+     */
+    private static final double[] GENOTYPE_FRACTIONS = {0.6, 0.3, 0.05, 0.03, 0.02};
+    private static final int[] INDEL_SEQUENCE_LENGTHS = {30, 60, 100};
+
+    public static void main(String[] args) {
+
+        MappingBenchmarkG tool = new MappingBenchmarkG();
+        tool.parseArguments(args, "MappingBenchmarkG", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    protected DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor() {
+        GenotypeTrainingArguments trainingArguments = new GenotypeTrainingArguments();
+        trainingArguments.trainingSets.add(args().datasetFilename);
+        if (args().featureMapperClassname != null) {
+            trainingArguments.featureMapperClassname = args().featureMapperClassname;
+        }
+        return new GenotypeDomainDescriptor(trainingArguments);
+    }
+
+    @Override
+    protected void compareFeaturePaths(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor,
+                                       List<BaseInformationRecords.BaseInformation> records) {
+        super.compareFeaturePaths(domainDescriptor, records);
+        compareCpuTime("shared count summary", domainDescriptor, records, RecordCountSummary::setShared);
+        RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+        Consumer<BaseInformationRecords.BaseInformation> rebuilt = record -> {
+            sortHelper.sort(0, (BaseInformationRecords.BaseInformationOrBuilder) record);
+            sortHelper.sort(0, record);
+            sortHelper.sort(0, record);
+        };
+        Consumer<BaseInformationRecords.BaseInformation> shared = record -> {
+            SortedCountView.of(0, record).sortedFeatureRecord();
+            SortedCountView.of(0, record).sortedRecord();
+            SortedCountView.of(0, record).sortedRecord();
+        };
+        Consumer<BaseInformationRecords.BaseInformation> permutation = record -> {
+            SortedCountView view = SortedCountView.of(0, record);
+            for (int i = 0; i < view.numCounts(); i++) {
+                view.count(i);
+            }
+        };
+        System.out.println("sort counts\tns/record\tbytes/record\tspeedup");
+        double[] before = measure(rebuilt, records);
+        report("rebuilt (feature, label, interpreter)", before, before);
+        report("shared view, sorted records", measure(shared, records), before);
+        report("shared view, permutation only", measure(permutation, records), before);
+        DomainDescriptor<BaseInformationRecords.BaseInformation> sortedCopies = domainDescriptor();
+        ((GenotypeDomainDescriptor) sortedCopies).setReadSortedCountsThrough(false);
+        compareCpuTime("sorted count view", sortedCopies, domainDescriptor, records);
+        System.out.println("map sorted counts\tns/record\tbytes/record\tspeedup");
+        double[] copied = measure(mapFeaturesAndLabels(sortedCopies), records);
+        report("features and labels, sorted copy", copied, copied);
+        report("features and labels, read through view", measure(mapFeaturesAndLabels(domainDescriptor), records),
+                copied);
+        compareDensityPaths();
+        compareSequencePaths(records);
+    }
+
+    /**
+     * Return a task that maps the one-dimensional features and the labels of a record, as the minibatch adapters do.
+     */
+    @SuppressWarnings("unchecked")
+    private static Consumer<BaseInformationRecords.BaseInformation> mapFeaturesAndLabels(
+            DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
+        List<FeatureMapper<BaseInformationRecords.BaseInformation>> featureMappers = new ArrayList<>();
+        for (String input : domainDescriptor.getComputationalGraph().getInputNames()) {
+            FeatureMapper<BaseInformationRecords.BaseInformation> mapper = domainDescriptor.getFeatureMapper(input);
+            if (mapper.dimensions().numDimensions() == 1) {
+                featureMappers.add(mapper);
+            }
+        }
+        List<LabelMapper<BaseInformationRecords.BaseInformation>> labelMappers = new ArrayList<>();
+        for (String output : domainDescriptor.getComputationalGraph().getOutputNames()) {
+            LabelMapper<BaseInformationRecords.BaseInformation> mapper = domainDescriptor.getLabelMapper(output);
+            if (mapper.dimensions().numDimensions() == 1) {
+                labelMappers.add(mapper);
+            }
+        }
+        int size = 0;
+        for (FeatureMapper<BaseInformationRecords.BaseInformation> mapper : featureMappers) {
+            size = Math.max(size, mapper.numberOfFeatures());
+        }
+        for (LabelMapper<BaseInformationRecords.BaseInformation> mapper : labelMappers) {
+            size = Math.max(size, mapper.numberOfLabels());
+        }
+        final float[] values = new float[size];
+        return record -> {
+            for (FeatureMapper<BaseInformationRecords.BaseInformation> mapper : featureMappers) {
+                mapper.prepareToNormalize(record, 0);
+                mapper.mapFeatures(record, values, 0, 0);
+            }
+            for (LabelMapper<BaseInformationRecords.BaseInformation> mapper : labelMappers) {
+                mapper.prepareToNormalize(record, 0);
+                mapper.mapLabels(record, values, 0, 0);
+            }
+        };
+    }
+
+    /**
+     * Compare mapping the indel sequences of minibatches of records to 3D arrays with putScalar, and with strided writes
+     * to the 'f' order buffers the arrays are created from (see SequenceFeatureMapper).
+     */
+    private void compareSequencePaths(List<BaseInformationRecords.BaseInformation> records) {
+        List<List<BaseInformationRecords.BaseInformation>> minibatches = new ArrayList<>();
+        for (int from = 0; from < records.size(); from += args().miniBatchSize) {
+            minibatches.add(records.subList(from, Math.min(records.size(), from + args().miniBatchSize)));
+        }
+        System.out.println("LSTM indel sequences\tns/record\tbytes/record\tspeedup");
+        for (int indelSequenceLength : INDEL_SEQUENCE_LENGTHS) {
+            Properties properties = new Properties();
+            properties.setProperty("indelSequenceLength", Integer.toString(indelSequenceLength));
+            GenotypeMapperLSTMAllStrands mapper = new GenotypeMapperLSTMAllStrands();
+            mapper.configure(properties);
+            double[] before = measure(() -> minibatches.forEach(minibatch -> mapSequences(mapper, minibatch, false)),
+                    records.size());
+            report("putScalar, length " + indelSequenceLength, before, before);
+            report("strided, length " + indelSequenceLength,
+                    measure(() -> minibatches.forEach(minibatch -> mapSequences(mapper, minibatch, true)),
+                            records.size()), before);
+        }
+    }
+
+    private static void mapSequences(GenotypeMapperLSTMAllStrands mapper,
+                                     List<BaseInformationRecords.BaseInformation> minibatch, boolean strided) {
+        final int size = minibatch.size();
+        MappedDimensions dim = mapper.dimensions();
+        int[] shape = {size, dim.numElements(1), dim.numElements(2)};
+        int[] maskShape = {size, dim.numElements(2)};
+        if (strided) {
+            float[] inputs = new float[shape[0] * shape[1] * shape[2]];
+            float[] mask = new float[maskShape[0] * maskShape[1]];
+            for (int i = 0; i < size; i++) {
+                final BaseInformationRecords.BaseInformation record = minibatch.get(i);
+                mapper.prepareToNormalize(record, i);
+                mapper.mapSequenceFeatures(record, inputs, i, size);
+                mapper.maskSequenceFeatures(record, mask, i, size);
+            }
+            Nd4j.create(inputs, shape, 'f');
+            Nd4j.create(mask, maskShape, 'f');
+        } else {
+            INDArray inputs = Nd4j.create(shape, 'f');
+            INDArray mask = Nd4j.create(maskShape, 'f');
+            for (int i = 0; i < size; i++) {
+                final BaseInformationRecords.BaseInformation record = minibatch.get(i);
+                mapper.prepareToNormalize(record, i);
+                mapper.mapFeatures(record, inputs, i);
+                mapper.maskFeatures(record, mask, i);
+            }
+        }
+    }
+
+    /**
+     * Compare the density mappers of the genotype mappers, when they collect the values of each record in lists, and
+     * when they traverse the values without boxing, on records with deep coverage.
+     */
+    private void compareDensityPaths() {
+        Random random = new Random(2017);
+        List<BaseInformationRecords.BaseInformation> records = new ArrayList<>();
+        for (int i = 0; i < NUM_DEEP_COVERAGE_RECORDS; i++) {
+            records.add(deepCoverageRecord(random));
+        }
+        Properties sbiProperties = new Properties();
+        List<DensityMapper> listMappers = new ArrayList<>();
+        List<DensityMapper> traversalMappers = new ArrayList<>();
+        addDensityMappers(sbiProperties, "baseQuality.forward", 60, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList, listMappers, traversalMappers);
+        addDensityMappers(sbiProperties, "baseQuality.reverse", 60, BaseInformationRecords.CountInfo::getQualityScoresReverseStrandList, listMappers, traversalMappers);
+        addDensityMappers(sbiProperties, "readMappingQuality.forward", 60, BaseInformationRecords.CountInfo::getReadMappingQualityForwardStrandList, listMappers, traversalMappers);
+        addDensityMappers(sbiProperties, "queryPosition", 150, BaseInformationRecords.CountInfo::getQueryPositionsList, listMappers, traversalMappers);
+        addDensityMappers(sbiProperties, "readIndex", 150, BaseInformationRecords.CountInfo::getReadIndicesForwardStrandList, listMappers, traversalMappers);
+        addDensityMappers(sbiProperties, "distanceToEndOfRead", 150, BaseInformationRecords.CountInfo::getDistanceToEndOfReadList, listMappers, traversalMappers);
+        System.out.printf("density mappers (%d, coverage %d)\tns/record\tbytes/record\tspeedup%n", listMappers.size(), DEEP_COVERAGE);
+        double[] before = measure(record -> mapDensities(listMappers, record), records);
+        report("lists of values", before, before);
+        report("primitive traversal", measure(record -> mapDensities(traversalMappers, record), records), before);
+    }
+
+    private static void addDensityMappers(Properties sbiProperties, String name, int max,
+                                          Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> values,
+                                          List<DensityMapper> listMappers, List<DensityMapper> traversalMappers) {
+        sbiProperties.setProperty("stats." + name + ".min", "0");
+        sbiProperties.setProperty("stats." + name + ".max", Integer.toString(max));
+        for (int genotypeIndex = 0; genotypeIndex < GENOTYPE_FRACTIONS.length; genotypeIndex++) {
+            final int constantGenotypeIndex = genotypeIndex;
+            listMappers.add(new DensityMapper(name, 10, sbiProperties,
+                    record -> TraversalHelper.forOneSampleGenotype(0, constantGenotypeIndex, record, values)));
+            traversalMappers.add(new DensityMapper(name, 10, sbiProperties,
+                    (record, consumer) -> TraversalHelper.forOneSampleGenotype(0, constantGenotypeIndex, record, values, consumer)));
+        }
+    }
+
+    private static void mapDensities(List<DensityMapper> mappers, BaseInformationRecords.BaseInformation record) {
+        for (DensityMapper mapper : mappers) {
+            mapper.prepareToNormalize(record, 0);
+        }
+    }
+
+    /**
+     * Create a site where reads with random qualities and positions support each genotype.
+     */
+    private static BaseInformationRecords.BaseInformation deepCoverageRecord(Random random) {
+        BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+        for (double fraction : GENOTYPE_FRACTIONS) {
+            final int numReads = (int) (fraction * DEEP_COVERAGE);
+            BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder();
+            count.setGenotypeCountForwardStrand(numReads / 2);
+            count.setGenotypeCountReverseStrand(numReads - numReads / 2);
+            count.addAllQualityScoresForwardStrand(histogram(random, numReads / 2, 41));
+            count.addAllQualityScoresReverseStrand(histogram(random, numReads - numReads / 2, 41));
+            count.addAllReadMappingQualityForwardStrand(histogram(random, numReads / 2, 61));
+            count.addAllQueryPositions(histogram(random, numReads, 151));
+            count.addAllReadIndicesForwardStrand(histogram(random, numReads / 2, 151));
+            count.addAllDistanceToEndOfRead(histogram(random, numReads, 151));
+            sample.addCounts(count.buildPartial());
+        }
+        return BaseInformationRecords.BaseInformation.newBuilder().addSamples(sample.buildPartial()).buildPartial();
+    }
+
+    /**
+     * Draw numReads values in [0, numValues), and return the frequency of each value drawn.
+     */
+    private static List<BaseInformationRecords.NumberWithFrequency> histogram(Random random, int numReads, int numValues) {
+        int[] frequencies = new int[numValues];
+        for (int read = 0; read < numReads; read++) {
+            frequencies[random.nextInt(numValues)]++;
+        }
+        List<BaseInformationRecords.NumberWithFrequency> values = new ArrayList<>();
+        for (int number = 0; number < numValues; number++) {
+            if (frequencies[number] > 0) {
+                values.add(BaseInformationRecords.NumberWithFrequency.newBuilder()
+                        .setNumber(number).setFrequency(frequencies[number]).build());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Return the best time per record, and the bytes allocated per record, of processing the records.
+     */
+    private double[] measure(Consumer<BaseInformationRecords.BaseInformation> task,
+                             List<BaseInformationRecords.BaseInformation> records) {
+        return measure(() -> records.forEach(task), records.size());
+    }
+
+    /**
+     * Return the best time per record, and the bytes allocated per record, of passes over numRecords records.
+     */
+    private double[] measure(Runnable pass, int numRecords) {
+        double best = Double.MAX_VALUE;
+        long allocated = 0;
+        for (int repeat = 0; repeat < args().repeat; repeat++) {
+            final long startBytes = allocatedBytes();
+            final long start = System.nanoTime();
+            pass.run();
+            best = Math.min(best, (System.nanoTime() - start) / (double) numRecords);
+            allocated = allocatedBytes() - startBytes;
+        }
+        return new double[]{best, allocated / (double) numRecords};
+    }
+
+    private void report(String path, double[] measures, double[] baseline) {
+        System.out.printf("%s\t%.0f\t%.0f\t%.2f%n", path, measures[0], measures[1], baseline[0] / measures[0]);
+    }
+
+    /**
+     * Bytes allocated by the current thread, or zero when the JVM does not measure them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -16,6 +16,7 @@ import org.campagnelab.dl.genotype.performance.BEDHelper;
 import org.campagnelab.dl.genotype.performance.StatsAccumulator;
 import org.campagnelab.goby.predictions.FormatIndelVCF;
 import org.campagnelab.dl.genotype.predictions.GenotypePrediction;
+import org.campagnelab.dl.somatic.mappers.RecordCountSummary;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
 import java.io.FileWriter;
@@ -247,10 +248,7 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
     private BEDHelper bedHelper;
 
     private int coverage(BaseInformationRecords.BaseInformation record) {
-        int coverage = 0;
-        for (BaseInformationRecords.CountInfo count : record.getSamples(0).getCountsList())
-            coverage += count.getGenotypeCountForwardStrand() + count.getGenotypeCountReverseStrand();
-        return coverage;
+        return RecordCountSummary.of(record).coverage(0);
     }
 
     /**
@@ -0,0 +1,60 @@
+package org.campagnelab.dl.genotype.learning.domains;
+
+import org.campagnelab.dl.framework.domains.prediction.MinibatchOutput;
+import org.campagnelab.dl.genotype.predictions.SoftmaxGenotypePrediction;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that interpreting a whole minibatch produces the predictions of interpreting each example of the INDArray.
+ */
+public class MinibatchInterpretationTest {
+
+    @Test
+    public void softmaxGenotype() {
+        final int maxCalledAlleles = 3;
+        final int numBits = (int) Math.pow(2, maxCalledAlleles);
+        INDArray output = Nd4j.rand(new int[]{6, numBits}, 5);
+        INDArray labels = oneHot(6, numBits);
+        SoftmaxGenotypeInterpreter interpreter = new SoftmaxGenotypeInterpreter(maxCalledAlleles);
+        MinibatchOutput batchOutput = new MinibatchOutput().load(output);
+        MinibatchOutput batchLabels = new MinibatchOutput().load(labels);
+        for (int example = 0; example < 6; example++) {
+            SoftmaxGenotypePrediction expected = interpreter.interpret(labels, output, example);
+            SoftmaxGenotypePrediction actual = interpreter.interpret(batchLabels, batchOutput, example);
+            assertEquals(expected.predictedGenotypeIndex, actual.predictedGenotypeIndex);
+            assertEquals(expected.trueGenotypeIndex, actual.trueGenotypeIndex);
+            assertEquals(expected.probability, actual.probability, 1E-6);
+            assertEquals(output.getDouble(example, expected.predictedGenotypeIndex), expected.probability, 1E-6);
+        }
+    }
+
+    @Test
+    public void numDistinctAlleles() {
+        final int ploidy = 2;
+        INDArray output = Nd4j.rand(new int[]{6, ploidy + 1}, 7);
+        INDArray labels = oneHot(6, ploidy + 1);
+        NumDistinctAllelesInterpreter interpreter = new NumDistinctAllelesInterpreter(ploidy);
+        MinibatchOutput batchOutput = new MinibatchOutput().load(output);
+        MinibatchOutput batchLabels = new MinibatchOutput().load(labels);
+        for (int example = 0; example < 6; example++) {
+            NumDistinctAllelesOutputLayerPrediction expected = interpreter.interpret(labels, output, example);
+            NumDistinctAllelesOutputLayerPrediction actual = interpreter.interpret(batchLabels, batchOutput, example);
+            assertEquals(expected.predictedValue, actual.predictedValue);
+            assertEquals(expected.trueValue, actual.trueValue);
+            assertEquals(expected.probability, actual.probability, 1E-6);
+            assertEquals(output.getDouble(example, expected.predictedValue), expected.probability, 1E-6);
+        }
+    }
+
+    private static INDArray oneHot(int numExamples, int numColumns) {
+        INDArray labels = Nd4j.zeros(numExamples, numColumns);
+        for (int example = 0; example < numExamples; example++) {
+            labels.putScalar(example, example % numColumns, 1);
+        }
+        return labels;
+    }
+}
@@ -35,6 +35,36 @@ public class GenotypeMapperLSTMAllStrandsTest {
         }
     }
 
+    @Test
+    public void stridedFeaturesMatchINDArray() throws Exception {
+        for (int indelSequenceLength : new int[]{5, 30, 60}) {
+            Properties properties = new Properties();
+            properties.setProperty("indelSequenceLength", Integer.toString(indelSequenceLength));
+            GenotypeMapperLSTMAllStrands mapper = new GenotypeMapperLSTMAllStrands();
+            mapper.configure(properties);
+            MappedDimensions dim = mapper.dimensions();
+            final int numRecords = records.length;
+            int[] shape = {numRecords, dim.numElements(1), dim.numElements(2)};
+            int[] maskShape = {numRecords, dim.numElements(2)};
+            INDArray inputs = Nd4j.create(shape, 'f');
+            INDArray mask = Nd4j.create(maskShape, 'f');
+            float[] sequenceInputs = new float[shape[0] * shape[1] * shape[2]];
+            float[] sequenceMask = new float[maskShape[0] * maskShape[1]];
+            for (int i = 0; i < numRecords; i++) {
+                final BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+                TextFormat.getParser().merge(records[i], builder);
+                final BaseInformationRecords.BaseInformation recordObject = builder.build();
+                mapper.prepareToNormalize(recordObject, i);
+                mapper.mapFeatures(recordObject, inputs, i);
+                mapper.maskFeatures(recordObject, mask, i);
+                mapper.mapSequenceFeatures(recordObject, sequenceInputs, i, numRecords);
+                mapper.maskSequenceFeatures(recordObject, sequenceMask, i, numRecords);
+            }
+            assertEquals(inputs, Nd4j.create(sequenceInputs, shape, 'f'));
+            assertEquals(mask, Nd4j.create(sequenceMask, maskShape, 'f'));
+        }
+    }
+
     String[] records = {"reference_index: 21\n" +
             "position: 45944850\n" +
             "mutated: false\n" +
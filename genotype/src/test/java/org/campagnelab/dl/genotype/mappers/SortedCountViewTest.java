@@ -0,0 +1,217 @@
+package org.campagnelab.dl.genotype.mappers;
+
+import com.google.protobuf.TextFormat;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the sorted count view orders counts as RecordCountSortHelper does, and is shared for a record. Feature
+ * and label mappers that read counts through the view must produce the values they produce on sorted copies.
+ */
+public class SortedCountViewTest {
+    private static final int[][] COUNTS = {{0, 0}, {14, 24}, {3, 2}, {1, 4}, {20, 0}, {0, 0}};
+
+    @Test
+    public void matchesRecordCountSortHelper() throws Exception {
+        BaseInformationRecords.BaseInformation record = record();
+        RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+        BaseInformationRecords.BaseInformation expected = sortHelper.sort(0, record);
+        SortedCountView view = SortedCountView.of(0, record);
+        assertEquals(COUNTS.length, view.numCounts());
+        for (int sortedIndex = 0; sortedIndex < view.numCounts(); sortedIndex++) {
+            final BaseInformationRecords.CountInfo count = expected.getSamples(0).getCounts(sortedIndex);
+            assertEquals(count.getGobyGenotypeIndex(), view.originalIndex(sortedIndex));
+            assertEquals(sortedIndex, view.sortedIndex(view.originalIndex(sortedIndex)));
+            assertEquals(count.getToSequence(), view.count(sortedIndex).getToSequence());
+        }
+        assertEquals(expected, view.sortedRecord());
+        assertEquals(sortHelper.sort(0, (BaseInformationRecords.BaseInformationOrBuilder) record),
+                view.sortedFeatureRecord());
+    }
+
+    @Test
+    public void viewIsSharedForARecord() throws Exception {
+        BaseInformationRecords.BaseInformation record = record();
+        SortedCountView view = SortedCountView.of(0, record);
+        BaseInformationRecords.BaseInformation sortedRecord = view.sortedRecord();
+        assertSame(view, SortedCountView.of(0, record));
+        assertSame(sortedRecord, SortedCountView.of(0, record).sortedRecord());
+        // the goby genotype indices of the sorted record are not the indices of its counts, so it is copied once:
+        BaseInformationRecords.BaseInformation indexed = SortedCountView.of(0, sortedRecord).sortedRecord();
+        // counts already sorted and indexed are not copied:
+        assertSame(indexed, SortedCountView.of(0, indexed).sortedRecord());
+    }
+
+    @Test
+    public void readThroughMatchesSortedCopy() {
+        Random random = new Random(17);
+        GenotypeFeatureMapper[] copies = {new GenotypeMapperV11(), new GenotypeMapperV29(), new GenotypeMapperV37()};
+        GenotypeFeatureMapper[] views = {new GenotypeMapperV11(), new GenotypeMapperV29(), new GenotypeMapperV37()};
+        for (int m = 0; m < copies.length; m++) {
+            copies[m].readSortedCountsThrough = false;
+            copies[m].configure(sbiProperties());
+            views[m].configure(sbiProperties());
+        }
+        for (int r = 0; r < 200; r++) {
+            BaseInformationRecords.BaseInformation record = randomRecord(random);
+            for (int m = 0; m < copies.length; m++) {
+                assertArrayEquals(copies[m].getClass().getSimpleName(), features(copies[m], record),
+                        features(views[m], record), 0);
+            }
+        }
+    }
+
+    @Test
+    public void labelsMatchSortedCopy() {
+        Random random = new Random(19);
+        RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+        for (int r = 0; r < 200; r++) {
+            BaseInformationRecords.BaseInformation record = randomRecord(random);
+            BaseInformationRecords.BaseInformation sorted = sortHelper.sort(0, record);
+            assertArrayEquals(labels(new SoftmaxLabelMapper(false, 3), sorted),
+                    labels(new SoftmaxLabelMapper(true, 3), record), 0);
+            assertArrayEquals(labels(new HomozygousLabelsMapper(false), sorted),
+                    labels(new HomozygousLabelsMapper(true), record), 0);
+            for (int sortedIndex = 0; sortedIndex < 3; sortedIndex++) {
+                assertArrayEquals(labels(new SingleGenotypeLabelMapper(sortedIndex, false), sorted),
+                        labels(new SingleGenotypeLabelMapper(sortedIndex, true), record), 0);
+            }
+            // the sorted copy has the goby genotype index of each count:
+            float[] metaData = labels(new MetaDataLabelMapper(), record);
+            assertEquals(MetaDataLabelMapper.calculateReferenceIndex(sorted),
+                    metaData[MetaDataLabelMapper.IS_MATCHING_REF_FEATURE_INDEX], 0);
+            for (int sortedIndex = 0; sortedIndex < sorted.getSamples(0).getCountsCount(); sortedIndex++) {
+                assertEquals(sorted.getSamples(0).getCounts(sortedIndex).getGobyGenotypeIndex(),
+                        metaData[MetaDataLabelMapper.IS_COUNT1_ORIGINAL_INDEX_FEATURE_INDEX + sortedIndex], 0);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static float[] features(FeatureMapper mapper, BaseInformationRecords.BaseInformation record) {
+        float[] features = new float[mapper.numberOfFeatures()];
+        mapper.prepareToNormalize(record, 0);
+        for (int featureIndex = 0; featureIndex < features.length; featureIndex++) {
+            features[featureIndex] = mapper.produceFeature(record, featureIndex);
+        }
+        return features;
+    }
+
+    private static float[] labels(LabelMapper<BaseInformationRecords.BaseInformation> mapper,
+                                  BaseInformationRecords.BaseInformation record) {
+        float[] labels = new float[mapper.numberOfLabels()];
+        mapper.prepareToNormalize(record, 0);
+        mapper.mapLabels(record, labels, 0, 0);
+        return labels;
+    }
+
+    /**
+     * Properties of a dataset, with statistics for every density mapper.
+     */
+    private static Properties sbiProperties() {
+        Properties properties = new Properties() {
+            @Override
+            public String getProperty(String key) {
+                final String value = super.getProperty(key);
+                if (value == null && key.startsWith("stats.")) {
+                    return key.endsWith(".min") ? "0" : "100";
+                }
+                return value;
+            }
+
+            @Override
+            public synchronized boolean containsKey(Object key) {
+                return super.containsKey(key) || key.toString().startsWith("stats.");
+            }
+        };
+        properties.setProperty("stats.genomicContextSize.min", "21");
+        properties.setProperty("indelSequenceLength", "5");
+        properties.setProperty("genotypes.ploidy", "2");
+        return properties;
+    }
+
+    /**
+     * A record with two samples, three to eight counts per sample (with ties), and values in the lists of each count.
+     * Some counts have their goby genotype index set.
+     */
+    private static BaseInformationRecords.BaseInformation randomRecord(Random random) {
+        final String[] bases = {"A", "C", "G", "T", "-A", "AC-", "N"};
+        BaseInformationRecords.BaseInformation.Builder record = BaseInformationRecords.BaseInformation.newBuilder();
+        record.setReferenceIndex(random.nextInt(3));
+        record.setReferenceId("chr" + record.getReferenceIndex());
+        record.setPosition(random.nextInt(100000));
+        record.setReferenceBase("A");
+        record.setTrueGenotype("A/" + bases[random.nextInt(bases.length)]);
+        record.setGenomicSequenceContext("ACGTTGCAACGTTGCAACGTA");
+        for (int sampleIndex = 0; sampleIndex < 2; sampleIndex++) {
+            BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+            sample.setIsVariant(random.nextBoolean());
+            final int numCounts = 3 + random.nextInt(6);
+            for (int i = 0; i < numCounts; i++) {
+                BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder();
+                count.setMatchesReference(i == 0);
+                count.setFromSequence(i % 3 == 2 ? "A--" : "A");
+                count.setToSequence(i == 0 ? "A" : bases[random.nextInt(bases.length)] + i);
+                count.setGenotypeCountForwardStrand(random.nextInt(4) * 5);
+                count.setGenotypeCountReverseStrand(random.nextInt(4) * 5);
+                count.setIsIndel(count.getToSequence().contains("-"));
+                count.setIsCalled(random.nextInt(3) == 0);
+                if (random.nextBoolean()) {
+                    count.setGobyGenotypeIndex(i);
+                }
+                count.addQualityScoresForwardStrand(value(random));
+                count.addQualityScoresReverseStrand(value(random));
+                count.addReadMappingQualityForwardStrand(value(random));
+                count.addReadMappingQualityReverseStrand(value(random));
+                count.addReadIndicesForwardStrand(value(random));
+                count.addReadIndicesReverseStrand(value(random));
+                count.addNumVariationsInReads(value(random));
+                count.addDistancesToReadVariationsForwardStrand(value(random));
+                count.addDistancesToReadVariationsReverseStrand(value(random));
+                count.addDistanceToStartOfRead(value(random));
+                count.addDistanceToEndOfRead(value(random));
+                count.addTargetAlignedLengths(value(random));
+                count.addQueryAlignedLengths(value(random));
+                count.addQueryPositions(value(random));
+                count.addPairFlags(value(random));
+                count.addInsertSizes(value(random));
+                sample.addCounts(count);
+            }
+            record.addSamples(sample);
+        }
+        return record.build();
+    }
+
+    private static BaseInformationRecords.NumberWithFrequency value(Random random) {
+        return BaseInformationRecords.NumberWithFrequency.newBuilder()
+                .setNumber(random.nextInt(100)).setFrequency(1 + random.nextInt(5)).build();
+    }
+
+    private static BaseInformationRecords.BaseInformation record() throws TextFormat.ParseException {
+        StringBuilder text = new StringBuilder("reference_index: 21\nposition: 29382312\nreferenceBase: \"T\"\nsamples {\n");
+        for (int i = 0; i < COUNTS.length; i++) {
+            text.append("  counts {\n");
+            text.append("    matchesReference: false\n");
+            text.append("    fromSequence: \"T\"\n");
+            text.append("    toSequence: \"A").append(i).append("\"\n");
+            text.append("    genotypeCountForwardStrand: ").append(COUNTS[i][0]).append("\n");
+            text.append("    genotypeCountReverseStrand: ").append(COUNTS[i][1]).append("\n");
+            text.append("    isIndel: false\n");
+            text.append("    isCalled: false\n");
+            text.append("  }\n");
+        }
+        text.append("}\n");
+        final BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+        TextFormat.getParser().merge(text.toString(), builder);
+        return builder.build();
+    }
+}
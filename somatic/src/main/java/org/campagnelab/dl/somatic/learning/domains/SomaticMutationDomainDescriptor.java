@@ -3,12 +3,15 @@ package org.campagnelab.dl.somatic.learning.domains;
 import org.apache.commons.compress.utils.IOUtils;
 import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.BinaryClassPrediction;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.campagnelab.dl.framework.performance.AUCHelper;
+import org.campagnelab.dl.framework.performance.AreaUnderTheROCCurve;
 import org.campagnelab.dl.framework.performance.PerformanceMetricDescriptor;
+import org.campagnelab.dl.framework.performance.SinglePassEvaluator;
 import org.campagnelab.dl.somatic.learning.SomaticTrainer;
 import org.campagnelab.dl.somatic.learning.SomaticTrainingArguments;
 import org.campagnelab.dl.somatic.learning.TrainSomaticModel;
@@ -263,6 +266,39 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
                 }
             }
 
+            @Override
+            public double[] estimateMetric(ComputationGraph graph, MultiDataSetIterator dataSetIterator, long scoreN,
+                                           String... metrics) {
+                // AUC and score from one forward pass per minibatch:
+                AreaUnderTheROCCurve aucCalculator = new AreaUnderTheROCCurve(args().numValidation);
+                PredictionInterpreter interpreter = hasOutput("isBaseMutated") ? new IsBaseMutatedInterpreter() :
+                        new IsSomaticMutationInterpreter();
+                SinglePassEvaluator evaluator = newEvaluator();
+                evaluator.evaluate(graph, dataSetIterator, scoreN, (minibatch, outputs, score) -> {
+                    /* first output represents probability of mutation */
+                    for (int predictionIndex = 0; predictionIndex < minibatch.getFeatures(0).size(0); predictionIndex++) {
+                        BinaryClassPrediction prediction = (BinaryClassPrediction) interpreter.interpret(
+                                minibatch.getLabels(0), outputs[0], predictionIndex);
+                        aucCalculator.observe(prediction.predictedLabelYes, prediction.trueLabelYes - 0.5);
+                    }
+                    return false;
+                });
+                double[] values = new double[metrics.length];
+                for (int i = 0; i < metrics.length; i++) {
+                    switch (metrics[i]) {
+                        case "AUC":
+                            values[i] = aucCalculator.evaluateStatistic();
+                            break;
+                        case "score":
+                            values[i] = evaluator.getScore();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("metric not recognized: " + metrics[i]);
+                    }
+                }
+                return values;
+            }
+
             @Override
             public String earlyStoppingMetric() {
                 return args().earlyStoppingMeasureName;
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.somatic.learning.iterators;
 
 import org.apache.commons.compress.utils.IOUtils;
+import org.campagnelab.dl.framework.iterators.MinibatchArrayPool;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
@@ -36,6 +37,7 @@ public class BaseInformationIterator implements NamedDataSetIterator, Closeable
     protected BaseInformationRecords.BaseInformationOrBuilder nextPosRecord;
     protected long cursor = 0;
     protected int batchSize = 32;
+    private MinibatchArrayPool arrayPool;
 
     public BaseInformationIterator(String inputFilename, int batchSize, FeatureMapper featureMapper, LabelMapper labelMapper) throws IOException {
         this(featureMapper, labelMapper);
@@ -46,6 +48,16 @@ public class BaseInformationIterator implements NamedDataSetIterator, Closeable
 
     }
 
+    /**
+     * Create the features and labels of minibatches with a pool. Callers release each minibatch to the pool once it
+     * has been used.
+     *
+     * @param arrayPool pool to obtain arrays from, or null to allocate new arrays.
+     */
+    public void setArrayPool(MinibatchArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
     public String getInputFilename() {
         return inputFilename;
     }
@@ -78,8 +90,8 @@ public class BaseInformationIterator implements NamedDataSetIterator, Closeable
         // dimension 1 = number of features per record.
 
         //size changed from batchSize. huge batchSize values useful for tests
-        INDArray inputs = Nd4j.zeros(size, featureMapper.numberOfFeatures());
-        INDArray labels = Nd4j.zeros(size, labelMapper.numberOfLabels());
+        INDArray inputs = zeros(size, featureMapper.numberOfFeatures());
+        INDArray labels = zeros(size, labelMapper.numberOfLabels());
         for (int i = 0; i < size; i++) {
 
             if (hasNextRecord()) {
@@ -97,6 +109,10 @@ public class BaseInformationIterator implements NamedDataSetIterator, Closeable
         return new DataSet(inputs, labels);
     }
 
+    private INDArray zeros(int numRows, int numColumns) {
+        return arrayPool != null ? arrayPool.zeros(new int[]{numRows, numColumns}) : Nd4j.zeros(numRows, numColumns);
+    }
+
     private long remainingExamples() {
         return totalExamples - cursor;
     }
@@ -8,7 +8,6 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.Arrays;
-import java.util.Collections;
 
 /**
  * AbstractFeatureMapper encapsulates behavior common to many feature mappers.
@@ -48,36 +47,34 @@ public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.Bas
         return getAllCounts(record, factory, isTumor, true);
     }
 
+    /**
+     * Return the counts of all the genotypes of the tumor or germline sample, in decreasing order of germline counts
+     * when sort is true, padded with N genotypes up to MAX_GENOTYPES elements. Counts are read from the
+     * RecordCountSummary of the record, which ranks the genotypes once per record for all the mappers.
+     */
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record, GenotypeCountFactory factory, boolean isTumor, boolean sort) {
         int sampleIndex = isTumor ? 1 : 0;
-        ObjectArrayList<GenotypeCount> list = new ObjectArrayList<>();
-        int genotypeIndex = 0;
-        for (int i = 0; i < record.getSamples(0).getCountsCount(); i++) {
-            int germCount = record.getSamples(0).getCounts(i).getGenotypeCountForwardStrand() + record.getSamples(0).getCounts(i).getGenotypeCountReverseStrand();
+        final RecordCountSummary summary = RecordCountSummary.of(record);
+        final int numGenotypes = summary.numSamples() == 0 ? 0 : summary.numCounts(0);
+        ObjectArrayList<GenotypeCount> list = new ObjectArrayList<>(Math.max(numGenotypes, MAX_GENOTYPES));
+        for (int rank = 0; rank < numGenotypes; rank++) {
+            final int i = summary.genotypeIndex(rank, sort);
             BaseInformationRecords.CountInfo genoInfo = record.getSamples(sampleIndex).getCounts(i);
-            int forwCount = genoInfo.getGenotypeCountForwardStrand();
-            int revCount = genoInfo.getGenotypeCountReverseStrand();
             GenotypeCount count = factory.create();
-            count.set(forwCount, revCount, genoInfo.getToSequence(), i, germCount);
-            initializeCount(record.getSamples(sampleIndex).getCounts(i), count);
+            count.set(summary.forwardCount(sampleIndex, i), summary.reverseCount(sampleIndex, i), genoInfo.getToSequence(), i,
+                    summary.totalCount(0, i));
+            initializeCount(genoInfo, count);
             list.add(count);
         }
         // DO not increment genotypeIndex. It must remain constant for all N bases
         int genotypeIndexFor_Ns = N_GENOTYPE_INDEX;
-        // pad with zero until we have 10 elements:
+        // pad with zero until we have MAX_GENOTYPES elements:
         while (list.size() < MAX_GENOTYPES) {
             final GenotypeCount genotypeCount = getGenotypeCountFactory().create();
             genotypeCount.set(0, 0, "N", genotypeIndexFor_Ns, 0);
             list.add(genotypeCount);
 
         }
-        //sort in decreasing order of counts:
-        if (sort) {
-            Collections.sort(list);
-        }
-        // trim the list at 5 elements because we will consider only the 5 genotypes with largest total counts:
-        list.trim(MAX_GENOTYPES);
-
         return list;
     }
 
@@ -90,7 +87,8 @@ public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.Bas
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
                                                                     boolean isTumor, boolean sort) {
         ObjectArrayList<? extends GenotypeCount> cached = getCachedResult(isTumor, sort);
-        if (cached != null && record.equals(recordCached[isTumor ? 1 : 0][sort ? 1 : 0])) {
+        if (cached != null && record == recordCached[isTumor ? 1 : 0][sort ? 1 : 0]
+                && record instanceof BaseInformationRecords.BaseInformation) {
             return cached;
         } else {
 
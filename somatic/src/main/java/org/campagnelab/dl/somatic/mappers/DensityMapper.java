@@ -2,6 +2,8 @@ package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.campagnelab.dl.somatic.mappers.functional.NumberWithFrequencyConsumer;
+import org.campagnelab.dl.somatic.mappers.functional.NumberWithFrequencyTraversal;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -12,12 +14,24 @@ import java.util.function.Function;
 
 /**
  * Produces feature that represent a density of values for a given number of bins..
+ * Values are obtained either with a function that collects them in a list, or with a NumberWithFrequencyTraversal
+ * that passes each number and frequency to the mapper. With a traversal and the default value function, values are
+ * binned without allocating or boxing.
  * Created by fac2003 on 10/21/16.
  */
 public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
 
+    /**
+     * Value function of the constructors without a value function. Values are binned without boxing with it.
+     */
+    protected static final Function<Integer, Float> IDENTITY = Integer::floatValue;
+
     protected Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues;
+    protected NumberWithFrequencyTraversal traversal;
+    private final NumberWithFrequencyConsumer accumulator = this::accumulate;
+    private float minMappedValue;
+    protected float numElements;
     protected int minValue=Integer.MAX_VALUE;
     protected int maxValue=Integer.MIN_VALUE;
     protected float binWidth;
@@ -25,18 +39,29 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
     protected Function<Integer, Float> valueFunction;
     int numBins = 10;
     float[] bins;
-    protected int[] indices;
+    protected int[] indices = {0, 0};
 
     public DensityMapper(String name, int numBins, Properties sbiProperties,
                          Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
-        this(name, numBins, sbiProperties, recordToValues, Integer::floatValue);
+        this(name, numBins, sbiProperties, recordToValues, IDENTITY);
     }
 
     public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties,
                          Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
-        this(name1, name2, numBins, sbiProperties, recordToValues, Integer::floatValue);
+        this(name1, name2, numBins, sbiProperties, recordToValues, IDENTITY);
+    }
+
+    public DensityMapper(String name, int numBins, Properties sbiProperties, NumberWithFrequencyTraversal traversal) {
+        this(name, numBins, sbiProperties, null, IDENTITY);
+        this.traversal = traversal;
+    }
+
+    public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties,
+                         NumberWithFrequencyTraversal traversal) {
+        this(name1, name2, numBins, sbiProperties, null, IDENTITY);
+        this.traversal = traversal;
     }
 
 
@@ -98,7 +123,8 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         }
         bins = new float[this.numBins];
         this.recordToValues = recordToValues;
-        this.binWidth = (valueFunction.apply(maxValue) - valueFunction.apply(minValue) )/ this.numBins;
+        this.minMappedValue = valueFunction.apply(minValue);
+        this.binWidth = (valueFunction.apply(maxValue) - minMappedValue) / this.numBins;
     }
 
 
@@ -111,15 +137,12 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
         Arrays.fill(bins, 0);
-        List<BaseInformationRecords.NumberWithFrequency> listOfValues = recordToValues.apply(record);
-        float numElements = 0;
-        for (BaseInformationRecords.NumberWithFrequency n : listOfValues) {
-            int featureIndex = (int) ((valueFunction.apply(n.getNumber()) - valueFunction.apply(minValue)) / binWidth);
-            if (featureIndex < 0 || featureIndex >= numBins) {
-                //ignore points outside of min-max
-            } else {
-                bins[featureIndex] += n.getFrequency();
-                numElements += n.getFrequency();
+        numElements = 0;
+        if (traversal != null) {
+            traversal.traverse(record, accumulator);
+        } else {
+            for (BaseInformationRecords.NumberWithFrequency n : recordToValues.apply(record)) {
+                accumulate(n.getNumber(), n.getFrequency());
             }
         }
         // normalize the counts to produce a density:
@@ -130,9 +153,29 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         }
     }
 
+    /**
+     * Add the frequency of a number to its bin.
+     */
+    protected void accumulate(int number, int frequency) {
+        int featureIndex = (int) ((value(number) - minMappedValue) / binWidth);
+        if (featureIndex < 0 || featureIndex >= numBins) {
+            //ignore points outside of min-max
+        } else {
+            bins[featureIndex] += frequency;
+            numElements += frequency;
+        }
+    }
+
+    /**
+     * Apply the value function to a number, without boxing for the default value function.
+     */
+    protected float value(int number) {
+        return valueFunction == IDENTITY ? (float) number : valueFunction.apply(number);
+    }
+
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs, int indexOfRecord) {
-        mapFeatures(record, bins, 0, indexOfRecord);
+        indices[0] = indexOfRecord;
         for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
             indices[1] = featureIndex;
             inputs.putScalar(indices, bins[featureIndex]);
@@ -144,11 +187,9 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         return bins[featureIndex];
     }
 
+    @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
-        // do not copy if inputs is bins (call from mapFeatures above)
-        if (inputs != bins) {
-            System.arraycopy(bins, 0, inputs, offset, numBins);
-        }
+        System.arraycopy(bins, 0, inputs, offset, numBins);
     }
 
     @Override
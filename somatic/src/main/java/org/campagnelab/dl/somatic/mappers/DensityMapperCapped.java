@@ -1,8 +1,8 @@
 package org.campagnelab.dl.somatic.mappers;
 
+import org.campagnelab.dl.somatic.mappers.functional.NumberWithFrequencyTraversal;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.function.Function;
@@ -20,49 +20,47 @@ public class DensityMapperCapped extends DensityMapper {
 
     public DensityMapperCapped(String name1, int linearBinMin, int linearBinMax, Properties sbiProperties,
                                Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues) {
-        super(name1, 1, sbiProperties, recordToValues, Integer::floatValue);
-        //now cap bins:
-        this.numBins = linearBinMax - linearBinMin;
-        this.linearBinMax = linearBinMax;
-        this.linearBinMin = linearBinMin;
-        bins = new float[this.numBins];
-        this.recordToValues = recordToValues;
-        this.binWidth = 1;
+        super(name1, 1, sbiProperties, recordToValues, IDENTITY);
+        capBins(linearBinMin, linearBinMax);
+    }
+
+    public DensityMapperCapped(String name1, int linearBinMin, int linearBinMax, Properties sbiProperties,
+                               NumberWithFrequencyTraversal traversal) {
+        super(name1, 1, sbiProperties, traversal);
+        capBins(linearBinMin, linearBinMax);
     }
 
     public DensityMapperCapped(String name1, String name2, int linearBinMin, int linearBinMax, Properties sbiProperties,
                                Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
 
-        super(name1, name2, 1, sbiProperties, recordToValues, Integer::floatValue);
-        //now cap bins:
+        super(name1, name2, 1, sbiProperties, recordToValues, IDENTITY);
+        capBins(linearBinMin, linearBinMax);
+    }
+
+    public DensityMapperCapped(String name1, String name2, int linearBinMin, int linearBinMax, Properties sbiProperties,
+                               NumberWithFrequencyTraversal traversal) {
+        super(name1, name2, 1, sbiProperties, traversal);
+        capBins(linearBinMin, linearBinMax);
+    }
+
+    private void capBins(int linearBinMin, int linearBinMax) {
         this.numBins = linearBinMax - linearBinMin;
         this.linearBinMax = linearBinMax;
         this.linearBinMin = linearBinMin;
         bins = new float[this.numBins];
-        this.recordToValues = recordToValues;
         this.binWidth = 1;
     }
 
 
-    public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
-        Arrays.fill(bins, 0);
-        List<BaseInformationRecords.NumberWithFrequency> listOfValues = recordToValues.apply(record);
-        float numElements = 0;
-        for (BaseInformationRecords.NumberWithFrequency n : listOfValues) {
-            int featureIndex = (int) ((valueFunction.apply(n.getNumber()) - linearBinMin));
-            //handle higher than linearMax case, lower than linearMin case
-            if (featureIndex >= (numLinearBins) || featureIndex < 0) {
-            } else {
-                bins[featureIndex] += n.getFrequency();
-                numElements += n.getFrequency();
-            }
-        }
-        // normalize the counts to produce a density:
-        if (numElements > 0) {
-            for (int featureIndex = 0; featureIndex < numBins; featureIndex++) {
-                bins[featureIndex] /= numElements;
-            }
+    @Override
+    protected void accumulate(int number, int frequency) {
+        int featureIndex = (int) ((value(number) - linearBinMin));
+        //handle higher than linearMax case, lower than linearMin case
+        if (featureIndex >= (numLinearBins) || featureIndex < 0) {
+        } else {
+            bins[featureIndex] += frequency;
+            numElements += frequency;
         }
     }
 }
@@ -32,14 +32,10 @@ public class FractionDifferences3 extends AbstractFeatureMapper<BaseInformationR
     }
 
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
-        totalCountsGermline = 0;
-        totalCountsSomatic = 0;
-        ObjectArrayList<? extends GenotypeCount> germlineCounts = getAllCounts(record, false, true);
-        ObjectArrayList<? extends GenotypeCount> somaticCounts = getAllCounts(record, true, true);
-        for (int i = 0; i < germlineCounts.size(); i++) {
-            totalCountsGermline += (germlineCounts.get(i).totalCount());
-            totalCountsSomatic += (somaticCounts.get(i).totalCount());
-        }
+        // totals over all the genotypes of the record, not only the MAX_GENOTYPES features:
+        final RecordCountSummary summary = RecordCountSummary.of(record);
+        totalCountsGermline = summary.rankedCoverage(0, summary.numCounts(0), true);
+        totalCountsSomatic = summary.rankedCoverage(1, summary.numCounts(0), true);
         assert(totalCountsGermline>0):"0 total";
         assert(totalCountsSomatic>0):"0 total";
     }
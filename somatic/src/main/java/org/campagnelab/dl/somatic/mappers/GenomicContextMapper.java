@@ -2,20 +2,31 @@ package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.*;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.util.WarningCounter;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
 import java.util.function.Function;
 
 /**
- * Maps the full genomic context using multiple onehotfeaturemapper
+ * Maps the full genomic context in one-hot encoding, with the codes of OneHotBaseFeatureMapper (see
+ * OneHotSequenceEncoder). The bases of the context are decoded once per record.
  * Created by rct66 on 10/25/16.
  */
 
 
 public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
-        implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>, FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
-    private ConcatFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate;
+        implements SparseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>, FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
+    private static final Logger LOG = LoggerFactory.getLogger(GenomicContextMapper.class);
+    private static WarningCounter counter = new WarningCounter();
+    private final OneHotSequenceEncoder encoder;
+    /**
+     * Returns the context of a record, or null to use the genomic context of the record, trimmed to contextSize.
+     */
+    private final Function<BaseInformationRecords.BaseInformationOrBuilder, String> function;
+    private final boolean silent;
 
     public GenomicContextMapper(Properties sbiProperties, int maxContextSize) {
 
@@ -34,12 +45,7 @@ public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRec
     }
 
     public GenomicContextMapper(int contextSize) {
-        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] refContext = new OneHotBaseFeatureMapper[contextSize];
-        for (int i = 0; i < contextSize; i++) {
-            refContext[i] = new OneHotBaseFeatureMapper<>(i,
-                    record -> trim(contextSize, record.getGenomicSequenceContext()));
-        }
-        delegate = new ConcatFeatureMapper<>(refContext);
+        this(contextSize, null, false);
     }
 
     /**
@@ -68,37 +74,60 @@ public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRec
 
     public GenomicContextMapper(int contextSize, Function<BaseInformationRecords.BaseInformationOrBuilder, String> function,
                                 boolean silent) {
-        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] refContext = new OneHotBaseFeatureMapper[contextSize];
-        for (int i = 0; i < contextSize; i++) {
-            refContext[i] = new OneHotBaseFeatureMapper<>(i, function);
-            if (silent) refContext[i].setIgnoreOutOfRangeIndices(true);
-        }
-        delegate = new ConcatFeatureMapper<>(refContext);
+        this.encoder = new OneHotSequenceEncoder(contextSize, 7, OneHotSequenceEncoder.DNA, 0);
+        this.function = function;
+        this.silent = silent;
     }
 
 
     @Override
     public int numberOfFeatures() {
-        return delegate.numberOfFeatures();
+        return encoder.numberOfFeatures();
 
     }
 
+    /**
+     * Decode the bases of the context once per record. The genomic context of the record is trimmed in place,
+     * without creating a trimmed copy.
+     */
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
-        delegate.prepareToNormalize(record, indexOfRecord);
+        final String context;
+        if (function == null) {
+            context = record.getGenomicSequenceContext();
+            assert encoder.maxLength() <= context.length() :
+                    String.format("The trim length (%d) must be smaller than the .sbi context length (%d).",
+                            encoder.maxLength(), context.length());
+            encoder.encodeCentered(context);
+        } else {
+            context = function.apply(record);
+            encoder.encode(context);
+        }
+        if (!silent) {
+            for (int baseIndex = 0; baseIndex < encoder.maxLength(); baseIndex++) {
+                if (encoder.code(baseIndex) == 0) {
+                    counter.warn(LOG, String.format("incompatible character index: %d for context: %s of length %d",
+                            baseIndex, context, context.length()));
+                }
+            }
+        }
     }
 
-    int[] indices = new int[]{0, 0};
-
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs,
                             int indexOfRecord) {
-        delegate.mapFeatures(record, inputs, indexOfRecord);
+        encoder.mapFeatures(inputs, indexOfRecord);
+    }
+
+    @Override
+    public void mapActiveFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset,
+                                  int stride) {
+        encoder.mapActiveFeatures(inputs, offset, stride, encoder.maxLength());
     }
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        return delegate.produceFeature(record, featureIndex);
+        return encoder.produceFeature(featureIndex);
     }
 
     @Override
@@ -34,14 +34,7 @@ public class MagnitudeFeatures extends NoMaskFeatureMapper<BaseInformationRecord
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        int sumCounts = 0;
-        for (BaseInformationRecords.SampleInfo sampleInfo : record.getSamplesList()) {
-            for (BaseInformationRecords.CountInfo sampleCounts : sampleInfo.getCountsList()) {
-
-                sumCounts += sampleCounts.getGenotypeCountForwardStrand();
-                sumCounts += sampleCounts.getGenotypeCountReverseStrand();
-            }
-        }
+        final int sumCounts = RecordCountSummary.of(record).coverage();
         final int featureValue = (Math.log10(sumCounts) > featureIndex) ? 1 : 0;
         return featureValue;
     }
@@ -0,0 +1,211 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.util.Arrays;
+
+/**
+ * Count statistics of a record, computed in one pass over its samples and counts: forward, reverse and total counts of
+ * each genotype, strand sums, coverage and largest genotype count of each sample, and coverage over all samples. The
+ * summary also ranks the genotypes by decreasing total count in the first sample (ties keep the original order), which
+ * is the order AbstractFeatureMapper.getAllCounts uses to sort the counts of every sample.
+ * <p>
+ * Summaries are shared by the mappers that run on the same thread: of(record) walks the counts once per record, and
+ * returns the same summary to the other callers. A summary is only valid until of is called with another record on the
+ * same thread: callers must copy what they need in prepareToNormalize.
+ *
+ * @author Fabien Campagne
+ */
+public class RecordCountSummary {
+    private static final ThreadLocal<RecordCountSummary> SUMMARIES = ThreadLocal.withInitial(RecordCountSummary::new);
+    private static volatile boolean shared = true;
+
+    private BaseInformationRecords.BaseInformationOrBuilder record;
+    private int numSamples;
+    private int[] numCounts = new int[0];
+    private int[][] forwardCounts = new int[0][];
+    private int[][] reverseCounts = new int[0][];
+    private boolean[][] isIndel = new boolean[0][];
+    private int[] forwardSums = new int[0];
+    private int[] reverseSums = new int[0];
+    private int[] maxCounts = new int[0];
+    private int coverage;
+    private int[] order = new int[0];
+    private int[] germlineTotals = new int[0];
+
+    /**
+     * Return the summary of the record, shared by the callers on this thread. Counts are summarized again only when
+     * the record differs from the record of the previous call. Builders can be modified between calls, so they are
+     * always summarized again.
+     */
+    public static RecordCountSummary of(BaseInformationRecords.BaseInformationOrBuilder record) {
+        RecordCountSummary summary = SUMMARIES.get();
+        if (!shared || summary.record != record || !(record instanceof BaseInformationRecords.BaseInformation)) {
+            summary.summarize(record);
+        }
+        return summary;
+    }
+
+    /**
+     * Share summaries across callers (the default), or summarize the record again on every call to of, as if each
+     * mapper walked the counts itself. Used by the mapping benchmarks to measure the cost of the summaries.
+     */
+    public static void setShared(boolean shared) {
+        RecordCountSummary.shared = shared;
+    }
+
+    /**
+     * Summarize the counts of the record. Arrays are reused across records.
+     */
+    public void summarize(BaseInformationRecords.BaseInformationOrBuilder record) {
+        this.record = record;
+        numSamples = record.getSamplesCount();
+        if (numCounts.length < numSamples) {
+            numCounts = new int[numSamples];
+            forwardSums = new int[numSamples];
+            reverseSums = new int[numSamples];
+            maxCounts = new int[numSamples];
+            forwardCounts = Arrays.copyOf(forwardCounts, numSamples);
+            reverseCounts = Arrays.copyOf(reverseCounts, numSamples);
+            isIndel = Arrays.copyOf(isIndel, numSamples);
+        }
+        coverage = 0;
+        for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
+            final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
+            final int n = sample.getCountsCount();
+            if (forwardCounts[sampleIndex] == null || forwardCounts[sampleIndex].length < n) {
+                forwardCounts[sampleIndex] = new int[n];
+                reverseCounts[sampleIndex] = new int[n];
+                isIndel[sampleIndex] = new boolean[n];
+            }
+            final int[] forward = forwardCounts[sampleIndex];
+            final int[] reverse = reverseCounts[sampleIndex];
+            int forwardSum = 0;
+            int reverseSum = 0;
+            int maxCount = 0;
+            for (int i = 0; i < n; i++) {
+                final BaseInformationRecords.CountInfo count = sample.getCounts(i);
+                forward[i] = count.getGenotypeCountForwardStrand();
+                reverse[i] = count.getGenotypeCountReverseStrand();
+                isIndel[sampleIndex][i] = count.getIsIndel();
+                forwardSum += forward[i];
+                reverseSum += reverse[i];
+                maxCount = Math.max(maxCount, forward[i] + reverse[i]);
+            }
+            numCounts[sampleIndex] = n;
+            forwardSums[sampleIndex] = forwardSum;
+            reverseSums[sampleIndex] = reverseSum;
+            maxCounts[sampleIndex] = maxCount;
+            coverage += forwardSum + reverseSum;
+        }
+        rankGenotypes();
+    }
+
+    /**
+     * Rank the genotypes by decreasing total count in the first sample, keeping the order of equal totals.
+     */
+    private void rankGenotypes() {
+        final int n = numSamples == 0 ? 0 : numCounts[0];
+        if (order.length < n) {
+            order = new int[n];
+            germlineTotals = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            germlineTotals[i] = forwardCounts[0][i] + reverseCounts[0][i];
+            int j = i;
+            while (j > 0 && germlineTotals[order[j - 1]] < germlineTotals[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+    }
+
+    public int numSamples() {
+        return numSamples;
+    }
+
+    public int numCounts(int sampleIndex) {
+        return numCounts[sampleIndex];
+    }
+
+    public int forwardCount(int sampleIndex, int genotypeIndex) {
+        return forwardCounts[sampleIndex][genotypeIndex];
+    }
+
+    public int reverseCount(int sampleIndex, int genotypeIndex) {
+        return reverseCounts[sampleIndex][genotypeIndex];
+    }
+
+    public int totalCount(int sampleIndex, int genotypeIndex) {
+        return forwardCounts[sampleIndex][genotypeIndex] + reverseCounts[sampleIndex][genotypeIndex];
+    }
+
+    public boolean isIndel(int sampleIndex, int genotypeIndex) {
+        return isIndel[sampleIndex][genotypeIndex];
+    }
+
+    /**
+     * Return the sum of the forward strand counts of a sample.
+     */
+    public int forwardSum(int sampleIndex) {
+        return forwardSums[sampleIndex];
+    }
+
+    /**
+     * Return the sum of the reverse strand counts of a sample.
+     */
+    public int reverseSum(int sampleIndex) {
+        return reverseSums[sampleIndex];
+    }
+
+    /**
+     * Return the sum of all the counts of a sample.
+     */
+    public int coverage(int sampleIndex) {
+        return forwardSums[sampleIndex] + reverseSums[sampleIndex];
+    }
+
+    /**
+     * Return the largest total count of a genotype of a sample.
+     */
+    public int maxCount(int sampleIndex) {
+        return maxCounts[sampleIndex];
+    }
+
+    /**
+     * Return the sum of all the counts of all the samples.
+     */
+    public int coverage() {
+        return coverage;
+    }
+
+    /**
+     * Return the index of the genotype at a rank, or -1 when the first sample has fewer genotypes than rank+1.
+     *
+     * @param rank rank of the genotype.
+     * @param sort when true, genotypes are ranked by decreasing total count in the first sample. When false, the
+     *             rank is the index of the genotype in the record.
+     */
+    public int genotypeIndex(int rank, boolean sort) {
+        if (numSamples == 0 || rank >= numCounts[0]) {
+            return -1;
+        }
+        return sort ? order[rank] : rank;
+    }
+
+    /**
+     * Return the sum of the total counts of a sample over the genotypes of the first numRanks ranks.
+     */
+    public int rankedCoverage(int sampleIndex, int numRanks, boolean sort) {
+        int sum = 0;
+        for (int rank = 0; rank < numRanks; rank++) {
+            final int genotypeIndex = genotypeIndex(rank, sort);
+            if (genotypeIndex == -1) {
+                break;
+            }
+            sum += totalCount(sampleIndex, genotypeIndex);
+        }
+        return sum;
+    }
+}
@@ -62,10 +62,10 @@ public class SimpleFeatureCalculator extends AbstractFeatureMapper<BaseInformati
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
         indices[0] = indexOfRecord;
 
-        sumCounts = 0;
-        for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
-            sumCounts += produceFeatureInternal(record, featureIndex);
-        }
+        // the features are the counts of the first MAX_GENOTYPES genotypes of both samples:
+        final RecordCountSummary summary = RecordCountSummary.of(record);
+        sumCounts = summary.rankedCoverage(0, AbstractFeatureMapper.MAX_GENOTYPES, sort) +
+                summary.rankedCoverage(1, AbstractFeatureMapper.MAX_GENOTYPES, sort);
         normalized = true;
     }
 
@@ -90,7 +90,7 @@ public class SimpleFeatureCalculator extends AbstractFeatureMapper<BaseInformati
         }
     }
 
-
+    @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
         assert normalized : "prepareToNormalize must be called before mapFeatures.";
         for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
@@ -0,0 +1,11 @@
+package org.campagnelab.dl.somatic.mappers.functional;
+
+/**
+ * Receives the number and frequency of each NumberWithFrequency of a traversal, without boxing them.
+ *
+ * @author Fabien Campagne
+ */
+@FunctionalInterface
+public interface NumberWithFrequencyConsumer {
+    void accept(int number, int frequency);
+}
@@ -0,0 +1,14 @@
+package org.campagnelab.dl.somatic.mappers.functional;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+/**
+ * Traverses the NumberWithFrequency values of a record (see the primitive methods of TraversalHelper), and passes
+ * each number and frequency to a consumer. Replaces functions that collect the values of a record in a new list.
+ *
+ * @author Fabien Campagne
+ */
+@FunctionalInterface
+public interface NumberWithFrequencyTraversal {
+    void traverse(BaseInformationRecords.BaseInformationOrBuilder record, NumberWithFrequencyConsumer consumer);
+}
@@ -8,6 +8,9 @@ import java.util.Set;
 import java.util.function.Function;
 
 /**
+ * Reduce records to the NumberWithFrequency values of some of their counts. Methods that take a
+ * NumberWithFrequencyConsumer pass each number and frequency to the consumer instead of collecting the values in a new
+ * list, and do not allocate.
  * Created by fac2003 on 10/21/16.
  */
 public class TraversalHelper {
@@ -105,4 +108,77 @@ public class TraversalHelper {
         }
         return list;
     }
+
+    /**
+     * Pass the NumberWithFrequency found across all samples and counts of these samples to a consumer.
+     */
+    public static void forAllSampleCounts(BaseInformationRecords.BaseInformationOrBuilder baseInformationOrBuilder,
+                                          Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function,
+                                          NumberWithFrequencyConsumer consumer) {
+        for (int sampleIndex = 0; sampleIndex < baseInformationOrBuilder.getSamplesCount(); sampleIndex++) {
+            forSampleCounts(sampleIndex, baseInformationOrBuilder, function, consumer);
+        }
+    }
+
+    /**
+     * Pass the NumberWithFrequency found across the counts of one sample to a consumer.
+     */
+    public static void forSampleCounts(int sampleIndex, BaseInformationRecords.BaseInformationOrBuilder baseInformationOrBuilder,
+                                       Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function,
+                                       NumberWithFrequencyConsumer consumer) {
+        final BaseInformationRecords.SampleInfo sampleInfo = baseInformationOrBuilder.getSamples(sampleIndex);
+        for (int genotypeIndex = 0; genotypeIndex < sampleInfo.getCountsCount(); genotypeIndex++) {
+            accept(function.apply(sampleInfo.getCounts(genotypeIndex)), consumer);
+        }
+    }
+
+    /**
+     * Pass the NumberWithFrequency of one genotype of one sample to a consumer.
+     */
+    public static void forOneSampleGenotype(int sampleIndex,
+                                            int genotypeIndex,
+                                            BaseInformationRecords.BaseInformationOrBuilder baseInformationOrBuilder,
+                                            Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function,
+                                            NumberWithFrequencyConsumer consumer) {
+        accept(function.apply(baseInformationOrBuilder.getSamples(sampleIndex).getCounts(genotypeIndex)), consumer);
+    }
+
+    /**
+     * Pass the NumberWithFrequency of both strands of one genotype of one sample to a consumer, forward strand first.
+     * As with the list version, the same number can be passed more than once.
+     */
+    public static void forOneSampleGenotypeBothStrands(int sampleIndex,
+                                                       int genotypeIndex,
+                                                       BaseInformationRecords.BaseInformationOrBuilder baseInformationOrBuilder,
+                                                       Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> forwardFunction,
+                                                       Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> reverseFunction,
+                                                       NumberWithFrequencyConsumer consumer) {
+        BaseInformationRecords.CountInfo countInfo = baseInformationOrBuilder.getSamples(sampleIndex).getCounts(genotypeIndex);
+        accept(forwardFunction.apply(countInfo), consumer);
+        accept(reverseFunction.apply(countInfo), consumer);
+    }
+
+    /**
+     * Pass the NumberWithFrequency found across N samples and counts of these samples to a consumer.
+     */
+    public static void forNSampleCounts(Set<Integer> sampleIndices, BaseInformationRecords.BaseInformationOrBuilder baseInformationOrBuilder,
+                                        Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> function,
+                                        NumberWithFrequencyConsumer consumer) {
+        for (int i = 0; i < baseInformationOrBuilder.getSamplesCount(); i++) {
+            if (sampleIndices.contains(i)) {
+                forSampleCounts(i, baseInformationOrBuilder, function, consumer);
+            }
+        }
+    }
+
+    /**
+     * Pass the values of a list of the record (the list is not copied) to the consumer. Indexed access avoids
+     * allocating an iterator.
+     */
+    private static void accept(List<BaseInformationRecords.NumberWithFrequency> values, NumberWithFrequencyConsumer consumer) {
+        for (int i = 0; i < values.size(); i++) {
+            final BaseInformationRecords.NumberWithFrequency n = values.get(i);
+            consumer.accept(n.getNumber(), n.getFrequency());
+        }
+    }
 }
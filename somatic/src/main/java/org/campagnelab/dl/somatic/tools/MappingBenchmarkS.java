@@ -0,0 +1,77 @@
+package org.campagnelab.dl.somatic.tools;
+
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.ConcatFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.OneHotBaseFeatureMapper;
+import org.campagnelab.dl.framework.tools.MappingBenchmark;
+import org.campagnelab.dl.somatic.learning.SomaticTrainingArguments;
+import org.campagnelab.dl.somatic.learning.domains.SomaticMutationDomainDescriptor;
+import org.campagnelab.dl.somatic.mappers.GenomicContextMapper;
+import org.campagnelab.dl.somatic.mappers.RecordCountSummary;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.util.List;
+
+/**
+ * Measure the throughput of the somatic feature and label mappers. The CPU time per record of the feature mappers
+ * (e.g., FeatureMapperV25) is reported when each mapper walks the counts of the record, and when the mappers share a
+ * RecordCountSummary. The genomic context mapper is also compared with the per-position one-hot mappers that it
+ * replaces.
+ *
+ * @author Fabien Campagne
+ */
+public class MappingBenchmarkS extends MappingBenchmark<BaseInformationRecords.BaseInformation> {
+    private static final int MAX_CONTEXT_SIZE = 29;
+
+    public static void main(String[] args) {
+
+        MappingBenchmarkS tool = new MappingBenchmarkS();
+        tool.parseArguments(args, "MappingBenchmarkS", tool.createArguments());
+        tool.execute();
+    }
+
+    @Override
+    protected DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor() {
+        SomaticTrainingArguments trainingArguments = new SomaticTrainingArguments();
+        trainingArguments.trainingSets.add(args().datasetFilename);
+        if (args().featureMapperClassname != null) {
+            trainingArguments.featureMapperClassname = args().featureMapperClassname;
+        }
+        return new SomaticMutationDomainDescriptor(trainingArguments);
+    }
+
+    @Override
+    protected void compareFeaturePaths(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor,
+                                       List<BaseInformationRecords.BaseInformation> records) {
+        super.compareFeaturePaths(domainDescriptor, records);
+        compareCpuTime("shared count summary", domainDescriptor, records, RecordCountSummary::setShared);
+        int contextSize = MAX_CONTEXT_SIZE;
+        for (BaseInformationRecords.BaseInformation record : records) {
+            contextSize = Math.min(contextSize, record.getGenomicSequenceContext().length());
+        }
+        final int trimLength = contextSize;
+        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformation>[] perPosition =
+                new OneHotBaseFeatureMapper[contextSize];
+        for (int i = 0; i < contextSize; i++) {
+            perPosition[i] = new OneHotBaseFeatureMapper<>(i, record -> trim(trimLength, record.getGenomicSequenceContext()));
+        }
+        FeatureMapper<BaseInformationRecords.BaseInformation> before = new ConcatFeatureMapper<>(perPosition);
+        GenomicContextMapper after = new GenomicContextMapper(contextSize);
+        double perPositionTime = Double.MAX_VALUE;
+        double singlePassTime = Double.MAX_VALUE;
+        for (int pass = 0; pass < args().repeat; pass++) {
+            perPositionTime = Math.min(perPositionTime, timeBulk(before, records, args().miniBatchSize));
+            singlePassTime = Math.min(singlePassTime, timeBulk(after, records, args().miniBatchSize));
+        }
+        final String input = "genomicContext(" + contextSize + ")";
+        System.out.printf("%s\t%d\tper-position\t%.0f\t%.2f%n", input, after.numberOfFeatures(), perPositionTime, 1.0);
+        System.out.printf("%s\t%d\tsingle-pass\t%.0f\t%.2f%n", input, after.numberOfFeatures(), singlePassTime,
+                perPositionTime / singlePassTime);
+    }
+
+    private static String trim(int trimLength, String context) {
+        int clipLength = (context.length() - trimLength) / 2;
+        return context.substring(clipLength, trimLength + clipLength);
+    }
+}
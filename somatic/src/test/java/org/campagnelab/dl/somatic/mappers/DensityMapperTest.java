@@ -0,0 +1,71 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that density mappers produce the same features with a primitive traversal as with a list of values.
+ */
+public class DensityMapperTest {
+
+    @Test
+    public void traversalMatchesList() {
+        Properties sbiProperties = new Properties();
+        sbiProperties.setProperty("stats.baseQuality.forward.min", "0");
+        sbiProperties.setProperty("stats.baseQuality.forward.max", "40");
+        sbiProperties.setProperty("stats.baseQuality.reverse.min", "0");
+        sbiProperties.setProperty("stats.baseQuality.reverse.max", "60");
+        BaseInformationRecords.BaseInformation record = record();
+
+        assertSameFeatures(record,
+                new DensityMapper("baseQuality.forward", 10, sbiProperties,
+                        r -> TraversalHelper.forAllSampleCounts(r, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList)),
+                new DensityMapper("baseQuality.forward", 10, sbiProperties,
+                        (r, consumer) -> TraversalHelper.forAllSampleCounts(r, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList, consumer)));
+        assertSameFeatures(record,
+                new DensityMapper("baseQuality.forward", "baseQuality.reverse", 7, sbiProperties,
+                        r -> TraversalHelper.forOneSampleGenotypeBothStrands(0, 1, r,
+                                BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList,
+                                BaseInformationRecords.CountInfo::getQualityScoresReverseStrandList)),
+                new DensityMapper("baseQuality.forward", "baseQuality.reverse", 7, sbiProperties,
+                        (r, consumer) -> TraversalHelper.forOneSampleGenotypeBothStrands(0, 1, r,
+                                BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList,
+                                BaseInformationRecords.CountInfo::getQualityScoresReverseStrandList, consumer)));
+        assertSameFeatures(record,
+                new DensityMapperCapped("baseQuality.forward", 0, 20, sbiProperties,
+                        r -> TraversalHelper.forSampleCounts(0, r, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList)),
+                new DensityMapperCapped("baseQuality.forward", 0, 20, sbiProperties,
+                        (r, consumer) -> TraversalHelper.forSampleCounts(0, r, BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList, consumer)));
+    }
+
+    private static void assertSameFeatures(BaseInformationRecords.BaseInformation record, DensityMapper list,
+                                           DensityMapper traversal) {
+        assertEquals(list.numberOfFeatures(), traversal.numberOfFeatures());
+        list.prepareToNormalize(record, 0);
+        traversal.prepareToNormalize(record, 0);
+        for (int featureIndex = 0; featureIndex < list.numberOfFeatures(); featureIndex++) {
+            assertEquals(list.getFeatureName(featureIndex), traversal.getFeatureName(featureIndex));
+            assertEquals(list.produceFeature(record, featureIndex), traversal.produceFeature(record, featureIndex), 0);
+        }
+    }
+
+    private static BaseInformationRecords.BaseInformation record() {
+        BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+        for (int genotypeIndex = 0; genotypeIndex < 3; genotypeIndex++) {
+            BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder();
+            for (int quality = 0; quality < 70; quality += 3 + genotypeIndex) {
+                count.addQualityScoresForwardStrand(BaseInformationRecords.NumberWithFrequency.newBuilder()
+                        .setNumber(quality).setFrequency(1 + quality % 7));
+                count.addQualityScoresReverseStrand(BaseInformationRecords.NumberWithFrequency.newBuilder()
+                        .setNumber(quality + genotypeIndex).setFrequency(2));
+            }
+            sample.addCounts(count.buildPartial());
+        }
+        return BaseInformationRecords.BaseInformation.newBuilder().addSamples(sample.buildPartial()).buildPartial();
+    }
+}
@@ -0,0 +1,191 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the statistics of RecordCountSummary, and that mappers reading the summary produce the features they computed
+ * when each of them walked the counts of the record.
+ */
+public class RecordCountSummaryTest {
+
+    @Test
+    public void summaryMatchesCounts() {
+        Random random = new Random(7);
+        for (int r = 0; r < 100; r++) {
+            BaseInformationRecords.BaseInformation record = randomRecord(random);
+            RecordCountSummary summary = RecordCountSummary.of(record);
+            assertSame(summary, RecordCountSummary.of(record));
+            int coverage = 0;
+            for (int sampleIndex = 0; sampleIndex < record.getSamplesCount(); sampleIndex++) {
+                int forward = 0;
+                int reverse = 0;
+                int max = 0;
+                final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
+                assertEquals(sample.getCountsCount(), summary.numCounts(sampleIndex));
+                for (int i = 0; i < sample.getCountsCount(); i++) {
+                    final BaseInformationRecords.CountInfo count = sample.getCounts(i);
+                    assertEquals(count.getGenotypeCountForwardStrand(), summary.forwardCount(sampleIndex, i));
+                    assertEquals(count.getGenotypeCountReverseStrand(), summary.reverseCount(sampleIndex, i));
+                    assertEquals(count.getIsIndel(), summary.isIndel(sampleIndex, i));
+                    forward += count.getGenotypeCountForwardStrand();
+                    reverse += count.getGenotypeCountReverseStrand();
+                    max = Math.max(max, count.getGenotypeCountForwardStrand() + count.getGenotypeCountReverseStrand());
+                }
+                assertEquals(forward, summary.forwardSum(sampleIndex));
+                assertEquals(reverse, summary.reverseSum(sampleIndex));
+                assertEquals(max, summary.maxCount(sampleIndex));
+                coverage += forward + reverse;
+            }
+            assertEquals(coverage, summary.coverage());
+        }
+    }
+
+    @Test
+    public void mappersMatchCountsOfRecord() {
+        Random random = new Random(13);
+        SimpleFeatureCalculator sorted = new SimpleFeatureCalculator(true);
+        SimpleFeatureCalculator unsorted = new SimpleFeatureCalculator(false);
+        MagnitudeFeatures magnitude = new MagnitudeFeatures();
+        IndelFeatures indels = new IndelFeatures();
+        for (int r = 0; r < 100; r++) {
+            BaseInformationRecords.BaseInformation record = randomRecord(random);
+            for (SimpleFeatureCalculator calculator : new SimpleFeatureCalculator[]{sorted, unsorted}) {
+                List<int[]> germline = topCounts(record, 0, calculator.sort);
+                List<int[]> somatic = topCounts(record, 1, calculator.sort);
+                int sumCounts = 0;
+                for (int i = 0; i < AbstractFeatureMapper.MAX_GENOTYPES; i++) {
+                    sumCounts += germline.get(i)[0] + germline.get(i)[1] + somatic.get(i)[0] + somatic.get(i)[1];
+                }
+                calculator.prepareToNormalize(record, 0);
+                for (int i = 0; i < AbstractFeatureMapper.MAX_GENOTYPES; i++) {
+                    assertEquals(normalize(germline.get(i)[0], sumCounts), calculator.produceFeature(record, i * 2 + 1), 0);
+                    assertEquals(normalize(germline.get(i)[1], sumCounts), calculator.produceFeature(record, i * 2), 0);
+                    final int offset = AbstractFeatureMapper.MAX_GENOTYPES * 2;
+                    assertEquals(normalize(somatic.get(i)[0], sumCounts), calculator.produceFeature(record, offset + i * 2 + 1), 0);
+                    assertEquals(normalize(somatic.get(i)[1], sumCounts), calculator.produceFeature(record, offset + i * 2), 0);
+                }
+            }
+            List<int[]> germline = topCounts(record, 0, true);
+            indels.prepareToNormalize(record, 0);
+            for (int i = 0; i < AbstractFeatureMapper.MAX_GENOTYPES; i++) {
+                assertEquals(germline.get(i)[2], indels.produceFeature(record, i), 0);
+            }
+            int coverage = 0;
+            for (BaseInformationRecords.SampleInfo sample : record.getSamplesList()) {
+                for (BaseInformationRecords.CountInfo count : sample.getCountsList()) {
+                    coverage += count.getGenotypeCountForwardStrand() + count.getGenotypeCountReverseStrand();
+                }
+            }
+            for (int featureIndex = 0; featureIndex < magnitude.numberOfFeatures(); featureIndex++) {
+                assertEquals(Math.log10(coverage) > featureIndex ? 1 : 0, magnitude.produceFeature(record, featureIndex), 0);
+            }
+        }
+    }
+
+    @Test
+    public void totalsIncludeAllGenotypes() {
+        Random random = new Random(17);
+        FractionDifferences2 differences2 = new FractionDifferences2();
+        FractionDifferences3 differences3 = new FractionDifferences3();
+        FractionDifferences4 differences4 = new FractionDifferences4();
+        MagnitudeFeatures3 magnitude3 = new MagnitudeFeatures3();
+        for (int r = 0; r < 100; r++) {
+            // indel sites have more than MAX_GENOTYPES genotypes:
+            BaseInformationRecords.BaseInformation record = randomRecord(random, AbstractFeatureMapper.MAX_GENOTYPES + 1);
+            List<int[]> germline = topCounts(record, 0, true);
+            List<int[]> somatic = topCounts(record, 1, true);
+            assertEquals(germline.size(), differences2.getAllCounts(record, false, true).size());
+            assertEquals(somatic.size(), differences2.getAllCounts(record, true, true).size());
+            int germlineTotal = 0;
+            int somaticTotal = 0;
+            for (int i = 0; i < germline.size(); i++) {
+                germlineTotal += germline.get(i)[0] + germline.get(i)[1];
+                somaticTotal += somatic.get(i)[0] + somatic.get(i)[1];
+            }
+            differences2.prepareToNormalize(record, 0);
+            differences3.prepareToNormalize(record, 0);
+            differences4.prepareToNormalize(record, 0);
+            magnitude3.prepareToNormalize(record, 0);
+            for (int i = 0; i < AbstractFeatureMapper.MAX_GENOTYPES; i++) {
+                final int germlineCount = germline.get(i)[0] + germline.get(i)[1];
+                final int somaticCount = somatic.get(i)[0] + somatic.get(i)[1];
+                final float difference = Math.max(0f, (float) somaticCount / (float) somaticTotal
+                        - (float) germlineCount / (float) germlineTotal);
+                assertEquals(difference * somaticCount, differences2.produceFeatureInternal(record, i), 0);
+                assertEquals(difference, differences3.produceFeatureInternal(record, i), 0);
+                assertEquals(Math.max(0f, (float) somaticCount / (float) (somaticTotal + 1)
+                                - (float) germlineCount / (float) (germlineTotal + 1)),
+                        differences4.produceFeatureInternal(record, i), 0);
+            }
+            assertEquals(germlineTotal + somaticTotal,
+                    magnitude3.produceFeatureInternal(record, AbstractFeatureMapper.MAX_GENOTYPES * 2 * 2), 0);
+        }
+    }
+
+    private static float normalize(int value, int sumCounts) {
+        return sumCounts == 0 ? 0 : value / (float) sumCounts;
+    }
+
+    /**
+     * Forward count, reverse count and isIndel (0 or 1) of all the genotypes of a sample, padded with zeros up to
+     * MAX_GENOTYPES genotypes, in decreasing order of germline counts when sort is true (ties keep the order of the
+     * record). This is what getAllCounts returned before counts were read from RecordCountSummary.
+     */
+    private static List<int[]> topCounts(BaseInformationRecords.BaseInformation record, int sampleIndex, boolean sort) {
+        List<int[]> counts = new ArrayList<>();
+        for (int i = 0; i < record.getSamples(0).getCountsCount(); i++) {
+            final BaseInformationRecords.CountInfo germline = record.getSamples(0).getCounts(i);
+            final BaseInformationRecords.CountInfo count = record.getSamples(sampleIndex).getCounts(i);
+            counts.add(new int[]{count.getGenotypeCountForwardStrand(), count.getGenotypeCountReverseStrand(),
+                    count.getIsIndel() ? 1 : 0,
+                    germline.getGenotypeCountForwardStrand() + germline.getGenotypeCountReverseStrand()});
+        }
+        while (counts.size() < AbstractFeatureMapper.MAX_GENOTYPES) {
+            counts.add(new int[4]);
+        }
+        if (sort) {
+            counts.sort((a, b) -> b[3] - a[3]);
+        }
+        return counts;
+    }
+
+    private static BaseInformationRecords.BaseInformation randomRecord(Random random) {
+        return randomRecord(random, 2);
+    }
+
+    /**
+     * Random record with two samples, and between minCounts and minCounts+7 genotypes.
+     */
+    private static BaseInformationRecords.BaseInformation randomRecord(Random random, int minCounts) {
+        BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+        builder.setReferenceIndex(0);
+        builder.setPosition(random.nextInt(1000));
+        builder.setMutated(random.nextBoolean());
+        final int numCounts = minCounts + random.nextInt(8);
+        for (int sampleIndex = 0; sampleIndex < 2; sampleIndex++) {
+            BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+            sample.setIsTumor(sampleIndex == 1);
+            for (int i = 0; i < numCounts; i++) {
+                BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder();
+                count.setMatchesReference(i == 0);
+                count.setFromSequence("A");
+                count.setToSequence(i < 5 ? "ATCGN".substring(i, i + 1) : "A--");
+                // few distinct values, so that genotypes often have the same counts:
+                count.setGenotypeCountForwardStrand(random.nextInt(4) * 5);
+                count.setGenotypeCountReverseStrand(random.nextInt(4) * 5);
+                count.setIsIndel(i >= 5);
+                sample.addCounts(count);
+            }
+            builder.addSamples(sample);
+        }
+        return builder.buildPartial();
+    }
+}